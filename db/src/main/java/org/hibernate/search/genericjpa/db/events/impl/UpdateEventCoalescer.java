@@ -0,0 +1,152 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.db.events.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.search.genericjpa.db.EventType;
+import org.hibernate.search.genericjpa.db.events.UpdateConsumer.UpdateEventInfo;
+import org.hibernate.search.genericjpa.exception.AssertionFailure;
+
+/**
+ * collapses all the events for the same entity (entityClass and id) into the one event that has the same net effect
+ * on the index:
+ * <br>
+ * <br>
+ * <ul>
+ * <li>INSERT, ..., UPDATE -&gt; INSERT</li>
+ * <li>INSERT, ..., DELETE -&gt; nothing</li>
+ * <li>UPDATE, ..., DELETE -&gt; DELETE</li>
+ * <li>DELETE, ..., INSERT -&gt; UPDATE</li>
+ * </ul>
+ * <br>
+ * The resulting event is put at the position of the last event for the entity, so the order between different
+ * entities stays the same. The hints of the last event are kept.
+ *
+ * @author Martin Braun
+ */
+public final class UpdateEventCoalescer {
+
+	private UpdateEventCoalescer() {
+		throw new AssertionFailure( "can't touch this!" );
+	}
+
+	/**
+	 * @param updateInfos the events in the order they occured in the database
+	 *
+	 * @return the coalesced events
+	 */
+	public static List<UpdateEventInfo> coalesce(List<UpdateEventInfo> updateInfos) {
+		if ( updateInfos.size() <= 1 ) {
+			return updateInfos;
+		}
+		// removing and putting the entry again moves it to the end
+		// so the entries are ordered by the last event for each entity
+		Map<Key, Coalesced> coalesced = new LinkedHashMap<>( updateInfos.size() * 2 );
+		for ( UpdateEventInfo updateInfo : updateInfos ) {
+			Key key = new Key( updateInfo.getEntityClass(), updateInfo.getId() );
+			Coalesced cur = coalesced.remove( key );
+			if ( cur == null ) {
+				cur = new Coalesced( updateInfo.getEventType() );
+			}
+			cur.last = updateInfo;
+			coalesced.put( key, cur );
+		}
+		if ( coalesced.size() == updateInfos.size() ) {
+			// nothing to do here
+			return updateInfos;
+		}
+		List<UpdateEventInfo> ret = new ArrayList<>( coalesced.size() );
+		for ( Coalesced cur : coalesced.values() ) {
+			boolean existedBefore = cur.firstEventType != EventType.INSERT;
+			boolean existsAfter = cur.last.getEventType() != EventType.DELETE;
+			int eventType;
+			if ( existedBefore && existsAfter ) {
+				eventType = EventType.UPDATE;
+			}
+			else if ( existsAfter ) {
+				eventType = EventType.INSERT;
+			}
+			else if ( existedBefore ) {
+				eventType = EventType.DELETE;
+			}
+			else {
+				// created and deleted in the same window
+				continue;
+			}
+			if ( eventType == cur.last.getEventType() ) {
+				ret.add( cur.last );
+			}
+			else {
+				ret.add(
+						new UpdateEventInfo(
+								cur.last.getEntityClass(),
+								cur.last.getId(),
+								eventType,
+								cur.last.getHints()
+						)
+				);
+			}
+		}
+		return ret;
+	}
+
+	private static final class Coalesced {
+
+		private final int firstEventType;
+		private UpdateEventInfo last;
+
+		private Coalesced(int firstEventType) {
+			this.firstEventType = firstEventType;
+		}
+
+	}
+
+	/**
+	 * UpdateEventInfo's equals/hashCode also contain the eventType and hints, so we need our own key
+	 */
+	private static final class Key {
+
+		private final Class<?> entityClass;
+		private final Object id;
+
+		private Key(Class<?> entityClass, Object id) {
+			this.entityClass = entityClass;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if ( this == o ) {
+				return true;
+			}
+			if ( o == null || getClass() != o.getClass() ) {
+				return false;
+			}
+
+			Key key = (Key) o;
+
+			if ( entityClass != null ? !entityClass.equals( key.entityClass ) : key.entityClass != null ) {
+				return false;
+			}
+			return !(id != null ? !id.equals( key.id ) : key.id != null);
+
+		}
+
+		@Override
+		public int hashCode() {
+			int result = entityClass != null ? entityClass.hashCode() : 0;
+			result = 31 * result + (id != null ? id.hashCode() : 0);
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,757 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.db.events.index.impl;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+
+import org.hibernate.search.backend.spi.SingularTermDeletionQuery;
+import org.hibernate.search.bridge.spi.ConversionContext;
+import org.hibernate.search.bridge.util.impl.ContextualExceptionBridgeHelper;
+import org.hibernate.search.engine.ProjectionConstants;
+import org.hibernate.search.engine.impl.DocumentBuilderHelper;
+import org.hibernate.search.engine.impl.SimpleInitializer;
+import org.hibernate.search.engine.integration.impl.ExtendedSearchIntegrator;
+import org.hibernate.search.engine.metadata.impl.ContainedInMetadata;
+import org.hibernate.search.engine.metadata.impl.TypeMetadata;
+import org.hibernate.search.engine.service.spi.ServiceManager;
+import org.hibernate.search.engine.spi.DocumentBuilderContainedEntity;
+import org.hibernate.search.engine.spi.DocumentBuilderIndexedEntity;
+import org.hibernate.search.engine.spi.EntityIndexBinding;
+import org.hibernate.search.genericjpa.exception.SearchException;
+import org.hibernate.search.genericjpa.metadata.impl.RehashedTypeMetadata;
+import org.hibernate.search.indexes.IndexReaderAccessor;
+import org.hibernate.search.util.impl.ReflectionHelper;
+
+/**
+ * In-memory reverse index of the contained-in relationships in the Lucene index: (index root, contained entity class,
+ * id of the contained entity) -&gt; ids of the index root documents the entity is embedded in. This way IndexUpdater
+ * doesn't have to query the index to find the documents to update if a contained entity is deleted.
+ * <br>
+ * <br>
+ * Only integral ids (Byte, Short, Integer, Long) are kept (as primitive longs). For everything it doesn't know an
+ * answer for, {@link #getParentIds(Class, Class, Object)} returns null and the caller has to fall back to querying the
+ * index. The map is filled from the index with {@link #rebuild()} and afterwards maintained from the documents that are
+ * written through {@link #written(Object)} and {@link #deleted(Class, Class, Object)}. Writes that don't go through
+ * these methods (e.g. the MassIndexer) can't be seen, so after these this has to be invalidated (or rebuilt).
+ * <br>
+ * <br>
+ * As soon as the number of entries exceeds maxEntries (or something goes wrong) this is disabled and never answers
+ * again until the next {@link #rebuild()}. Every entry needs about 32 bytes of heap.
+ *
+ * @author Martin Braun
+ */
+public final class ContainedInIndex {
+
+	private static final Logger LOGGER = Logger.getLogger( ContainedInIndex.class.getName() );
+
+	private final ExtendedSearchIntegrator searchIntegrator;
+	private final Map<Class<?>, RehashedTypeMetadata> metadataForIndexRoot;
+	private final Map<Class<?>, List<Class<?>>> containedInIndexOf;
+	private final long maxEntries;
+
+	private final Map<Class<?>, Root> roots = new HashMap<>();
+	private boolean enabled = false;
+
+	public ContainedInIndex(
+			ExtendedSearchIntegrator searchIntegrator,
+			Map<Class<?>, RehashedTypeMetadata> metadataForIndexRoot,
+			Map<Class<?>, List<Class<?>>> containedInIndexOf,
+			long maxEntries) {
+		if ( maxEntries <= 0 ) {
+			throw new IllegalArgumentException( "maxEntries must be greater than 0" );
+		}
+		this.searchIntegrator = searchIntegrator;
+		this.metadataForIndexRoot = metadataForIndexRoot;
+		this.containedInIndexOf = containedInIndexOf;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the ids of all the documents of the index root indexClass that contain the entity with the given class
+	 * and id or null if this can't be answered here
+	 */
+	public synchronized List<Object> getParentIds(Class<?> indexClass, Class<?> entityClass, Object id) {
+		if ( !this.enabled ) {
+			return null;
+		}
+		Root root = this.roots.get( indexClass );
+		if ( root == null || !root.usable ) {
+			return null;
+		}
+		Child child = root.child( entityClass );
+		if ( !child.usable ) {
+			return null;
+		}
+		if ( !isIntegral( id ) ) {
+			// the ids of this type can't be looked up, so we don't
+			// have to keep them around
+			this.unusable( child );
+			return null;
+		}
+		long[] parents = child.parentsOf.get( ((Number) id).longValue() );
+		if ( parents == null ) {
+			return Collections.emptyList();
+		}
+		List<Object> ret = new ArrayList<>( parents.length );
+		for ( long parent : parents ) {
+			ret.add( fromLong( parent, root.idType ) );
+		}
+		return ret;
+	}
+
+	/**
+	 * has to be called for every entity that is written to the index (index/update). Updates the entries of all the
+	 * index root documents that are rewritten because of it
+	 */
+	public void written(Object entity) {
+		if ( entity == null || !this.isEnabled() ) {
+			return;
+		}
+		try {
+			List<Class<?>> inIndexOf = this.inIndexOf( entity.getClass() );
+			if ( inIndexOf == null ) {
+				return;
+			}
+			for ( Class<?> indexClass : inIndexOf ) {
+				// the parents are all the instances of the index root
+				// we can reach via @ContainedIn (just like the engine does)
+				Map<Object, Object> parents = new IdentityHashMap<>();
+				this.collectParents( entity, indexClass, parents, new IdentityHashMap<>() );
+				for ( Object parent : parents.keySet() ) {
+					this.parentWritten( indexClass, parent );
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			LOGGER.log( Level.WARNING, "couldn't maintain the reverse contained-in index", e );
+			this.invalidate();
+		}
+	}
+
+	/**
+	 * has to be called for every entity that is deleted from the index or whose contained-in documents have been
+	 * updated because it was deleted
+	 */
+	public synchronized void deleted(Class<?> indexClass, Class<?> entityClass, Object id) {
+		if ( !this.enabled ) {
+			return;
+		}
+		Root root = this.roots.get( indexClass );
+		if ( root == null || !root.usable || !isIntegral( id ) ) {
+			return;
+		}
+		long key = ((Number) id).longValue();
+		if ( indexClass.equals( entityClass ) ) {
+			for ( Child child : root.children.values() ) {
+				long[] children = child.childrenOf.removeAll( key );
+				if ( children != null ) {
+					for ( long childId : children ) {
+						child.parentsOf.remove( childId, key );
+					}
+				}
+			}
+		}
+		else {
+			Child child = root.children.get( entityClass );
+			if ( child != null ) {
+				long[] parents = child.parentsOf.removeAll( key );
+				if ( parents != null ) {
+					for ( long parent : parents ) {
+						child.childrenOf.remove( parent, key );
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * throws away all the entries and reads them from the index
+	 */
+	public synchronized void rebuild() {
+		this.roots.clear();
+		this.enabled = true;
+		try {
+			for ( Class<?> indexClass : this.metadataForIndexRoot.keySet() ) {
+				this.rebuild( indexClass );
+			}
+		}
+		catch (IOException e) {
+			throw new SearchException( "couldn't rebuild the reverse contained-in index", e );
+		}
+		this.checkSize();
+	}
+
+	/**
+	 * drops all the entries. {@link #getParentIds(Class, Class, Object)} won't answer anymore until the next
+	 * {@link #rebuild()}
+	 */
+	public synchronized void invalidate() {
+		if ( this.enabled ) {
+			LOGGER.info( "invalidated the reverse contained-in index, falling back to querying the index" );
+		}
+		this.enabled = false;
+		this.roots.clear();
+	}
+
+	public synchronized boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * @return the number of (contained entity, index root document) pairs held
+	 */
+	public synchronized long size() {
+		long size = 0;
+		for ( Root root : this.roots.values() ) {
+			for ( Child child : root.children.values() ) {
+				size += child.parentsOf.entries();
+			}
+		}
+		return size;
+	}
+
+	private void rebuild(Class<?> indexClass) throws IOException {
+		RehashedTypeMetadata metadata = this.metadataForIndexRoot.get( indexClass );
+		Root root = this.root( indexClass );
+		ServiceManager serviceManager = this.searchIntegrator.getServiceManager();
+		ConversionContext conversionContext = new ContextualExceptionBridgeHelper();
+		Set<String> fieldsToLoad = new HashSet<>(
+				Arrays.asList(
+						ProjectionConstants.OBJECT_CLASS,
+						DocumentBuilderHelper.getDocumentIdName( this.searchIntegrator, indexClass )
+				)
+		);
+		IndexReaderAccessor accessor = this.searchIntegrator.getIndexReaderAccessor();
+		IndexReader reader = accessor.open( indexClass );
+		try {
+			for ( LeafReaderContext context : reader.leaves() ) {
+				LeafReader leafReader = context.reader();
+				Bits liveDocs = leafReader.getLiveDocs();
+				// the id of the root document for every lucene doc in this segment
+				long[] parentIds = new long[leafReader.maxDoc()];
+				boolean[] isParent = new boolean[leafReader.maxDoc()];
+				for ( int doc = 0; doc < leafReader.maxDoc(); ++doc ) {
+					if ( liveDocs != null && !liveDocs.get( doc ) ) {
+						continue;
+					}
+					Document document = leafReader.document( doc, fieldsToLoad );
+					Class<?> documentClass = DocumentBuilderHelper.getDocumentClass(
+							document.get( ProjectionConstants.OBJECT_CLASS ),
+							serviceManager
+					);
+					// the index might be shared with other types
+					if ( !indexClass.isAssignableFrom( documentClass ) ) {
+						continue;
+					}
+					Object id = DocumentBuilderHelper.getDocumentId(
+							this.searchIntegrator,
+							documentClass,
+							document,
+							conversionContext
+					);
+					if ( !this.parentId( root, id ) ) {
+						return;
+					}
+					parentIds[doc] = ((Number) id).longValue();
+					isParent[doc] = true;
+				}
+				for ( Map.Entry<Class<?>, List<String>> entry : metadata.getIdFieldNamesForType().entrySet() ) {
+					Class<?> entityClass = entry.getKey();
+					if ( indexClass.equals( entityClass ) ) {
+						continue;
+					}
+					Child child = root.child( entityClass );
+					for ( String field : entry.getValue() ) {
+						SingularTermDeletionQuery.Type idType = metadata.getSingularTermDeletionQueryTypeForIdFieldName()
+								.get( field );
+						Terms terms = leafReader.terms( field );
+						if ( terms == null || !child.usable ) {
+							continue;
+						}
+						TermsEnum termsEnum = terms.iterator();
+						PostingsEnum postings = null;
+						BytesRef term;
+						while ( (term = termsEnum.next()) != null ) {
+							Long childId = decode( term, idType );
+							if ( childId == null ) {
+								if ( idType == SingularTermDeletionQuery.Type.STRING ) {
+									this.unusable( child );
+									break;
+								}
+								// a lower precision numeric term
+								continue;
+							}
+							postings = termsEnum.postings( postings, PostingsEnum.NONE );
+							int doc;
+							while ( (doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS ) {
+								if ( isParent[doc] ) {
+									child.add( childId, parentIds[doc] );
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		finally {
+			accessor.close( reader );
+		}
+	}
+
+	private void parentWritten(Class<?> indexClass, Object parent) {
+		DocumentBuilderIndexedEntity documentBuilder = this.documentBuilder( parent.getClass() );
+		RehashedTypeMetadata metadata = this.metadataForIndexRoot.get( indexClass );
+		List<String> fieldNames = new ArrayList<>();
+		for ( Map.Entry<Class<?>, List<String>> entry : metadata.getIdFieldNamesForType().entrySet() ) {
+			if ( !indexClass.equals( entry.getKey() ) ) {
+				fieldNames.addAll( entry.getValue() );
+			}
+		}
+		Serializable id = documentBuilder.getId( parent );
+		// we only need the id fields of the contained entities
+		Document document = documentBuilder.getDocument(
+				null,
+				parent,
+				id,
+				Collections.emptyMap(),
+				SimpleInitializer.INSTANCE,
+				new ContextualExceptionBridgeHelper(),
+				fieldNames.toArray( new String[fieldNames.size()] )
+		);
+		synchronized (this) {
+			if ( !this.enabled ) {
+				return;
+			}
+			Root root = this.root( indexClass );
+			if ( !this.parentId( root, id ) ) {
+				return;
+			}
+			long parentId = ((Number) id).longValue();
+			for ( Map.Entry<Class<?>, List<String>> entry : metadata.getIdFieldNamesForType().entrySet() ) {
+				Class<?> entityClass = entry.getKey();
+				if ( indexClass.equals( entityClass ) ) {
+					continue;
+				}
+				Child child = root.child( entityClass );
+				if ( !child.usable ) {
+					continue;
+				}
+				Set<Long> children = new HashSet<>();
+				for ( String field : entry.getValue() ) {
+					for ( IndexableField indexableField : document.getFields( field ) ) {
+						Long childId = decode( indexableField );
+						if ( childId == null ) {
+							this.unusable( child );
+							break;
+						}
+						children.add( childId );
+					}
+				}
+				if ( !child.usable ) {
+					continue;
+				}
+				long[] oldChildren = child.childrenOf.get( parentId );
+				if ( oldChildren != null ) {
+					for ( long oldChild : oldChildren ) {
+						if ( !children.contains( oldChild ) ) {
+							child.remove( oldChild, parentId );
+						}
+					}
+				}
+				for ( Long newChild : children ) {
+					child.add( newChild, parentId );
+				}
+			}
+			this.checkSize();
+		}
+	}
+
+	private void collectParents(
+			Object entity,
+			Class<?> indexClass,
+			Map<Object, Object> parents,
+			Map<Object, Object> visited) {
+		if ( entity == null || visited.put( entity, entity ) != null ) {
+			return;
+		}
+		if ( indexClass.isInstance( entity ) ) {
+			parents.put( entity, entity );
+		}
+		TypeMetadata typeMetadata = this.typeMetadata( entity.getClass() );
+		if ( typeMetadata == null ) {
+			return;
+		}
+		for ( ContainedInMetadata containedInMetadata : typeMetadata.getContainedInMetadata() ) {
+			Object value = ReflectionHelper.getMemberValue( entity, containedInMetadata.getContainedInMember() );
+			if ( value instanceof Collection<?> ) {
+				for ( Object element : (Collection<?>) value ) {
+					this.collectParents( element, indexClass, parents, visited );
+				}
+			}
+			else if ( value instanceof Map<?, ?> ) {
+				for ( Object element : ((Map<?, ?>) value).values() ) {
+					this.collectParents( element, indexClass, parents, visited );
+				}
+			}
+			else if ( value instanceof Object[] ) {
+				for ( Object element : (Object[]) value ) {
+					this.collectParents( element, indexClass, parents, visited );
+				}
+			}
+			else {
+				this.collectParents( value, indexClass, parents, visited );
+			}
+		}
+	}
+
+	private List<Class<?>> inIndexOf(Class<?> entityClass) {
+		// entities might be subclassed (proxies)
+		for ( Class<?> clazz = entityClass; clazz != null; clazz = clazz.getSuperclass() ) {
+			List<Class<?>> inIndexOf = this.containedInIndexOf.get( clazz );
+			if ( inIndexOf != null ) {
+				return inIndexOf;
+			}
+		}
+		return null;
+	}
+
+	private DocumentBuilderIndexedEntity documentBuilder(Class<?> entityClass) {
+		for ( Class<?> clazz = entityClass; clazz != null; clazz = clazz.getSuperclass() ) {
+			EntityIndexBinding binding = this.searchIntegrator.getIndexBinding( clazz );
+			if ( binding != null ) {
+				return binding.getDocumentBuilder();
+			}
+		}
+		throw new SearchException( "no index binding found for " + entityClass );
+	}
+
+	private TypeMetadata typeMetadata(Class<?> entityClass) {
+		for ( Class<?> clazz = entityClass; clazz != null; clazz = clazz.getSuperclass() ) {
+			EntityIndexBinding binding = this.searchIntegrator.getIndexBinding( clazz );
+			if ( binding != null ) {
+				return binding.getDocumentBuilder().getMetadata();
+			}
+			DocumentBuilderContainedEntity documentBuilder = this.searchIntegrator.getDocumentBuilderContainedEntity(
+					clazz
+			);
+			if ( documentBuilder != null ) {
+				return documentBuilder.getMetadata();
+			}
+		}
+		return null;
+	}
+
+	private Root root(Class<?> indexClass) {
+		return this.roots.computeIfAbsent( indexClass, (clazz) -> new Root() );
+	}
+
+	/**
+	 * checks whether the given id of an index root document can be kept here
+	 */
+	private boolean parentId(Root root, Object id) {
+		if ( !root.usable ) {
+			return false;
+		}
+		if ( !isIntegral( id ) || (root.idType != null && !root.idType.equals( id.getClass() )) ) {
+			root.usable = false;
+			root.children.clear();
+			return false;
+		}
+		root.idType = id.getClass();
+		return true;
+	}
+
+	private void unusable(Child child) {
+		child.usable = false;
+		child.parentsOf = new LongMultiMap();
+		child.childrenOf = new LongMultiMap();
+	}
+
+	private void checkSize() {
+		if ( this.enabled && this.size() > this.maxEntries ) {
+			LOGGER.warning(
+					"the reverse contained-in index has more than " + this.maxEntries + " entries"
+			);
+			this.invalidate();
+		}
+	}
+
+	private static boolean isIntegral(Object id) {
+		return id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte;
+	}
+
+	private static Object fromLong(long value, Class<?> idType) {
+		if ( Integer.class.equals( idType ) ) {
+			return (int) value;
+		}
+		else if ( Short.class.equals( idType ) ) {
+			return (short) value;
+		}
+		else if ( Byte.class.equals( idType ) ) {
+			return (byte) value;
+		}
+		return value;
+	}
+
+	private static Long decode(IndexableField field) {
+		Number number = field.numericValue();
+		if ( number != null ) {
+			return isIntegral( number ) ? number.longValue() : null;
+		}
+		return parse( field.stringValue() );
+	}
+
+	/**
+	 * @return the id encoded in the term or null if it isn't a full precision integral value
+	 */
+	private static Long decode(BytesRef term, SingularTermDeletionQuery.Type idType) {
+		if ( idType == SingularTermDeletionQuery.Type.STRING ) {
+			return parse( term.utf8ToString() );
+		}
+		if ( term.length == 0 ) {
+			return null;
+		}
+		byte shift = term.bytes[term.offset];
+		if ( shift == NumericUtils.SHIFT_START_LONG ) {
+			return NumericUtils.prefixCodedToLong( term );
+		}
+		else if ( shift == NumericUtils.SHIFT_START_INT ) {
+			return (long) NumericUtils.prefixCodedToInt( term );
+		}
+		return null;
+	}
+
+	private static Long parse(String value) {
+		if ( value == null ) {
+			return null;
+		}
+		try {
+			long ret = Long.parseLong( value );
+			// we can't handle things like leading zeroes
+			return Long.toString( ret ).equals( value ) ? ret : null;
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static final class Root {
+
+		private final Map<Class<?>, Child> children = new HashMap<>();
+		private Class<?> idType;
+		private boolean usable = true;
+
+		private Child child(Class<?> entityClass) {
+			return this.children.computeIfAbsent( entityClass, (clazz) -> new Child() );
+		}
+
+	}
+
+	private static final class Child {
+
+		// child id -> parent ids
+		private LongMultiMap parentsOf = new LongMultiMap();
+		// parent id -> child ids
+		private LongMultiMap childrenOf = new LongMultiMap();
+		private boolean usable = true;
+
+		private void add(long child, long parent) {
+			if ( this.parentsOf.add( child, parent ) ) {
+				this.childrenOf.add( parent, child );
+			}
+		}
+
+		private void remove(long child, long parent) {
+			this.parentsOf.remove( child, parent );
+			this.childrenOf.remove( parent, child );
+		}
+
+	}
+
+	/**
+	 * open addressing hash map from a primitive long to a sorted set of primitive longs
+	 */
+	static final class LongMultiMap {
+
+		private static final long[] EMPTY = new long[0];
+
+		private long[] keys = new long[16];
+		// null means the slot is free
+		private long[][] values = new long[16][];
+		private int[] counts = new int[16];
+		private int size;
+		private long entries;
+
+		long[] get(long key) {
+			int slot = this.find( key );
+			if ( slot < 0 ) {
+				return null;
+			}
+			return Arrays.copyOf( this.values[slot], this.counts[slot] );
+		}
+
+		boolean add(long key, long value) {
+			int slot = this.find( key );
+			if ( slot < 0 ) {
+				if ( (this.size + 1) * 4 > this.keys.length * 3 ) {
+					this.resize();
+					slot = this.find( key );
+				}
+				slot = -slot - 1;
+				this.keys[slot] = key;
+				this.values[slot] = EMPTY;
+				++this.size;
+			}
+			long[] set = this.values[slot];
+			int count = this.counts[slot];
+			int pos = Arrays.binarySearch( set, 0, count, value );
+			if ( pos >= 0 ) {
+				return false;
+			}
+			pos = -pos - 1;
+			if ( count == set.length ) {
+				set = Arrays.copyOf( set, Math.max( 2, count * 2 ) );
+				this.values[slot] = set;
+			}
+			System.arraycopy( set, pos, set, pos + 1, count - pos );
+			set[pos] = value;
+			this.counts[slot] = count + 1;
+			++this.entries;
+			return true;
+		}
+
+		boolean remove(long key, long value) {
+			int slot = this.find( key );
+			if ( slot < 0 ) {
+				return false;
+			}
+			long[] set = this.values[slot];
+			int count = this.counts[slot];
+			int pos = Arrays.binarySearch( set, 0, count, value );
+			if ( pos < 0 ) {
+				return false;
+			}
+			System.arraycopy( set, pos + 1, set, pos, count - pos - 1 );
+			this.counts[slot] = count - 1;
+			--this.entries;
+			if ( count == 1 ) {
+				this.delete( slot );
+			}
+			return true;
+		}
+
+		long[] removeAll(long key) {
+			int slot = this.find( key );
+			if ( slot < 0 ) {
+				return null;
+			}
+			long[] ret = Arrays.copyOf( this.values[slot], this.counts[slot] );
+			this.entries -= this.counts[slot];
+			this.delete( slot );
+			return ret;
+		}
+
+		long entries() {
+			return this.entries;
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		/**
+		 * @return the slot of the key or (-(insertion slot) - 1) if it is not present
+		 */
+		private int find(long key) {
+			int mask = this.keys.length - 1;
+			int slot = hash( key ) & mask;
+			while ( this.values[slot] != null ) {
+				if ( this.keys[slot] == key ) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -slot - 1;
+		}
+
+		/**
+		 * frees the slot and moves the following entries back so that we don't need tombstones
+		 */
+		private void delete(int slot) {
+			int mask = this.keys.length - 1;
+			int free = slot;
+			int cur = slot;
+			while ( true ) {
+				cur = (cur + 1) & mask;
+				if ( this.values[cur] == null ) {
+					break;
+				}
+				int home = hash( this.keys[cur] ) & mask;
+				// can the entry at cur be moved back to free?
+				if ( free <= cur ? (home <= free || home > cur) : (home <= free && home > cur) ) {
+					this.keys[free] = this.keys[cur];
+					this.values[free] = this.values[cur];
+					this.counts[free] = this.counts[cur];
+					free = cur;
+				}
+			}
+			this.values[free] = null;
+			this.counts[free] = 0;
+			--this.size;
+		}
+
+		private void resize() {
+			long[] oldKeys = this.keys;
+			long[][] oldValues = this.values;
+			int[] oldCounts = this.counts;
+			this.keys = new long[oldKeys.length * 2];
+			this.values = new long[oldKeys.length * 2][];
+			this.counts = new int[oldKeys.length * 2];
+			for ( int i = 0; i < oldKeys.length; ++i ) {
+				if ( oldValues[i] != null ) {
+					int slot = -this.find( oldKeys[i] ) - 1;
+					this.keys[slot] = oldKeys[i];
+					this.values[slot] = oldValues[i];
+					this.counts[slot] = oldCounts[i];
+				}
+			}
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+
+	}
+
+}
@@ -6,24 +6,51 @@
  */
 package org.hibernate.search.genericjpa.db.events.index.impl;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+
+import org.hibernate.annotations.common.reflection.XProperty;
 import org.hibernate.search.backend.spi.SingularTermDeletionQuery;
 import org.hibernate.search.backend.spi.Work;
 import org.hibernate.search.backend.spi.WorkType;
 import org.hibernate.search.bridge.FieldBridge;
 import org.hibernate.search.bridge.StringBridge;
+import org.hibernate.search.bridge.spi.ConversionContext;
+import org.hibernate.search.bridge.util.impl.ContextualExceptionBridgeHelper;
 import org.hibernate.search.engine.ProjectionConstants;
+import org.hibernate.search.engine.impl.DocumentBuilderHelper;
 import org.hibernate.search.engine.integration.impl.ExtendedSearchIntegrator;
 import org.hibernate.search.engine.metadata.impl.DocumentFieldMetadata;
+import org.hibernate.search.engine.service.spi.ServiceManager;
 import org.hibernate.search.genericjpa.db.EventType;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer.UpdateEventInfo;
 import org.hibernate.search.genericjpa.entity.EntityProvider;
@@ -32,8 +59,7 @@ import org.hibernate.search.genericjpa.exception.SearchException;
 import org.hibernate.search.genericjpa.factory.Transaction;
 import org.hibernate.search.genericjpa.metadata.impl.RehashedTypeMetadata;
 import org.hibernate.search.genericjpa.util.NamingThreadFactory;
-import org.hibernate.search.query.engine.spi.EntityInfo;
-import org.hibernate.search.query.engine.spi.HSQuery;
+import org.hibernate.search.indexes.IndexReaderAccessor;
 
 /**
  * This class is the "glue" between the updating mechanism and the actual
@@ -44,55 +70,206 @@ import org.hibernate.search.query.engine.spi.HSQuery;
  */
 public final class IndexUpdater {
 
-	// TODO: think of a clever way of doing batching here
-	// or maybe leave it as it is
-
 	// TODO: unit test this with several batches
 
 	private static final Logger LOGGER = Logger.getLogger( IndexUpdater.class.getName() );
 
-	private static final int HSQUERY_BATCH = 50;
+	private static final int ENTITY_BATCH = 100;
 
 	private final Map<Class<?>, RehashedTypeMetadata> metadataForIndexRoot;
 	private final Map<Class<?>, List<Class<?>>> containedInIndexOf;
-	private final ReusableEntityProvider entityProvider;
-	private final ExecutorService exec;
+	private final Stripe[] stripes;
+	private volatile Set<Class<?>> batchLoadable;
 	private IndexWrapper indexWrapper;
+	private volatile ContainedInIndex containedInIndex;
+	/**
+	 * set if a batch was rolled back after it changed the ContainedInIndex, which is rebuilt before the next batch
+	 */
+	private final AtomicBoolean rebuildContainedInIndex = new AtomicBoolean( false );
+	private volatile ExtendedSearchIntegrator shadowIntegrator;
+	/**
+	 * every transaction applied holds the read lock, so {@link #runExclusively(Runnable)} can wait for all of them
+	 */
+	private final ReadWriteLock applyLock = new ReentrantReadWriteLock();
 
 	public IndexUpdater(
 			Map<Class<?>, RehashedTypeMetadata> metadataForIndexRoot, Map<Class<?>, List<Class<?>>> containedInIndexOf,
 			ReusableEntityProvider entityProvider, IndexWrapper indexWrapper) {
+		this( metadataForIndexRoot, containedInIndexOf, () -> entityProvider, 1, indexWrapper );
+	}
+
+	public IndexUpdater(
+			Map<Class<?>, RehashedTypeMetadata> metadataPerForIndexRoot,
+			Map<Class<?>, List<Class<?>>> containedInIndexOf,
+			ReusableEntityProvider entityProvider,
+			ExtendedSearchIntegrator searchIntegrator) {
+		this( metadataPerForIndexRoot, containedInIndexOf, entityProvider, (IndexWrapper) null );
+		this.indexWrapper = new DefaultIndexWrapper( searchIntegrator );
+	}
+
+	/**
+	 * with more than one thread, the updates are sharded by entityClass and id over the threads. The order of the
+	 * updates for a single entity is kept
+	 *
+	 * @param entityProviderSupplier called once per thread, as EntityProviders are not threadsafe
+	 */
+	public IndexUpdater(
+			Map<Class<?>, RehashedTypeMetadata> metadataForIndexRoot, Map<Class<?>, List<Class<?>>> containedInIndexOf,
+			Supplier<? extends ReusableEntityProvider> entityProviderSupplier, int threads, IndexWrapper indexWrapper) {
+		if ( threads <= 0 ) {
+			throw new IllegalArgumentException( "threads must be greater than 0" );
+		}
 		this.metadataForIndexRoot = metadataForIndexRoot;
 		this.containedInIndexOf = containedInIndexOf;
-		this.entityProvider = entityProvider;
 		this.indexWrapper = indexWrapper;
-		this.exec = Executors.newSingleThreadExecutor( new NamingThreadFactory( "IndexUpdater Thread" ) );
+		this.stripes = new Stripe[threads];
+		for ( int i = 0; i < threads; ++i ) {
+			this.stripes[i] = new Stripe(
+					Executors.newSingleThreadExecutor( new NamingThreadFactory( "IndexUpdater Thread" ) ),
+					entityProviderSupplier.get()
+			);
+		}
 	}
 
+	/**
+	 * @see #IndexUpdater(Map, Map, Supplier, int, IndexWrapper)
+	 */
 	public IndexUpdater(
 			Map<Class<?>, RehashedTypeMetadata> metadataPerForIndexRoot,
 			Map<Class<?>, List<Class<?>>> containedInIndexOf,
-			ReusableEntityProvider entityProvider,
+			Supplier<? extends ReusableEntityProvider> entityProviderSupplier,
+			int threads,
 			ExtendedSearchIntegrator searchIntegrator) {
-		this( metadataPerForIndexRoot, containedInIndexOf, entityProvider, (IndexWrapper) null );
+		this( metadataPerForIndexRoot, containedInIndexOf, entityProviderSupplier, threads, (IndexWrapper) null );
 		this.indexWrapper = new DefaultIndexWrapper( searchIntegrator );
 	}
 
+	/**
+	 * if set, the default IndexWrapper looks up the documents to update for deleted contained entities here instead of
+	 * querying the index and keeps it up to date with everything it writes
+	 */
+	public void setContainedInIndex(ContainedInIndex containedInIndex) {
+		this.containedInIndex = containedInIndex;
+	}
+
+	public ContainedInIndex getContainedInIndex() {
+		return this.containedInIndex;
+	}
+
+	/**
+	 * if set, the default IndexWrapper applies all works to the index of the given integrator as well. This is used to
+	 * keep a shadow index that is being rebuilt up to date. null disables this again
+	 */
+	public void setShadowIntegrator(ExtendedSearchIntegrator shadowIntegrator) {
+		this.shadowIntegrator = shadowIntegrator;
+	}
+
+	public ExtendedSearchIntegrator getShadowIntegrator() {
+		return this.shadowIntegrator;
+	}
+
+	/**
+	 * if set, only the entities of the given classes are loaded with {@link EntityProvider#getBatch(Class, List, Map)},
+	 * all others are loaded one by one (e.g. because they can't be queried by their document id). null means that all
+	 * entities can be batch loaded
+	 */
+	public void setBatchLoadable(Set<Class<?>> batchLoadable) {
+		this.batchLoadable = batchLoadable;
+	}
+
+	private boolean isBatchLoadable(Class<?> entityClass) {
+		Set<Class<?>> batchLoadable = this.batchLoadable;
+		return batchLoadable == null || batchLoadable.contains( entityClass );
+	}
+
+	/**
+	 * runs the given action after all updates that are currently being applied are finished. No updates are applied
+	 * while the action is running
+	 */
+	public void runExclusively(Runnable action) {
+		Lock lock = this.applyLock.writeLock();
+		lock.lock();
+		try {
+			action.run();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
 	public void updateEvent(List<UpdateEventInfo> updateInfos) {
-		if(updateInfos.size() == 0) {
+		if ( updateInfos.size() == 0 ) {
 			return;
 		}
-		this.updateEvent( updateInfos, this.entityProvider );
+		this.rebuildContainedInIndexIfNeeded();
+		if ( this.stripes.length == 1 ) {
+			this.updateEvent( updateInfos, this.stripes[0].entityProvider );
+			return;
+		}
+		List<List<UpdateEventInfo>> perStripe = new ArrayList<>( this.stripes.length );
+		for ( int i = 0; i < this.stripes.length; ++i ) {
+			perStripe.add( new ArrayList<>() );
+		}
+		for ( UpdateEventInfo updateInfo : updateInfos ) {
+			perStripe.get( this.stripeFor( updateInfo ) ).add( updateInfo );
+		}
+		int stripesToUse = 0;
+		for ( List<UpdateEventInfo> stripeUpdateInfos : perStripe ) {
+			if ( stripeUpdateInfos.size() > 0 ) {
+				++stripesToUse;
+			}
+		}
+		final SearchException[] exception = {null};
+		final CountDownLatch latch = new CountDownLatch( stripesToUse );
+		for ( int i = 0; i < this.stripes.length; ++i ) {
+			if ( perStripe.get( i ).size() > 0 ) {
+				this.submit( this.stripes[i], perStripe.get( i ), this.stripes[i].entityProvider, latch, exception );
+			}
+		}
+		this.await( latch, exception );
 	}
 
 	public void updateEvent(List<UpdateEventInfo> updateInfos, EntityProvider provider) {
+		this.rebuildContainedInIndexIfNeeded();
 		//this is a hack so we can start/end our transactions properly in JTA
 		//as transactions are bound to threads
 		final SearchException[] exception = {null};
 		final CountDownLatch latch = new CountDownLatch( 1 );
-		this.exec.submit(
+		this.submit( this.stripes[0], updateInfos, provider, latch, exception );
+		this.await( latch, exception );
+	}
+
+	private void rebuildContainedInIndexIfNeeded() {
+		ContainedInIndex containedInIndex = this.containedInIndex;
+		if ( containedInIndex == null || !this.rebuildContainedInIndex.compareAndSet( true, false ) ) {
+			return;
+		}
+		try {
+			// no batch may write to the index while it is read
+			this.runExclusively( containedInIndex::rebuild );
+		}
+		catch (RuntimeException e) {
+			LOGGER.log( Level.WARNING, "couldn't rebuild the reverse contained-in index, retrying with the next batch", e );
+			this.rebuildContainedInIndex.set( true );
+		}
+	}
+
+	private int stripeFor(UpdateEventInfo updateInfo) {
+		int hash = 31 * updateInfo.getEntityClass().hashCode() + Objects.hashCode( updateInfo.getId() );
+		return Math.floorMod( hash, this.stripes.length );
+	}
+
+	private void submit(
+			Stripe stripe,
+			List<UpdateEventInfo> updateInfos,
+			EntityProvider provider,
+			CountDownLatch latch,
+			SearchException[] exception) {
+		stripe.exec.submit(
 				() ->
 				{
+					Lock lock = this.applyLock.readLock();
+					lock.lock();
 					try {
 						if ( provider instanceof ReusableEntityProvider ) {
 							((ReusableEntityProvider) provider).open();
@@ -100,57 +277,29 @@ public final class IndexUpdater {
 						try {
 							Transaction tx = new Transaction();
 							try {
-								for ( UpdateEventInfo updateInfo : updateInfos ) {
-									Class<?> entityClass = updateInfo.getEntityClass();
-									Map<String, Object> hints = Collections.unmodifiableMap( updateInfo.getHints() );
-									List<Class<?>> inIndexOf = IndexUpdater.this.containedInIndexOf.get( entityClass );
-									if ( inIndexOf != null && inIndexOf.size() != 0 ) {
-										int eventType = updateInfo.getEventType();
-										Object id = updateInfo.getId();
-										switch ( eventType ) {
-											case EventType.INSERT: {
-												Object obj = provider.get( entityClass, id, hints );
-												if ( obj != null ) {
-													IndexUpdater.this.indexWrapper.index( obj, tx );
-												}
-												break;
-											}
-											case EventType.UPDATE: {
-												Object obj = provider.get( entityClass, id, hints );
-												if ( obj != null ) {
-													IndexUpdater.this.indexWrapper.update( obj, tx );
-												}
-												break;
-											}
-											case EventType.DELETE: {
-												IndexUpdater.this.indexWrapper.delete(
-														entityClass, inIndexOf, id, this.entityProvider,
-														tx
-												);
-												break;
-											}
-											default: {
-												LOGGER.warning( "unknown eventType-id found: " + eventType );
-											}
-										}
-									}
-									else {
-										LOGGER.warning( "class: " + entityClass + " not found in any index!" );
-									}
-								}
+								this.apply( updateInfos, provider, tx );
 								tx.commit();
 							}
 							catch (Exception e) {
 								tx.rollback();
+								ContainedInIndex containedInIndex = this.containedInIndex;
+								if ( containedInIndex != null ) {
+									// we already changed the entries for the
+									// documents that were not written
+									containedInIndex.invalidate();
+									this.rebuildContainedInIndex.set( true );
+								}
 								LOGGER.log(
 										Level.WARNING,
 										"Error while updating the index! Your index might be corrupt!",
 										e
 								);
-								exception[0] = new SearchException(
-										"Error while updating the index! Your index might be corrupt!",
-										e
-								);
+								synchronized (exception) {
+									exception[0] = new SearchException(
+											"Error while updating the index! Your index might be corrupt!",
+											e
+									);
+								}
 							}
 						}
 						finally {
@@ -160,24 +309,166 @@ public final class IndexUpdater {
 						}
 					}
 					finally {
+						lock.unlock();
 						latch.countDown();
 					}
 
 				}
 		);
+	}
+
+	private void await(CountDownLatch latch, SearchException[] exception) {
 		try {
 			latch.await();
 			//while we did things on a different thread we still
 			//want to throw the exceptions from there
 			//so the AsyncUpdateSource stumbles on this Exception
-			if ( exception[0] != null ) {
-				throw exception[0];
+			synchronized (exception) {
+				if ( exception[0] != null ) {
+					throw exception[0];
+				}
 			}
 		}
 		catch (InterruptedException e) {
 			throw new SearchException( e );
 		}
+	}
 
+	private void apply(List<UpdateEventInfo> updateInfos, EntityProvider provider, Transaction tx) {
+		Map<Class<?>, Map<Map<String, Object>, Map<Object, Object>>> loaded = this.loadBatch( updateInfos, provider );
+		for ( UpdateEventInfo updateInfo : updateInfos ) {
+			Class<?> entityClass = updateInfo.getEntityClass();
+			Map<String, Object> hints = Collections.unmodifiableMap( updateInfo.getHints() );
+			List<Class<?>> inIndexOf = this.containedInIndexOf.get( entityClass );
+			if ( inIndexOf != null && inIndexOf.size() != 0 ) {
+				int eventType = updateInfo.getEventType();
+				Object id = updateInfo.getId();
+				switch ( eventType ) {
+					case EventType.INSERT: {
+						Object obj = this.get( loaded, provider, entityClass, id, hints );
+						if ( obj != null ) {
+							this.indexWrapper.index( obj, tx );
+						}
+						break;
+					}
+					case EventType.UPDATE: {
+						Object obj = this.get( loaded, provider, entityClass, id, hints );
+						if ( obj != null ) {
+							this.indexWrapper.update( obj, tx );
+						}
+						break;
+					}
+					case EventType.DELETE: {
+						this.indexWrapper.delete(
+								entityClass, inIndexOf, id, provider,
+								tx
+						);
+						break;
+					}
+					default: {
+						LOGGER.warning( "unknown eventType-id found: " + eventType );
+					}
+				}
+			}
+			else {
+				LOGGER.warning( "class: " + entityClass + " not found in any index!" );
+			}
+		}
+	}
+
+	/**
+	 * loads the entities for all INSERT and UPDATE events with one {@link EntityProvider#getBatch(Class, List, Map)}
+	 * call per entity class, hints and {@link #ENTITY_BATCH} ids instead of one query per event.
+	 *
+	 * @return entityClass -&gt; hints -&gt; id -&gt; entity
+	 */
+	private Map<Class<?>, Map<Map<String, Object>, Map<Object, Object>>> loadBatch(
+			List<UpdateEventInfo> updateInfos,
+			EntityProvider provider) {
+		Map<Class<?>, Map<Map<String, Object>, Set<Object>>> toLoad = new HashMap<>();
+		for ( UpdateEventInfo updateInfo : updateInfos ) {
+			int eventType = updateInfo.getEventType();
+			if ( (eventType == EventType.INSERT || eventType == EventType.UPDATE)
+					&& this.isBatchLoadable( updateInfo.getEntityClass() )
+					&& this.getIdProperty( updateInfo.getEntityClass() ) != null ) {
+				toLoad.computeIfAbsent( updateInfo.getEntityClass(), (clazz) -> new HashMap<>() )
+						.computeIfAbsent( updateInfo.getHints(), (hints) -> new LinkedHashSet<>() )
+						.add( updateInfo.getId() );
+			}
+		}
+		Map<Class<?>, Map<Map<String, Object>, Map<Object, Object>>> loaded = new HashMap<>();
+		for ( Map.Entry<Class<?>, Map<Map<String, Object>, Set<Object>>> perClass : toLoad.entrySet() ) {
+			Class<?> entityClass = perClass.getKey();
+			XProperty idProperty = this.getIdProperty( entityClass );
+			for ( Map.Entry<Map<String, Object>, Set<Object>> perHints : perClass.getValue().entrySet() ) {
+				List<Object> ids = new ArrayList<>( perHints.getValue() );
+				if ( ids.size() <= 1 ) {
+					// nothing to gain here
+					continue;
+				}
+				Map<String, Object> hints = Collections.unmodifiableMap( perHints.getKey() );
+				Map<Object, Object> entities = loaded.computeIfAbsent( entityClass, (clazz) -> new HashMap<>() )
+						.computeIfAbsent( perHints.getKey(), (hints2) -> new HashMap<>() );
+				// failures are not caught here: they are most likely transient (and have probably
+				// marked the transaction for rollback), so the whole batch has to be retried
+				for ( int i = 0; i < ids.size(); i += ENTITY_BATCH ) {
+					List<Object> idsInBatch = ids.subList( i, Math.min( i + ENTITY_BATCH, ids.size() ) );
+					for ( Object entity : provider.getBatch( entityClass, idsInBatch, hints ) ) {
+						entities.put( idProperty.invoke( entity ), entity );
+					}
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * loads all the entities with the given ids, if possible with {@link EntityProvider#getBatch(Class, List)}
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Object> load(EntityProvider provider, Class<?> entityClass, List<Object> ids) {
+		if ( ids.size() > 1 && this.isBatchLoadable( entityClass ) ) {
+			return provider.getBatch( entityClass, ids );
+		}
+		List<Object> ret = new ArrayList<>( ids.size() );
+		for ( Object id : ids ) {
+			Object obj = provider.get( entityClass, id );
+			if ( obj != null ) {
+				ret.add( obj );
+			}
+		}
+		return ret;
+	}
+
+	private Object get(
+			Map<Class<?>, Map<Map<String, Object>, Map<Object, Object>>> loaded,
+			EntityProvider provider,
+			Class<?> entityClass,
+			Object id,
+			Map<String, Object> hints) {
+		Map<Map<String, Object>, Map<Object, Object>> perClass = loaded.get( entityClass );
+		if ( perClass != null ) {
+			Map<Object, Object> perHints = perClass.get( hints );
+			if ( perHints != null ) {
+				// all the INSERT and UPDATE ids of this class and hints were batch loaded,
+				// so if it was not found it was deleted in the meantime. asking for it
+				// again would mean one query per missing entity
+				return perHints.get( id );
+			}
+		}
+		// not batch loaded
+		return provider.get( entityClass, id, hints );
+	}
+
+	private XProperty getIdProperty(Class<?> entityClass) {
+		List<Class<?>> inIndexOf = this.containedInIndexOf.get( entityClass );
+		if ( inIndexOf == null || inIndexOf.size() == 0 ) {
+			return null;
+		}
+		//every index root knows the id property of the types contained in it
+		//so we can just use the first one
+		RehashedTypeMetadata metadata = this.metadataForIndexRoot.get( inIndexOf.get( 0 ) );
+		return metadata.getIdPropertyAccessorForType().get( entityClass );
 	}
 
 	public void delete(
@@ -198,7 +489,21 @@ public final class IndexUpdater {
 	}
 
 	public void close() {
-		this.exec.shutdown();
+		for ( Stripe stripe : this.stripes ) {
+			stripe.exec.shutdown();
+		}
+	}
+
+	private static final class Stripe {
+
+		private final ExecutorService exec;
+		private final ReusableEntityProvider entityProvider;
+
+		private Stripe(ExecutorService exec, ReusableEntityProvider entityProvider) {
+			this.exec = exec;
+			this.entityProvider = entityProvider;
+		}
+
 	}
 
 	public interface IndexWrapper {
@@ -231,7 +536,21 @@ public final class IndexUpdater {
 				Object id,
 				EntityProvider entityProvider,
 				Transaction tx) {
+			ContainedInIndex containedInIndex = IndexUpdater.this.containedInIndex;
 			for ( Class<?> indexClass : inIndexOf ) {
+				if ( containedInIndex != null && !indexClass.equals( entityClass ) ) {
+					List<Object> parentIds = containedInIndex.getParentIds( indexClass, entityClass, id );
+					if ( parentIds != null ) {
+						for ( int i = 0; i < parentIds.size(); i += ENTITY_BATCH ) {
+							List<Object> ids = parentIds.subList( i, Math.min( i + ENTITY_BATCH, parentIds.size() ) );
+							for ( Object original : IndexUpdater.this.load( entityProvider, indexClass, ids ) ) {
+								this.update( original, tx );
+							}
+						}
+						containedInIndex.deleted( indexClass, entityClass, id );
+						continue;
+					}
+				}
 				RehashedTypeMetadata metadata = IndexUpdater.this.metadataForIndexRoot.get( indexClass );
 				List<String> fields = metadata.getIdFieldNamesForType().get( entityClass );
 				for ( String field : fields ) {
@@ -252,66 +571,147 @@ public final class IndexUpdater {
 						idValueForDeletion = id;
 					}
 					if ( indexClass.equals( entityClass ) ) {
-						this.searchIntegrator.getWorker().performWork(
+						this.performWork(
 								new Work(
 										entityClass,
 										(Serializable) id,
 										WorkType.DELETE
 								), tx
 						);
+						if ( containedInIndex != null ) {
+							containedInIndex.deleted( indexClass, entityClass, id );
+						}
 					}
 					else {
-						HSQuery hsQuery = this.searchIntegrator
-								.createHSQuery()
-								.targetedEntities( Collections.singletonList( indexClass ) )
-								.luceneQuery(
-										this.searchIntegrator.buildQueryBuilder()
-												.forEntity( indexClass )
-												.get()
-												.keyword()
-												.onField( field )
-												.matching( idValueForDeletion )
-												.createQuery()
-								);
-						int count = hsQuery.queryResultSize();
-						int processed = 0;
+						Query luceneQuery = this.searchIntegrator.buildQueryBuilder()
+								.forEntity( indexClass )
+								.get()
+								.keyword()
+								.onField( field )
+								.matching( idValueForDeletion )
+								.createQuery();
 						// this was just contained somewhere
-						// so we have to update the containing entity
-						while ( processed < count ) {
-							for ( EntityInfo entityInfo : hsQuery.firstResult( processed ).projection(
-									ProjectionConstants.ID
-							).maxResults( HSQUERY_BATCH )
-									.queryEntityInfos() ) {
-								Serializable originalId = (Serializable) entityInfo.getProjection()[0];
-								Object original = entityProvider.get( indexClass, originalId );
-								if ( original != null ) {
-									this.update( original, tx );
+						// so we have to update the containing entities
+						this.forEachIdBatch(
+								indexClass, luceneQuery, (ids) -> {
+									for ( Object original : IndexUpdater.this.load( entityProvider, indexClass, ids ) ) {
+										// originals that are not available in the
+										// database anymore will be deleted by their
+										// own delete event
+										this.update( original, tx );
+									}
 								}
-								else {
-									// original is not available in the
-									// database, but it will be deleted by its
-									// own delete event
-									// TODO: log this?
+						);
+					}
+				}
+			}
+		}
+
+		/**
+		 * streams the ids of all documents of the given indexClass matching the query to the consumer in batches of
+		 * {@link #ENTITY_BATCH} in a single pass over the index
+		 */
+		private void forEachIdBatch(Class<?> indexClass, Query query, Consumer<List<Object>> batchConsumer) {
+			IndexReaderAccessor accessor = this.searchIntegrator.getIndexReaderAccessor();
+			IndexReader reader = accessor.open( indexClass );
+			try {
+				ServiceManager serviceManager = this.searchIntegrator.getServiceManager();
+				ConversionContext conversionContext = new ContextualExceptionBridgeHelper();
+				Set<String> fieldsToLoad = new HashSet<>(
+						Arrays.asList(
+								ProjectionConstants.OBJECT_CLASS,
+								DocumentBuilderHelper.getDocumentIdName( this.searchIntegrator, indexClass )
+						)
+				);
+				List<Object> ids = new ArrayList<>( ENTITY_BATCH );
+				new IndexSearcher( reader ).search(
+						query, new SimpleCollector() {
+
+							private LeafReader leafReader;
+
+							@Override
+							protected void doSetNextReader(LeafReaderContext context) throws IOException {
+								this.leafReader = context.reader();
+							}
+
+							@Override
+							public void collect(int doc) throws IOException {
+								Document document = this.leafReader.document( doc, fieldsToLoad );
+								Class<?> documentClass = DocumentBuilderHelper.getDocumentClass(
+										document.get( ProjectionConstants.OBJECT_CLASS ),
+										serviceManager
+								);
+								// the index might be shared with other types
+								if ( !indexClass.isAssignableFrom( documentClass ) ) {
+									return;
+								}
+								ids.add(
+										DocumentBuilderHelper.getDocumentId(
+												DefaultIndexWrapper.this.searchIntegrator,
+												documentClass,
+												document,
+												conversionContext
+										)
+								);
+								if ( ids.size() >= ENTITY_BATCH ) {
+									batchConsumer.accept( new ArrayList<>( ids ) );
+									ids.clear();
 								}
 							}
-							processed += HSQUERY_BATCH;
+
+							@Override
+							public boolean needsScores() {
+								return false;
+							}
+
 						}
-					}
+				);
+				if ( ids.size() > 0 ) {
+					batchConsumer.accept( ids );
 				}
 			}
+			catch (IOException e) {
+				throw new SearchException( e );
+			}
+			finally {
+				accessor.close( reader );
+			}
 		}
 
 		@Override
 		public void update(Object entity, Transaction tx) {
 			if ( entity != null ) {
-				this.searchIntegrator.getWorker().performWork( new Work( entity, WorkType.UPDATE ), tx );
+				this.performWork( new Work( entity, WorkType.UPDATE ), tx );
+				this.written( entity );
 			}
 		}
 
 		@Override
 		public void index(Object entity, Transaction tx) {
 			if ( entity != null ) {
-				this.searchIntegrator.getWorker().performWork( new Work( entity, WorkType.INDEX ), tx );
+				this.performWork( new Work( entity, WorkType.INDEX ), tx );
+				this.written( entity );
+			}
+		}
+
+		private void performWork(Work work, Transaction tx) {
+			this.searchIntegrator.getWorker().performWork( work, tx );
+			ExtendedSearchIntegrator shadowIntegrator = IndexUpdater.this.shadowIntegrator;
+			if ( shadowIntegrator != null ) {
+				// the document might have been written by whatever is rebuilding
+				// the shadow index already, so we must not add it a second time
+				Work shadowWork = work.getType() == WorkType.INDEX ? new Work(
+						work.getEntity(),
+						WorkType.UPDATE
+				) : work;
+				shadowIntegrator.getWorker().performWork( shadowWork, tx );
+			}
+		}
+
+		private void written(Object entity) {
+			ContainedInIndex containedInIndex = IndexUpdater.this.containedInIndex;
+			if ( containedInIndex != null ) {
+				containedInIndex.written( entity );
 			}
 		}
 
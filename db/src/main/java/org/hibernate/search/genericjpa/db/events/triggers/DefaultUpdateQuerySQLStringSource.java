@@ -0,0 +1,213 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.db.events.triggers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.search.genericjpa.db.events.impl.EventModelInfo;
+
+/**
+ * Implementation of a {@link UpdateQuerySQLStringSource} that only uses portable SQL. <br>
+ * <br>
+ * The latest update per entity is found by joining the update table with the max update id per entity. If the update
+ * tables are indexed on their id columns and update id, a correlated NOT EXISTS is used instead, and if they are
+ * deduplicated the update tables are read directly.
+ *
+ * @author Martin Braun
+ */
+public class DefaultUpdateQuerySQLStringSource implements UpdateQuerySQLStringSource {
+
+	private final String delimitedIdentifierToken;
+	private final boolean deduplicatedUpdateTables;
+	private final boolean indexedUpdateTables;
+
+	public DefaultUpdateQuerySQLStringSource(
+			String delimitedIdentifierToken,
+			boolean deduplicatedUpdateTables,
+			boolean indexedUpdateTables) {
+		this.delimitedIdentifierToken = delimitedIdentifierToken;
+		this.deduplicatedUpdateTables = deduplicatedUpdateTables;
+		this.indexedUpdateTables = indexedUpdateTables;
+	}
+
+	@Override
+	public String getPollQuery(EventModelInfo evi, boolean keysetPagination) {
+		//SELECT part
+		StringBuilder queryString = new StringBuilder().append( "SELECT " )
+				.append( this.escape( "t1" ) )
+				.append( "." )
+				.append( this.escape( evi.getUpdateIdColumn() ) )
+				.append( ", " )
+				.append( this.escape( "t1" ) )
+				.append( "." )
+				.append( this.escape( evi.getEventTypeColumn() ) );
+		for ( EventModelInfo.IdInfo idInfo : evi.getIdInfos() ) {
+			for ( String column : idInfo.getColumnsInUpdateTable() ) {
+				queryString.append( ", " )
+						.append( this.escape( "t1" ) )
+						.append( "." )
+						.append( this.escape( column ) );
+			}
+		}
+		//FROM PART
+		queryString.append( this.fromPart( evi ) );
+
+		//WHERE part (for keyset pagination and the latest update per entity)
+		List<String> conditions = new ArrayList<>( 2 );
+		if ( keysetPagination ) {
+			conditions.add(
+					this.escape( "t1" ) + "." + this.escape( evi.getUpdateIdColumn() ) + " > ?1"
+			);
+		}
+		if ( this.isLatestUpdateByIndex() ) {
+			conditions.add( this.latestUpdateCondition( evi ) );
+		}
+		for ( int i = 0; i < conditions.size(); ++i ) {
+			queryString.append( i == 0 ? " WHERE " : " AND " ).append( conditions.get( i ) );
+		}
+
+		//ORDER BY part
+		queryString.append(
+				" ORDER BY "
+		).append( this.escape( "t1" ) )
+				.append( "." )
+				.append( this.escape( evi.getUpdateIdColumn() ) )
+				.append( " ASC" );
+		return queryString.toString();
+	}
+
+	@Override
+	public String getAcknowledgeQuery(EventModelInfo evi, long lastUpdateId) {
+		return "DELETE FROM " + this.escape( evi.getUpdateTableName() ) + " WHERE " + this.escape(
+				evi.getUpdateIdColumn()
+		) + " < " + (lastUpdateId + 1);
+	}
+
+	@Override
+	public String getAcknowledgeUpdateQuery(EventModelInfo evi) {
+		StringBuilder queryString = new StringBuilder().append( "DELETE FROM " )
+				.append( this.escape( evi.getUpdateTableName() ) )
+				.append( " WHERE " );
+		int parameter = 1;
+		for ( EventModelInfo.IdInfo idInfo : evi.getIdInfos() ) {
+			for ( String column : idInfo.getColumnsInUpdateTable() ) {
+				queryString.append( this.escape( column ) )
+						.append( " = ?" )
+						.append( parameter++ )
+						.append( " AND " );
+			}
+		}
+		queryString.append( this.escape( evi.getUpdateIdColumn() ) )
+				.append( " <= ?" )
+				.append( parameter );
+		return queryString.toString();
+	}
+
+	protected boolean isLatestUpdateByIndex() {
+		return this.indexedUpdateTables && !this.deduplicatedUpdateTables;
+	}
+
+	protected String fromPart(EventModelInfo evi) {
+		StringBuilder queryString = new StringBuilder();
+		//FROM part
+		queryString.append( " FROM " )
+				.append( this.escape( evi.getUpdateTableName() ) )
+				.append( " " )
+				.append( this.escape( "t1" ) )
+				.append( " " );
+		//INNER JOIN part (there is only one row per entity in deduplicated update tables
+		//and indexed update tables are filtered with latestUpdateCondition instead)
+		if ( !this.deduplicatedUpdateTables && !this.isLatestUpdateByIndex() ) {
+			queryString.append( " INNER JOIN ( " )
+					.append( " SELECT max(" )
+					.append( this.escape( "t2" ) )
+					.append( "." )
+					.append( this.escape( evi.getUpdateIdColumn() ) )
+					.append( ") " )
+					.append( this.escape( "updateid" ) );
+			for ( EventModelInfo.IdInfo idInfo : evi.getIdInfos() ) {
+				for ( String column : idInfo.getColumnsInUpdateTable() ) {
+					queryString.append( ", " )
+							.append( this.escape( "t2" ) )
+							.append( "." )
+							.append( this.escape( column ) );
+				}
+			}
+			queryString.append( " FROM " )
+					.append( this.escape( evi.getUpdateTableName() ) )
+					.append( " " )
+					.append( this.escape( "t2" ) );
+			queryString.append( " GROUP BY " );
+			{
+				int i = 0;
+				for ( EventModelInfo.IdInfo idInfo : evi.getIdInfos() ) {
+					for ( String column : idInfo.getColumnsInUpdateTable() ) {
+						if ( i++ > 0 ) {
+							queryString.append( ", " );
+						}
+						queryString.append( this.escape( "t2" ) )
+								.append( "." )
+								.append( this.escape( column ) );
+					}
+				}
+			}
+			queryString.append( " ) " ).append( this.escape( "t3" ) )
+					.append( " ON " ).append( this.escape( "t1" ) )
+					.append( "." )
+					.append( this.escape( evi.getUpdateIdColumn() ) )
+					.append( " = " )
+					.append( this.escape( "t3" ) )
+					.append( "." ).append(
+					this.escape(
+							"updateid"
+					)
+			);
+		}
+		return queryString.toString();
+	}
+
+	/**
+	 * matches the rows of t1 that are the latest update for their entity
+	 */
+	protected String latestUpdateCondition(EventModelInfo evi) {
+		StringBuilder queryString = new StringBuilder().append( "NOT EXISTS ( SELECT 1 FROM " )
+				.append( this.escape( evi.getUpdateTableName() ) )
+				.append( " " )
+				.append( this.escape( "t2" ) )
+				.append( " WHERE " );
+		for ( EventModelInfo.IdInfo idInfo : evi.getIdInfos() ) {
+			for ( String column : idInfo.getColumnsInUpdateTable() ) {
+				queryString.append( this.escape( "t2" ) )
+						.append( "." )
+						.append( this.escape( column ) )
+						.append( " = " )
+						.append( this.escape( "t1" ) )
+						.append( "." )
+						.append( this.escape( column ) )
+						.append( " AND " );
+			}
+		}
+		queryString.append( this.escape( "t2" ) )
+				.append( "." )
+				.append( this.escape( evi.getUpdateIdColumn() ) )
+				.append( " > " )
+				.append( this.escape( "t1" ) )
+				.append( "." )
+				.append( this.escape( evi.getUpdateIdColumn() ) )
+				.append( " )" );
+		return queryString.toString();
+	}
+
+	protected String escape(String str) {
+		return new StringBuilder().append( this.delimitedIdentifierToken )
+				.append( str )
+				.append( this.delimitedIdentifierToken )
+				.toString();
+	}
+
+}
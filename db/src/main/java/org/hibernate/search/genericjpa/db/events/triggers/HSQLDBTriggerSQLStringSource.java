@@ -46,6 +46,33 @@ public class HSQLDBTriggerSQLStringSource implements TriggerSQLStringSource {
 			"                VALUES (nextupdateid, %s, %s);\n" +
 			"END;";
 
+	// 1: trigger, 2: event, 3: original table, 4: NEW/OLD, 5: row alias, 6: update table, 7: update id column,
+	// 8: event type column, 9: id columns, 10: event type, 11: values from original, 12: join condition,
+	// 13: values to insert
+	private static final String TRIGGER_CREATION_FORMAT_MERGE = "CREATE TRIGGER \"%1$s\" AFTER %2$s ON %3$s\n" +
+			"REFERENCING %4$s AS \"%5$s\"\n" +
+			"FOR EACH ROW\n" +
+			"BEGIN ATOMIC\n" +
+			"        DECLARE nextupdateid BIGINT;\n" +
+			"        SET nextupdateid = NEXT VALUE FOR \"" + UNIQUE_ID_SEQUENCE_NAME + "\";\n" +
+			"        MERGE INTO \"%6$s\" USING (VALUES (nextupdateid, %10$s, %11$s)) AS \"vals\"(\"%7$s\", \"%8$s\", %9$s)\n" +
+			"                ON %12$s\n" +
+			"                WHEN MATCHED THEN UPDATE SET \"%7$s\" = \"vals\".\"%7$s\", \"%8$s\" = \"vals\".\"%8$s\"\n" +
+			"                WHEN NOT MATCHED THEN INSERT (\"%7$s\", \"%8$s\", %9$s) VALUES (%13$s);\n" +
+			"END;";
+
+	private boolean deduplicating = false;
+
+	@Override
+	public void setDeduplicating(boolean deduplicating) {
+		this.deduplicating = deduplicating;
+	}
+
+	@Override
+	public boolean isDeduplicating() {
+		return this.deduplicating;
+	}
+
 	@Override
 	public String[] getUnSetupCode() {
 		return new String[] {
@@ -80,12 +107,15 @@ public class HSQLDBTriggerSQLStringSource implements TriggerSQLStringSource {
 		String eventTypeColumn = eventModelInfo.getEventTypeColumn();
 		StringBuilder valuesFromOriginal = new StringBuilder();
 		StringBuilder idColumnNames = new StringBuilder();
+		StringBuilder joinCondition = new StringBuilder();
+		StringBuilder valuesToInsert = new StringBuilder( "\"vals\".\"" + eventModelInfo.getUpdateIdColumn() + "\", \"vals\".\"" + eventTypeColumn + "\"" );
 		int addedVals = 0;
 		for ( EventModelInfo.IdInfo idInfo : eventModelInfo.getIdInfos() ) {
 			for ( int i = 0; i < idInfo.getColumnsInUpdateTable().length; ++i ) {
 				if ( addedVals > 0 ) {
 					valuesFromOriginal.append( ", " );
 					idColumnNames.append( ", " );
+					joinCondition.append( " AND " );
 				}
 				if ( eventType == EventType.DELETE ) {
 					valuesFromOriginal.append( "\"oldrow\"." );
@@ -94,7 +124,10 @@ public class HSQLDBTriggerSQLStringSource implements TriggerSQLStringSource {
 					valuesFromOriginal.append( "\"newrow\"." );
 				}
 				valuesFromOriginal.append( idInfo.getColumnsInOriginal()[i] );
-				idColumnNames.append( "\"" + idInfo.getColumnsInUpdateTable()[i] + "\"" );
+				String column = idInfo.getColumnsInUpdateTable()[i];
+				idColumnNames.append( "\"" + column + "\"" );
+				joinCondition.append( "\"" + tableName + "\".\"" + column + "\" = \"vals\".\"" + column + "\"" );
+				valuesToInsert.append( ", \"vals\".\"" + column + "\"" );
 				++addedVals;
 			}
 		}
@@ -102,6 +135,27 @@ public class HSQLDBTriggerSQLStringSource implements TriggerSQLStringSource {
 			throw new IllegalArgumentException( "eventModelInfo didn't contain any idInfos" );
 		}
 		String eventTypeValue = String.valueOf( eventType );
+		if ( this.deduplicating ) {
+			boolean delete = eventType == EventType.DELETE;
+			return new String[] {
+					String.format(
+							TRIGGER_CREATION_FORMAT_MERGE,
+							triggerName,
+							EventType.toString( eventType ),
+							originalTableName,
+							delete ? "OLD" : "NEW",
+							delete ? "oldrow" : "newrow",
+							tableName,
+							eventModelInfo.getUpdateIdColumn(),
+							eventTypeColumn,
+							idColumnNames.toString(),
+							eventTypeValue,
+							valuesFromOriginal.toString(),
+							joinCondition.toString(),
+							valuesToInsert.toString()
+					)
+			};
+		}
 		String createTriggerOriginalTableSQL = new StringBuilder().append(
 				String.format(
 						eventType == EventType.DELETE ?
@@ -143,6 +197,7 @@ public class HSQLDBTriggerSQLStringSource implements TriggerSQLStringSource {
 				"CREATE TABLE IF NOT EXISTS \"" + tableName + "\" (\n" +
 						"    \"" + updateIdColumn + "\" BIGINT NOT NULL,\n" +
 						"    \"" + eventTypeColumn + "\" INT NOT NULL,\n";
+		StringBuilder uniqueKey = new StringBuilder();
 		for ( EventModelInfo.IdInfo idInfo : info.getIdInfos() ) {
 			String[] columnsInUpdateTable = idInfo.getColumnsInUpdateTable();
 			ColumnType[] columnTypes = idInfo.getColumnTypes();
@@ -153,15 +208,62 @@ public class HSQLDBTriggerSQLStringSource implements TriggerSQLStringSource {
 					columnDefinition = toMySQLType( columnTypes[i] );
 				}
 				sql += "    \"" + columnsInUpdateTable[i] + "\" " + columnDefinition + " NOT NULL,\n";
+				if ( uniqueKey.length() > 0 ) {
+					uniqueKey.append( ", " );
+				}
+				uniqueKey.append( "\"" ).append( columnsInUpdateTable[i] ).append( "\"" );
 			}
 		}
-		sql += "    PRIMARY KEY (\"" + updateIdColumn + "\")\n" +
-				");";
+		sql += "    PRIMARY KEY (\"" + updateIdColumn + "\")";
+		if ( this.deduplicating ) {
+			sql += ",\n    UNIQUE (" + uniqueKey + ")";
+		}
+		sql += "\n);";
 		return new String[] {
 				sql
 		};
 	}
 
+	@Override
+	public String[] getUpdateTableIndexCreationCode(EventModelInfo info) {
+		if ( this.deduplicating ) {
+			// the unique key already covers the id columns and there is only one update id per entity
+			return new String[0];
+		}
+		// so the latest update id per entity can be found without grouping the whole table
+		String tableName = info.getUpdateTableName();
+		StringBuilder indexColumns = new StringBuilder();
+		for ( EventModelInfo.IdInfo idInfo : info.getIdInfos() ) {
+			for ( String column : idInfo.getColumnsInUpdateTable() ) {
+				indexColumns.append( "\"" ).append( column ).append( "\"" ).append( ", " );
+			}
+		}
+		indexColumns.append( "\"" ).append( info.getUpdateIdColumn() ).append( "\"" );
+		return new String[] {
+				"CREATE INDEX \"" + this.getUpdateTableIndexName( tableName ) + "\" ON \"" + tableName + "\" (" + indexColumns + ");"
+		};
+	}
+
+	@Override
+	public String getUpdateTableIndexQuery(EventModelInfo info) {
+		if ( this.deduplicating ) {
+			return null;
+		}
+		return "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO"
+				+ " WHERE TABLE_SCHEM = CURRENT_SCHEMA AND TABLE_NAME = '" + info.getUpdateTableName() + "' AND INDEX_NAME = '" + this.getUpdateTableIndexName(
+				info.getUpdateTableName()
+		) + "'";
+	}
+
+	private String getUpdateTableIndexName(String updateTableName) {
+		return updateTableName + "_idx_hsearch";
+	}
+
+	@Override
+	public boolean isIndexingUpdateTables() {
+		return !this.deduplicating;
+	}
+
 	private static String toMySQLType(ColumnType columnType) {
 		switch ( columnType ) {
 			case INTEGER:
@@ -20,6 +20,11 @@ import org.hibernate.search.genericjpa.exception.AssertionFailure;
  * is needed and that id is retrieved via MySQLs last_insert_id() and then returned
  * <br>
  * <br>
+ * Alternatively the ids can be generated with MySQLs UUID_SHORT() (see {@link #setUuidShortIds(boolean)}). This
+ * doesn't need the auxilliary table, the procedure and the cleanup triggers on the update tables, so write
+ * transactions on the indexed tables don't have to serialize on the auto increment lock of the auxilliary table anymore.
+ * <br>
+ * <br>
  * We don't escape the column names that come from the EventModelInfos
  * as we don't have any control over how these are defined
  *
@@ -29,15 +34,22 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 
 	public static final String DEFAULT_UNIQUE_ID_TABLE_NAME = "_____unique____id____hsearch";
 	public static final String DEFAULT_UNIQUE_ID_PROCEDURE_NAME = "get_unique_id_hsearch";
+	public static final int DEFAULT_ACKNOWLEDGE_BATCH_SIZE = 10000;
 
 	private static final String CREATE_TRIGGER_ORIGINAL_TABLE_SQL_FORMAT = "" + "CREATE TRIGGER `%s` AFTER %s ON %s                 \n"
 			+ "FOR EACH ROW                                                                                                       \n"
 			+ "BEGIN                                                                                                              \n"
 			+ "    CALL `%s`(@unique_id);                                                                                           \n"
 			+ "    INSERT INTO `%s`(`%s`, `%s`, %s)                                                                                     \n"
-			+ "		VALUES(@unique_id, %s, %s);                                                                                   \n"
+			+ "		VALUES(@unique_id, %s, %s)%s;                                                                                 \n"
 			+ "END;                                                                                                               \n";
-	private static final String CREATE_TRIGGER_CLEANUP_SQL_FORMAT = "" + "CREATE TRIGGER `%s` AFTER DELETE ON `%s`                    \n"
+	private static final String CREATE_TRIGGER_ORIGINAL_TABLE_UUID_SHORT_SQL_FORMAT = "" + "CREATE TRIGGER `%s` AFTER %s ON %s      \n"
+			+ "FOR EACH ROW                                                                                                       \n"
+			+ "BEGIN                                                                                                              \n"
+			+ "    INSERT INTO `%s`(`%s`, `%s`, %s)                                                                                     \n"
+			+ "		VALUES(UUID_SHORT(), %s, %s)%s;                                                                               \n"
+			+ "END;                                                                                                               \n";
+	private static final String CREATE_TRIGGER_CLEANUP_SQL_FORMAT = "" + "CREATE TRIGGER `%s` AFTER %s ON `%s`                       \n"
 			+ "FOR EACH ROW                                                                                                       \n"
 			+ "BEGIN                                                                                                              \n"
 			+ "DELETE FROM #UNIQUE_ID_TABLE_NAME# WHERE id = OLD.`#updatetableidcolumn#`;                                           \n"
@@ -47,6 +59,10 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 	private final String uniqueIdTableName;
 	private final String uniqueIdProcedureName;
 
+	private boolean deduplicating = false;
+	private boolean uuidShortIds = false;
+	private int acknowledgeBatchSize = DEFAULT_ACKNOWLEDGE_BATCH_SIZE;
+
 	// we don't support dropping the unique_id_table_name
 	// because otherwise we would lose information about the last used
 	// ids
@@ -94,6 +110,52 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 		);
 	}
 
+	@Override
+	public void setDeduplicating(boolean deduplicating) {
+		this.deduplicating = deduplicating;
+	}
+
+	@Override
+	public boolean isDeduplicating() {
+		return this.deduplicating;
+	}
+
+	/**
+	 * whether the update ids should be generated with MySQLs UUID_SHORT() instead of the unique id procedure. These
+	 * ids are increasing for a running server, so they keep the order between the update tables just like the ids
+	 * from the auxilliary table. Since the update id columns are signed BIGINTs, the server_id of the MySQL server has
+	 * to be lower than 128 for this to work. UUID_SHORT() is not safe for statement based replication.
+	 * <br>
+	 * <br>
+	 * The update tables (and triggers) have to be recreated if this is changed.
+	 * defaults to false
+	 */
+	public void setUuidShortIds(boolean uuidShortIds) {
+		this.uuidShortIds = uuidShortIds;
+	}
+
+	public boolean isUuidShortIds() {
+		return this.uuidShortIds;
+	}
+
+	/**
+	 * the maximum number of handled updates deleted from an update table in one statement. Values lower than 1 mean
+	 * that all handled updates are deleted at once.
+	 * defaults to {@link #DEFAULT_ACKNOWLEDGE_BATCH_SIZE}
+	 */
+	public void setAcknowledgeBatchSize(int acknowledgeBatchSize) {
+		this.acknowledgeBatchSize = acknowledgeBatchSize;
+	}
+
+	@Override
+	public UpdateQuerySQLStringSource getUpdateQuerySource(boolean indexedUpdateTables) {
+		return new MySQLUpdateQuerySQLStringSource(
+				this.isDeduplicating(),
+				indexedUpdateTables,
+				this.acknowledgeBatchSize
+		);
+	}
+
 	@Override
 	public String[] getUnSetupCode() {
 		return new String[] {this.dropUniqueIdProcedure, this.dropUniqueIdTable};
@@ -101,6 +163,9 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 
 	@Override
 	public String[] getSetupCode() {
+		if ( this.uuidShortIds ) {
+			return new String[] {};
+		}
 		return new String[] {this.createUniqueIdTable, this.createUniqueIdProcedure};
 	}
 
@@ -134,22 +199,43 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 			throw new IllegalArgumentException( "eventModelInfo didn't contain any idInfos" );
 		}
 		String eventTypeValue = String.valueOf( eventType );
-		String createTriggerOriginalTableSQL = new StringBuilder().append(
-				String.format(
-						CREATE_TRIGGER_ORIGINAL_TABLE_SQL_FORMAT,
-						triggerName,
-						EventType.toString( eventType ),
-						originalTableName,
-						this.uniqueIdProcedureName,
-						tableName,
-						eventModelInfo.getUpdateIdColumn(),
-						eventTypeColumn,
-						idColumnNames.toString(),
-						eventTypeValue,
-						valuesFromOriginal.toString()
-				)
-		)
-				.toString();
+		String onDuplicateKey = this.deduplicating ? String.format(
+				" ON DUPLICATE KEY UPDATE `%1$s` = VALUES(`%1$s`), `%2$s` = VALUES(`%2$s`)",
+				eventModelInfo.getUpdateIdColumn(),
+				eventTypeColumn
+		) : "";
+		String createTriggerOriginalTableSQL;
+		if ( this.uuidShortIds ) {
+			createTriggerOriginalTableSQL = String.format(
+					CREATE_TRIGGER_ORIGINAL_TABLE_UUID_SHORT_SQL_FORMAT,
+					triggerName,
+					EventType.toString( eventType ),
+					originalTableName,
+					tableName,
+					eventModelInfo.getUpdateIdColumn(),
+					eventTypeColumn,
+					idColumnNames.toString(),
+					eventTypeValue,
+					valuesFromOriginal.toString(),
+					onDuplicateKey
+			);
+		}
+		else {
+			createTriggerOriginalTableSQL = String.format(
+					CREATE_TRIGGER_ORIGINAL_TABLE_SQL_FORMAT,
+					triggerName,
+					EventType.toString( eventType ),
+					originalTableName,
+					this.uniqueIdProcedureName,
+					tableName,
+					eventModelInfo.getUpdateIdColumn(),
+					eventTypeColumn,
+					idColumnNames.toString(),
+					eventTypeValue,
+					valuesFromOriginal.toString(),
+					onDuplicateKey
+			);
+		}
 		return new String[] {createTriggerOriginalTableSQL};
 	}
 
@@ -167,19 +253,42 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 		).toString();
 	}
 
-	private String getCleanUpTriggerName(String updatesTableName) {
-		return new StringBuilder().append( updatesTableName ).append( "_cleanup_hsearch" ).toString();
+	private String getCleanUpTriggerName(String updatesTableName, int eventType) {
+		StringBuilder ret = new StringBuilder().append( updatesTableName ).append( "_cleanup_hsearch" );
+		// the original name is kept for the DELETE trigger
+		if ( eventType != EventType.DELETE ) {
+			ret.append( "_" ).append( EventType.toString( eventType ) );
+		}
+		return ret.toString();
 	}
 
 	@Override
 	public String[] getSpecificSetupCode(EventModelInfo eventModelInfo) {
+		if ( this.uuidShortIds ) {
+			// there is no auxilliary table to clean up
+			return new String[] {};
+		}
+		String createTriggerCleanUpSQLFormat = this.createTriggerCleanUpSQLFormat.replaceAll(
+				"#updatetableidcolumn#",
+				eventModelInfo.getUpdateIdColumn()
+		);
 		String createTriggerCleanUpSQL = String.format(
-				this.createTriggerCleanUpSQLFormat.replaceAll(
-						"#updatetableidcolumn#",
-						eventModelInfo.getUpdateIdColumn()
-				), this.getCleanUpTriggerName( eventModelInfo.getUpdateTableName() ),
+				createTriggerCleanUpSQLFormat,
+				this.getCleanUpTriggerName( eventModelInfo.getUpdateTableName(), EventType.DELETE ),
+				EventType.toString( EventType.DELETE ),
 				eventModelInfo.getUpdateTableName()
 		);
+		if ( this.deduplicating ) {
+			// bumping the update id of a row frees up the old unique id
+			return new String[] {
+					createTriggerCleanUpSQL, String.format(
+					createTriggerCleanUpSQLFormat,
+					this.getCleanUpTriggerName( eventModelInfo.getUpdateTableName(), EventType.UPDATE ),
+					EventType.toString( EventType.UPDATE ),
+					eventModelInfo.getUpdateTableName()
+			)
+			};
+		}
 		return new String[] {createTriggerCleanUpSQL};
 	}
 
@@ -188,7 +297,11 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 		return new String[] {
 				String.format(
 						DROP_TRIGGER_SQL_FORMAT,
-						this.getCleanUpTriggerName( eventModelInfo.getUpdateTableName() )
+						this.getCleanUpTriggerName( eventModelInfo.getUpdateTableName(), EventType.DELETE )
+				),
+				String.format(
+						DROP_TRIGGER_SQL_FORMAT,
+						this.getCleanUpTriggerName( eventModelInfo.getUpdateTableName(), EventType.UPDATE )
 				)
 		};
 	}
@@ -202,6 +315,7 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 				"CREATE TABLE IF NOT EXISTS `" + tableName + "` (\n" +
 						"    `" + updateIdColumn + "` BIGINT(64) NOT NULL,\n" +
 						"    `" + eventTypeColumn + "` INT NOT NULL,\n";
+		StringBuilder uniqueKey = new StringBuilder();
 		for ( EventModelInfo.IdInfo idInfo : info.getIdInfos() ) {
 			String[] columnsInUpdateTable = idInfo.getColumnsInUpdateTable();
 			ColumnType[] columnTypes = idInfo.getColumnTypes();
@@ -212,15 +326,62 @@ public class MySQLTriggerSQLStringSource implements TriggerSQLStringSource {
 					columnDefinition = toMySQLType( columnTypes[i] );
 				}
 				sql += "    `" + columnsInUpdateTable[i] + "` " + columnDefinition + " NOT NULL,\n";
+				if ( uniqueKey.length() > 0 ) {
+					uniqueKey.append( ", " );
+				}
+				uniqueKey.append( "`" ).append( columnsInUpdateTable[i] ).append( "`" );
 			}
 		}
-		sql += "    PRIMARY KEY (`" + updateIdColumn + "`)\n" +
-				");";
+		sql += "    PRIMARY KEY (`" + updateIdColumn + "`)";
+		if ( this.deduplicating ) {
+			sql += ",\n    UNIQUE KEY (" + uniqueKey + ")";
+		}
+		sql += "\n);";
 		return new String[] {
 				sql
 		};
 	}
 
+	@Override
+	public String[] getUpdateTableIndexCreationCode(EventModelInfo info) {
+		if ( this.deduplicating ) {
+			// the unique key already covers the id columns and there is only one update id per entity
+			return new String[0];
+		}
+		// so the latest update id per entity can be found without grouping the whole table
+		String tableName = info.getUpdateTableName();
+		StringBuilder indexColumns = new StringBuilder();
+		for ( EventModelInfo.IdInfo idInfo : info.getIdInfos() ) {
+			for ( String column : idInfo.getColumnsInUpdateTable() ) {
+				indexColumns.append( "`" ).append( column ).append( "`" ).append( ", " );
+			}
+		}
+		indexColumns.append( "`" ).append( info.getUpdateIdColumn() ).append( "`" );
+		return new String[] {
+				"CREATE INDEX `" + this.getUpdateTableIndexName( tableName ) + "` ON `" + tableName + "` (" + indexColumns + ");"
+		};
+	}
+
+	@Override
+	public String getUpdateTableIndexQuery(EventModelInfo info) {
+		if ( this.deduplicating ) {
+			return null;
+		}
+		return "SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = '"
+				+ info.getUpdateTableName() + "' AND index_name = '" + this.getUpdateTableIndexName(
+				info.getUpdateTableName()
+		) + "'";
+	}
+
+	private String getUpdateTableIndexName(String updateTableName) {
+		return updateTableName + "_idx_hsearch";
+	}
+
+	@Override
+	public boolean isIndexingUpdateTables() {
+		return !this.deduplicating;
+	}
+
 	private static String toMySQLType(ColumnType columnType) {
 		switch ( columnType ) {
 			case INTEGER:
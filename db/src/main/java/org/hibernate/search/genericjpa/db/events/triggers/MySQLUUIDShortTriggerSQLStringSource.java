@@ -0,0 +1,22 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.db.events.triggers;
+
+/**
+ * {@link MySQLTriggerSQLStringSource} that generates the update ids with UUID_SHORT() so it can be configured via
+ * its class name.
+ *
+ * @author Martin Braun
+ * @see MySQLTriggerSQLStringSource#setUuidShortIds(boolean)
+ */
+public class MySQLUUIDShortTriggerSQLStringSource extends MySQLTriggerSQLStringSource {
+
+	public MySQLUUIDShortTriggerSQLStringSource() {
+		this.setUuidShortIds( true );
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.db.events.triggers;
+
+import org.hibernate.search.genericjpa.db.events.impl.EventModelInfo;
+
+/**
+ * {@link UpdateQuerySQLStringSource} for MySQL. The handled updates are deleted in chunks of at most
+ * acknowledgeBatchSize rows (DELETE ... ORDER BY ... LIMIT) so that a big backlog doesn't lock the update table (and
+ * with that the triggers writing into it) for the whole delete. This only helps if the transaction is committed after
+ * every chunk, which the JPAUpdateSource does both when polling and in the acknowledge stage of the pipeline. In a
+ * single transaction the chunks just add round trips as the locks are held until the end.
+ *
+ * @author Martin Braun
+ */
+public class MySQLUpdateQuerySQLStringSource extends DefaultUpdateQuerySQLStringSource {
+
+	private final int acknowledgeBatchSize;
+
+	public MySQLUpdateQuerySQLStringSource(
+			boolean deduplicatedUpdateTables,
+			boolean indexedUpdateTables,
+			int acknowledgeBatchSize) {
+		super( "`", deduplicatedUpdateTables, indexedUpdateTables );
+		this.acknowledgeBatchSize = acknowledgeBatchSize;
+	}
+
+	@Override
+	public String getAcknowledgeQuery(EventModelInfo evi, long lastUpdateId) {
+		String queryString = super.getAcknowledgeQuery( evi, lastUpdateId );
+		if ( this.acknowledgeBatchSize > 0 ) {
+			queryString += " ORDER BY " + this.escape( evi.getUpdateIdColumn() ) + " LIMIT " + this.acknowledgeBatchSize;
+		}
+		return queryString;
+	}
+
+	@Override
+	public int getAcknowledgeBatchSize() {
+		return this.acknowledgeBatchSize;
+	}
+
+}
@@ -0,0 +1,22 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.db.events.triggers;
+
+/**
+ * {@link PostgreSQLTriggerSQLStringSource} that uses statement level triggers (PostgreSQL 10 or later) so it can be
+ * configured via its class name.
+ *
+ * @author Martin Braun
+ * @see PostgreSQLTriggerSQLStringSource#setStatementLevelTriggers(boolean)
+ */
+public class PostgreSQLStatementTriggerSQLStringSource extends PostgreSQLTriggerSQLStringSource {
+
+	public PostgreSQLStatementTriggerSQLStringSource() {
+		this.setStatementLevelTriggers( true );
+	}
+
+}
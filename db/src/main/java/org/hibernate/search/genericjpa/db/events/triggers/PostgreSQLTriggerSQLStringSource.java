@@ -13,6 +13,10 @@ import org.hibernate.search.genericjpa.exception.AssertionFailure;
 
 /**
  * Created by Martin on 30.06.2015.
+ * <br>
+ * <br>
+ * By default the triggers are FOR EACH ROW triggers. On PostgreSQL 10 or later, statement level triggers can be used
+ * instead (see {@link #setStatementLevelTriggers(boolean)}).
  */
 public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource {
 
@@ -35,7 +39,7 @@ public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource
 	private static final String CREATE_FUNCTION_FORMAT_SQL = "CREATE OR REPLACE FUNCTION \"%s\"() RETURNS TRIGGER AS $$\n" +
 			"    BEGIN\n" +
 			"        INSERT INTO \"%s\"(\"%s\", \"%s\", %s)\n" +
-			"        VALUES(nextval('" + UNIQUE_ID_SEQUENCE_NAME + "'), %s, %s);\n" +
+			"        VALUES(nextval('" + UNIQUE_ID_SEQUENCE_NAME + "'), %s, %s)%s;\n" +
 			"        RETURN NEW;\n" +
 			"    END\n" +
 			"$$ LANGUAGE plpgsql;";
@@ -44,6 +48,54 @@ public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource
 			"    FOR EACH ROW\n" +
 			"    EXECUTE PROCEDURE \"%s\"();";
 
+	// 1: function, 2: update table, 3: update id column, 4: event type column, 5: id columns, 6: event type,
+	// 7: values from the transition table, 8: transition table (or a distinct select on it), 9: ON CONFLICT part
+	private static final String CREATE_STATEMENT_FUNCTION_FORMAT_SQL = "CREATE OR REPLACE FUNCTION \"%1$s\"() RETURNS TRIGGER AS $$\n" +
+			"    BEGIN\n" +
+			"        INSERT INTO \"%2$s\"(\"%3$s\", \"%4$s\", %5$s)\n" +
+			"        SELECT nextval('" + UNIQUE_ID_SEQUENCE_NAME + "'), %6$s, %7$s FROM %8$s%9$s;\n" +
+			"        RETURN NULL;\n" +
+			"    END\n" +
+			"$$ LANGUAGE plpgsql;";
+	private static final String CREATE_STATEMENT_TRIGGER_FORMAT_SQL = "CREATE TRIGGER \"%s\"\n" +
+			"    AFTER %s ON %s\n" +
+			"    REFERENCING %s TABLE AS \"%s\"\n" +
+			"    FOR EACH STATEMENT\n" +
+			"    EXECUTE PROCEDURE \"%s\"();";
+
+	private boolean deduplicating = false;
+	private boolean statementLevelTriggers = false;
+
+	/**
+	 * needs PostgreSQL 9.5 or later for ON CONFLICT
+	 */
+	@Override
+	public void setDeduplicating(boolean deduplicating) {
+		this.deduplicating = deduplicating;
+	}
+
+	@Override
+	public boolean isDeduplicating() {
+		return this.deduplicating;
+	}
+
+	/**
+	 * whether FOR EACH STATEMENT triggers with transition tables should be used instead of FOR EACH ROW triggers. These
+	 * write the ids of all rows affected by a statement with one INSERT ... SELECT instead of running the trigger
+	 * function once per row, which is a lot cheaper for bulk changes. Needs PostgreSQL 10 or later.
+	 * <br>
+	 * <br>
+	 * The triggers have to be recreated if this is changed.
+	 * defaults to false
+	 */
+	public void setStatementLevelTriggers(boolean statementLevelTriggers) {
+		this.statementLevelTriggers = statementLevelTriggers;
+	}
+
+	public boolean isStatementLevelTriggers() {
+		return this.statementLevelTriggers;
+	}
+
 	@Override
 	public String[] getUnSetupCode() {
 		return new String[] {
@@ -80,16 +132,22 @@ public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource
 		);
 		String tableName = eventModelInfo.getUpdateTableName();
 		String eventTypeColumn = eventModelInfo.getEventTypeColumn();
+		String transitionTableName = eventType == EventType.DELETE ? "oldrows" : "newrows";
 		StringBuilder valuesFromOriginal = new StringBuilder();
 		StringBuilder idColumnNames = new StringBuilder();
+		StringBuilder originalIdColumnNames = new StringBuilder();
 		int addedVals = 0;
 		for ( EventModelInfo.IdInfo idInfo : eventModelInfo.getIdInfos() ) {
 			for ( int i = 0; i < idInfo.getColumnsInUpdateTable().length; ++i ) {
 				if ( addedVals > 0 ) {
 					valuesFromOriginal.append( ", " );
 					idColumnNames.append( ", " );
+					originalIdColumnNames.append( ", " );
+				}
+				if ( this.statementLevelTriggers ) {
+					valuesFromOriginal.append( "\"" ).append( transitionTableName ).append( "\"." );
 				}
-				if ( eventType == EventType.DELETE ) {
+				else if ( eventType == EventType.DELETE ) {
 					valuesFromOriginal.append( "OLD." );
 				}
 				else {
@@ -97,6 +155,7 @@ public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource
 				}
 				valuesFromOriginal.append( idInfo.getColumnsInOriginal()[i] );
 				idColumnNames.append( "\"" + idInfo.getColumnsInUpdateTable()[i] + "\"" );
+				originalIdColumnNames.append( idInfo.getColumnsInOriginal()[i] );
 				++addedVals;
 			}
 		}
@@ -104,6 +163,42 @@ public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource
 			throw new IllegalArgumentException( "eventModelInfo didn't contain any idInfos" );
 		}
 		String eventTypeValue = String.valueOf( eventType );
+		String onConflict = this.deduplicating ? String.format(
+				"\n        ON CONFLICT (%1$s) DO UPDATE SET \"%2$s\" = EXCLUDED.\"%2$s\", \"%3$s\" = EXCLUDED.\"%3$s\"",
+				idColumnNames.toString(),
+				eventModelInfo.getUpdateIdColumn(),
+				eventTypeColumn
+		) : "";
+		if ( this.statementLevelTriggers ) {
+			String from = "\"" + transitionTableName + "\"";
+			if ( this.deduplicating ) {
+				// ON CONFLICT DO UPDATE must not hit the same row twice in one command
+				from = "(SELECT DISTINCT " + originalIdColumnNames + " FROM " + from + ") AS " + from;
+			}
+			return new String[] {
+					String.format(
+							CREATE_STATEMENT_FUNCTION_FORMAT_SQL,
+							functionName,
+							tableName,
+							eventModelInfo.getUpdateIdColumn(),
+							eventTypeColumn,
+							idColumnNames.toString(),
+							eventTypeValue,
+							valuesFromOriginal.toString(),
+							from,
+							onConflict
+					),
+					String.format(
+							CREATE_STATEMENT_TRIGGER_FORMAT_SQL,
+							triggerName,
+							EventType.toString( eventType ),
+							originalTableName,
+							eventType == EventType.DELETE ? "OLD" : "NEW",
+							transitionTableName,
+							functionName
+					)
+			};
+		}
 		return new String[] {
 				String.format(
 						CREATE_FUNCTION_FORMAT_SQL,
@@ -113,7 +208,8 @@ public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource
 						eventTypeColumn,
 						idColumnNames.toString(),
 						eventTypeValue,
-						valuesFromOriginal.toString()
+						valuesFromOriginal.toString(),
+						onConflict
 				),
 				String.format(
 						CREATE_TRIGGER_FORMAT_SQL,
@@ -152,6 +248,7 @@ public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource
 				"CREATE TABLE IF NOT EXISTS \"" + tableName + "\" (\n" +
 						"    \"" + updateIdColumn + "\" BIGINT NOT NULL,\n" +
 						"    \"" + eventTypeColumn + "\" INT NOT NULL,\n";
+		StringBuilder uniqueKey = new StringBuilder();
 		for ( EventModelInfo.IdInfo idInfo : info.getIdInfos() ) {
 			String[] columnsInUpdateTable = idInfo.getColumnsInUpdateTable();
 			ColumnType[] columnTypes = idInfo.getColumnTypes();
@@ -162,15 +259,62 @@ public class PostgreSQLTriggerSQLStringSource implements TriggerSQLStringSource
 					columnDefinition = toMySQLType( columnTypes[i] );
 				}
 				sql += "    \"" + columnsInUpdateTable[i] + "\" " + columnDefinition + " NOT NULL,\n";
+				if ( uniqueKey.length() > 0 ) {
+					uniqueKey.append( ", " );
+				}
+				uniqueKey.append( "\"" ).append( columnsInUpdateTable[i] ).append( "\"" );
 			}
 		}
-		sql += "    PRIMARY KEY (\"" + updateIdColumn + "\")\n" +
-				");";
+		sql += "    PRIMARY KEY (\"" + updateIdColumn + "\")";
+		if ( this.deduplicating ) {
+			sql += ",\n    UNIQUE (" + uniqueKey + ")";
+		}
+		sql += "\n);";
 		return new String[] {
 				sql
 		};
 	}
 
+	@Override
+	public String[] getUpdateTableIndexCreationCode(EventModelInfo info) {
+		if ( this.deduplicating ) {
+			// the unique key already covers the id columns and there is only one update id per entity
+			return new String[0];
+		}
+		// so the latest update id per entity can be found without grouping the whole table
+		String tableName = info.getUpdateTableName();
+		StringBuilder indexColumns = new StringBuilder();
+		for ( EventModelInfo.IdInfo idInfo : info.getIdInfos() ) {
+			for ( String column : idInfo.getColumnsInUpdateTable() ) {
+				indexColumns.append( "\"" ).append( column ).append( "\"" ).append( ", " );
+			}
+		}
+		indexColumns.append( "\"" ).append( info.getUpdateIdColumn() ).append( "\"" );
+		return new String[] {
+				"CREATE INDEX IF NOT EXISTS \"" + this.getUpdateTableIndexName( tableName ) + "\" ON \"" + tableName + "\" (" + indexColumns + ");"
+		};
+	}
+
+	@Override
+	public String getUpdateTableIndexQuery(EventModelInfo info) {
+		if ( this.deduplicating ) {
+			return null;
+		}
+		return "SELECT COUNT(*) FROM pg_indexes WHERE schemaname = current_schema() AND tablename = '"
+				+ info.getUpdateTableName() + "' AND indexname = '" + this.getUpdateTableIndexName(
+				info.getUpdateTableName()
+		) + "'";
+	}
+
+	private String getUpdateTableIndexName(String updateTableName) {
+		return updateTableName + "_idx_hsearch";
+	}
+
+	@Override
+	public boolean isIndexingUpdateTables() {
+		return !this.deduplicating;
+	}
+
 	private static String toMySQLType(ColumnType columnType) {
 		switch ( columnType ) {
 			case INTEGER:
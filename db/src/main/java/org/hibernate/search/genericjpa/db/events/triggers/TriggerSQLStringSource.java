@@ -8,6 +8,7 @@ package org.hibernate.search.genericjpa.db.events.triggers;
 
 import org.hibernate.search.genericjpa.db.events.impl.EventModelInfo;
 import org.hibernate.search.genericjpa.db.EventType;
+import org.hibernate.search.genericjpa.exception.SearchException;
 
 /**
  * Classes that implement this interface provide means to create the Triggers needed on the database to write C_UD
@@ -56,8 +57,83 @@ public interface TriggerSQLStringSource {
 
 	String[] getUpdateTableCreationCode(EventModelInfo info);
 
+	/**
+	 * creates the index described in {@link #isIndexingUpdateTables()} on an update table created by
+	 * {@link #getUpdateTableCreationCode(EventModelInfo)}. This is only executed if the index doesn't exist yet
+	 * (see {@link #getUpdateTableIndexQuery(EventModelInfo)}) so that it's also added to already existing update
+	 * tables.
+	 */
+	default String[] getUpdateTableIndexCreationCode(EventModelInfo info) {
+		return new String[0];
+	}
+
+	/**
+	 * @return a native query that returns a single number which is greater than 0 if the index created by
+	 * {@link #getUpdateTableIndexCreationCode(EventModelInfo)} exists on the update table or null if this instance
+	 * doesn't index the update tables
+	 */
+	default String getUpdateTableIndexQuery(EventModelInfo info) {
+		return null;
+	}
+
 	String[] getUpdateTableDropCode(EventModelInfo info);
 
 	String getDelimitedIdentifierToken();
 
+	/**
+	 * whether the update tables should hold at most one row per entity. If enabled, the update tables get a unique key
+	 * on the id columns and the triggers upsert into them: if there already is a row for the entity, its update id is
+	 * bumped and its event type is replaced instead of adding a new row. This way the update tables stay bounded by the
+	 * number of distinct entities that changed since the last poll.
+	 * <br>
+	 * <br>
+	 * The update tables (and triggers) have to be recreated if this is changed.
+	 *
+	 * @throws SearchException if this implementation doesn't support deduplicating update tables
+	 */
+	default void setDeduplicating(boolean deduplicating) {
+		if ( deduplicating ) {
+			throw new SearchException( this.getClass().getName() + " doesn't support deduplicating update tables" );
+		}
+	}
+
+	/**
+	 * @see #setDeduplicating(boolean)
+	 */
+	default boolean isDeduplicating() {
+		return false;
+	}
+
+	/**
+	 * whether the code from {@link #getUpdateTableIndexCreationCode(EventModelInfo)} creates an index on the id columns
+	 * and the update id of the update tables. If so, the latest update per entity can be looked up with an index probe
+	 * instead of grouping the whole update table on every poll.
+	 */
+	default boolean isIndexingUpdateTables() {
+		return false;
+	}
+
+	/**
+	 * @return the SQL to read from and delete from the update tables created by this instance. This has to be called
+	 * after this instance has been configured.
+	 */
+	default UpdateQuerySQLStringSource getUpdateQuerySource() {
+		return this.getUpdateQuerySource( this.isIndexingUpdateTables() );
+	}
+
+	/**
+	 * @param indexedUpdateTables whether the index from {@link #getUpdateTableIndexCreationCode(EventModelInfo)}
+	 * actually exists on all the update tables. If it doesn't, the update tables are grouped instead of probing the
+	 * index.
+	 *
+	 * @see #getUpdateQuerySource()
+	 */
+	default UpdateQuerySQLStringSource getUpdateQuerySource(boolean indexedUpdateTables) {
+		return new DefaultUpdateQuerySQLStringSource(
+				this.getDelimitedIdentifierToken(),
+				this.isDeduplicating(),
+				indexedUpdateTables
+		);
+	}
+
 }
@@ -0,0 +1,57 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.db.events.triggers;
+
+import org.hibernate.search.genericjpa.db.events.impl.EventModelInfo;
+
+/**
+ * Classes that implement this interface provide the SQL used to read the updates from the update tables created by a
+ * {@link TriggerSQLStringSource} and to delete them once they have been handled. This way every database can use the
+ * query shapes it executes best.
+ *
+ * @author Martin Braun
+ * @see TriggerSQLStringSource#getUpdateQuerySource()
+ */
+public interface UpdateQuerySQLStringSource {
+
+	/**
+	 * @param keysetPagination if true, the query has to contain the positional parameter ?1 and must only return the
+	 * updates with an update id greater than it
+	 *
+	 * @return a native query that returns the latest update of every entity in the update table, ordered by the update
+	 * id ascending. The columns have to be the update id, the event type and then the id columns in the order of
+	 * {@link EventModelInfo#getIdInfos()}
+	 */
+	String getPollQuery(EventModelInfo eventModelInfo, boolean keysetPagination);
+
+	/**
+	 * @return a native statement that deletes the handled updates, i.e. all the updates with an update id lower than or
+	 * equal to lastUpdateId
+	 */
+	String getAcknowledgeQuery(EventModelInfo eventModelInfo, long lastUpdateId);
+
+	/**
+	 * used if updates are acknowledged after other updates may have been written, where deleting a range of update ids
+	 * could delete updates that were never read.
+	 *
+	 * @return a native statement that deletes the updates of a single entity with an update id lower than or equal to
+	 * the one read. The id columns in the order of {@link EventModelInfo#getIdInfos()} are bound to the positional
+	 * parameters ?1 to ?n and the update id to ?n+1
+	 */
+	String getAcknowledgeUpdateQuery(EventModelInfo eventModelInfo);
+
+	/**
+	 * if this is greater than 0, the statement from {@link #getAcknowledgeQuery(EventModelInfo, long)} deletes at most
+	 * this many rows and is executed until it deletes less than that, committing after every chunk. Updates
+	 * acknowledged with {@link #getAcknowledgeUpdateQuery(EventModelInfo)} may be committed in chunks of this many
+	 * updates so that no lock is held for too long.
+	 */
+	default int getAcknowledgeBatchSize() {
+		return 0;
+	}
+
+}
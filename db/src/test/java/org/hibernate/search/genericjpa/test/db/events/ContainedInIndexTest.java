@@ -0,0 +1,165 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.test.db.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.search.backend.spi.Work;
+import org.hibernate.search.backend.spi.WorkType;
+import org.hibernate.search.engine.integration.impl.ExtendedSearchIntegrator;
+import org.hibernate.search.engine.metadata.impl.MetadataProvider;
+import org.hibernate.search.genericjpa.db.events.index.impl.ContainedInIndex;
+import org.hibernate.search.genericjpa.factory.StandaloneSearchConfiguration;
+import org.hibernate.search.genericjpa.factory.Transaction;
+import org.hibernate.search.genericjpa.metadata.impl.MetadataRehasher;
+import org.hibernate.search.genericjpa.metadata.impl.MetadataUtil;
+import org.hibernate.search.genericjpa.metadata.impl.RehashedTypeMetadata;
+import org.hibernate.search.genericjpa.test.db.entities.Place;
+import org.hibernate.search.genericjpa.test.db.entities.Sorcerer;
+import org.hibernate.search.spi.SearchIntegratorBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Martin Braun
+ */
+public class ContainedInIndexTest {
+
+	private Map<Class<?>, List<Class<?>>> containedInIndexOf;
+	private Map<Class<?>, RehashedTypeMetadata> rehashedTypeMetadataPerIndexRoot;
+	private ExtendedSearchIntegrator impl;
+
+	@Before
+	public void setup() {
+		MetadataProvider metadataProvider = MetadataUtil.getDummyMetadataProvider( new StandaloneSearchConfiguration() );
+		MetadataRehasher rehasher = new MetadataRehasher();
+		List<RehashedTypeMetadata> rehashedTypeMetadatas = new ArrayList<>();
+		this.rehashedTypeMetadataPerIndexRoot = new HashMap<>();
+		RehashedTypeMetadata rehashed = rehasher.rehash( metadataProvider.getTypeMetadataFor( Place.class ) );
+		rehashedTypeMetadatas.add( rehashed );
+		this.rehashedTypeMetadataPerIndexRoot.put( Place.class, rehashed );
+		this.containedInIndexOf = MetadataUtil.calculateInIndexOf( rehashedTypeMetadatas );
+
+		SearchIntegratorBuilder builder = new SearchIntegratorBuilder();
+		// we have to build an integrator here (but we don't need it afterwards)
+		builder.configuration( new StandaloneSearchConfiguration() ).buildSearchIntegrator();
+		builder.addClass( Place.class );
+		builder.addClass( Sorcerer.class );
+		this.impl = (ExtendedSearchIntegrator) builder.buildSearchIntegrator();
+	}
+
+	@After
+	public void tearDown() {
+		this.impl.close();
+	}
+
+	@Test
+	public void testRebuildAndMaintain() {
+		Place valinor = place( 1, 2, 3 );
+		Place mordor = place( 4, 5 );
+		Transaction tx = new Transaction();
+		this.impl.getWorker().performWork( new Work( valinor, WorkType.INDEX ), tx );
+		this.impl.getWorker().performWork( new Work( mordor, WorkType.INDEX ), tx );
+		tx.commit();
+
+		ContainedInIndex containedInIndex = this.containedInIndex( Long.MAX_VALUE );
+		containedInIndex.rebuild();
+		assertTrue( containedInIndex.isEnabled() );
+		assertEquals( 3, containedInIndex.size() );
+		assertEquals( Collections.singletonList( 1 ), containedInIndex.getParentIds( Place.class, Sorcerer.class, 2 ) );
+		assertEquals( Collections.singletonList( 1 ), containedInIndex.getParentIds( Place.class, Sorcerer.class, 3 ) );
+		assertEquals( Collections.singletonList( 4 ), containedInIndex.getParentIds( Place.class, Sorcerer.class, 5 ) );
+		assertEquals( Collections.emptyList(), containedInIndex.getParentIds( Place.class, Sorcerer.class, 6 ) );
+
+		// a root was rewritten
+		containedInIndex.written( place( 1, 3 ) );
+		assertEquals( Collections.emptyList(), containedInIndex.getParentIds( Place.class, Sorcerer.class, 2 ) );
+		assertEquals( Collections.singletonList( 1 ), containedInIndex.getParentIds( Place.class, Sorcerer.class, 3 ) );
+
+		// a contained entity was written, the root is found via @ContainedIn
+		Place newMordor = place( 4, 5, 6 );
+		containedInIndex.written( sorcerer( newMordor, 6 ) );
+		assertEquals( Collections.singletonList( 4 ), containedInIndex.getParentIds( Place.class, Sorcerer.class, 6 ) );
+
+		containedInIndex.deleted( Place.class, Place.class, 4 );
+		assertEquals( Collections.emptyList(), containedInIndex.getParentIds( Place.class, Sorcerer.class, 5 ) );
+		assertEquals( Collections.emptyList(), containedInIndex.getParentIds( Place.class, Sorcerer.class, 6 ) );
+
+		containedInIndex.deleted( Place.class, Sorcerer.class, 3 );
+		assertEquals( Collections.emptyList(), containedInIndex.getParentIds( Place.class, Sorcerer.class, 3 ) );
+		assertEquals( 0, containedInIndex.size() );
+
+		// we can't answer this
+		assertNull( containedInIndex.getParentIds( Place.class, Sorcerer.class, "3" ) );
+
+		containedInIndex.invalidate();
+		assertFalse( containedInIndex.isEnabled() );
+		assertNull( containedInIndex.getParentIds( Place.class, Sorcerer.class, 2 ) );
+	}
+
+	@Test
+	public void testMaxEntries() {
+		Transaction tx = new Transaction();
+		this.impl.getWorker().performWork( new Work( place( 1, 2, 3 ), WorkType.INDEX ), tx );
+		tx.commit();
+
+		ContainedInIndex containedInIndex = this.containedInIndex( 2 );
+		containedInIndex.rebuild();
+		assertTrue( containedInIndex.isEnabled() );
+
+		containedInIndex.written( place( 1, 2, 3, 4 ) );
+		assertFalse( containedInIndex.isEnabled() );
+		assertNull( containedInIndex.getParentIds( Place.class, Sorcerer.class, 2 ) );
+	}
+
+	private ContainedInIndex containedInIndex(long maxEntries) {
+		return new ContainedInIndex(
+				this.impl,
+				this.rehashedTypeMetadataPerIndexRoot,
+				this.containedInIndexOf,
+				maxEntries
+		);
+	}
+
+	private static Place place(int id, int... sorcererIds) {
+		Place place = new Place();
+		place.setId( id );
+		place.setName( "Place" + id );
+		place.setSorcerers( new HashSet<>() );
+		for ( int sorcererId : sorcererIds ) {
+			sorcerer( place, sorcererId );
+		}
+		return place;
+	}
+
+	private static Sorcerer sorcerer(Place place, int id) {
+		for ( Sorcerer sorcerer : place.getSorcerers() ) {
+			if ( sorcerer.getId() == id ) {
+				return sorcerer;
+			}
+		}
+		Sorcerer sorcerer = new Sorcerer();
+		sorcerer.setId( id );
+		sorcerer.setName( "Sorcerer" + id );
+		sorcerer.setPlace( place );
+		place.getSorcerers().add( sorcerer );
+		return sorcerer;
+	}
+
+}
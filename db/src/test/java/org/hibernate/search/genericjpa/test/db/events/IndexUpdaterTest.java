@@ -24,10 +24,12 @@ import org.hibernate.search.exception.AssertionFailure;
 import org.hibernate.search.genericjpa.db.EventType;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer.UpdateEventInfo;
+import org.hibernate.search.genericjpa.db.events.index.impl.ContainedInIndex;
 import org.hibernate.search.genericjpa.db.events.index.impl.IndexUpdater;
 import org.hibernate.search.genericjpa.db.events.index.impl.IndexUpdater.IndexWrapper;
 import org.hibernate.search.genericjpa.entity.EntityProvider;
 import org.hibernate.search.genericjpa.entity.ReusableEntityProvider;
+import org.hibernate.search.genericjpa.exception.SearchException;
 import org.hibernate.search.genericjpa.factory.StandaloneSearchConfiguration;
 import org.hibernate.search.genericjpa.factory.Transaction;
 import org.hibernate.search.genericjpa.metadata.impl.MetadataRehasher;
@@ -41,7 +43,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Martin Braun
@@ -181,6 +185,282 @@ public class IndexUpdaterTest {
 
 	@Test
 	public void testWithIndex() {
+		this.testWithIndex( 1, false );
+	}
+
+	@Test
+	public void testWithIndexStriped() {
+		this.testWithIndex( 4, false );
+	}
+
+	@Test
+	public void testStripedInterleavedEvents() {
+		// what is in the database after all the events below happened
+		Map<Integer, String> database = new HashMap<>();
+		database.put( 1, "Tirion" );
+		database.put( 3, "Formenos" );
+		database.put( 6, "Alqualonde" );
+		database.put( 7, "Avallone" );
+		ExtendedSearchIntegrator impl = this.buildSearchIntegrator();
+		IndexUpdater updater = new IndexUpdater(
+				this.rehashedTypeMetadataPerIndexRoot,
+				this.containedInIndexOf,
+				() -> new ReusableEntityProvider() {
+
+					@SuppressWarnings({"rawtypes", "unchecked"})
+					@Override
+					public List getBatch(Class<?> entityClass, List<Object> ids, Map<String, Object> hints) {
+						List ret = new ArrayList<>();
+						for ( Object id : ids ) {
+							Object obj = this.get( entityClass, id, hints );
+							if ( obj != null ) {
+								ret.add( obj );
+							}
+						}
+						return ret;
+					}
+
+					@Override
+					public Object get(Class<?> entityClass, Object id, Map<String, Object> hints) {
+						String name = database.get( id );
+						if ( !Place.class.equals( entityClass ) || name == null ) {
+							return null;
+						}
+						return IndexUpdaterTest.this.place( (Integer) id, name );
+					}
+
+					@Override
+					public void open() {
+
+					}
+
+					@Override
+					public void close() {
+
+					}
+
+				},
+				4,
+				impl
+		);
+		try {
+			// outdated documents from before the events
+			{
+				Transaction tx = new Transaction();
+				for ( int id = 1; id <= 4; ++id ) {
+					impl.getWorker().performWork( new Work( this.place( id, "Stale" ), WorkType.INDEX ), tx );
+				}
+				tx.commit();
+				this.assertCount( impl, 4 );
+			}
+
+			// several events per entity, interleaved over the entities (and therefore the stripes)
+			updater.updateEvent(
+					Arrays.asList(
+							new UpdateEventInfo( Place.class, 1, EventType.UPDATE ),
+							new UpdateEventInfo( Place.class, 2, EventType.UPDATE ),
+							new UpdateEventInfo( Place.class, 3, EventType.DELETE ),
+							new UpdateEventInfo( Place.class, 5, EventType.INSERT ),
+							new UpdateEventInfo( Place.class, 7, EventType.INSERT ),
+							new UpdateEventInfo( Place.class, 1, EventType.UPDATE ),
+							new UpdateEventInfo( Place.class, 2, EventType.DELETE ),
+							new UpdateEventInfo( Place.class, 3, EventType.INSERT ),
+							new UpdateEventInfo( Place.class, 6, EventType.INSERT ),
+							new UpdateEventInfo( Place.class, 5, EventType.DELETE ),
+							new UpdateEventInfo( Place.class, 4, EventType.UPDATE ),
+							new UpdateEventInfo( Place.class, 8, EventType.DELETE ),
+							new UpdateEventInfo( Place.class, 7, EventType.UPDATE ),
+							new UpdateEventInfo( Place.class, 4, EventType.DELETE ),
+							new UpdateEventInfo( Place.class, 3, EventType.UPDATE )
+					)
+			);
+
+			this.assertCount( impl, database.size() );
+			this.assertNameCount( impl, "Stale", 0 );
+			for ( String name : database.values() ) {
+				this.assertNameCount( impl, name, 1 );
+			}
+		}
+		finally {
+			updater.close();
+			impl.close();
+		}
+	}
+
+	@Test
+	public void testBatchLoadedEntitiesAreNotLoadedAgain() {
+		Map<Integer, String> database = new HashMap<>();
+		database.put( 1, "Tirion" );
+		database.put( 3, "Formenos" );
+		int[] batches = {0};
+		ExtendedSearchIntegrator impl = this.buildSearchIntegrator();
+		IndexUpdater updater = new IndexUpdater(
+				this.rehashedTypeMetadataPerIndexRoot,
+				this.containedInIndexOf,
+				() -> new ReusableEntityProvider() {
+
+					@SuppressWarnings({"rawtypes", "unchecked"})
+					@Override
+					public List getBatch(Class<?> entityClass, List<Object> ids, Map<String, Object> hints) {
+						++batches[0];
+						List ret = new ArrayList<>();
+						for ( Object id : ids ) {
+							String name = database.get( id );
+							if ( name != null ) {
+								ret.add( IndexUpdaterTest.this.place( (Integer) id, name ) );
+							}
+						}
+						return ret;
+					}
+
+					@Override
+					public Object get(Class<?> entityClass, Object id, Map<String, Object> hints) {
+						throw new AssertionFailure( "batch loaded entities must not be loaded one by one" );
+					}
+
+					@Override
+					public void open() {
+
+					}
+
+					@Override
+					public void close() {
+
+					}
+
+				},
+				1,
+				impl
+		);
+		try {
+			// 2 and 4 were deleted after these events were written
+			updater.updateEvent(
+					Arrays.asList(
+							new UpdateEventInfo( Place.class, 1, EventType.INSERT ),
+							new UpdateEventInfo( Place.class, 2, EventType.INSERT ),
+							new UpdateEventInfo( Place.class, 3, EventType.UPDATE ),
+							new UpdateEventInfo( Place.class, 4, EventType.UPDATE )
+					)
+			);
+			assertEquals( 1, batches[0] );
+			this.assertCount( impl, 2 );
+			this.assertNameCount( impl, "Tirion", 1 );
+			this.assertNameCount( impl, "Formenos", 1 );
+		}
+		finally {
+			updater.close();
+			impl.close();
+		}
+	}
+
+	@Test
+	public void testWithIndexAndContainedInIndex() {
+		this.testWithIndex( 1, true );
+	}
+
+	@Test
+	public void testContainedInIndexIsRebuiltAfterRollback() {
+		ExtendedSearchIntegrator impl = this.buildSearchIntegrator();
+		IndexUpdater updater = new IndexUpdater(
+				this.rehashedTypeMetadataPerIndexRoot,
+				this.containedInIndexOf,
+				() -> this.entityProvider,
+				1,
+				impl
+		);
+		ContainedInIndex containedInIndex = new ContainedInIndex(
+				impl,
+				this.rehashedTypeMetadataPerIndexRoot,
+				this.containedInIndexOf,
+				Long.MAX_VALUE
+		);
+		containedInIndex.rebuild();
+		updater.setContainedInIndex( containedInIndex );
+		try {
+			updater.updateEvent( this.createUpdateInfoForInsert() );
+			this.assertCount( impl, 1 );
+			assertTrue( containedInIndex.isEnabled() );
+
+			EntityProvider failing = new EntityProvider() {
+
+				@SuppressWarnings("rawtypes")
+				@Override
+				public List getBatch(Class<?> entityClass, List<Object> ids, Map<String, Object> hints) {
+					throw new AssertionFailure( "not to be used in this test!" );
+				}
+
+				@Override
+				public Object get(Class<?> entityClass, Object id, Map<String, Object> hints) {
+					throw new IllegalStateException( "database is gone" );
+				}
+
+				@Override
+				public void close() {
+
+				}
+
+			};
+			try {
+				updater.updateEvent( this.createUpdateInfoForInsert(), failing );
+				fail( "the batch should have failed" );
+			}
+			catch (SearchException e) {
+				// expected
+			}
+			assertFalse( containedInIndex.isEnabled() );
+
+			// the next batch rebuilds it
+			updater.updateEvent( this.createUpdateInfoForInsert() );
+			this.assertCount( impl, 1 );
+			assertTrue( containedInIndex.isEnabled() );
+		}
+		finally {
+			updater.close();
+			impl.close();
+		}
+	}
+
+	@Test
+	public void testWithShadowIntegrator() {
+		ExtendedSearchIntegrator impl = this.buildSearchIntegrator();
+		ExtendedSearchIntegrator shadow = this.buildSearchIntegrator();
+		IndexUpdater updater = new IndexUpdater(
+				this.rehashedTypeMetadataPerIndexRoot,
+				this.containedInIndexOf,
+				() -> this.entityProvider,
+				1,
+				impl
+		);
+		try {
+			updater.runExclusively( () -> updater.setShadowIntegrator( shadow ) );
+
+			// the document is already in the shadow index (e.g. written by the MassIndexer)
+			{
+				Transaction tx = new Transaction();
+				shadow.getWorker().performWork( new Work( this.obj( Place.class ), WorkType.INDEX ), tx );
+				tx.commit();
+			}
+			updater.updateEvent( this.createUpdateInfoForInsert() );
+			this.assertCount( impl, 1 );
+			this.assertCount( shadow, 1 );
+
+			updater.updateEvent( Arrays.asList( new UpdateEventInfo( Place.class, 1, EventType.DELETE ) ) );
+			this.assertCount( impl, 0 );
+			this.assertCount( shadow, 0 );
+
+			updater.runExclusively( () -> updater.setShadowIntegrator( null ) );
+			updater.updateEvent( this.createUpdateInfoForInsert() );
+			this.assertCount( impl, 1 );
+			this.assertCount( shadow, 0 );
+		}
+		finally {
+			updater.close();
+			shadow.close();
+			impl.close();
+		}
+	}
+
+	private ExtendedSearchIntegrator buildSearchIntegrator() {
 		SearchConfiguration searchConfiguration = new StandaloneSearchConfiguration();
 		List<Class<?>> classes = Arrays.asList( Place.class, Sorcerer.class );
 
@@ -192,14 +472,30 @@ public class IndexUpdaterTest {
 					builder.addClass( clazz );
 				}
 		);
-		ExtendedSearchIntegrator impl = (ExtendedSearchIntegrator) builder.buildSearchIntegrator();
+		return (ExtendedSearchIntegrator) builder.buildSearchIntegrator();
+	}
+
+	private void testWithIndex(int threads, boolean containedInIndex) {
+		ExtendedSearchIntegrator impl = this.buildSearchIntegrator();
 
 		IndexUpdater updater = new IndexUpdater(
 				this.rehashedTypeMetadataPerIndexRoot,
 				this.containedInIndexOf,
-				this.entityProvider,
+				() -> this.entityProvider,
+				threads,
 				impl
 		);
+		if ( containedInIndex ) {
+			updater.setContainedInIndex(
+					new ContainedInIndex(
+							impl,
+							this.rehashedTypeMetadataPerIndexRoot,
+							this.containedInIndexOf,
+							Long.MAX_VALUE
+					)
+			);
+			updater.getContainedInIndex().rebuild();
+		}
 		try {
 			this.reset( updater, impl );
 
@@ -211,6 +507,9 @@ public class IndexUpdaterTest {
 			this.tryOutUpdate( updater, impl, 0, 1, Place.class, "name", "Valinor" );
 			this.tryOutUpdate( updater, impl, 0, 2, Sorcerer.class, "sorcerers.name", "Saruman" );
 
+			if ( containedInIndex ) {
+				assertTrue( updater.getContainedInIndex().isEnabled() );
+			}
 		}
 		finally {
 			updater.close();
@@ -259,6 +558,33 @@ public class IndexUpdaterTest {
 		);
 	}
 
+	private void assertNameCount(ExtendedSearchIntegrator impl, String name, int count) {
+		assertEquals(
+				name,
+				count,
+				impl.createHSQuery()
+						.targetedEntities( Arrays.asList( Place.class ) )
+						.luceneQuery(
+								impl.buildQueryBuilder()
+										.forEntity( Place.class )
+										.get()
+										.keyword()
+										.onField( "name" )
+										.matching( name )
+										.createQuery()
+						)
+						.queryResultSize()
+		);
+	}
+
+	private Place place(int id, String name) {
+		Place place = new Place();
+		place.setId( id );
+		place.setName( name );
+		place.setSorcerers( new HashSet<>() );
+		return place;
+	}
+
 	private void tryOutDelete(
 			IndexUpdater updater,
 			ExtendedSearchIntegrator impl,
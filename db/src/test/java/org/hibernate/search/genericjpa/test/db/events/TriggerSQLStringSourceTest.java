@@ -13,14 +13,23 @@ import org.hibernate.search.genericjpa.db.events.impl.AnnotationEventModelParser
 import org.hibernate.search.genericjpa.db.events.impl.EventModelInfo;
 import org.hibernate.search.genericjpa.db.events.impl.EventModelParser;
 import org.hibernate.search.genericjpa.db.EventType;
+import org.hibernate.search.genericjpa.db.events.triggers.DefaultUpdateQuerySQLStringSource;
 import org.hibernate.search.genericjpa.db.events.triggers.HSQLDBTriggerSQLStringSource;
 import org.hibernate.search.genericjpa.db.events.triggers.MySQLTriggerSQLStringSource;
+import org.hibernate.search.genericjpa.db.events.triggers.MySQLUUIDShortTriggerSQLStringSource;
+import org.hibernate.search.genericjpa.db.events.triggers.PostgreSQLStatementTriggerSQLStringSource;
 import org.hibernate.search.genericjpa.db.events.triggers.PostgreSQLTriggerSQLStringSource;
 import org.hibernate.search.genericjpa.db.events.triggers.TriggerSQLStringSource;
+import org.hibernate.search.genericjpa.db.events.triggers.UpdateQuerySQLStringSource;
 import org.hibernate.search.genericjpa.test.db.entities.Place;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author Martin
  */
@@ -41,6 +50,143 @@ public class TriggerSQLStringSourceTest {
 		this.test( new HSQLDBTriggerSQLStringSource() );
 	}
 
+	@Test
+	public void testDeduplicating() {
+		this.testDeduplicating( new MySQLTriggerSQLStringSource(), "ON DUPLICATE KEY UPDATE" );
+		this.testDeduplicating( new PostgreSQLTriggerSQLStringSource(), "ON CONFLICT" );
+		this.testDeduplicating( new HSQLDBTriggerSQLStringSource(), "MERGE INTO" );
+	}
+
+	@Test
+	public void testMySQLUUIDShort() {
+		MySQLTriggerSQLStringSource triggerSource = new MySQLUUIDShortTriggerSQLStringSource();
+		this.test( triggerSource );
+		EventModelParser parser = new AnnotationEventModelParser();
+		EventModelInfo info = parser.parse( new HashSet<>( Arrays.asList( Place.class ) ) ).get( 0 );
+		// neither the unique id table nor the cleanup triggers are needed
+		assertEquals( 0, triggerSource.getSetupCode().length );
+		assertEquals( 0, triggerSource.getSpecificSetupCode( info ).length );
+		for ( int eventType : EventType.values() ) {
+			String triggerCreationString = String.join( "\n", triggerSource.getTriggerCreationCode( info, eventType ) );
+			assertTrue( triggerCreationString.contains( "UUID_SHORT()" ) );
+			assertFalse( triggerCreationString.contains( MySQLTriggerSQLStringSource.DEFAULT_UNIQUE_ID_PROCEDURE_NAME ) );
+		}
+	}
+
+	@Test
+	public void testPostgreSQLStatementTriggers() {
+		PostgreSQLTriggerSQLStringSource triggerSource = new PostgreSQLStatementTriggerSQLStringSource();
+		this.test( triggerSource );
+		EventModelParser parser = new AnnotationEventModelParser();
+		EventModelInfo info = parser.parse( new HashSet<>( Arrays.asList( Place.class ) ) ).get( 0 );
+		for ( int eventType : EventType.values() ) {
+			String triggerCreationString = String.join( "\n", triggerSource.getTriggerCreationCode( info, eventType ) );
+			assertTrue( triggerCreationString.contains( "FOR EACH STATEMENT" ) );
+			assertTrue(
+					triggerCreationString.contains(
+							(eventType == EventType.DELETE ? "OLD" : "NEW") + " TABLE AS"
+					)
+			);
+			assertFalse( triggerCreationString.contains( "FOR EACH ROW" ) );
+		}
+		triggerSource.setDeduplicating( true );
+		assertTrue(
+				String.join( "\n", triggerSource.getTriggerCreationCode( info, EventType.UPDATE ) )
+						.contains( "SELECT DISTINCT" )
+		);
+	}
+
+	@Test
+	public void testUpdateTableIndex() {
+		for ( TriggerSQLStringSource triggerSource : Arrays.asList(
+				new MySQLTriggerSQLStringSource(),
+				new PostgreSQLTriggerSQLStringSource(),
+				new HSQLDBTriggerSQLStringSource()
+		) ) {
+			EventModelParser parser = new AnnotationEventModelParser();
+			EventModelInfo info = parser.parse( new HashSet<>( Arrays.asList( Place.class ) ) ).get( 0 );
+			assertTrue( triggerSource.isIndexingUpdateTables() );
+			// the index is created separately so that it's only created if it doesn't exist yet
+			assertEquals( 1, triggerSource.getUpdateTableCreationCode( info ).length );
+			String[] indexCreationString = triggerSource.getUpdateTableIndexCreationCode( info );
+			assertEquals( 1, indexCreationString.length );
+			String token = triggerSource.getDelimitedIdentifierToken();
+			assertTrue(
+					indexCreationString[0].contains(
+							"(" + token + info.getIdInfos().get( 0 ).getColumnsInUpdateTable()[0] + token + ", "
+									+ token + info.getUpdateIdColumn() + token + ")"
+					)
+			);
+			String indexQuery = triggerSource.getUpdateTableIndexQuery( info );
+			assertTrue( indexQuery.contains( "'" + info.getUpdateTableName() + "_idx_hsearch'" ) );
+
+			// deduplicating update tables don't need the index
+			triggerSource.setDeduplicating( true );
+			assertFalse( triggerSource.isIndexingUpdateTables() );
+			assertEquals( 1, triggerSource.getUpdateTableCreationCode( info ).length );
+			assertEquals( 0, triggerSource.getUpdateTableIndexCreationCode( info ).length );
+			assertNull( triggerSource.getUpdateTableIndexQuery( info ) );
+		}
+	}
+
+	@Test
+	public void testUpdateQuerySource() {
+		EventModelParser parser = new AnnotationEventModelParser();
+		EventModelInfo info = parser.parse( new HashSet<>( Arrays.asList( Place.class ) ) ).get( 0 );
+
+		MySQLTriggerSQLStringSource mySQL = new MySQLTriggerSQLStringSource();
+		mySQL.setAcknowledgeBatchSize( 500 );
+		UpdateQuerySQLStringSource mySQLQuerySource = mySQL.getUpdateQuerySource();
+		assertEquals( 500, mySQLQuerySource.getAcknowledgeBatchSize() );
+		assertTrue( mySQLQuerySource.getAcknowledgeQuery( info, 10 ).endsWith( "LIMIT 500" ) );
+
+		PostgreSQLTriggerSQLStringSource postgreSQL = new PostgreSQLTriggerSQLStringSource();
+		UpdateQuerySQLStringSource postgreSQLQuerySource = postgreSQL.getUpdateQuerySource();
+		assertEquals( 0, postgreSQLQuerySource.getAcknowledgeBatchSize() );
+		assertFalse( postgreSQLQuerySource.getAcknowledgeQuery( info, 10 ).contains( "LIMIT" ) );
+		// the update tables are indexed, so there is no need to group them
+		String pollQuery = postgreSQLQuerySource.getPollQuery( info, true );
+		assertTrue( pollQuery.contains( "NOT EXISTS" ) );
+		assertFalse( pollQuery.contains( "GROUP BY" ) );
+		assertTrue( pollQuery.contains( "?1" ) );
+		assertFalse( postgreSQLQuerySource.getPollQuery( info, false ).contains( "?1" ) );
+		// one parameter per id column and one for the update id
+		String acknowledgeUpdateQuery = postgreSQLQuerySource.getAcknowledgeUpdateQuery( info );
+		int idColumns = 0;
+		for ( EventModelInfo.IdInfo idInfo : info.getIdInfos() ) {
+			idColumns += idInfo.getColumnsInUpdateTable().length;
+		}
+		assertTrue( acknowledgeUpdateQuery.endsWith( " <= ?" + (idColumns + 1) ) );
+		assertFalse( mySQLQuerySource.getAcknowledgeUpdateQuery( info ).contains( "LIMIT" ) );
+
+		postgreSQL.setDeduplicating( true );
+		pollQuery = postgreSQL.getUpdateQuerySource().getPollQuery( info, true );
+		assertFalse( pollQuery.contains( "NOT EXISTS" ) );
+		assertFalse( pollQuery.contains( "GROUP BY" ) );
+
+		pollQuery = new DefaultUpdateQuerySQLStringSource( "\"", false, false ).getPollQuery( info, true );
+		assertTrue( pollQuery.contains( "GROUP BY" ) );
+
+		// the index doesn't exist
+		pollQuery = new PostgreSQLTriggerSQLStringSource().getUpdateQuerySource( false ).getPollQuery( info, true );
+		assertTrue( pollQuery.contains( "GROUP BY" ) );
+		pollQuery = mySQL.getUpdateQuerySource( false ).getPollQuery( info, true );
+		assertTrue( pollQuery.contains( "GROUP BY" ) );
+	}
+
+	private void testDeduplicating(TriggerSQLStringSource triggerSource, String upsert) {
+		EventModelParser parser = new AnnotationEventModelParser();
+		EventModelInfo info = parser.parse( new HashSet<>( Arrays.asList( Place.class ) ) ).get( 0 );
+		triggerSource.setDeduplicating( true );
+		assertTrue( triggerSource.isDeduplicating() );
+		assertTrue( triggerSource.getUpdateTableCreationCode( info )[0].contains( "UNIQUE" ) );
+		for ( int eventType : EventType.values() ) {
+			String[] triggerCreationString = triggerSource.getTriggerCreationCode( info, eventType );
+			System.out.println( "CREATE TRIGGERS: " + Arrays.asList( triggerCreationString ) );
+			assertTrue( String.join( "\n", triggerCreationString ).contains( upsert ) );
+		}
+	}
+
 	private void test(TriggerSQLStringSource triggerSource) {
 		EventModelParser parser = new AnnotationEventModelParser();
 		EventModelInfo info = parser.parse( new HashSet<>( Arrays.asList( Place.class ) ) ).get( 0 );
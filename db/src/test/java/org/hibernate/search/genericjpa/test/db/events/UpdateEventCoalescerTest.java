@@ -0,0 +1,77 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.test.db.events;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.search.genericjpa.db.EventType;
+import org.hibernate.search.genericjpa.db.events.UpdateConsumer.UpdateEventInfo;
+import org.hibernate.search.genericjpa.db.events.impl.UpdateEventCoalescer;
+import org.hibernate.search.genericjpa.test.db.entities.Place;
+import org.hibernate.search.genericjpa.test.db.entities.Sorcerer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Martin Braun
+ */
+public class UpdateEventCoalescerTest {
+
+	@Test
+	public void testNetEffect() {
+		assertEquals(
+				Arrays.asList( new UpdateEventInfo( Place.class, 1, EventType.INSERT ) ),
+				coalesce( Place.class, 1, EventType.INSERT, EventType.UPDATE, EventType.UPDATE )
+		);
+		assertTrue( coalesce( Place.class, 1, EventType.INSERT, EventType.UPDATE, EventType.DELETE ).isEmpty() );
+		assertEquals(
+				Arrays.asList( new UpdateEventInfo( Place.class, 1, EventType.DELETE ) ),
+				coalesce( Place.class, 1, EventType.UPDATE, EventType.DELETE )
+		);
+		assertEquals(
+				Arrays.asList( new UpdateEventInfo( Place.class, 1, EventType.UPDATE ) ),
+				coalesce( Place.class, 1, EventType.DELETE, EventType.INSERT )
+		);
+		assertEquals(
+				Arrays.asList( new UpdateEventInfo( Place.class, 1, EventType.DELETE ) ),
+				coalesce( Place.class, 1, EventType.DELETE, EventType.INSERT, EventType.DELETE )
+		);
+	}
+
+	@Test
+	public void testOrder() {
+		List<UpdateEventInfo> coalesced = UpdateEventCoalescer.coalesce(
+				Arrays.asList(
+						new UpdateEventInfo( Place.class, 1, EventType.UPDATE ),
+						new UpdateEventInfo( Sorcerer.class, 1, EventType.UPDATE ),
+						new UpdateEventInfo( Place.class, 2, EventType.INSERT ),
+						new UpdateEventInfo( Place.class, 1, EventType.UPDATE )
+				)
+		);
+		assertEquals(
+				Arrays.asList(
+						new UpdateEventInfo( Sorcerer.class, 1, EventType.UPDATE ),
+						new UpdateEventInfo( Place.class, 2, EventType.INSERT ),
+						new UpdateEventInfo( Place.class, 1, EventType.UPDATE )
+				),
+				coalesced
+		);
+	}
+
+	private static List<UpdateEventInfo> coalesce(Class<?> entityClass, Object id, int... eventTypes) {
+		UpdateEventInfo[] updateInfos = new UpdateEventInfo[eventTypes.length];
+		for ( int i = 0; i < eventTypes.length; ++i ) {
+			updateInfos[i] = new UpdateEventInfo( entityClass, id, eventTypes[i] );
+		}
+		return UpdateEventCoalescer.coalesce( Arrays.asList( updateInfos ) );
+	}
+
+}
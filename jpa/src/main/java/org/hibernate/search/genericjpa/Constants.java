@@ -22,8 +22,30 @@ public class Constants {
 	public static final String BATCH_SIZE_FOR_UPDATES_DEFAULT_VALUE = "5";
 	public static final String BATCH_SIZE_FOR_UPDATE_QUERIES_KEY = "hibernate.search.trigger.batchSizeForUpdateQueries";
 	public static final String BATCH_SIZE_FOR_UPDATE_QUERIES_DEFAULT_VALUE = "20";
+	public static final String KEYSET_PAGINATION_KEY = "hibernate.search.trigger.keysetPagination";
+	public static final String KEYSET_PAGINATION_DEFAULT_VALUE = "true";
 	public static final String UPDATE_DELAY_KEY = "hibernate.search.trigger.updateDelay";
 	public static final String UPDATE_DELAY_DEFAULT_VALUE = "500";
+	public static final String MAX_UPDATE_DELAY_KEY = "hibernate.search.trigger.maxUpdateDelay";
+	public static final String MAX_UPDATES_PER_POLL_KEY = "hibernate.search.trigger.maxUpdatesPerPoll";
+	public static final String MAX_UPDATES_PER_POLL_DEFAULT_VALUE = "10000";
+	public static final String PIPELINED_UPDATES_KEY = "hibernate.search.trigger.pipelined";
+	public static final String PIPELINED_UPDATES_DEFAULT_VALUE = "false";
+	public static final String PIPELINE_QUEUE_SIZE_KEY = "hibernate.search.trigger.pipelineQueueSize";
+	public static final String PIPELINE_QUEUE_SIZE_DEFAULT_VALUE = "10";
+	public static final String COALESCE_UPDATES_KEY = "hibernate.search.trigger.coalesceUpdates";
+	public static final String COALESCE_UPDATES_DEFAULT_VALUE = "false";
+	public static final String DEDUPLICATE_UPDATES_KEY = "hibernate.search.trigger.deduplicate";
+	public static final String DEDUPLICATE_UPDATES_DEFAULT_VALUE = "false";
+	public static final String INDEX_UPDATER_THREADS_KEY = "hibernate.search.indexUpdater.threads";
+	public static final String INDEX_UPDATER_THREADS_DEFAULT_VALUE = "1";
+	public static final String CONTAINED_IN_INDEX_KEY = "hibernate.search.indexUpdater.containedInIndex";
+	public static final String CONTAINED_IN_INDEX_DEFAULT_VALUE = "false";
+	public static final String CONTAINED_IN_INDEX_MAX_ENTRIES_KEY = "hibernate.search.indexUpdater.containedInIndexMaxEntries";
+	public static final String CONTAINED_IN_INDEX_MAX_ENTRIES_DEFAULT_VALUE = "10000000";
+	public static final String USE_ENTITY_GRAPHS_KEY = "hibernate.search.useEntityGraphs";
+	public static final String USE_ENTITY_GRAPHS_DEFAULT_VALUE = "true";
+	public static final String SHADOW_INDEX_BASE_KEY = "hibernate.search.shadowIndexBase";
 	public static final String TRIGGER_SOURCE_KEY = "hibernate.search.trigger.source";
 	public static final String ADDITIONAL_INDEXED_TYPES_KEY = "hibernate.search.additionalIndexedTypes";
 	public static final String SEARCH_FACTORY_NAME_KEY = SearchFactoryRegistry.NAME_PROPERTY;
@@ -33,6 +33,12 @@ import org.hibernate.search.genericjpa.transaction.TransactionManagerProvider;
 import static org.hibernate.search.genericjpa.Constants.ADDITIONAL_INDEXED_TYPES_KEY;
 import static org.hibernate.search.genericjpa.Constants.BATCH_SIZE_FOR_UPDATES_DEFAULT_VALUE;
 import static org.hibernate.search.genericjpa.Constants.BATCH_SIZE_FOR_UPDATES_KEY;
+import static org.hibernate.search.genericjpa.Constants.CONTAINED_IN_INDEX_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.CONTAINED_IN_INDEX_KEY;
+import static org.hibernate.search.genericjpa.Constants.CONTAINED_IN_INDEX_MAX_ENTRIES_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.CONTAINED_IN_INDEX_MAX_ENTRIES_KEY;
+import static org.hibernate.search.genericjpa.Constants.INDEX_UPDATER_THREADS_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.INDEX_UPDATER_THREADS_KEY;
 import static org.hibernate.search.genericjpa.Constants.SEARCH_FACTORY_TYPE_DEFAULT_VALUE;
 import static org.hibernate.search.genericjpa.Constants.SEARCH_FACTORY_TYPE_KEY;
 import static org.hibernate.search.genericjpa.Constants.TRANSACTION_MANAGER_PROVIDER_DEFAULT_VALUE;
@@ -44,6 +50,8 @@ import static org.hibernate.search.genericjpa.Constants.TRIGGER_CREATION_STRATEG
 import static org.hibernate.search.genericjpa.Constants.TRIGGER_SOURCE_KEY;
 import static org.hibernate.search.genericjpa.Constants.UPDATE_DELAY_DEFAULT_VALUE;
 import static org.hibernate.search.genericjpa.Constants.UPDATE_DELAY_KEY;
+import static org.hibernate.search.genericjpa.Constants.USE_ENTITY_GRAPHS_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.USE_ENTITY_GRAPHS_KEY;
 import static org.hibernate.search.genericjpa.Constants.USE_JTA_TRANSACTIONS_DEFAULT_VALUE;
 import static org.hibernate.search.genericjpa.Constants.USE_JTA_TRANSACTIONS_KEY;
 
@@ -193,6 +201,30 @@ public final class Setup {
 									BATCH_SIZE_FOR_UPDATES_DEFAULT_VALUE
 							)
 					);
+			Integer indexUpdaterThreads = Integer.parseInt(
+					(String) properties.getOrDefault(
+							INDEX_UPDATER_THREADS_KEY,
+							INDEX_UPDATER_THREADS_DEFAULT_VALUE
+					)
+			);
+			boolean containedInIndex = Boolean.parseBoolean(
+					(String) properties.getOrDefault(
+							CONTAINED_IN_INDEX_KEY,
+							CONTAINED_IN_INDEX_DEFAULT_VALUE
+					)
+			);
+			long containedInIndexMaxEntries = Long.parseLong(
+					(String) properties.getOrDefault(
+							CONTAINED_IN_INDEX_MAX_ENTRIES_KEY,
+							CONTAINED_IN_INDEX_MAX_ENTRIES_DEFAULT_VALUE
+					)
+			);
+			boolean useEntityGraphs = Boolean.parseBoolean(
+					(String) properties.getOrDefault(
+							USE_ENTITY_GRAPHS_KEY,
+							USE_ENTITY_GRAPHS_DEFAULT_VALUE
+					)
+			);
 			Integer updateDelay = Integer.parseInt(
 					(String) properties.getOrDefault(
 							UPDATE_DELAY_KEY,
@@ -237,6 +269,12 @@ public final class Setup {
 					.setUpdateDelay(
 							updateDelay
 					)
+					.setIndexUpdaterThreads(
+							indexUpdaterThreads
+					)
+					.setUseContainedInIndex( containedInIndex )
+					.setContainedInIndexMaxEntries( containedInIndexMaxEntries )
+					.setUseEntityGraphs( useEntityGraphs )
 					.setTransactionManager( transactionManager );
 
 			//initialize this
@@ -0,0 +1,68 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The number of differences an {@link IndexVerifier} found per root type
+ *
+ * @author Martin Braun
+ */
+public final class IndexVerificationResult {
+
+	private final Map<Class<?>, Long> missing = new HashMap<>();
+	private final Map<Class<?>, Long> stale = new HashMap<>();
+
+	public void missing(Class<?> entityType) {
+		this.missing.merge( entityType, 1L, Long::sum );
+	}
+
+	public void stale(Class<?> entityType) {
+		this.stale.merge( entityType, 1L, Long::sum );
+	}
+
+	/**
+	 * @return the number of entities of the given type that were in the database but not in the index
+	 */
+	public long getMissing(Class<?> entityType) {
+		return this.missing.getOrDefault( entityType, 0L );
+	}
+
+	/**
+	 * @return the number of documents of the given type that were in the index but not in the database
+	 */
+	public long getStale(Class<?> entityType) {
+		return this.stale.getOrDefault( entityType, 0L );
+	}
+
+	public Map<Class<?>, Long> getMissing() {
+		return Collections.unmodifiableMap( this.missing );
+	}
+
+	public Map<Class<?>, Long> getStale() {
+		return Collections.unmodifiableMap( this.stale );
+	}
+
+	/**
+	 * @return whether no differences were found
+	 */
+	public boolean isConsistent() {
+		return this.missing.isEmpty() && this.stale.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "IndexVerificationResult{" +
+				"missing=" + this.missing +
+				", stale=" + this.stale +
+				'}';
+	}
+
+}
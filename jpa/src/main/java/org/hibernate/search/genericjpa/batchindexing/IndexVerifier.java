@@ -0,0 +1,58 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing;
+
+/**
+ * Compares the ids in the index with the ids in the database without loading all of them into memory. Documents for
+ * entities that are in the database but not in the index are reported as missing, documents in the index for entities
+ * that are not in the database anymore are reported as stale. Both can be repaired by sending the corresponding
+ * updates to the index updating mechanism.
+ *
+ * @author Martin Braun
+ */
+public interface IndexVerifier {
+
+	/**
+	 * set the number of ids that are compared per query to the database
+	 */
+	IndexVerifier batchSize(int batchSize);
+
+	/**
+	 * set whether to repair the differences found. missing documents are (re-)indexed, stale ones are deleted
+	 */
+	IndexVerifier repair(boolean repair);
+
+	/**
+	 * set the listener that is notified about every difference found
+	 */
+	IndexVerifier listener(Listener listener);
+
+	/**
+	 * only applied in a JTA context
+	 */
+	IndexVerifier transactionTimeout(int seconds);
+
+	/**
+	 * runs the verification on the calling thread
+	 */
+	IndexVerificationResult verify();
+
+	interface Listener {
+
+		/**
+		 * the entity with the given id is in the database but not in the index
+		 */
+		void missing(Class<?> entityType, Object id);
+
+		/**
+		 * the entity with the given id is in the index but not in the database anymore
+		 */
+		void stale(Class<?> entityType, Object id);
+
+	}
+
+}
@@ -6,7 +6,10 @@
  */
 package org.hibernate.search.genericjpa.batchindexing;
 
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.hibernate.search.genericjpa.entity.EntityProvider;
 
@@ -43,7 +46,8 @@ public interface MassIndexer {
 	MassIndexer batchSizeToLoadObjects(int batchSizeToLoadObjects);
 
 	/**
-	 * set the amount of threads to be used for loading the ids. this should not be set too high
+	 * set the amount of threads to be used for loading the ids. this should not be set too high. The ids of root types
+	 * with a whole number id are split into this many ranges that are loaded in parallel
 	 */
 	MassIndexer threadsToLoadIds(int threadsToLoadIds);
 
@@ -53,6 +57,23 @@ public interface MassIndexer {
 	 */
 	MassIndexer threadsToLoadObjects(int threadsToLoadObjects);
 
+	/**
+	 * set the amount of threads to be used for building the documents of the loaded objects. 0 (the default) means that
+	 * the documents are built by the threads that loaded the objects. Otherwise loading (database bound) and building
+	 * the documents (cpu bound) can be sized separately. The objects are handed over in a bounded queue and the
+	 * EntityManager that loaded them is kept open until their documents are built, so lazy associations still work
+	 */
+	MassIndexer threadsToBuildDocuments(int threadsToBuildDocuments);
+
+	/**
+	 * let the MassIndexer tune the batch size to load objects and the number of batches in flight for every root type
+	 * separately. The batch size is kept between the given bounds (batchSizeToLoadObjects is the initial value) so that
+	 * loading a batch and building its documents takes about targetBatchMillis. The number of batches in flight is kept
+	 * between 1 and 4 times threadsToLoadObjects and is lowered when the time per entity goes up (i.e. the database is
+	 * saturated). Types with heavy object graphs don't slow down the ones with flat rows this way
+	 */
+	MassIndexer adaptive(int minBatchSizeToLoadObjects, int maxBatchSizeToLoadObjects, int targetBatchMillis);
+
 	MassIndexer progressMonitor(MassIndexerProgressMonitor progressMonitor);
 
 	/**
@@ -65,11 +86,54 @@ public interface MassIndexer {
 	 */
 	MassIndexer idProducerTransactionTimeout(int seconds);
 
+	/**
+	 * set the file the progress of this MassIndexer is checkpointed to. The file is deleted after the MassIndexer has
+	 * finished successfully and kept if it failed or was cancelled so that the work can be continued with
+	 * {@link #resume()}. Only root types with a single Long, Integer, Short or String id are checkpointed, all the others
+	 * are indexed from the start again when resuming
+	 */
+	MassIndexer checkpointFile(Path checkpointFile);
+
+	/**
+	 * set the interval in seconds in which the progress is written to the checkpoint file. every checkpoint flushes the
+	 * index, so this should not be set too low
+	 */
+	MassIndexer checkpointInterval(int seconds);
+
+	/**
+	 * only (re-)index the entities of the given root type that match the JPQL predicate. The entity is aliased as obj,
+	 * e.g. "obj.lastModified &gt; :since" with the parameter "since". The index of the root type is not purged and the
+	 * documents are written with update works. When resuming, the same restriction has to be set again. The names of
+	 * the parameters may not start with "hsearch", these are used internally
+	 */
+	MassIndexer restrictTo(Class<?> rootType, String predicate, Map<String, ?> parameters);
+
+	/**
+	 * only (re-)index the entities of the given root type with the given ids. The index of the root type is not purged,
+	 * the documents are written with update works and the documents of ids that are not found in the database are
+	 * deleted. Numbers are converted to the id type of the root type. The stream is closed after it was consumed. Root
+	 * types restricted like this are not checkpointed
+	 */
+	MassIndexer ids(Class<?> rootType, Stream<?> ids);
+
+	/**
+	 * @return a snapshot of the throughput and latency of the stages of this MassIndexer, the current queue depths and
+	 * an estimate of the time left. Root types are counted once before their ids are loaded to estimate the time left
+	 * (not when their ids are passed explicitly). Only available after the MassIndexer has been started
+	 */
+	MassIndexerMetrics metrics();
+
 	/**
 	 * starts the process and doesn't wait for completion
 	 */
 	Future<?> start();
 
+	/**
+	 * continues the work of a MassIndexer that didn't finish from the checkpoint file and doesn't wait for completion.
+	 * The index is not purged, all the entities after the last checkpoint are (re-)indexed with update works
+	 */
+	Future<?> resume();
+
 	/**
 	 * starts the process and waits for completion
 	 */
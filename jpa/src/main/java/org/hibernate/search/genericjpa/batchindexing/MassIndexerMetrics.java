@@ -0,0 +1,287 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the throughput and latency of the stages of a MassIndexer. Every stage is measured per batch, so the
+ * latencies are the time a single batch spent in the stage and the rates are the number of items (ids, entities or
+ * documents) per second since the MassIndexer was started.
+ *
+ * @author Martin Braun
+ */
+public final class MassIndexerMetrics {
+
+	public enum Stage {
+		/**
+		 * loading a batch of ids from the database
+		 */
+		ID_FETCH,
+		/**
+		 * loading a batch of entities by their ids
+		 */
+		ENTITY_LOAD,
+		/**
+		 * building the documents of a batch of entities (without passing them to the backend)
+		 */
+		DOCUMENT_BUILD,
+		/**
+		 * passing the works of a batch to the backend
+		 */
+		BACKEND_ENQUEUE,
+		/**
+		 * flushing the backend. not measured per entity type
+		 */
+		BACKEND_FLUSH
+	}
+
+	private final long elapsedNanos;
+	private final Map<Stage, StageMetrics> stages;
+	private final Map<Class<?>, Map<Stage, StageMetrics>> stagesPerType;
+	private final Map<Class<?>, Long> totalCounts;
+	private final Map<Class<?>, Long> idsInFlight;
+	private final long documentsAdded;
+	private final long objectHandlerTasksInFlight;
+	private final int documentBuildQueueDepth;
+
+	public MassIndexerMetrics(
+			long elapsedNanos,
+			Map<Stage, StageMetrics> stages,
+			Map<Class<?>, Map<Stage, StageMetrics>> stagesPerType,
+			Map<Class<?>, Long> totalCounts,
+			Map<Class<?>, Long> idsInFlight,
+			long documentsAdded,
+			long objectHandlerTasksInFlight,
+			int documentBuildQueueDepth) {
+		this.elapsedNanos = elapsedNanos;
+		this.stages = Collections.unmodifiableMap( new EnumMap<>( stages ) );
+		Map<Class<?>, Map<Stage, StageMetrics>> perType = new HashMap<>();
+		for ( Map.Entry<Class<?>, Map<Stage, StageMetrics>> entry : stagesPerType.entrySet() ) {
+			perType.put( entry.getKey(), Collections.unmodifiableMap( new EnumMap<>( entry.getValue() ) ) );
+		}
+		this.stagesPerType = Collections.unmodifiableMap( perType );
+		this.totalCounts = Collections.unmodifiableMap( new HashMap<>( totalCounts ) );
+		this.idsInFlight = Collections.unmodifiableMap( new HashMap<>( idsInFlight ) );
+		this.documentsAdded = documentsAdded;
+		this.objectHandlerTasksInFlight = objectHandlerTasksInFlight;
+		this.documentBuildQueueDepth = documentBuildQueueDepth;
+	}
+
+	/**
+	 * @return the time since the MassIndexer was started
+	 */
+	public long getElapsed(TimeUnit timeUnit) {
+		return timeUnit.convert( this.elapsedNanos, TimeUnit.NANOSECONDS );
+	}
+
+	/**
+	 * @return the metrics of the given stage over all entity types
+	 */
+	public StageMetrics getStage(Stage stage) {
+		return this.stages.getOrDefault( stage, StageMetrics.EMPTY );
+	}
+
+	/**
+	 * @return the metrics of the given stage for the given root type
+	 */
+	public StageMetrics getStage(Stage stage, Class<?> rootType) {
+		Map<Stage, StageMetrics> stages = this.stagesPerType.get( rootType );
+		if ( stages == null ) {
+			return StageMetrics.EMPTY;
+		}
+		return stages.getOrDefault( stage, StageMetrics.EMPTY );
+	}
+
+	/**
+	 * @return the number of entities of the given root type that are going to be indexed or -1 if it is not known (yet)
+	 */
+	public long getTotalCount(Class<?> rootType) {
+		return this.totalCounts.getOrDefault( rootType, -1L );
+	}
+
+	/**
+	 * @return the number of ids of the given root type that have been loaded but whose documents are not built yet
+	 */
+	public long getIdsInFlight(Class<?> rootType) {
+		return this.idsInFlight.getOrDefault( rootType, 0L );
+	}
+
+	/**
+	 * @return the number of documents the backend has added to the index
+	 */
+	public long getDocumentsAdded() {
+		return this.documentsAdded;
+	}
+
+	/**
+	 * @return the number of batches that have been submitted to the object loading threads and are not done yet
+	 */
+	public long getObjectHandlerTasksInFlight() {
+		return this.objectHandlerTasksInFlight;
+	}
+
+	/**
+	 * @return the number of loaded batches that wait for (or are in) the document building threads. always 0 if no
+	 * separate threads are used to build the documents
+	 */
+	public int getDocumentBuildQueueDepth() {
+		return this.documentBuildQueueDepth;
+	}
+
+	/**
+	 * estimates the time left until the documents of the given root type are built from the rate the documents have been
+	 * built at so far.
+	 *
+	 * @return the estimate in milliseconds or -1 if it can't be estimated (yet)
+	 */
+	public long getEtaMillis(Class<?> rootType) {
+		long total = this.getTotalCount( rootType );
+		if ( total < 0 ) {
+			return -1;
+		}
+		return this.eta( total, this.getStage( Stage.DOCUMENT_BUILD, rootType ).getCount() );
+	}
+
+	/**
+	 * estimates the time left until the documents of all root types are built.
+	 *
+	 * @return the estimate in milliseconds or -1 if it can't be estimated (yet)
+	 */
+	public long getEtaMillis() {
+		if ( this.totalCounts.size() < this.stagesPerType.size() || this.totalCounts.size() == 0 ) {
+			return -1;
+		}
+		long total = 0;
+		for ( Long count : this.totalCounts.values() ) {
+			total += count;
+		}
+		return this.eta( total, this.getStage( Stage.DOCUMENT_BUILD ).getCount() );
+	}
+
+	private long eta(long total, long done) {
+		if ( done == 0 || this.elapsedNanos == 0 ) {
+			return -1;
+		}
+		long remaining = Math.max( total - done, 0 );
+		double nanosPerItem = (double) this.elapsedNanos / done;
+		return TimeUnit.NANOSECONDS.toMillis( (long) (remaining * nanosPerItem) );
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder ret = new StringBuilder( "MassIndexerMetrics{elapsedMillis=" )
+				.append( this.getElapsed( TimeUnit.MILLISECONDS ) )
+				.append( ", etaMillis=" ).append( this.getEtaMillis() )
+				.append( ", documentsAdded=" ).append( this.documentsAdded )
+				.append( ", objectHandlerTasksInFlight=" ).append( this.objectHandlerTasksInFlight )
+				.append( ", documentBuildQueueDepth=" ).append( this.documentBuildQueueDepth );
+		for ( Stage stage : Stage.values() ) {
+			ret.append( ", " ).append( stage ).append( "=" ).append( this.getStage( stage ) );
+		}
+		return ret.append( "}" ).toString();
+	}
+
+	/**
+	 * the metrics of a single stage
+	 */
+	public static final class StageMetrics {
+
+		static final StageMetrics EMPTY = new StageMetrics( 0, 0, 0, 0, 0, 0, 0, 0 );
+
+		private final long count;
+		private final long batches;
+		private final double ratePerSecond;
+		private final long meanNanos;
+		private final long p50Nanos;
+		private final long p90Nanos;
+		private final long p99Nanos;
+		private final long maxNanos;
+
+		public StageMetrics(
+				long count,
+				long batches,
+				double ratePerSecond,
+				long meanNanos,
+				long p50Nanos,
+				long p90Nanos,
+				long p99Nanos,
+				long maxNanos) {
+			this.count = count;
+			this.batches = batches;
+			this.ratePerSecond = ratePerSecond;
+			this.meanNanos = meanNanos;
+			this.p50Nanos = p50Nanos;
+			this.p90Nanos = p90Nanos;
+			this.p99Nanos = p99Nanos;
+			this.maxNanos = maxNanos;
+		}
+
+		/**
+		 * @return the number of items that went through this stage
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * @return the number of batches that went through this stage
+		 */
+		public long getBatches() {
+			return this.batches;
+		}
+
+		/**
+		 * @return the items per second since the start
+		 */
+		public double getRatePerSecond() {
+			return this.ratePerSecond;
+		}
+
+		public long getMeanLatency(TimeUnit timeUnit) {
+			return timeUnit.convert( this.meanNanos, TimeUnit.NANOSECONDS );
+		}
+
+		/**
+		 * the percentiles are taken from a histogram with a relative error of at most 12.5%
+		 */
+		public long getP50Latency(TimeUnit timeUnit) {
+			return timeUnit.convert( this.p50Nanos, TimeUnit.NANOSECONDS );
+		}
+
+		public long getP90Latency(TimeUnit timeUnit) {
+			return timeUnit.convert( this.p90Nanos, TimeUnit.NANOSECONDS );
+		}
+
+		public long getP99Latency(TimeUnit timeUnit) {
+			return timeUnit.convert( this.p99Nanos, TimeUnit.NANOSECONDS );
+		}
+
+		public long getMaxLatency(TimeUnit timeUnit) {
+			return timeUnit.convert( this.maxNanos, TimeUnit.NANOSECONDS );
+		}
+
+		@Override
+		public String toString() {
+			return "{count=" + this.count +
+					", batches=" + this.batches +
+					", ratePerSecond=" + String.format( "%.1f", this.ratePerSecond ) +
+					", meanMicros=" + TimeUnit.NANOSECONDS.toMicros( this.meanNanos ) +
+					", p50Micros=" + TimeUnit.NANOSECONDS.toMicros( this.p50Nanos ) +
+					", p90Micros=" + TimeUnit.NANOSECONDS.toMicros( this.p90Nanos ) +
+					", p99Micros=" + TimeUnit.NANOSECONDS.toMicros( this.p99Nanos ) +
+					", maxMicros=" + TimeUnit.NANOSECONDS.toMicros( this.maxNanos ) +
+					'}';
+		}
+
+	}
+
+}
@@ -19,4 +19,12 @@ public interface MassIndexerProgressMonitor {
 
 	void documentsAdded(int count);
 
+	/**
+	 * called instead of {@link #documentsAdded(int)} by the MassIndexer, override this if the count might not fit into
+	 * an int
+	 */
+	default void documentsAdded(long count) {
+		this.documentsAdded( (int) Math.min( count, Integer.MAX_VALUE ) );
+	}
+
 }
@@ -0,0 +1,156 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tunes the batch size to load objects and the number of batches in flight of a single root type with AIMD (additive
+ * increase, multiplicative decrease) from the measured time it takes to load a batch and build its documents.
+ * <br>
+ * <br>
+ * The decisions are made once per window of batches (as many batches as are allowed to be in flight):
+ * <ul>
+ * <li>the batch size is halved if the average batch took longer than the target and increased by a fixed step
+ * otherwise. Heavy object graphs end up with small batches, flat rows with big ones</li>
+ * <li>if the batches are fast enough, the in-flight limit is halved if the time per entity got worse than 1.25 times
+ * the best time per entity seen so far (the database is saturated) and increased by one otherwise</li>
+ * </ul>
+ *
+ * @author Martin Braun
+ */
+public final class AdaptiveTuner {
+
+	private static final Logger LOGGER = Logger.getLogger( AdaptiveTuner.class.getName() );
+
+	private static final double SATURATION_FACTOR = 1.25D;
+
+	private final Class<?> rootType;
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final int batchSizeStep;
+	private final int maxInflight;
+	private final long targetBatchNanos;
+	private final InflightLimiter inflightLimiter;
+
+	private volatile int batchSize;
+
+	// the current window, guarded by this
+	private int windowBatches = 0;
+	private long windowItems = 0;
+	private long windowNanos = 0;
+	private double bestNanosPerItem = Double.MAX_VALUE;
+
+	/**
+	 * @param initialBatchSize clamped into [minBatchSize, maxBatchSize]
+	 * @param initialInflight clamped into [1, maxInflight]
+	 */
+	public AdaptiveTuner(
+			Class<?> rootType,
+			int minBatchSize,
+			int maxBatchSize,
+			int initialBatchSize,
+			int maxInflight,
+			int initialInflight,
+			long targetBatchLatency,
+			TimeUnit timeUnit) {
+		if ( minBatchSize <= 0 || maxBatchSize < minBatchSize ) {
+			throw new IllegalArgumentException( "0 < minBatchSize <= maxBatchSize is required" );
+		}
+		if ( maxInflight <= 0 ) {
+			throw new IllegalArgumentException( "maxInflight must be greater than 0" );
+		}
+		if ( targetBatchLatency <= 0 ) {
+			throw new IllegalArgumentException( "targetBatchLatency must be greater than 0" );
+		}
+		this.rootType = rootType;
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.batchSizeStep = Math.max( (maxBatchSize - minBatchSize) / 16, 1 );
+		this.maxInflight = maxInflight;
+		this.targetBatchNanos = timeUnit.toNanos( targetBatchLatency );
+		this.batchSize = clamp( initialBatchSize, minBatchSize, maxBatchSize );
+		this.inflightLimiter = InflightLimiter.bounded( clamp( initialInflight, 1, maxInflight ) );
+	}
+
+	/**
+	 * @return the batch size to use for the next batch
+	 */
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	/**
+	 * @return the limiter for the batches of this root type in flight. its limit is changed by this tuner
+	 */
+	public InflightLimiter getInflightLimiter() {
+		return this.inflightLimiter;
+	}
+
+	/**
+	 * called after a batch has been loaded and its documents have been built
+	 *
+	 * @param items the size of the batch
+	 * @param nanos the time it took to load the batch and build its documents
+	 */
+	public synchronized void batchDone(int items, long nanos) {
+		if ( items <= 0 ) {
+			return;
+		}
+		++this.windowBatches;
+		this.windowItems += items;
+		this.windowNanos += nanos;
+		int inflight = this.inflightLimiter.getLimit();
+		if ( this.windowBatches < inflight ) {
+			return;
+		}
+		long avgBatchNanos = this.windowNanos / this.windowBatches;
+		double nanosPerItem = (double) this.windowNanos / this.windowItems;
+		this.windowBatches = 0;
+		this.windowItems = 0;
+		this.windowNanos = 0;
+
+		int newBatchSize;
+		int newInflight = inflight;
+		if ( avgBatchNanos > this.targetBatchNanos ) {
+			newBatchSize = Math.max( this.batchSize / 2, this.minBatchSize );
+			// smaller batches are slower per entity, so the old best doesn't apply anymore
+			this.bestNanosPerItem = Double.MAX_VALUE;
+		}
+		else {
+			newBatchSize = Math.min( this.batchSize + this.batchSizeStep, this.maxBatchSize );
+			if ( nanosPerItem > this.bestNanosPerItem * SATURATION_FACTOR ) {
+				newInflight = Math.max( inflight / 2, 1 );
+			}
+			else {
+				newInflight = Math.min( inflight + 1, this.maxInflight );
+			}
+			this.bestNanosPerItem = Math.min( this.bestNanosPerItem, nanosPerItem );
+		}
+
+		if ( newBatchSize != this.batchSize || newInflight != inflight ) {
+			if ( LOGGER.isLoggable( Level.FINE ) ) {
+				LOGGER.fine(
+						"tuned " + this.rootType + ": batchSize " + this.batchSize + " -> " + newBatchSize +
+								", inflight " + inflight + " -> " + newInflight + " (" +
+								TimeUnit.NANOSECONDS.toMillis( avgBatchNanos ) + "ms per batch)"
+				);
+			}
+			this.batchSize = newBatchSize;
+			if ( newInflight != inflight ) {
+				this.inflightLimiter.resize( newInflight );
+			}
+		}
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max( min, Math.min( value, max ) );
+	}
+
+}
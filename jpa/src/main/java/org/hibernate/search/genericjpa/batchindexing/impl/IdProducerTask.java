@@ -11,25 +11,56 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Type;
 import javax.transaction.TransactionManager;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
+import org.hibernate.search.genericjpa.batchindexing.MassIndexerMetrics;
 import org.hibernate.search.genericjpa.db.EventType;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer;
+import org.hibernate.search.genericjpa.exception.AssertionFailure;
 import org.hibernate.search.genericjpa.exception.SearchException;
 import org.hibernate.search.genericjpa.jpa.util.impl.JPATransactionWrapper;
 
 /**
+ * Produces the ids of all entities of a type (or only the ones in the range [lowerBound, upperBound) if a range is
+ * set) in batches. If the entity has a single basic id, the ids are paged with keyset pagination ("WHERE obj.id &gt;
+ * :hsearchLastId ORDER BY obj.id") so the database doesn't have to skip all the already visited rows for every batch.
+ * Other ids (e.g. with an IdClass) are paged with an offset. The ids can be restricted with a JPQL predicate or be
+ * passed explicitly instead. The parameters of the restriction may not start with {@link #RESERVED_PARAMETER_PREFIX}.
+ * <br>
+ * <br>
+ * If an InflightLimiter is passed, the ids are acquired from it before they are passed to the UpdateConsumer.
+ * <br>
+ * <br>
+ * For Long or Integer ids a consumer of LongIdBatches can be set instead of the UpdateConsumer, so that the ids don't
+ * have to be wrapped in UpdateEventInfos.
+ *
  * @author Martin Braun
  */
 public class IdProducerTask implements Runnable {
 
 	private static final Logger LOGGER = Logger.getLogger( IdProducerTask.class.getName() );
 
+	/**
+	 * the names of the parameters we bind into the id queries next to the ones of the restriction start with this
+	 */
+	public static final String RESERVED_PARAMETER_PREFIX = "hsearch";
+
+	private static final String LAST_ID_PARAMETER = RESERVED_PARAMETER_PREFIX + "LastId";
+	private static final String LOWER_BOUND_PARAMETER = RESERVED_PARAMETER_PREFIX + "LowerBound";
+	private static final String UPPER_BOUND_PARAMETER = RESERVED_PARAMETER_PREFIX + "UpperBound";
+
 	private final Class<?> entityClass;
 	private final String idProperty;
 	private final EntityManagerFactory emf;
@@ -38,11 +69,24 @@ public class IdProducerTask implements Runnable {
 	private final int batchSizeToLoadObjects;
 	private final UpdateConsumer updateConsumer;
 	private final List<UpdateConsumer.UpdateEventInfo> updateInfoBatch;
-	private final NumberCondition numberCondition;
+	private final InflightLimiter inflightLimiter;
 	private final Consumer<Exception> exceptionConsumer;
 	private BiConsumer<Class<?>, Integer> progressMonitor;
 	private Runnable finishConsumer;
 	private Integer transactionTimeout = null;
+	private Object lowerBound;
+	private Object upperBound;
+	private Object resumeAfter;
+	private String restriction;
+	private Map<String, ?> restrictionParameters = Collections.emptyMap();
+	private Stream<?> ids;
+	private Consumer<LongIdBatch> longIdConsumer;
+	private boolean intIds;
+	private long[] longIdBatch;
+	private int longIdBatchSize = 0;
+	private MassIndexerMetricsRecorder metrics;
+	private boolean countTotal = false;
+	private IntSupplier batchSizeSupplier;
 
 	public IdProducerTask(
 			Class<?> entityClass,
@@ -53,7 +97,7 @@ public class IdProducerTask implements Runnable {
 			int batchSizeToLoadObjects,
 			UpdateConsumer updateConsumer,
 			Consumer<Exception> exceptionConsumer,
-			NumberCondition numberCondition) {
+			InflightLimiter inflightLimiter) {
 		this.entityClass = entityClass;
 		this.idProperty = idProperty;
 		this.emf = emf;
@@ -63,46 +107,73 @@ public class IdProducerTask implements Runnable {
 		this.updateConsumer = updateConsumer;
 		this.updateInfoBatch = new ArrayList<>( this.batchSizeToLoadIds );
 		this.exceptionConsumer = exceptionConsumer;
-		this.numberCondition = numberCondition;
+		this.inflightLimiter = inflightLimiter;
 	}
 
 	@Override
 	public void run() {
 		try {
+			if ( this.ids != null ) {
+				this.enlistIds();
+				return;
+			}
+			if ( this.countTotal && this.metrics != null ) {
+				this.metrics.totalCount( this.entityClass, this.getTotalCount( this.entityClass ) );
+			}
 			EntityManager em = this.emf.createEntityManager();
 			try {
 				if ( this.transactionTimeout != null ) {
 					this.transactionManager.setTransactionTimeout( this.transactionTimeout );
 				}
 				JPATransactionWrapper tx = JPATransactionWrapper.get( em, this.transactionManager );
-				long position = 0;
-				long totalCount = this.getTotalCount( entityClass );
-				if ( this.numberCondition != null ) {
-					// hack...
-					this.numberCondition.up( (int) totalCount );
-					this.numberCondition.initialSetup();
+				EntityType<?> entityType = em.getMetamodel().entity( this.entityClass );
+				boolean keyset = isKeysetPaginationPossible( entityType );
+				if ( !keyset && (this.lowerBound != null || this.upperBound != null || this.resumeAfter != null) ) {
+					throw new AssertionFailure( "ranges are only supported for entities with a single basic id" );
 				}
-				while ( position < totalCount && !Thread.currentThread().isInterrupted() ) {
+				long position = 0;
+				Object last = this.resumeAfter;
+				int size;
+				do {
 					tx.begin();
 					try {
-						Query query = em.createQuery(
-								new StringBuilder().append( "SELECT obj." ).append( this.idProperty ).append( " FROM " )
-										.append( em.getMetamodel().entity( this.entityClass ).getName() ).append(
-										" obj ORDER BY obj."
-								).append( this.idProperty )
-										.toString()
-						);
-						query.setFirstResult( (int) position ).setMaxResults( this.batchSizeToLoadIds ).getResultList();
-
+						long start = System.nanoTime();
 						@SuppressWarnings("rawtypes")
-						List ids = query.getResultList();
+						List ids;
+						if ( keyset ) {
+							ids = this.queryAfter( em, entityType, last );
+						}
+						else {
+							StringBuilder queryString = new StringBuilder().append( "SELECT obj." )
+									.append( this.idProperty ).append( " FROM " ).append( entityType.getName() )
+									.append( " obj" );
+							this.appendRestriction( queryString, " WHERE " );
+							queryString.append( " ORDER BY obj." ).append( this.idProperty );
+							Query query = em.createQuery( queryString.toString() );
+							this.setRestrictionParameters( query );
+							ids = query.setFirstResult( (int) position )
+									.setMaxResults( this.batchSizeToLoadIds )
+									.getResultList();
+						}
+						size = ids.size();
+						if ( size > 0 ) {
+							last = ids.get( size - 1 );
+						}
+						if ( this.metrics != null ) {
+							this.metrics.record(
+									MassIndexerMetrics.Stage.ID_FETCH,
+									this.entityClass,
+									size,
+									System.nanoTime() - start
+							);
+						}
 						this.enlistToBatch( ids );
 
 						if ( this.progressMonitor != null ) {
-							this.progressMonitor.accept( this.entityClass, ids.size() );
+							this.progressMonitor.accept( this.entityClass, size );
 						}
 
-						position += ids.size();
+						position += size;
 						tx.commit();
 					}
 					catch (Exception e) {
@@ -110,6 +181,7 @@ public class IdProducerTask implements Runnable {
 						throw e;
 					}
 				}
+				while ( size >= this.batchSizeToLoadIds && !Thread.currentThread().isInterrupted() );
 				if ( Thread.currentThread().isInterrupted() ) {
 					LOGGER.info( "IdProducerTask for " + this.entityClass + " was interrupted!" );
 				}
@@ -136,17 +208,134 @@ public class IdProducerTask implements Runnable {
 		}
 	}
 
-	private void enlistToBatch(@SuppressWarnings("rawtypes") List ids) {
+	@SuppressWarnings("rawtypes")
+	private List queryAfter(EntityManager em, EntityType<?> entityType, Object last) {
+		StringBuilder queryString = new StringBuilder().append( "SELECT obj." ).append( this.idProperty )
+				.append( " FROM " ).append( entityType.getName() ).append( " obj" );
+		String connector = " WHERE ";
+		if ( last != null ) {
+			queryString.append( connector ).append( "obj." ).append( this.idProperty )
+					.append( " > :" ).append( LAST_ID_PARAMETER );
+			connector = " AND ";
+		}
+		else if ( this.lowerBound != null ) {
+			queryString.append( connector ).append( "obj." ).append( this.idProperty )
+					.append( " >= :" ).append( LOWER_BOUND_PARAMETER );
+			connector = " AND ";
+		}
+		if ( this.upperBound != null ) {
+			queryString.append( connector ).append( "obj." ).append( this.idProperty )
+					.append( " < :" ).append( UPPER_BOUND_PARAMETER );
+			connector = " AND ";
+		}
+		this.appendRestriction( queryString, connector );
+		queryString.append( " ORDER BY obj." ).append( this.idProperty );
+		Query query = em.createQuery( queryString.toString() );
+		if ( last != null ) {
+			query.setParameter( LAST_ID_PARAMETER, last );
+		}
+		else if ( this.lowerBound != null ) {
+			query.setParameter( LOWER_BOUND_PARAMETER, this.lowerBound );
+		}
+		if ( this.upperBound != null ) {
+			query.setParameter( UPPER_BOUND_PARAMETER, this.upperBound );
+		}
+		this.setRestrictionParameters( query );
+		return query.setMaxResults( this.batchSizeToLoadIds ).getResultList();
+	}
+
+	private void appendRestriction(StringBuilder queryString, String connector) {
+		if ( this.restriction != null ) {
+			queryString.append( connector ).append( "(" ).append( this.restriction ).append( ")" );
+		}
+	}
+
+	private void setRestrictionParameters(Query query) {
+		for ( Map.Entry<String, ?> parameter : this.restrictionParameters.entrySet() ) {
+			query.setParameter( parameter.getKey(), parameter.getValue() );
+		}
+	}
+
+	private void enlistIds() throws InterruptedException {
+		try (Stream<?> ids = this.ids) {
+			List<Object> batch = new ArrayList<>( this.batchSizeToLoadIds );
+			Iterator<?> it = ids.iterator();
+			long start = System.nanoTime();
+			while ( it.hasNext() && !Thread.currentThread().isInterrupted() ) {
+				batch.add( it.next() );
+				if ( batch.size() >= this.batchSizeToLoadIds || !it.hasNext() ) {
+					if ( this.metrics != null ) {
+						this.metrics.record(
+								MassIndexerMetrics.Stage.ID_FETCH,
+								this.entityClass,
+								batch.size(),
+								System.nanoTime() - start
+						);
+					}
+					this.enlistToBatch( batch );
+					if ( this.progressMonitor != null ) {
+						this.progressMonitor.accept( this.entityClass, batch.size() );
+					}
+					batch.clear();
+					start = System.nanoTime();
+				}
+			}
+			if ( Thread.currentThread().isInterrupted() ) {
+				LOGGER.info( "IdProducerTask for " + this.entityClass + " was interrupted!" );
+			}
+			this.flushBatch();
+		}
+	}
+
+	private void enlistToBatch(@SuppressWarnings("rawtypes") List ids) throws InterruptedException {
+		if ( this.longIdConsumer != null ) {
+			this.enlistToLongBatch( ids );
+			return;
+		}
 		for ( Object id : ids ) {
 			this.updateInfoBatch.add( new UpdateConsumer.UpdateEventInfo( this.entityClass, id, EventType.INSERT ) );
-			if ( this.updateInfoBatch.size() >= this.batchSizeToLoadObjects ) {
+			if ( this.updateInfoBatch.size() >= this.currentBatchSize() ) {
+				this.flushBatch();
+			}
+		}
+	}
+
+	private void enlistToLongBatch(@SuppressWarnings("rawtypes") List ids) throws InterruptedException {
+		for ( Object id : ids ) {
+			if ( this.longIdBatch == null ) {
+				// a new array for every batch as the batch is handed off to another thread
+				this.longIdBatch = new long[this.currentBatchSize()];
+			}
+			this.longIdBatch[this.longIdBatchSize++] = ((Number) id).longValue();
+			if ( this.longIdBatchSize >= this.longIdBatch.length ) {
 				this.flushBatch();
 			}
 		}
 	}
 
-	private void flushBatch() {
+	private int currentBatchSize() {
+		return this.batchSizeSupplier != null ? this.batchSizeSupplier.getAsInt() : this.batchSizeToLoadObjects;
+	}
+
+	private void flushBatch() throws InterruptedException {
+		if ( this.longIdBatchSize > 0 ) {
+			if ( this.inflightLimiter != null ) {
+				this.inflightLimiter.acquire( this.longIdBatchSize );
+			}
+			LongIdBatch batch = new LongIdBatch(
+					this.entityClass,
+					this.intIds,
+					this.longIdBatch,
+					this.longIdBatchSize
+			);
+			this.longIdBatch = null;
+			this.longIdBatchSize = 0;
+			this.longIdConsumer.accept( batch );
+		}
 		if ( this.updateInfoBatch.size() > 0 ) {
+			if ( this.inflightLimiter != null ) {
+				this.inflightLimiter.acquire( this.updateInfoBatch.size() );
+			}
 			this.updateConsumer.updateEvent( new ArrayList<>( this.updateInfoBatch ) );
 			this.updateInfoBatch.clear();
 		}
@@ -156,6 +345,65 @@ public class IdProducerTask implements Runnable {
 		this.finishConsumer = finishConsumer;
 	}
 
+	/**
+	 * only produce the ids in [lowerBound, upperBound). null means unbounded. Only available for entities with a single
+	 * basic id
+	 */
+	public void range(Object lowerBound, Object upperBound) {
+		this.lowerBound = lowerBound;
+		this.upperBound = upperBound;
+	}
+
+	/**
+	 * only produce the ids after the given one (exclusive). null means from the start of the range. Only available for
+	 * entities with a single basic id
+	 */
+	public void resumeAfter(Object resumeAfter) {
+		this.resumeAfter = resumeAfter;
+	}
+
+	/**
+	 * only produce the ids of the entities matching the given JPQL predicate (the entity is aliased as obj)
+	 */
+	public void restriction(String predicate, Map<String, ?> parameters) {
+		this.restriction = predicate;
+		this.restrictionParameters = parameters == null ? Collections.emptyMap() : parameters;
+	}
+
+	/**
+	 * produce the given ids instead of querying them. Ranges are ignored then
+	 */
+	public void ids(Stream<?> ids) {
+		this.ids = ids;
+	}
+
+	/**
+	 * pass the ids to the given consumer as LongIdBatches instead of passing them to the UpdateConsumer. Only available
+	 * for entities with Long or Integer ids
+	 *
+	 * @param intIds whether the ids are Integers
+	 */
+	public void longIds(boolean intIds, Consumer<LongIdBatch> longIdConsumer) {
+		this.intIds = intIds;
+		this.longIdConsumer = longIdConsumer;
+	}
+
+	/**
+	 * @param countTotal whether to count the entities to be indexed before producing the ids and pass the count to the
+	 * metrics
+	 */
+	public void metrics(MassIndexerMetricsRecorder metrics, boolean countTotal) {
+		this.metrics = metrics;
+		this.countTotal = countTotal;
+	}
+
+	/**
+	 * the batch size to load objects is taken from the given supplier for every batch instead of being fixed
+	 */
+	public void batchSizeSupplier(IntSupplier batchSizeSupplier) {
+		this.batchSizeSupplier = batchSizeSupplier;
+	}
+
 	public void progressMonitor(BiConsumer<Class<?>, Integer> progressMonitor) {
 		this.progressMonitor = progressMonitor;
 	}
@@ -167,6 +415,50 @@ public class IdProducerTask implements Runnable {
 		this.transactionTimeout = seconds;
 	}
 
+	/**
+	 * @return whether the ids of this entity type can be paged by the last id visited
+	 */
+	public static boolean isKeysetPaginationPossible(EntityType<?> entityType) {
+		return entityType.hasSingleIdAttribute() && entityType.getIdType().getPersistenceType() == Type.PersistenceType.BASIC
+				&& Comparable.class.isAssignableFrom( wrap( entityType.getIdType().getJavaType() ) );
+	}
+
+	/**
+	 * @return whether the ids of this entity type can be split into ranges of whole numbers
+	 */
+	public static boolean isRangePartitioningPossible(EntityType<?> entityType) {
+		if ( !isKeysetPaginationPossible( entityType ) ) {
+			return false;
+		}
+		Class<?> idType = wrap( entityType.getIdType().getJavaType() );
+		return idType.equals( Long.class ) || idType.equals( Integer.class ) || idType.equals( Short.class );
+	}
+
+	private static Class<?> wrap(Class<?> clazz) {
+		if ( clazz == long.class ) {
+			return Long.class;
+		}
+		else if ( clazz == int.class ) {
+			return Integer.class;
+		}
+		else if ( clazz == short.class ) {
+			return Short.class;
+		}
+		else if ( clazz == byte.class ) {
+			return Byte.class;
+		}
+		else if ( clazz == char.class ) {
+			return Character.class;
+		}
+		else if ( clazz == double.class ) {
+			return Double.class;
+		}
+		else if ( clazz == float.class ) {
+			return Float.class;
+		}
+		return clazz;
+	}
+
 	public long getTotalCount(Class<?> entityClass) {
 		long count = 0;
 		EntityManager em = null;
@@ -175,10 +467,20 @@ public class IdProducerTask implements Runnable {
 			JPATransactionWrapper tx = JPATransactionWrapper.get( em, this.transactionManager );
 			tx.begin();
 			try {
-				CriteriaBuilder cb = em.getCriteriaBuilder();
-				CriteriaQuery<Long> countQuery = cb.createQuery( Long.class );
-				countQuery.select( cb.count( countQuery.from( entityClass ) ) );
-				count = em.createQuery( countQuery ).getSingleResult();
+				if ( this.restriction == null ) {
+					CriteriaBuilder cb = em.getCriteriaBuilder();
+					CriteriaQuery<Long> countQuery = cb.createQuery( Long.class );
+					countQuery.select( cb.count( countQuery.from( entityClass ) ) );
+					count = em.createQuery( countQuery ).getSingleResult();
+				}
+				else {
+					StringBuilder queryString = new StringBuilder().append( "SELECT COUNT(obj) FROM " )
+							.append( em.getMetamodel().entity( entityClass ).getName() ).append( " obj" );
+					this.appendRestriction( queryString, " WHERE " );
+					Query query = em.createQuery( queryString.toString() );
+					this.setRestrictionParameters( query );
+					count = ((Number) query.getSingleResult()).longValue();
+				}
 				tx.commit();
 			}
 			catch (Exception e) {
@@ -0,0 +1,159 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+
+import org.hibernate.search.backend.impl.lucene.AbstractWorkspaceImpl;
+import org.hibernate.search.backend.impl.lucene.LuceneBackendQueueProcessor;
+import org.hibernate.search.backend.impl.lucene.LuceneBackendResources;
+import org.hibernate.search.engine.integration.impl.ExtendedSearchIntegrator;
+import org.hibernate.search.engine.spi.EntityIndexBinding;
+import org.hibernate.search.genericjpa.exception.AssertionFailure;
+import org.hibernate.search.genericjpa.exception.SearchException;
+import org.hibernate.search.indexes.spi.DirectoryBasedIndexManager;
+import org.hibernate.search.indexes.spi.IndexManager;
+
+/**
+ * Replaces the contents of the live indexes of some root types with the contents of their shadow indexes (same index
+ * names, different directories). For every index, the live IndexWriter deletes everything, adds the segments of the
+ * shadow index and commits while it holds the exclusive lock of the index. Readers opened on the committed index (the
+ * default) see either the old or the new contents, but never something in between. This is not the case for indexes
+ * using the near-real-time workspace as their readers are opened from the uncommitted IndexWriter.
+ *
+ * @author Martin Braun
+ */
+public final class IndexSwapper {
+
+	private static final Logger LOGGER = Logger.getLogger( IndexSwapper.class.getName() );
+
+	private IndexSwapper() {
+		throw new AssertionFailure( "can't touch this!" );
+	}
+
+	/**
+	 * checks whether the indexes of the given root types can be swapped. This is only possible for local Lucene indexes
+	 * that don't contain any types besides the ones rebuilt (as everything in them is replaced)
+	 *
+	 * @throws SearchException if they can't
+	 */
+	public static void checkSwappable(ExtendedSearchIntegrator searchIntegrator, Collection<Class<?>> rootTypes) {
+		for ( IndexManager indexManager : getIndexManagers( searchIntegrator, rootTypes ) ) {
+			if ( !(indexManager instanceof DirectoryBasedIndexManager) || !(((DirectoryBasedIndexManager) indexManager)
+					.getBackendQueueProcessor() instanceof LuceneBackendQueueProcessor) ) {
+				throw new SearchException(
+						"index " + indexManager.getIndexName() + " is not a local Lucene index and can't be swapped"
+				);
+			}
+			for ( Class<?> containedType : indexManager.getContainedTypes() ) {
+				if ( !isRebuilt( containedType, rootTypes ) ) {
+					throw new SearchException(
+							"index " + indexManager.getIndexName() + " contains " + containedType +
+									" as well which is not rebuilt, so it can't be swapped"
+					);
+				}
+			}
+		}
+	}
+
+	/**
+	 * replaces the contents of all live indexes of the given root types with the contents of the same indexes in the
+	 * shadow integrator. The shadow indexes must not be written to while this is running
+	 */
+	public static void swap(
+			ExtendedSearchIntegrator live,
+			ExtendedSearchIntegrator shadow,
+			Collection<Class<?>> rootTypes) {
+		checkSwappable( live, rootTypes );
+		for ( IndexManager indexManager : getIndexManagers( live, rootTypes ) ) {
+			IndexManager shadowIndexManager = shadow.getIndexManager( indexManager.getIndexName() );
+			if ( !(shadowIndexManager instanceof DirectoryBasedIndexManager) ) {
+				throw new SearchException( "no shadow found for index " + indexManager.getIndexName() );
+			}
+			swap( (DirectoryBasedIndexManager) indexManager, (DirectoryBasedIndexManager) shadowIndexManager );
+		}
+	}
+
+	private static void swap(DirectoryBasedIndexManager live, DirectoryBasedIndexManager shadow) {
+		LuceneBackendResources resources = ((LuceneBackendQueueProcessor) live.getBackendQueueProcessor())
+				.getIndexResources();
+		Lock lock = resources.getExclusiveModificationLock();
+		lock.lock();
+		try {
+			AbstractWorkspaceImpl workspace = resources.getWorkspace();
+			try (DirectoryReader shadowReader = DirectoryReader.open( shadow.getDirectoryProvider().getDirectory() )) {
+				List<CodecReader> segments = new ArrayList<>( shadowReader.leaves().size() );
+				for ( LeafReaderContext leaf : shadowReader.leaves() ) {
+					segments.add( SlowCodecReaderWrapper.wrap( leaf.reader() ) );
+				}
+				IndexWriter writer = workspace.getIndexWriter();
+				try {
+					writer.deleteAll();
+					writer.addIndexes( segments.toArray( new CodecReader[segments.size()] ) );
+				}
+				catch (IOException | RuntimeException e) {
+					// nothing was committed, so the live index is still intact. the workspace
+					// opens a new IndexWriter the next time it needs one
+					writer.rollback();
+					workspace.shutDownNow();
+					throw e;
+				}
+				// this commits everything at once
+				workspace.flush();
+				LOGGER.info(
+						"swapped in the shadow of index " + live.getIndexName() + " with " + shadowReader.numDocs() +
+								" documents"
+				);
+			}
+		}
+		catch (IOException e) {
+			throw new SearchException( "couldn't swap in the shadow of index " + live.getIndexName(), e );
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private static Set<IndexManager> getIndexManagers(
+			ExtendedSearchIntegrator searchIntegrator,
+			Collection<Class<?>> rootTypes) {
+		Set<IndexManager> ret = new HashSet<>();
+		for ( Class<?> rootType : rootTypes ) {
+			EntityIndexBinding binding = searchIntegrator.getIndexBinding( rootType );
+			if ( binding == null ) {
+				throw new SearchException( rootType + " is not indexed" );
+			}
+			for ( IndexManager indexManager : binding.getIndexManagers() ) {
+				ret.add( indexManager );
+			}
+		}
+		return ret;
+	}
+
+	private static boolean isRebuilt(Class<?> type, Collection<Class<?>> rootTypes) {
+		for ( Class<?> rootType : rootTypes ) {
+			if ( rootType.isAssignableFrom( type ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
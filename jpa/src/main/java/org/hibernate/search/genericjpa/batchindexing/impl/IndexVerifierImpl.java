@@ -0,0 +1,463 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing.impl;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.transaction.TransactionManager;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.NumericUtils;
+
+import org.hibernate.search.backend.spi.SingularTermDeletionQuery;
+import org.hibernate.search.bridge.TwoWayFieldBridge;
+import org.hibernate.search.engine.ProjectionConstants;
+import org.hibernate.search.engine.impl.DocumentBuilderHelper;
+import org.hibernate.search.engine.integration.impl.ExtendedSearchIntegrator;
+import org.hibernate.search.engine.spi.DocumentBuilderIndexedEntity;
+import org.hibernate.search.engine.spi.EntityIndexBinding;
+import org.hibernate.search.genericjpa.batchindexing.IndexVerificationResult;
+import org.hibernate.search.genericjpa.batchindexing.IndexVerifier;
+import org.hibernate.search.genericjpa.db.EventType;
+import org.hibernate.search.genericjpa.db.events.UpdateConsumer;
+import org.hibernate.search.genericjpa.exception.SearchException;
+import org.hibernate.search.genericjpa.jpa.util.impl.JPATransactionWrapper;
+import org.hibernate.search.genericjpa.metadata.impl.RehashedTypeMetadata;
+import org.hibernate.search.indexes.IndexReaderAccessor;
+
+/**
+ * Verifies the index of every root type in two passes over a single IndexReader. First, the ids from the database are
+ * streamed with an {@link IdProducerTask} and looked up in the id field of the index (missing documents). Then, the
+ * terms of the id field are streamed and looked up in the database in batches (stale documents). The ids are not
+ * merged in a single pass as the order of the terms in the index generally doesn't match the order of the ids in the
+ * database (e.g. "10" &lt; "9" for numeric ids encoded as Strings). Besides the current batch, only one bit per document
+ * in the index is kept in memory.
+ *
+ * @author Martin Braun
+ */
+public class IndexVerifierImpl implements IndexVerifier {
+
+	private static final Logger LOGGER = Logger.getLogger( IndexVerifierImpl.class.getName() );
+
+	private final EntityManagerFactory emf;
+	private final ExtendedSearchIntegrator searchIntegrator;
+	private final Map<Class<?>, RehashedTypeMetadata> metadataForIndexRoot;
+	private final List<Class<?>> rootTypes;
+	private final TransactionManager transactionManager;
+	private int batchSize = 100;
+	private boolean repair = false;
+	private Listener listener;
+	private Integer transactionTimeout = null;
+	private UpdateConsumer repairConsumer;
+
+	public IndexVerifierImpl(
+			EntityManagerFactory emf,
+			ExtendedSearchIntegrator searchIntegrator,
+			Map<Class<?>, RehashedTypeMetadata> metadataForIndexRoot,
+			List<Class<?>> rootTypes,
+			TransactionManager transactionManager) {
+		this.emf = emf;
+		this.searchIntegrator = searchIntegrator;
+		this.metadataForIndexRoot = metadataForIndexRoot;
+		this.rootTypes = rootTypes;
+		this.transactionManager = transactionManager;
+	}
+
+	@Override
+	public IndexVerifier batchSize(int batchSize) {
+		if ( batchSize <= 0 ) {
+			throw new IllegalArgumentException( "batchSize must be greater than 0" );
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	@Override
+	public IndexVerifier repair(boolean repair) {
+		this.repair = repair;
+		return this;
+	}
+
+	@Override
+	public IndexVerifier listener(Listener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	@Override
+	public IndexVerifier transactionTimeout(int seconds) {
+		this.transactionTimeout = seconds;
+		return this;
+	}
+
+	/**
+	 * the UpdateConsumer the repairs are sent to
+	 */
+	public IndexVerifierImpl repairConsumer(UpdateConsumer repairConsumer) {
+		this.repairConsumer = repairConsumer;
+		return this;
+	}
+
+	@Override
+	public IndexVerificationResult verify() {
+		if ( this.repair && this.repairConsumer == null ) {
+			throw new SearchException( "no way to repair the index is available" );
+		}
+		IndexVerificationResult result = new IndexVerificationResult();
+		for ( Class<?> rootType : this.rootTypes ) {
+			try {
+				this.verify( rootType, result );
+			}
+			catch (IOException e) {
+				throw new SearchException( "couldn't verify the index of " + rootType, e );
+			}
+		}
+		LOGGER.info( "verified the indexes of " + this.rootTypes + ": " + result );
+		return result;
+	}
+
+	private void verify(Class<?> rootType, IndexVerificationResult result) throws IOException {
+		EntityIndexBinding binding = this.searchIntegrator.getIndexBinding( rootType );
+		if ( binding == null ) {
+			throw new SearchException( rootType + " is not indexed" );
+		}
+		DocumentBuilderIndexedEntity documentBuilder = binding.getDocumentBuilder();
+		IdField idField = new IdField(
+				documentBuilder.getIdKeywordName(),
+				documentBuilder.getIdBridge(),
+				this.getIdType( rootType, documentBuilder.getIdKeywordName() )
+		);
+		String idProperty = this.getIdProperty( rootType );
+		IndexReaderAccessor accessor = this.searchIntegrator.getIndexReaderAccessor();
+		IndexReader reader = accessor.open( rootType );
+		try {
+			FixedBitSet documents = this.documentsOf( rootType, reader );
+			Terms terms = MultiFields.getTerms( reader, idField.name );
+			this.findMissing( rootType, idProperty, idField, terms, documents, result );
+			this.findStale( rootType, idProperty, idField, terms, documents, result );
+		}
+		finally {
+			accessor.close( reader );
+		}
+	}
+
+	/**
+	 * @return the live documents of the root type and its subtypes (the index might be shared with other types)
+	 */
+	private FixedBitSet documentsOf(Class<?> rootType, IndexReader reader) throws IOException {
+		FixedBitSet ret = new FixedBitSet( reader.maxDoc() );
+		Terms classes = MultiFields.getTerms( reader, ProjectionConstants.OBJECT_CLASS );
+		if ( classes == null ) {
+			return ret;
+		}
+		Bits liveDocs = MultiFields.getLiveDocs( reader );
+		TermsEnum termsEnum = classes.iterator();
+		PostingsEnum postings = null;
+		BytesRef term;
+		while ( (term = termsEnum.next()) != null ) {
+			Class<?> documentClass = DocumentBuilderHelper.getDocumentClass(
+					term.utf8ToString(),
+					this.searchIntegrator.getServiceManager()
+			);
+			if ( !rootType.isAssignableFrom( documentClass ) ) {
+				continue;
+			}
+			postings = termsEnum.postings( postings, PostingsEnum.NONE );
+			int doc;
+			while ( (doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS ) {
+				if ( liveDocs == null || liveDocs.get( doc ) ) {
+					ret.set( doc );
+				}
+			}
+		}
+		return ret;
+	}
+
+	private void findMissing(
+			Class<?> rootType,
+			String idProperty,
+			IdField idField,
+			Terms terms,
+			FixedBitSet documents,
+			IndexVerificationResult result) {
+		TermsEnum termsEnum;
+		try {
+			termsEnum = terms == null ? null : terms.iterator();
+		}
+		catch (IOException e) {
+			throw new SearchException( e );
+		}
+		PostingsEnum[] postings = {null};
+		Exception[] exception = {null};
+		IdProducerTask idProducer = new IdProducerTask(
+				rootType,
+				idProperty,
+				this.emf,
+				this.transactionManager,
+				this.batchSize,
+				this.batchSize,
+				(updateInfos) -> {
+					List<Object> missing = new ArrayList<>();
+					try {
+						for ( UpdateConsumer.UpdateEventInfo updateInfo : updateInfos ) {
+							BytesRef term = idField.encode( updateInfo.getId() );
+							if ( termsEnum == null || !termsEnum.seekExact( term ) ) {
+								missing.add( updateInfo.getId() );
+								continue;
+							}
+							postings[0] = termsEnum.postings( postings[0], PostingsEnum.NONE );
+							if ( !containsAny( postings[0], documents ) ) {
+								missing.add( updateInfo.getId() );
+							}
+						}
+					}
+					catch (IOException e) {
+						throw new SearchException( e );
+					}
+					this.report( rootType, missing, true, result );
+				},
+				(e) -> exception[0] = e,
+				null
+		);
+		if ( this.transactionManager != null ) {
+			idProducer.transactionTimeout( this.transactionTimeout );
+		}
+		idProducer.run();
+		if ( exception[0] != null ) {
+			throw new SearchException( "couldn't look for missing documents of " + rootType, exception[0] );
+		}
+	}
+
+	private void findStale(
+			Class<?> rootType,
+			String idProperty,
+			IdField idField,
+			Terms terms,
+			FixedBitSet documents,
+			IndexVerificationResult result) throws IOException {
+		if ( terms == null ) {
+			return;
+		}
+		List<Object> batch = new ArrayList<>( this.batchSize );
+		TermsEnum termsEnum = terms.iterator();
+		PostingsEnum postings = null;
+		BytesRef term;
+		while ( (term = termsEnum.next()) != null && !Thread.currentThread().isInterrupted() ) {
+			Object id = idField.decode( term );
+			if ( id == null ) {
+				// a lower precision numeric term
+				continue;
+			}
+			postings = termsEnum.postings( postings, PostingsEnum.NONE );
+			if ( !containsAny( postings, documents ) ) {
+				continue;
+			}
+			batch.add( id );
+			if ( batch.size() >= this.batchSize ) {
+				this.report( rootType, this.notInDatabase( rootType, idProperty, batch ), false, result );
+				batch.clear();
+			}
+		}
+		if ( batch.size() > 0 ) {
+			this.report( rootType, this.notInDatabase( rootType, idProperty, batch ), false, result );
+		}
+	}
+
+	private List<Object> notInDatabase(Class<?> rootType, String idProperty, List<Object> ids) {
+		Set<Object> found = new HashSet<>();
+		EntityManager em = this.emf.createEntityManager();
+		try {
+			if ( this.transactionTimeout != null && this.transactionManager != null ) {
+				this.transactionManager.setTransactionTimeout( this.transactionTimeout );
+			}
+			JPATransactionWrapper tx = JPATransactionWrapper.get( em, this.transactionManager );
+			tx.begin();
+			try {
+				EntityType<?> entityType = em.getMetamodel().entity( rootType );
+				found.addAll(
+						em.createQuery(
+								new StringBuilder().append( "SELECT obj." ).append( idProperty ).append( " FROM " )
+										.append( entityType.getName() ).append( " obj WHERE obj." )
+										.append( idProperty ).append( " IN :ids" ).toString()
+						).setParameter( "ids", ids ).getResultList()
+				);
+				tx.commit();
+			}
+			catch (Exception e) {
+				tx.rollback();
+				throw e;
+			}
+		}
+		catch (Exception e) {
+			throw new SearchException( "couldn't look for stale documents of " + rootType, e );
+		}
+		finally {
+			em.close();
+		}
+		List<Object> ret = new ArrayList<>();
+		for ( Object id : ids ) {
+			if ( !found.contains( id ) ) {
+				ret.add( id );
+			}
+		}
+		return ret;
+	}
+
+	private void report(Class<?> rootType, List<Object> ids, boolean missing, IndexVerificationResult result) {
+		if ( ids.size() == 0 ) {
+			return;
+		}
+		List<UpdateConsumer.UpdateEventInfo> repairs = new ArrayList<>( ids.size() );
+		for ( Object id : ids ) {
+			if ( missing ) {
+				result.missing( rootType );
+				if ( this.listener != null ) {
+					this.listener.missing( rootType, id );
+				}
+				// an update is fine even if the document was added in the meantime
+				repairs.add( new UpdateConsumer.UpdateEventInfo( rootType, id, EventType.UPDATE ) );
+			}
+			else {
+				result.stale( rootType );
+				if ( this.listener != null ) {
+					this.listener.stale( rootType, id );
+				}
+				repairs.add( new UpdateConsumer.UpdateEventInfo( rootType, id, EventType.DELETE ) );
+			}
+		}
+		if ( this.repair ) {
+			this.repairConsumer.updateEvent( repairs );
+		}
+	}
+
+	private static boolean containsAny(PostingsEnum postings, FixedBitSet documents) throws IOException {
+		int doc;
+		while ( (doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS ) {
+			if ( documents.get( doc ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private SingularTermDeletionQuery.Type getIdType(Class<?> rootType, String idFieldName) {
+		RehashedTypeMetadata metadata = this.metadataForIndexRoot.get( rootType );
+		SingularTermDeletionQuery.Type ret = null;
+		if ( metadata != null ) {
+			ret = metadata.getSingularTermDeletionQueryTypeForIdFieldName().get( idFieldName );
+		}
+		return ret == null ? SingularTermDeletionQuery.Type.STRING : ret;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private String getIdProperty(Class<?> entityClass) {
+		Metamodel metamodel = this.emf.getMetamodel();
+		EntityType entity = metamodel.entity( entityClass );
+		Set<SingularAttribute> singularAttributes = entity.getSingularAttributes();
+		for ( SingularAttribute singularAttribute : singularAttributes ) {
+			if ( singularAttribute.isId() ) {
+				return singularAttribute.getName();
+			}
+		}
+		throw new SearchException( "id field not found for: " + entityClass );
+	}
+
+	/**
+	 * converts between ids and the terms of the id field
+	 */
+	private static final class IdField {
+
+		private final String name;
+		private final TwoWayFieldBridge bridge;
+		private final SingularTermDeletionQuery.Type type;
+		private final BytesRefBuilder builder = new BytesRefBuilder();
+
+		private IdField(String name, TwoWayFieldBridge bridge, SingularTermDeletionQuery.Type type) {
+			this.name = name;
+			this.bridge = bridge;
+			this.type = type;
+		}
+
+		private BytesRef encode(Object id) {
+			switch ( this.type ) {
+				case INT:
+					NumericUtils.intToPrefixCoded( ((Number) id).intValue(), 0, this.builder );
+					return this.builder.get();
+				case FLOAT:
+					NumericUtils.intToPrefixCoded(
+							NumericUtils.floatToSortableInt( ((Number) id).floatValue() ),
+							0,
+							this.builder
+					);
+					return this.builder.get();
+				case LONG:
+					NumericUtils.longToPrefixCoded( ((Number) id).longValue(), 0, this.builder );
+					return this.builder.get();
+				case DOUBLE:
+					NumericUtils.longToPrefixCoded(
+							NumericUtils.doubleToSortableLong( ((Number) id).doubleValue() ),
+							0,
+							this.builder
+					);
+					return this.builder.get();
+				default:
+					return new BytesRef( this.bridge.objectToString( id ) );
+			}
+		}
+
+		/**
+		 * @return the id encoded in the term or null if it is a lower precision numeric term
+		 */
+		private Object decode(BytesRef term) {
+			switch ( this.type ) {
+				case INT:
+					return NumericUtils.getPrefixCodedIntShift( term ) == 0 ? NumericUtils.prefixCodedToInt( term ) : null;
+				case FLOAT:
+					return NumericUtils.getPrefixCodedIntShift( term ) == 0 ?
+							NumericUtils.sortableIntToFloat( NumericUtils.prefixCodedToInt( term ) ) :
+							null;
+				case LONG:
+					return NumericUtils.getPrefixCodedLongShift( term ) == 0 ?
+							NumericUtils.prefixCodedToLong( term ) :
+							null;
+				case DOUBLE:
+					return NumericUtils.getPrefixCodedLongShift( term ) == 0 ?
+							NumericUtils.sortableLongToDouble( NumericUtils.prefixCodedToLong( term ) ) :
+							null;
+				default:
+					// the bridge only knows how to read documents
+					Document document = new Document();
+					document.add( new StringField( this.name, term.utf8ToString(), Field.Store.YES ) );
+					return this.bridge.get( this.name, document );
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the units of work (batches, ids, ...) that are in flight without a global lock. If it is bounded, acquire blocks
+ * as long as the limit is reached (backed by a Semaphore). Besides that it can detect when all work is done: once the
+ * producers have called {@link #finishProducing()} it is finished as soon as everything acquired has been released
+ * again.
+ *
+ * @author Martin Braun
+ */
+public final class InflightLimiter {
+
+	// big enough to wake up all waiting threads, small enough so later releases can't overflow
+	private static final int DISABLED_PERMITS = Integer.MAX_VALUE / 2;
+
+	private final ResizableSemaphore permits;
+	private final LongAdder inflight = new LongAdder();
+	private final CountDownLatch finished = new CountDownLatch( 1 );
+
+	private volatile boolean producing = true;
+	private volatile boolean disabled = false;
+	private int limit;
+
+	private InflightLimiter(ResizableSemaphore permits, int limit) {
+		this.permits = permits;
+		this.limit = limit;
+	}
+
+	/**
+	 * @param limit the maximum number of units in flight. every acquire that would exceed it blocks
+	 */
+	public static InflightLimiter bounded(int limit) {
+		if ( limit <= 0 ) {
+			throw new IllegalArgumentException( "limit must be greater than 0" );
+		}
+		return new InflightLimiter( new ResizableSemaphore( limit ), limit );
+	}
+
+	/**
+	 * @return a limiter that never blocks in acquire and is only used to detect when everything is done
+	 */
+	public static InflightLimiter unbounded() {
+		return new InflightLimiter( null, Integer.MAX_VALUE );
+	}
+
+	/**
+	 * acquires the given number of units. blocks if the limiter is bounded and the units are not available (and it is
+	 * not disabled)
+	 */
+	public void acquire(int count) throws InterruptedException {
+		if ( count <= 0 ) {
+			return;
+		}
+		if ( this.permits != null && !this.disabled ) {
+			this.permits.acquire( count );
+		}
+		this.inflight.add( count );
+	}
+
+	/**
+	 * releases the given number of units that were acquired before
+	 */
+	public void release(int count) {
+		if ( count <= 0 ) {
+			return;
+		}
+		this.inflight.add( -count );
+		if ( this.permits != null ) {
+			this.permits.release( count );
+		}
+		this.checkFinished();
+	}
+
+	/**
+	 * changes the limit of a bounded limiter. If it is lowered below the number of units in flight, acquire blocks until
+	 * enough of them have been released
+	 */
+	public synchronized void resize(int limit) {
+		if ( this.permits == null ) {
+			throw new IllegalStateException( "unbounded limiters can't be resized" );
+		}
+		if ( limit <= 0 ) {
+			throw new IllegalArgumentException( "limit must be greater than 0" );
+		}
+		if ( limit > this.limit ) {
+			this.permits.release( limit - this.limit );
+		}
+		else if ( limit < this.limit ) {
+			this.permits.reducePermits( this.limit - limit );
+		}
+		this.limit = limit;
+	}
+
+	public synchronized int getLimit() {
+		return this.limit;
+	}
+
+	/**
+	 * signals that no more units will be acquired
+	 */
+	public void finishProducing() {
+		this.producing = false;
+		this.checkFinished();
+	}
+
+	/**
+	 * wakes up everybody waiting in acquire or for the finish and lets everybody pass from now on
+	 */
+	public void disable() {
+		this.disabled = true;
+		if ( this.permits != null ) {
+			this.permits.release( DISABLED_PERMITS );
+		}
+		this.finished.countDown();
+	}
+
+	/**
+	 * @return the number of units that are currently in flight
+	 */
+	public long inflight() {
+		return this.inflight.sum();
+	}
+
+	public boolean isFinished() {
+		return this.finished.getCount() == 0;
+	}
+
+	public void awaitFinish() throws InterruptedException {
+		this.finished.await();
+	}
+
+	/**
+	 * @return whether it is finished
+	 */
+	public boolean awaitFinish(long time, TimeUnit timeUnit) throws InterruptedException {
+		return this.finished.await( time, timeUnit );
+	}
+
+	private void checkFinished() {
+		// releases are only counted down after they have been acquired and all acquires happen
+		// before finishProducing, so once we are not producing anymore the sum can only go down.
+		// this means that even if the sum is read while others release, 0 is only ever seen
+		// when everything has been released
+		if ( !this.producing && this.inflight.sum() == 0 ) {
+			this.finished.countDown();
+		}
+	}
+
+	private static final class ResizableSemaphore extends Semaphore {
+
+		private ResizableSemaphore(int permits) {
+			super( permits );
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits( reduction );
+		}
+
+	}
+
+}
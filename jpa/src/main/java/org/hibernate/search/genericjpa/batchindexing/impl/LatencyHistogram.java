@@ -0,0 +1,100 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values (latencies in nanoseconds). Every power of two is split into 8 buckets
+ * of the same width, so a value read from the histogram is at most 12.5% off the recorded one.
+ *
+ * @author Martin Braun
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// the highest bit of a positive long is 62
+	private static final int BUCKETS = (62 - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		if ( value < 0 ) {
+			value = 0;
+		}
+		this.buckets.incrementAndGet( index( value ) );
+		this.count.increment();
+		this.sum.add( value );
+		this.max.accumulateAndGet( value, Math::max );
+	}
+
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	public long getMean() {
+		long count = this.count.sum();
+		return count == 0 ? 0 : this.sum.sum() / count;
+	}
+
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * @param percentile in [0, 100]
+	 *
+	 * @return the (upper bound of the bucket of the) value below which the given percentage of the values fall. 0 if
+	 * nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for ( int i = 0; i < BUCKETS; ++i ) {
+			snapshot[i] = this.buckets.get( i );
+			total += snapshot[i];
+		}
+		if ( total == 0 ) {
+			return 0;
+		}
+		long rank = Math.max( (long) Math.ceil( total * percentile / 100D ), 1 );
+		long seen = 0;
+		for ( int i = 0; i < BUCKETS; ++i ) {
+			seen += snapshot[i];
+			if ( seen >= rank ) {
+				return Math.min( upperBound( i ), this.getMax() );
+			}
+		}
+		return this.getMax();
+	}
+
+	static int index(long value) {
+		if ( value < SUB_BUCKETS ) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros( value );
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long upperBound(int index) {
+		if ( index < SUB_BUCKETS ) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
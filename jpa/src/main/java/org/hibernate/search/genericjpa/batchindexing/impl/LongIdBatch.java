@@ -0,0 +1,98 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing.impl;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A batch of Long or Integer ids of a single entity type that are stored in a long[]. This is used by the MassIndexer
+ * instead of a List of UpdateEventInfos so that no objects have to be created for every id. The ids are only boxed
+ * again when they are passed to the JPA query that loads the entities.
+ *
+ * @author Martin Braun
+ */
+public final class LongIdBatch {
+
+	private final Class<?> entityClass;
+	private final boolean intIds;
+	private final long[] ids;
+	private final int size;
+
+	/**
+	 * @param ids the ids. only the first size elements are used, the array must not be changed afterwards
+	 */
+	public LongIdBatch(Class<?> entityClass, boolean intIds, long[] ids, int size) {
+		if ( size > ids.length ) {
+			throw new IllegalArgumentException( "size must not be greater than the length of ids" );
+		}
+		this.entityClass = entityClass;
+		this.intIds = intIds;
+		this.ids = ids;
+		this.size = size;
+	}
+
+	/**
+	 * @return whether the given id type (as returned by the JPA metamodel) can be stored in a LongIdBatch
+	 */
+	public static boolean isSupported(Class<?> idType) {
+		return idType.equals( Long.class ) || idType.equals( long.class ) || isInt( idType );
+	}
+
+	/**
+	 * @return whether the given id type is stored as an Integer in the entity
+	 */
+	public static boolean isInt(Class<?> idType) {
+		return idType.equals( Integer.class ) || idType.equals( int.class );
+	}
+
+	public Class<?> getEntityClass() {
+		return this.entityClass;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public long get(int index) {
+		if ( index >= this.size ) {
+			throw new IndexOutOfBoundsException( "index: " + index + ", size: " + this.size );
+		}
+		return this.ids[index];
+	}
+
+	/**
+	 * @return the id at the given index boxed into the id type of the entity
+	 */
+	public Object getBoxed(int index) {
+		long id = this.get( index );
+		return this.intIds ? (Object) (int) id : (Object) id;
+	}
+
+	/**
+	 * @return a view of the ids boxed into the id type of the entity. The ids are boxed on every access
+	 */
+	public List<Object> boxed() {
+		return new BoxedView();
+	}
+
+	private final class BoxedView extends AbstractList<Object> implements RandomAccess {
+
+		@Override
+		public Object get(int index) {
+			return LongIdBatch.this.getBoxed( index );
+		}
+
+		@Override
+		public int size() {
+			return LongIdBatch.this.size;
+		}
+
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.hibernate.search.genericjpa.exception.SearchException;
+
+/**
+ * The progress of a MassIndexer that can be written to and read from a (small) properties file. For every root type
+ * the id ranges the ids are loaded in are stored together with their watermark: the id up to which (inclusive) all
+ * entities of the range have been indexed. Only ranges with Long, Integer, Short or String ids can be checkpointed.
+ *
+ * @author Martin Braun
+ */
+public final class MassIndexerCheckpoint {
+
+	private final Path file;
+	private final Map<String, List<Range>> ranges = new LinkedHashMap<>();
+
+	public MassIndexerCheckpoint(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * reads the checkpoint from its file
+	 */
+	public static MassIndexerCheckpoint read(Path file) {
+		if ( !Files.exists( file ) ) {
+			throw new SearchException( "no checkpoint found at " + file );
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream( file )) {
+			properties.load( in );
+		}
+		catch (IOException e) {
+			throw new SearchException( "couldn't read the checkpoint at " + file, e );
+		}
+		MassIndexerCheckpoint ret = new MassIndexerCheckpoint( file );
+		for ( String rootType : properties.getProperty( "rootTypes", "" ).split( "," ) ) {
+			if ( rootType.length() == 0 ) {
+				continue;
+			}
+			int count = Integer.parseInt( properties.getProperty( rootType + ".ranges" ) );
+			List<Range> ranges = new ArrayList<>( count );
+			for ( int i = 0; i < count; ++i ) {
+				String prefix = rootType + "." + i;
+				Range range = new Range(
+						decode( properties.getProperty( prefix + ".lower" ) ),
+						decode( properties.getProperty( prefix + ".upper" ) )
+				);
+				range.watermark = decode( properties.getProperty( prefix + ".watermark" ) );
+				ranges.add( range );
+			}
+			ret.ranges.put( rootType, ranges );
+		}
+		return ret;
+	}
+
+	/**
+	 * @return whether a range with the given bounds can be checkpointed
+	 */
+	public static boolean isCheckpointable(Object lowerBound, Object upperBound, Class<?> idType) {
+		return isSupported( idType ) && (lowerBound == null || isSupported( lowerBound.getClass() ))
+				&& (upperBound == null || isSupported( upperBound.getClass() ));
+	}
+
+	private static boolean isSupported(Class<?> idType) {
+		return idType.equals( Long.class ) || idType.equals( long.class ) || idType.equals( Integer.class )
+				|| idType.equals( int.class ) || idType.equals( Short.class ) || idType.equals( short.class )
+				|| idType.equals( String.class );
+	}
+
+	public synchronized Range register(Class<?> rootType, Object lowerBound, Object upperBound) {
+		Range range = new Range( lowerBound, upperBound );
+		this.ranges.computeIfAbsent( rootType.getName(), (name) -> new ArrayList<>() ).add( range );
+		return range;
+	}
+
+	/**
+	 * @return the ranges stored for the given root type or null if there are none
+	 */
+	public synchronized List<Range> getRanges(Class<?> rootType) {
+		List<Range> ret = this.ranges.get( rootType.getName() );
+		return ret == null ? null : Collections.unmodifiableList( new ArrayList<>( ret ) );
+	}
+
+	/**
+	 * the watermarks of all ranges
+	 */
+	public synchronized Properties snapshot() {
+		Properties properties = new Properties();
+		properties.setProperty( "rootTypes", String.join( ",", this.ranges.keySet() ) );
+		for ( Map.Entry<String, List<Range>> entry : this.ranges.entrySet() ) {
+			List<Range> ranges = entry.getValue();
+			properties.setProperty( entry.getKey() + ".ranges", String.valueOf( ranges.size() ) );
+			for ( int i = 0; i < ranges.size(); ++i ) {
+				String prefix = entry.getKey() + "." + i;
+				Range range = ranges.get( i );
+				set( properties, prefix + ".lower", range.lowerBound );
+				set( properties, prefix + ".upper", range.upperBound );
+				set( properties, prefix + ".watermark", range.getWatermark() );
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * writes the snapshot to the file. the file is replaced atomically so it can always be read
+	 */
+	public void write(Properties snapshot) {
+		try {
+			Path tmp = this.file.resolveSibling( this.file.getFileName() + ".tmp" );
+			try (OutputStream out = Files.newOutputStream( tmp )) {
+				snapshot.store( out, "MassIndexer checkpoint" );
+			}
+			Files.move( tmp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch (IOException e) {
+			throw new SearchException( "couldn't write the checkpoint to " + this.file, e );
+		}
+	}
+
+	public void delete() {
+		try {
+			Files.deleteIfExists( this.file );
+		}
+		catch (IOException e) {
+			throw new SearchException( "couldn't delete the checkpoint at " + this.file, e );
+		}
+	}
+
+	private static void set(Properties properties, String key, Object value) {
+		if ( value != null ) {
+			properties.setProperty( key, encode( value ) );
+		}
+	}
+
+	private static String encode(Object value) {
+		if ( value instanceof Long ) {
+			return "L:" + value;
+		}
+		else if ( value instanceof Integer ) {
+			return "I:" + value;
+		}
+		else if ( value instanceof Short ) {
+			return "S:" + value;
+		}
+		else if ( value instanceof String ) {
+			return "T:" + value;
+		}
+		throw new IllegalArgumentException( "unsupported id type: " + value.getClass() );
+	}
+
+	private static Object decode(String value) {
+		if ( value == null ) {
+			return null;
+		}
+		String content = value.substring( 2 );
+		switch ( value.charAt( 0 ) ) {
+			case 'L':
+				return Long.parseLong( content );
+			case 'I':
+				return Integer.parseInt( content );
+			case 'S':
+				return Short.parseShort( content );
+			case 'T':
+				return content;
+			default:
+				throw new SearchException( "invalid value in checkpoint: " + value );
+		}
+	}
+
+	/**
+	 * a range of ids [lowerBound, upperBound) that is loaded by one IdProducerTask. The batches of a range are produced
+	 * in id order but might be indexed in any order, so the watermark only moves up to the last id of the last batch
+	 * for which all the previous batches have been indexed as well
+	 */
+	public static final class Range {
+
+		private final Object lowerBound;
+		private final Object upperBound;
+		private final boolean checkpointed;
+
+		private Object watermark;
+		private long produced = 0;
+		private long indexedUpTo = -1;
+		// batch number -> last id of the batch (for the batches that are not contiguous yet)
+		private final TreeMap<Long, Object> lastIds = new TreeMap<>();
+		private final TreeMap<Long, Boolean> indexed = new TreeMap<>();
+
+		private Range(Object lowerBound, Object upperBound) {
+			this( lowerBound, upperBound, true );
+		}
+
+		private Range(Object lowerBound, Object upperBound, boolean checkpointed) {
+			this.lowerBound = lowerBound;
+			this.upperBound = upperBound;
+			this.checkpointed = checkpointed;
+		}
+
+		/**
+		 * @return a range that is not part of any checkpoint
+		 */
+		public static Range uncheckpointed(Object lowerBound, Object upperBound) {
+			return new Range( lowerBound, upperBound, false );
+		}
+
+		/**
+		 * @return whether this range is part of a checkpoint
+		 */
+		public boolean isCheckpointed() {
+			return this.checkpointed;
+		}
+
+		public Object getLowerBound() {
+			return this.lowerBound;
+		}
+
+		public Object getUpperBound() {
+			return this.upperBound;
+		}
+
+		/**
+		 * @return the last id up to which all entities have been indexed or null if there is none
+		 */
+		public synchronized Object getWatermark() {
+			return this.watermark;
+		}
+
+		/**
+		 * @return the number of the batch that ends with the given id
+		 */
+		public synchronized long produced(Object lastId) {
+			long batch = this.produced++;
+			this.lastIds.put( batch, lastId );
+			return batch;
+		}
+
+		public synchronized void indexed(long batch) {
+			this.indexed.put( batch, Boolean.TRUE );
+			while ( this.indexed.remove( this.indexedUpTo + 1 ) != null ) {
+				++this.indexedUpTo;
+				this.watermark = this.lastIds.remove( this.indexedUpTo );
+			}
+		}
+
+	}
+
+}
@@ -8,15 +8,22 @@ package org.hibernate.search.genericjpa.batchindexing.impl;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.Metamodel;
 import javax.persistence.metamodel.SingularAttribute;
 import javax.transaction.TransactionManager;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -25,14 +32,20 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import org.hibernate.search.backend.OptimizeLuceneWork;
 import org.hibernate.search.backend.PurgeAllLuceneWork;
@@ -40,6 +53,7 @@ import org.hibernate.search.backend.impl.batch.DefaultBatchBackend;
 import org.hibernate.search.backend.spi.BatchBackend;
 import org.hibernate.search.engine.integration.impl.ExtendedSearchIntegrator;
 import org.hibernate.search.genericjpa.batchindexing.MassIndexer;
+import org.hibernate.search.genericjpa.batchindexing.MassIndexerMetrics;
 import org.hibernate.search.genericjpa.batchindexing.MassIndexerProgressMonitor;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer;
 import org.hibernate.search.genericjpa.entity.impl.BasicEntityProvider;
@@ -47,6 +61,7 @@ import org.hibernate.search.genericjpa.entity.EntityProvider;
 import org.hibernate.search.genericjpa.entity.impl.TransactionWrappedEntityManagerEntityProvider;
 import org.hibernate.search.genericjpa.exception.AssertionFailure;
 import org.hibernate.search.genericjpa.exception.SearchException;
+import org.hibernate.search.genericjpa.jpa.util.impl.JPATransactionWrapper;
 import org.hibernate.search.genericjpa.util.NamingThreadFactory;
 
 /**
@@ -62,11 +77,11 @@ public class MassIndexerImpl implements MassIndexer {
 	private final ConcurrentHashMap<Class<?>, AtomicInteger> idProgress = new ConcurrentHashMap<>();
 	private final ConcurrentHashMap<Class<?>, AtomicInteger> objectLoadedProgress = new ConcurrentHashMap<>();
 	private final ConcurrentHashMap<Class<?>, AtomicInteger> documentBuiltProgress = new ConcurrentHashMap<>();
-	private final AtomicInteger documentsAdded = new AtomicInteger();
+	private final AtomicLong documentsAdded = new AtomicLong();
 	/**
 	 * used to wait for finishing the indexing process
 	 */
-	private final Map<Class<?>, NumberCondition> finishConditions = new HashMap<>();
+	private final Map<Class<?>, InflightLimiter> inflightIds = new HashMap<>();
 	private final ConcurrentLinkedQueue<Future<?>> idProducerFutures = new ConcurrentLinkedQueue<>();
 	/**
 	 * this latch is used to wait for the cleanup thread to finish.
@@ -80,6 +95,17 @@ public class MassIndexerImpl implements MassIndexer {
 	private BatchBackend batchBackend;
 	private ExecutorService executorServiceForIds;
 	private ExecutorService executorServiceForObjects;
+	private ExecutorService executorServiceForDocuments;
+	/**
+	 * bounds the number of loaded batches waiting for their documents to be built
+	 */
+	private Semaphore documentBuildPermits;
+	/**
+	 * writes the checkpoints in the given interval (if a checkpoint file was set)
+	 */
+	private ScheduledExecutorService checkpointExecutor;
+	private MassIndexerCheckpoint checkpoint;
+	private volatile MassIndexerMetricsRecorder metrics;
 	private boolean purgeAllOnStart = true;
 	private boolean optimizeAfterPurge = true;
 	private boolean optimizeOnFinish = true;
@@ -87,7 +113,31 @@ public class MassIndexerImpl implements MassIndexer {
 	private int batchSizeToLoadObjects = 10;
 	private int threadsToLoadIds = 1;
 	private int threadsToLoadObjects = 4;
+	private int threadsToBuildDocuments = 0;
+	private boolean adaptive = false;
+	private int minBatchSizeToLoadObjects;
+	private int maxBatchSizeToLoadObjects;
+	private int targetBatchMillis;
+	/**
+	 * the tuners of the root types if the MassIndexer is adaptive
+	 */
+	private final Map<Class<?>, AdaptiveTuner> tuners = new HashMap<>();
 	private Integer idProducerTransactionTimeout = null;
+	private Path checkpointFile;
+	private int checkpointInterval = 10;
+	private boolean resuming = false;
+	private boolean updateWorks = false;
+	private boolean restrictable = true;
+	private boolean resumable = true;
+	private Map<Class<?>, List<String>> embeddedPropertyPaths = Collections.emptyMap();
+	private final Map<Class<?>, Restriction> restrictions = new HashMap<>();
+	private final Map<Class<?>, Stream<?>> idStreams = new HashMap<>();
+	private Runnable startConsumer;
+	private Consumer<Boolean> finishConsumer;
+	/**
+	 * thrown by the finishConsumer, reported by the Future
+	 */
+	private volatile RuntimeException finishException;
 	private boolean started = false;
 	private Map<Class<?>, String> idProperties;
 	private Future<Void> future;
@@ -95,10 +145,10 @@ public class MassIndexerImpl implements MassIndexer {
 	private ConcurrentLinkedQueue<BasicEntityProvider> entityProviders = new ConcurrentLinkedQueue<>();
 	private MassIndexerProgressMonitor progressMonitor;
 	/**
-	 * this is needed so we don't flood the executors for object handling. we store the amount of currently submitted
-	 * ObjectHandlerTasks in here
+	 * this is needed so we don't flood the executors for object handling. every submitted ObjectHandlerTask holds a
+	 * permit of this until its EntityProvider is disposed
 	 */
-	private NumberCondition objectHandlerTaskCondition;
+	private InflightLimiter objectHandlerTaskLimiter;
 	private boolean cancelled = false;
 
 	private EntityProvider userSpecifiedEntityProvider;
@@ -168,6 +218,141 @@ public class MassIndexerImpl implements MassIndexer {
 		return this;
 	}
 
+	@Override
+	public MassIndexer threadsToBuildDocuments(int threadsToBuildDocuments) {
+		if ( threadsToBuildDocuments < 0 ) {
+			throw new IllegalArgumentException( "threadsToBuildDocuments must be greater or equal to 0" );
+		}
+		this.threadsToBuildDocuments = threadsToBuildDocuments;
+		return this;
+	}
+
+	@Override
+	public MassIndexer adaptive(int minBatchSizeToLoadObjects, int maxBatchSizeToLoadObjects, int targetBatchMillis) {
+		if ( minBatchSizeToLoadObjects <= 0 ) {
+			throw new IllegalArgumentException( "minBatchSizeToLoadObjects must be greater than 0" );
+		}
+		if ( maxBatchSizeToLoadObjects < minBatchSizeToLoadObjects ) {
+			throw new IllegalArgumentException(
+					"maxBatchSizeToLoadObjects must be greater or equal to minBatchSizeToLoadObjects"
+			);
+		}
+		if ( targetBatchMillis <= 0 ) {
+			throw new IllegalArgumentException( "targetBatchMillis must be greater than 0" );
+		}
+		this.adaptive = true;
+		this.minBatchSizeToLoadObjects = minBatchSizeToLoadObjects;
+		this.maxBatchSizeToLoadObjects = maxBatchSizeToLoadObjects;
+		this.targetBatchMillis = targetBatchMillis;
+		return this;
+	}
+
+	@Override
+	public MassIndexer checkpointFile(Path checkpointFile) {
+		if ( !this.resumable ) {
+			throw new SearchException( "this MassIndexer can't be checkpointed" );
+		}
+		this.checkpointFile = checkpointFile;
+		return this;
+	}
+
+	@Override
+	public MassIndexer checkpointInterval(int seconds) {
+		if ( seconds <= 0 ) {
+			throw new IllegalArgumentException( "checkpointInterval must be greater than 0" );
+		}
+		this.checkpointInterval = seconds;
+		return this;
+	}
+
+	@Override
+	public MassIndexer restrictTo(Class<?> rootType, String predicate, Map<String, ?> parameters) {
+		this.checkRootType( rootType );
+		if ( predicate == null ) {
+			throw new IllegalArgumentException( "predicate may not be null" );
+		}
+		if ( parameters != null ) {
+			for ( String parameter : parameters.keySet() ) {
+				if ( parameter.startsWith( IdProducerTask.RESERVED_PARAMETER_PREFIX ) ) {
+					throw new IllegalArgumentException(
+							"the names of restriction parameters may not start with " + IdProducerTask.RESERVED_PARAMETER_PREFIX
+									+ ", found: " + parameter
+					);
+				}
+			}
+		}
+		this.restrictions.put( rootType, new Restriction( predicate, parameters ) );
+		return this;
+	}
+
+	@Override
+	public MassIndexer ids(Class<?> rootType, Stream<?> ids) {
+		this.checkRootType( rootType );
+		if ( ids == null ) {
+			throw new IllegalArgumentException( "ids may not be null" );
+		}
+		this.idStreams.put( rootType, ids );
+		return this;
+	}
+
+	private void checkRootType(Class<?> rootType) {
+		if ( !this.rootTypes.contains( rootType ) ) {
+			throw new IllegalArgumentException( rootType + " is not one of the root types of this MassIndexer" );
+		}
+	}
+
+	/**
+	 * the paths of the IndexedEmbedded properties per index-root, used to fetch everything a document is built from at
+	 * once
+	 */
+	public MassIndexerImpl embeddedPropertyPaths(Map<Class<?>, List<String>> embeddedPropertyPaths) {
+		this.embeddedPropertyPaths = embeddedPropertyPaths;
+		return this;
+	}
+
+	/**
+	 * whether only parts of the index may be rebuilt with {@link #restrictTo(Class, String, Map)} and
+	 * {@link #ids(Class, Stream)}
+	 */
+	public MassIndexerImpl restrictable(boolean restrictable) {
+		this.restrictable = restrictable;
+		return this;
+	}
+
+	/**
+	 * whether this MassIndexer may be checkpointed and resumed with {@link #checkpointFile(Path)} and
+	 * {@link #resume()}
+	 */
+	public MassIndexerImpl resumable(boolean resumable) {
+		this.resumable = resumable;
+		return this;
+	}
+
+	/**
+	 * whether to create update works instead of add works. needed if something else writes to the index while the
+	 * MassIndexer is running
+	 */
+	public MassIndexerImpl updateWorks(boolean updateWorks) {
+		this.updateWorks = updateWorks;
+		return this;
+	}
+
+	/**
+	 * called after the index has been purged (if it was) and before the first id is loaded
+	 */
+	public MassIndexerImpl startConsumer(Runnable startConsumer) {
+		this.startConsumer = startConsumer;
+		return this;
+	}
+
+	/**
+	 * called with whether the MassIndexer finished successfully after everything has been flushed to the index
+	 */
+	public MassIndexerImpl finishConsumer(Consumer<Boolean> finishConsumer) {
+		this.finishConsumer = finishConsumer;
+		return this;
+	}
+
 	@Override
 	public Future<?> start() {
 		if ( this.started ) {
@@ -175,6 +360,16 @@ public class MassIndexerImpl implements MassIndexer {
 		}
 		this.started = true;
 
+		if ( !this.restrictable && (this.restrictions.size() > 0 || this.idStreams.size() > 0) ) {
+			throw new SearchException( "this MassIndexer can only rebuild whole indexes" );
+		}
+		for ( Class<?> rootType : this.idStreams.keySet() ) {
+			if ( this.restrictions.containsKey( rootType ) ) {
+				throw new SearchException( "can't restrict the ids of " + rootType + " in two ways" );
+			}
+		}
+
+		this.metrics = new MassIndexerMetricsRecorder( this.rootTypes );
 		this.setupBatchBackend();
 
 		this.executorServiceForIds = Executors.newFixedThreadPool(
@@ -189,13 +384,57 @@ public class MassIndexerImpl implements MassIndexer {
 						)
 				);
 
-		this.objectHandlerTaskCondition = new NumberCondition( this.threadsToLoadObjects * 4 );
+		if ( this.threadsToBuildDocuments > 0 ) {
+			this.executorServiceForDocuments = Executors.newFixedThreadPool(
+					this.threadsToBuildDocuments, new NamingThreadFactory(
+							"MassIndexer Document Builder Thread"
+					)
+			);
+			this.documentBuildPermits = new Semaphore( this.threadsToBuildDocuments * 2 );
+		}
+
+		this.objectHandlerTaskLimiter = InflightLimiter.bounded( this.threadsToLoadObjects * 4 );
+		if ( this.adaptive ) {
+			for ( Class<?> rootType : this.rootTypes ) {
+				this.tuners.put(
+						rootType, new AdaptiveTuner(
+								rootType,
+								this.minBatchSizeToLoadObjects,
+								this.maxBatchSizeToLoadObjects,
+								this.batchSizeToLoadObjects,
+								this.threadsToLoadObjects * 4,
+								this.threadsToLoadObjects,
+								this.targetBatchMillis,
+								TimeUnit.MILLISECONDS
+						)
+				);
+			}
+		}
 
 		this.idProperties = this.getIdProperties( this.rootTypes );
 
+		if ( this.checkpointFile != null && this.checkpoint == null ) {
+			this.checkpoint = new MassIndexerCheckpoint( this.checkpointFile );
+		}
+
 		// start all the IdProducers
 		this.startIdProducers();
 
+		if ( this.checkpoint != null ) {
+			this.checkpoint.write( this.checkpoint.snapshot() );
+			this.checkpointExecutor = Executors.newSingleThreadScheduledExecutor(
+					new NamingThreadFactory(
+							"MassIndexer Checkpoint Thread"
+					)
+			);
+			this.checkpointExecutor.scheduleWithFixedDelay(
+					this::writeCheckpoint,
+					this.checkpointInterval,
+					this.checkpointInterval,
+					TimeUnit.SECONDS
+			);
+		}
+
 		// create the future object
 		this.future = this.getFuture();
 
@@ -204,6 +443,19 @@ public class MassIndexerImpl implements MassIndexer {
 		return this.future;
 	}
 
+	@Override
+	public Future<?> resume() {
+		if ( !this.resumable ) {
+			throw new SearchException( "this MassIndexer can't be resumed" );
+		}
+		if ( this.checkpointFile == null ) {
+			throw new SearchException( "resume() needs a checkpointFile to be set" );
+		}
+		this.checkpoint = MassIndexerCheckpoint.read( this.checkpointFile );
+		this.resuming = true;
+		return this.start();
+	}
+
 	@Override
 	public void startAndWait() throws InterruptedException {
 		try {
@@ -215,9 +467,47 @@ public class MassIndexerImpl implements MassIndexer {
 	}
 
 	public void updateEvent(List<UpdateConsumer.UpdateEventInfo> updateInfo) {
+		this.updateEvent( updateInfo, null );
+	}
+
+	private void updateEvent(List<UpdateConsumer.UpdateEventInfo> updateInfo, MassIndexerCheckpoint.Range range) {
+		this.submit(
+				updateInfo.get( 0 ).getEntityClass(),
+				range,
+				() -> updateInfo.get( updateInfo.size() - 1 ).getId(),
+				(task) -> task.batch( updateInfo )
+		);
+	}
+
+	private void updateEvent(LongIdBatch batch, MassIndexerCheckpoint.Range range) {
+		this.submit(
+				batch.getEntityClass(),
+				range,
+				() -> batch.getBoxed( batch.size() - 1 ),
+				(task) -> task.batch( batch )
+		);
+	}
+
+	private void submit(
+			Class<?> entityClass,
+			MassIndexerCheckpoint.Range range,
+			Supplier<Object> lastId,
+			Consumer<ObjectHandlerTask> batchSetter) {
+		AdaptiveTuner tuner = this.tuners.get( entityClass );
 		try {
-			// check if we should wait with submitting
-			this.objectHandlerTaskCondition.check();
+			// wait until there is room for another task (of this type)
+			if ( tuner != null ) {
+				tuner.getInflightLimiter().acquire( 1 );
+			}
+			try {
+				this.objectHandlerTaskLimiter.acquire( 1 );
+			}
+			catch (InterruptedException e) {
+				if ( tuner != null ) {
+					tuner.getInflightLimiter().release( 1 );
+				}
+				throw e;
+			}
 		}
 		catch (InterruptedException e) {
 			//throw this forward. this should be catched by the IdProducer
@@ -227,9 +517,9 @@ public class MassIndexerImpl implements MassIndexer {
 		lock.lock();
 		try {
 			if ( this.cancelled ) {
+				this.releaseTaskPermit( entityClass );
 				return;
 			}
-			Class<?> entityClass = updateInfo.get( 0 ).getEntityClass();
 			ObjectHandlerTask task = new ObjectHandlerTask(
 					this.batchBackend,
 					entityClass,
@@ -237,14 +527,33 @@ public class MassIndexerImpl implements MassIndexer {
 					this::getEntityProvider,
 					this::disposeEntityManager,
 					this.emf.getPersistenceUnitUtil(),
-					this.finishConditions.get( entityClass ),
+					this.inflightIds.get( entityClass ),
 					this::onException
 			);
-			task.batch( updateInfo );
+			batchSetter.accept( task );
+			// when resuming, the documents after the checkpoint might already be in the index
+			task.updateWorks( this.resuming || this.updateWorks || this.isRestricted( entityClass ) );
+			task.deleteMissing( this.idStreams.containsKey( entityClass ) );
+			if ( range != null ) {
+				long batchNumber = range.produced( lastId.get() );
+				task.batchIndexedConsumer( () -> range.indexed( batchNumber ) );
+			}
+			task.metrics( this.metrics );
+			if ( tuner != null ) {
+				task.batchLatencyConsumer( tuner::batchDone );
+			}
 			task.documentBuiltProgressMonitor( this::documentBuiltProgress );
 			task.objectLoadedProgressMonitor( this::objectLoadedProgress );
-			this.objectHandlerTaskCondition.up( 1 );
-			this.executorServiceForObjects.submit( task );
+			if ( this.executorServiceForDocuments != null ) {
+				task.documentBuilding( this.executorServiceForDocuments, this.documentBuildPermits );
+			}
+			try {
+				this.executorServiceForObjects.submit( task );
+			}
+			catch (RuntimeException e) {
+				this.releaseTaskPermit( entityClass );
+				throw e;
+			}
 		}
 		finally {
 			lock.unlock();
@@ -272,37 +581,211 @@ public class MassIndexerImpl implements MassIndexer {
 		return this;
 	}
 
+	@Override
+	public MassIndexerMetrics metrics() {
+		MassIndexerMetricsRecorder metrics = this.metrics;
+		if ( metrics == null ) {
+			throw new SearchException( "the MassIndexer has not been started yet" );
+		}
+		Map<Class<?>, Long> idsInFlight = new HashMap<>();
+		for ( Map.Entry<Class<?>, InflightLimiter> entry : this.inflightIds.entrySet() ) {
+			idsInFlight.put( entry.getKey(), entry.getValue().inflight() );
+		}
+		return metrics.snapshot(
+				idsInFlight,
+				this.documentsAdded.get(),
+				this.objectHandlerTaskLimiter.inflight(),
+				this.documentBuildPermits == null ? 0 :
+						this.threadsToBuildDocuments * 2 - this.documentBuildPermits.availablePermits()
+		);
+	}
+
 	private void startIdProducers() {
 		for ( Class<?> rootClass : this.rootTypes ) {
 			try {
-				if ( this.purgeAllOnStart ) {
+				// only a part of the index of restricted types is rebuilt
+				if ( this.purgeAllOnStart && !this.resuming && !this.isRestricted( rootClass ) ) {
 					this.batchBackend.enqueueAsyncWork( new PurgeAllLuceneWork( rootClass ) );
 					if ( this.optimizeAfterPurge ) {
 						this.batchBackend.enqueueAsyncWork( new OptimizeLuceneWork( rootClass ) );
 					}
-					this.batchBackend.flush( new HashSet<>( this.rootTypes ) );
+					this.flush();
 				}
 			}
 			catch (Exception e) {
 				throw new SearchException( e );
 			}
+		}
 
-			this.finishConditions.put( rootClass, new NumberCondition( 0, 0, false ) );
-			IdProducerTask idProducer = new IdProducerTask(
-					rootClass,
-					this.idProperties.get( rootClass ),
-					this.emf,
-					this.transactionManager,
-					this.batchSizeToLoadIds,
-					this.batchSizeToLoadObjects,
-					this::updateEvent,
-					this::onException,
-					this.finishConditions.get( rootClass )
-			);
-			idProducer.progressMonitor( this::idProgress );
-			idProducer.transactionTimeout( this.idProducerTransactionTimeout );
-			this.idProducerFutures.add( this.executorServiceForIds.submit( idProducer ) );
+		if ( this.startConsumer != null ) {
+			this.startConsumer.run();
 		}
+
+		for ( Class<?> rootClass : this.rootTypes ) {
+			InflightLimiter inflightIds = InflightLimiter.unbounded();
+			this.inflightIds.put( rootClass, inflightIds );
+			List<MassIndexerCheckpoint.Range> checkpointRanges = this.getCheckpointRanges( rootClass );
+			// whole number ids are passed around in primitive batches. the ids passed
+			// by the user might be of any type though
+			EntityType<?> entityType = this.emf.getMetamodel().entity( rootClass );
+			boolean longIds = !this.idStreams.containsKey( rootClass )
+					&& IdProducerTask.isKeysetPaginationPossible( entityType )
+					&& LongIdBatch.isSupported( entityType.getIdType().getJavaType() );
+			boolean intIds = longIds && LongIdBatch.isInt( entityType.getIdType().getJavaType() );
+			// the IdProducers acquire every id they produce from inflightIds,
+			// so we are only done after all of them are finished
+			AtomicInteger runningIdProducers = new AtomicInteger( checkpointRanges.size() );
+			for ( MassIndexerCheckpoint.Range checkpointRange : checkpointRanges ) {
+				MassIndexerCheckpoint.Range trackedRange = checkpointRange.isCheckpointed() ? checkpointRange : null;
+				IdProducerTask idProducer = new IdProducerTask(
+						rootClass,
+						this.idProperties.get( rootClass ),
+						this.emf,
+						this.transactionManager,
+						this.batchSizeToLoadIds,
+						this.batchSizeToLoadObjects,
+						(updateInfo) -> this.updateEvent( updateInfo, trackedRange ),
+						this::onException,
+						inflightIds
+				);
+				idProducer.range( checkpointRange.getLowerBound(), checkpointRange.getUpperBound() );
+				Restriction restriction = this.restrictions.get( rootClass );
+				if ( restriction != null ) {
+					idProducer.restriction( restriction.predicate, restriction.parameters );
+				}
+				idProducer.ids( this.idStream( rootClass, entityType.getIdType().getJavaType() ) );
+				if ( longIds ) {
+					idProducer.longIds(
+							intIds,
+							(batch) -> this.updateEvent( batch, trackedRange )
+					);
+				}
+				idProducer.resumeAfter( checkpointRange.getWatermark() );
+				// the total is only counted once per root type
+				idProducer.metrics(
+						this.metrics,
+						checkpointRange == checkpointRanges.get( 0 ) && !this.idStreams.containsKey( rootClass )
+				);
+				AdaptiveTuner tuner = this.tuners.get( rootClass );
+				if ( tuner != null ) {
+					idProducer.batchSizeSupplier( tuner::getBatchSize );
+				}
+				idProducer.progressMonitor( this::idProgress );
+				idProducer.transactionTimeout( this.idProducerTransactionTimeout );
+				idProducer.finishConsumer(
+						() -> {
+							if ( runningIdProducers.decrementAndGet() == 0 ) {
+								inflightIds.finishProducing();
+							}
+						}
+				);
+				this.idProducerFutures.add( this.executorServiceForIds.submit( idProducer ) );
+			}
+		}
+	}
+
+	/**
+	 * when resuming, the ranges are taken from the checkpoint (if the root type was checkpointed). Otherwise they are
+	 * computed and registered in the checkpoint if possible
+	 */
+	private List<MassIndexerCheckpoint.Range> getCheckpointRanges(Class<?> rootClass) {
+		if ( this.idStreams.containsKey( rootClass ) ) {
+			return Collections.singletonList( MassIndexerCheckpoint.Range.uncheckpointed( null, null ) );
+		}
+		if ( this.resuming ) {
+			List<MassIndexerCheckpoint.Range> ret = this.checkpoint.getRanges( rootClass );
+			if ( ret != null ) {
+				return ret;
+			}
+		}
+		EntityType<?> entityType = this.emf.getMetamodel().entity( rootClass );
+		List<MassIndexerCheckpoint.Range> ret = new ArrayList<>();
+		for ( Object[] idRange : this.getIdRanges( rootClass ) ) {
+			if ( this.checkpoint != null && IdProducerTask.isKeysetPaginationPossible( entityType )
+					&& MassIndexerCheckpoint.isCheckpointable(
+					idRange[0],
+					idRange[1],
+					entityType.getIdType().getJavaType()
+			) ) {
+				ret.add( this.checkpoint.register( rootClass, idRange[0], idRange[1] ) );
+			}
+			else {
+				ret.add( MassIndexerCheckpoint.Range.uncheckpointed( idRange[0], idRange[1] ) );
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * splits the ids of the given root type into threadsToLoadIds ranges of the same size ([lowerBound, upperBound), null
+	 * meaning unbounded), so that several threads can load the ids of a single type. This is only possible for whole
+	 * number ids, all other types get one unbounded range
+	 */
+	private List<Object[]> getIdRanges(Class<?> rootClass) {
+		List<Object[]> ret = new ArrayList<>();
+		EntityType<?> entityType = this.emf.getMetamodel().entity( rootClass );
+		if ( this.threadsToLoadIds > 1 && IdProducerTask.isRangePartitioningPossible( entityType ) ) {
+			Object[] minMax;
+			EntityManager em = this.emf.createEntityManager();
+			try {
+				JPATransactionWrapper tx = JPATransactionWrapper.get( em, this.transactionManager );
+				tx.begin();
+				try {
+					String idProperty = this.idProperties.get( rootClass );
+					Restriction restriction = this.restrictions.get( rootClass );
+					Query query = em.createQuery(
+							"SELECT MIN(obj." + idProperty + "), MAX(obj." + idProperty + ") FROM " + entityType.getName() + " obj"
+									+ (restriction != null ? " WHERE (" + restriction.predicate + ")" : "")
+					);
+					if ( restriction != null ) {
+						for ( Map.Entry<String, ?> parameter : restriction.parameters.entrySet() ) {
+							query.setParameter( parameter.getKey(), parameter.getValue() );
+						}
+					}
+					minMax = (Object[]) query.getSingleResult();
+					tx.commit();
+				}
+				catch (Exception e) {
+					tx.rollback();
+					throw new SearchException( e );
+				}
+			}
+			finally {
+				em.close();
+			}
+			if ( minMax[0] != null && minMax[1] != null ) {
+				long min = ((Number) minMax[0]).longValue();
+				long max = ((Number) minMax[1]).longValue();
+				// the span might overflow for huge ranges, we just don't split these
+				long span = max - min + 1;
+				if ( span > 1 ) {
+					long width = span / this.threadsToLoadIds + (span % this.threadsToLoadIds == 0 ? 0 : 1);
+					Class<?> idType = minMax[0].getClass();
+					Object lowerBound = null;
+					for ( int i = 1; i < this.threadsToLoadIds && min + i * width <= max; ++i ) {
+						long bound = min + i * width;
+						Object upperBound = toIdType( bound, idType );
+						ret.add( new Object[] {lowerBound, upperBound} );
+						lowerBound = upperBound;
+					}
+					ret.add( new Object[] {lowerBound, null} );
+				}
+			}
+		}
+		if ( ret.size() == 0 ) {
+			ret.add( new Object[] {null, null} );
+		}
+		return ret;
+	}
+
+	private static Object toIdType(long value, Class<?> idType) {
+		if ( Integer.class.equals( idType ) ) {
+			return (int) value;
+		}
+		else if ( Short.class.equals( idType ) ) {
+			return (short) value;
+		}
+		return value;
 	}
 
 	private void setupBatchBackend() {
@@ -311,8 +794,7 @@ public class MassIndexerImpl implements MassIndexer {
 
 			@Override
 			public void documentsAdded(long increment) {
-				// hacky: whatever...
-				int count = MassIndexerImpl.this.documentsAdded.addAndGet( (int) increment );
+				long count = MassIndexerImpl.this.documentsAdded.addAndGet( increment );
 				if ( MassIndexerImpl.this.progressMonitor != null ) {
 					MassIndexerImpl.this.progressMonitor.documentsAdded( count );
 				}
@@ -370,11 +852,35 @@ public class MassIndexerImpl implements MassIndexer {
 					throw new SearchException( "Error during massindexing!", e );
 				}
 				finally {
+					// after a cancel the ObjectHandlerTasks and document builders may still be
+					// running, nothing may be flushed or finished up under them
+					MassIndexerImpl.this.closeExecutorServices();
+
+					// the checkpoint may only contain what is flushed
+					Properties checkpointSnapshot = null;
+					if ( MassIndexerImpl.this.checkpoint != null ) {
+						MassIndexerImpl.this.stopCheckpointExecutor();
+						checkpointSnapshot = MassIndexerImpl.this.checkpoint.snapshot();
+					}
+
 					// flush all the works that are left in the queue EVEN if we get interrupted
-					MassIndexerImpl.this.batchBackend.flush( new HashSet<>( MassIndexerImpl.this.rootTypes ) );
+					MassIndexerImpl.this.flush();
+
+					if ( checkpointSnapshot != null ) {
+						MassIndexerImpl.this.finishCheckpoint( checkpointSnapshot );
+					}
+
+					if ( MassIndexerImpl.this.finishConsumer != null ) {
+						try {
+							MassIndexerImpl.this.finishConsumer.accept( !MassIndexerImpl.this.isCancelled() );
+						}
+						catch (RuntimeException e) {
+							LOGGER.log( Level.SEVERE, "Exception while finishing up", e );
+							MassIndexerImpl.this.finishException = e;
+						}
+					}
 
 					//we also have to finish up
-					MassIndexerImpl.this.closeExecutorServices();
 					MassIndexerImpl.this.closeAllOpenEntityManagers();
 					MassIndexerImpl.this.cleanUpLatch.countDown();
 				}
@@ -383,6 +889,56 @@ public class MassIndexerImpl implements MassIndexer {
 		}.start();
 	}
 
+	private void flush() {
+		long start = System.nanoTime();
+		this.batchBackend.flush( new HashSet<>( this.rootTypes ) );
+		this.metrics.record( MassIndexerMetrics.Stage.BACKEND_FLUSH, null, 1, System.nanoTime() - start );
+	}
+
+	/**
+	 * the watermarks are taken before the flush so that everything in the checkpoint is guaranteed to be in the index
+	 */
+	private void writeCheckpoint() {
+		try {
+			Properties snapshot = this.checkpoint.snapshot();
+			this.flush();
+			this.checkpoint.write( snapshot );
+		}
+		catch (Exception e) {
+			// don't throw this, the executor would not run us again
+			LOGGER.log( Level.WARNING, "Exception while writing the checkpoint", e );
+		}
+	}
+
+	private void stopCheckpointExecutor() {
+		this.checkpointExecutor.shutdown();
+		try {
+			if ( !this.checkpointExecutor.awaitTermination( 1, TimeUnit.MINUTES ) ) {
+				LOGGER.warning( "checkpoint thread didn't finish in time" );
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * the checkpoint is only kept if we didn't finish successfully
+	 */
+	private void finishCheckpoint(Properties snapshot) {
+		try {
+			if ( this.isCancelled() ) {
+				this.checkpoint.write( snapshot );
+			}
+			else {
+				this.checkpoint.delete();
+			}
+		}
+		catch (SearchException e) {
+			LOGGER.log( Level.WARNING, "Exception while finishing the checkpoint", e );
+		}
+	}
+
 	private Future<Void> getFuture() {
 		return new Future<Void>() {
 
@@ -433,20 +989,26 @@ public class MassIndexerImpl implements MassIndexer {
 			public Void get() throws InterruptedException, ExecutionException {
 				MassIndexerImpl.this.awaitJobsFinish();
 				MassIndexerImpl.this.cleanUpLatch.await();
+				if ( MassIndexerImpl.this.finishException != null ) {
+					throw new ExecutionException( MassIndexerImpl.this.finishException );
+				}
 				return null;
 			}
 
 			@Override
 			public Void get(long timeout, TimeUnit unit)
 					throws InterruptedException, ExecutionException, TimeoutException {
-				for ( NumberCondition condition : MassIndexerImpl.this.finishConditions.values() ) {
+				for ( InflightLimiter inflightIds : MassIndexerImpl.this.inflightIds.values() ) {
 					// FIXME: not quite right...
-					if ( !condition.check( timeout, unit ) ) {
+					if ( !inflightIds.awaitFinish( timeout, unit ) ) {
 						throw new TimeoutException();
 					}
 				}
 				// FIXME: not quite right...
 				MassIndexerImpl.this.cleanUpLatch.await( timeout, unit );
+				if ( MassIndexerImpl.this.finishException != null ) {
+					throw new ExecutionException( MassIndexerImpl.this.finishException );
+				}
 				return null;
 			}
 
@@ -454,8 +1016,8 @@ public class MassIndexerImpl implements MassIndexer {
 	}
 
 	private void awaitJobsFinish() throws InterruptedException {
-		for ( NumberCondition condition : MassIndexerImpl.this.finishConditions.values() ) {
-			condition.check();
+		for ( InflightLimiter inflightIds : MassIndexerImpl.this.inflightIds.values() ) {
+			inflightIds.awaitFinish();
 		}
 	}
 
@@ -488,13 +1050,8 @@ public class MassIndexerImpl implements MassIndexer {
 
 	private boolean isFinished() {
 		boolean ret = true;
-		for ( NumberCondition numberCondition : this.finishConditions.values() ) {
-			try {
-				ret &= numberCondition.check( 1, TimeUnit.NANOSECONDS );
-			}
-			catch (InterruptedException e) {
-				throw new SearchException( e );
-			}
+		for ( InflightLimiter inflightIds : this.inflightIds.values() ) {
+			ret &= inflightIds.isFinished();
 		}
 		return ret;
 	}
@@ -508,7 +1065,8 @@ public class MassIndexerImpl implements MassIndexer {
 					emProvider = new TransactionWrappedEntityManagerEntityProvider(
 							em,
 							this.idProperties,
-							this.transactionManager
+							this.transactionManager,
+							this.embeddedPropertyPaths
 					);
 				}
 				catch (Exception e) {
@@ -528,7 +1086,15 @@ public class MassIndexerImpl implements MassIndexer {
 			((TransactionWrappedEntityManagerEntityProvider) provider).clearEm();
 			this.freeEntityProviders.add( (BasicEntityProvider) provider );
 		}
-		this.objectHandlerTaskCondition.down( 1 );
+		this.releaseTaskPermit( task.getEntityClass() );
+	}
+
+	private void releaseTaskPermit(Class<?> entityClass) {
+		this.objectHandlerTaskLimiter.release( 1 );
+		AdaptiveTuner tuner = this.tuners.get( entityClass );
+		if ( tuner != null ) {
+			tuner.getInflightLimiter().release( 1 );
+		}
 	}
 
 
@@ -538,7 +1104,10 @@ public class MassIndexerImpl implements MassIndexer {
 			ret |= future.cancel( mayInterruptIfRunning );
 		}
 
-		MassIndexerImpl.this.objectHandlerTaskCondition.disable();
+		MassIndexerImpl.this.objectHandlerTaskLimiter.disable();
+		for ( AdaptiveTuner tuner : MassIndexerImpl.this.tuners.values() ) {
+			tuner.getInflightLimiter().disable();
+		}
 		return ret;
 	}
 
@@ -547,8 +1116,67 @@ public class MassIndexerImpl implements MassIndexer {
 	 */
 	private void disableFinishConditions() {
 		// blow the signal to stop everything
-		MassIndexerImpl.this.finishConditions.values()
-				.forEach( NumberCondition::disable );
+		MassIndexerImpl.this.inflightIds.values()
+				.forEach( InflightLimiter::disable );
+	}
+
+	/**
+	 * the ids passed by the user converted to the id type of the entity, as they are compared with the ids of the
+	 * loaded entities to find the ones that have to be deleted
+	 */
+	private Stream<?> idStream(Class<?> rootClass, Class<?> idType) {
+		Stream<?> ids = this.idStreams.get( rootClass );
+		if ( ids == null ) {
+			return null;
+		}
+		return ids.map( (id) -> toIdType( id, idType ) );
+	}
+
+	private static Object toIdType(Object id, Class<?> idType) {
+		if ( id == null || idType.isInstance( id ) || !(id instanceof Number) ) {
+			return id;
+		}
+		Number number = (Number) id;
+		if ( idType == Long.class || idType == long.class ) {
+			return number.longValue();
+		}
+		else if ( idType == Integer.class || idType == int.class ) {
+			return number.intValue();
+		}
+		else if ( idType == Short.class || idType == short.class ) {
+			return number.shortValue();
+		}
+		else if ( idType == Byte.class || idType == byte.class ) {
+			return number.byteValue();
+		}
+		else if ( idType == Double.class || idType == double.class ) {
+			return number.doubleValue();
+		}
+		else if ( idType == Float.class || idType == float.class ) {
+			return number.floatValue();
+		}
+		else if ( idType == BigInteger.class ) {
+			return BigInteger.valueOf( number.longValue() );
+		}
+		else if ( idType == BigDecimal.class ) {
+			return new BigDecimal( number.toString() );
+		}
+		throw new SearchException( "id " + id + " can't be converted to the id type " + idType );
+	}
+
+	private boolean isRestricted(Class<?> rootClass) {
+		return this.restrictions.containsKey( rootClass ) || this.idStreams.containsKey( rootClass );
+	}
+
+	private boolean isCancelled() {
+		Lock lock = this.cancelGuard.readLock();
+		lock.lock();
+		try {
+			return this.cancelled;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 
 	private void setCancelled() {
@@ -575,9 +1203,33 @@ public class MassIndexerImpl implements MassIndexer {
 		this.disableFinishConditions();
 	}
 
+	/**
+	 * shuts the executors down in the order of the pipeline (ids, entities, documents) and waits for each of them so
+	 * that no task hands work to an executor that is already shut down
+	 */
 	private void closeExecutorServices() {
-		this.executorServiceForIds.shutdown();
-		this.executorServiceForObjects.shutdown();
+		List<ExecutorService> executorServices = new ArrayList<>( 3 );
+		executorServices.add( this.executorServiceForIds );
+		executorServices.add( this.executorServiceForObjects );
+		if ( this.executorServiceForDocuments != null ) {
+			executorServices.add( this.executorServiceForDocuments );
+		}
+		boolean interrupted = false;
+		for ( ExecutorService executorService : executorServices ) {
+			executorService.shutdown();
+			try {
+				if ( !interrupted && !executorService.awaitTermination( 1, TimeUnit.MINUTES ) ) {
+					LOGGER.warning( "MassIndexer threads didn't finish in time" );
+				}
+			}
+			catch (InterruptedException e) {
+				// still shut down the other executors
+				interrupted = true;
+			}
+		}
+		if ( interrupted ) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	private void closeAllOpenEntityManagers() {
@@ -617,4 +1269,16 @@ public class MassIndexerImpl implements MassIndexer {
 		return idProperty;
 	}
 
+	private static final class Restriction {
+
+		private final String predicate;
+		private final Map<String, ?> parameters;
+
+		private Restriction(String predicate, Map<String, ?> parameters) {
+			this.predicate = predicate;
+			this.parameters = parameters == null ? Collections.emptyMap() : parameters;
+		}
+
+	}
+
 }
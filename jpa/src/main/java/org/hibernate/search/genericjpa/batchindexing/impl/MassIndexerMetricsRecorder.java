@@ -0,0 +1,123 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.batchindexing.impl;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hibernate.search.genericjpa.batchindexing.MassIndexerMetrics;
+import org.hibernate.search.genericjpa.batchindexing.MassIndexerMetrics.Stage;
+import org.hibernate.search.genericjpa.batchindexing.MassIndexerMetrics.StageMetrics;
+
+/**
+ * Collects the metrics of a MassIndexer run. Recording is lock-free so it can be called from all the threads of the
+ * MassIndexer for every batch.
+ *
+ * @author Martin Braun
+ */
+public final class MassIndexerMetricsRecorder {
+
+	private final long startNanos = System.nanoTime();
+	private final Map<Stage, StageRecorder> stages = new EnumMap<>( Stage.class );
+	private final Map<Class<?>, Map<Stage, StageRecorder>> stagesPerType = new HashMap<>();
+	private final Map<Class<?>, Long> totalCounts = new ConcurrentHashMap<>();
+
+	public MassIndexerMetricsRecorder(Collection<Class<?>> rootTypes) {
+		// everything is created up front so that recording doesn't have to synchronize
+		for ( Stage stage : Stage.values() ) {
+			this.stages.put( stage, new StageRecorder() );
+		}
+		for ( Class<?> rootType : rootTypes ) {
+			Map<Stage, StageRecorder> stages = new EnumMap<>( Stage.class );
+			for ( Stage stage : Stage.values() ) {
+				stages.put( stage, new StageRecorder() );
+			}
+			this.stagesPerType.put( rootType, stages );
+		}
+	}
+
+	/**
+	 * records that a batch went through a stage
+	 *
+	 * @param rootType the root type of the batch or null if the stage is not specific to one
+	 * @param items the number of items in the batch
+	 */
+	public void record(Stage stage, Class<?> rootType, int items, long nanos) {
+		this.stages.get( stage ).record( items, nanos );
+		if ( rootType != null ) {
+			Map<Stage, StageRecorder> stages = this.stagesPerType.get( rootType );
+			if ( stages != null ) {
+				stages.get( stage ).record( items, nanos );
+			}
+		}
+	}
+
+	public void totalCount(Class<?> rootType, long count) {
+		this.totalCounts.put( rootType, count );
+	}
+
+	public MassIndexerMetrics snapshot(
+			Map<Class<?>, Long> idsInFlight,
+			long documentsAdded,
+			long objectHandlerTasksInFlight,
+			int documentBuildQueueDepth) {
+		long elapsedNanos = System.nanoTime() - this.startNanos;
+		Map<Class<?>, Map<Stage, StageMetrics>> stagesPerType = new HashMap<>();
+		for ( Map.Entry<Class<?>, Map<Stage, StageRecorder>> entry : this.stagesPerType.entrySet() ) {
+			stagesPerType.put( entry.getKey(), snapshot( entry.getValue(), elapsedNanos ) );
+		}
+		return new MassIndexerMetrics(
+				elapsedNanos,
+				snapshot( this.stages, elapsedNanos ),
+				stagesPerType,
+				this.totalCounts,
+				idsInFlight,
+				documentsAdded,
+				objectHandlerTasksInFlight,
+				documentBuildQueueDepth
+		);
+	}
+
+	private static Map<Stage, StageMetrics> snapshot(Map<Stage, StageRecorder> stages, long elapsedNanos) {
+		Map<Stage, StageMetrics> ret = new EnumMap<>( Stage.class );
+		for ( Map.Entry<Stage, StageRecorder> entry : stages.entrySet() ) {
+			ret.put( entry.getKey(), entry.getValue().snapshot( elapsedNanos ) );
+		}
+		return ret;
+	}
+
+	private static final class StageRecorder {
+
+		private final LongAdder items = new LongAdder();
+		private final LatencyHistogram latencies = new LatencyHistogram();
+
+		private void record(int items, long nanos) {
+			this.items.add( items );
+			this.latencies.record( nanos );
+		}
+
+		private StageMetrics snapshot(long elapsedNanos) {
+			long items = this.items.sum();
+			return new StageMetrics(
+					items,
+					this.latencies.getCount(),
+					elapsedNanos == 0 ? 0 : items * 1_000_000_000D / elapsedNanos,
+					this.latencies.getMean(),
+					this.latencies.getPercentile( 50 ),
+					this.latencies.getPercentile( 90 ),
+					this.latencies.getPercentile( 99 ),
+					this.latencies.getMax()
+			);
+		}
+
+	}
+
+}
@@ -8,19 +8,25 @@ package org.hibernate.search.genericjpa.batchindexing.impl;
 
 import javax.persistence.PersistenceUnitUtil;
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import org.hibernate.search.backend.AddLuceneWork;
+import org.hibernate.search.backend.DeleteLuceneWork;
+import org.hibernate.search.backend.LuceneWork;
 import org.hibernate.search.backend.spi.BatchBackend;
 import org.hibernate.search.bridge.TwoWayFieldBridge;
 import org.hibernate.search.bridge.spi.ConversionContext;
 import org.hibernate.search.bridge.util.impl.ContextualExceptionBridgeHelper;
 import org.hibernate.search.engine.spi.DocumentBuilderIndexedEntity;
 import org.hibernate.search.engine.spi.EntityIndexBinding;
+import org.hibernate.search.genericjpa.batchindexing.MassIndexerMetrics;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer.UpdateEventInfo;
 import org.hibernate.search.genericjpa.entity.EntityProvider;
 import org.hibernate.search.genericjpa.exception.SearchException;
@@ -41,12 +47,23 @@ public class ObjectHandlerTask implements Runnable {
 	private final Supplier<EntityProvider> emProvider;
 	private final BiConsumer<ObjectHandlerTask, EntityProvider> entityManagerDisposer;
 	private final PersistenceUnitUtil peristenceUnitUtil;
-	private final NumberCondition condition;
+	private final InflightLimiter inflightLimiter;
 	private final Consumer<Exception> exceptionConsumer;
 	List<UpdateEventInfo> batch;
+	LongIdBatch longIdBatch;
 	private BiConsumer<Class<?>, Integer> objectLoadedProgressMonitor;
 	private BiConsumer<Class<?>, Integer> documentBuiltProgressMonitor;
 	private Runnable finishConsumer;
+	private ExecutorService documentBuildExecutor;
+	private Semaphore documentBuildPermits;
+	private boolean updateWorks = false;
+	private boolean deleteMissing = false;
+	private Runnable batchIndexedConsumer;
+	private MassIndexerMetricsRecorder metrics;
+	// time spent passing works to the backend while building the documents
+	private long enqueueNanos;
+	private long loadNanos;
+	private BiConsumer<Integer, Long> batchLatencyConsumer;
 
 	public ObjectHandlerTask(
 			BatchBackend batchBackend, Class<?> entityClass, EntityIndexBinding entityIndexBinding,
@@ -67,62 +84,101 @@ public class ObjectHandlerTask implements Runnable {
 	public ObjectHandlerTask(
 			BatchBackend batchBackend, Class<?> entityClass, EntityIndexBinding entityIndexBinding,
 			Supplier<EntityProvider> emProvider, BiConsumer<ObjectHandlerTask, EntityProvider> entityManagerDisposer,
-			PersistenceUnitUtil peristenceUnitUtil, NumberCondition condition, Consumer<Exception> exceptionConsumer) {
+			PersistenceUnitUtil peristenceUnitUtil, InflightLimiter inflightLimiter, Consumer<Exception> exceptionConsumer) {
 		this.batchBackend = batchBackend;
 		this.entityClass = entityClass;
 		this.entityIndexBinding = entityIndexBinding;
 		this.emProvider = emProvider;
 		this.entityManagerDisposer = entityManagerDisposer;
 		this.peristenceUnitUtil = peristenceUnitUtil;
-		this.condition = condition;
+		this.inflightLimiter = inflightLimiter;
 		this.exceptionConsumer = exceptionConsumer;
 	}
 
 	public ObjectHandlerTask batch(List<UpdateEventInfo> batch) {
 		this.batch = batch;
+		this.longIdBatch = null;
 		return this;
 	}
 
+	public ObjectHandlerTask batch(LongIdBatch batch) {
+		this.longIdBatch = batch;
+		this.batch = null;
+		return this;
+	}
+
+	public Class<?> getEntityClass() {
+		return this.entityClass;
+	}
+
+	private List<Object> ids() {
+		if ( this.longIdBatch != null ) {
+			// the ids are boxed here as they are passed to the query anyways
+			return this.longIdBatch.boxed();
+		}
+		return this.batch.stream().map(
+				UpdateEventInfo::getId
+		).collect( Collectors.toList() );
+	}
+
+	private int batchSize() {
+		return this.longIdBatch != null ? this.longIdBatch.size() : this.batch.size();
+	}
+
 	@Override
 	public void run() {
+		boolean handedOff = false;
 		try {
 			EntityProvider entityProvider = this.emProvider.get();
 			try {
 				try {
-					List<Object> ids = this.batch.stream().map(
-							UpdateEventInfo::getId
-					).collect( Collectors.toList() );
+					List<Object> ids = this.ids();
 
+					long start = System.nanoTime();
 					List<?> entities = entityProvider.getBatch(
 							this.entityClass,
 							ids
 					);
+					this.loadNanos = System.nanoTime() - start;
+					if ( this.metrics != null ) {
+						this.metrics.record(
+								MassIndexerMetrics.Stage.ENTITY_LOAD,
+								this.entityClass,
+								this.batchSize(),
+								this.loadNanos
+						);
+					}
 
 					// monitor our progress
 					if ( this.objectLoadedProgressMonitor != null ) {
-						this.objectLoadedProgressMonitor.accept( this.entityClass, this.batch.size() );
+						this.objectLoadedProgressMonitor.accept( this.entityClass, this.batchSize() );
 					}
 
-					ContextualExceptionBridgeHelper conversionContext = new ContextualExceptionBridgeHelper();
-					for ( Object entity : entities ) {
-						if ( entity != null ) {
-							this.index( entity, INITIALIZER, conversionContext );
-						}
+					if ( this.documentBuildExecutor == null ) {
+						this.buildDocuments( entities );
 					}
-
-					// monitor our progress
-					if ( this.documentBuiltProgressMonitor != null ) {
-						this.documentBuiltProgressMonitor.accept( this.entityClass, this.batch.size() );
+					else {
+						// the documents are built on a different thread. the entities
+						// might still be lazy, so we keep the EntityProvider open until
+						// the documents are built
+						this.documentBuildPermits.acquire();
+						try {
+							this.documentBuildExecutor.submit( () -> this.buildDocuments( entities, entityProvider ) );
+							handedOff = true;
+						}
+						finally {
+							if ( !handedOff ) {
+								this.documentBuildPermits.release();
+							}
+						}
 					}
-
-					this.condition.down( this.batch.size() );
 				}
 				catch (Exception e) {
 					throw new SearchException( e );
 				}
 			}
 			finally {
-				if ( entityProvider != null ) {
+				if ( entityProvider != null && !handedOff ) {
 					this.entityManagerDisposer.accept( this, entityProvider );
 				}
 			}
@@ -133,6 +189,28 @@ public class ObjectHandlerTask implements Runnable {
 			}
 			// TODO: should throw this?
 		}
+		finally {
+			if ( this.finishConsumer != null && !handedOff ) {
+				this.finishConsumer.run();
+			}
+		}
+	}
+
+	private void buildDocuments(List<?> entities, EntityProvider entityProvider) {
+		try {
+			try {
+				this.buildDocuments( entities );
+			}
+			finally {
+				this.entityManagerDisposer.accept( this, entityProvider );
+				this.documentBuildPermits.release();
+			}
+		}
+		catch (Exception e) {
+			if ( this.exceptionConsumer != null ) {
+				this.exceptionConsumer.accept( e );
+			}
+		}
 		finally {
 			if ( this.finishConsumer != null ) {
 				this.finishConsumer.run();
@@ -140,6 +218,108 @@ public class ObjectHandlerTask implements Runnable {
 		}
 	}
 
+	private void buildDocuments(List<?> entities) {
+		try {
+			long start = System.nanoTime();
+			this.enqueueNanos = 0;
+			ContextualExceptionBridgeHelper conversionContext = new ContextualExceptionBridgeHelper();
+			Set<Object> found = new HashSet<>();
+			for ( Object entity : entities ) {
+				if ( entity != null ) {
+					this.index( entity, INITIALIZER, conversionContext );
+					if ( this.deleteMissing ) {
+						found.add( this.peristenceUnitUtil.getIdentifier( entity ) );
+					}
+				}
+			}
+			if ( this.deleteMissing ) {
+				for ( Object id : this.ids() ) {
+					if ( !found.contains( id ) ) {
+						this.delete( (Serializable) id, conversionContext );
+					}
+				}
+			}
+
+			long nanos = System.nanoTime() - start;
+			if ( this.batchLatencyConsumer != null ) {
+				this.batchLatencyConsumer.accept( this.batchSize(), this.loadNanos + nanos );
+			}
+			if ( this.metrics != null ) {
+				this.metrics.record(
+						MassIndexerMetrics.Stage.DOCUMENT_BUILD,
+						this.entityClass,
+						this.batchSize(),
+						nanos - this.enqueueNanos
+				);
+				this.metrics.record(
+						MassIndexerMetrics.Stage.BACKEND_ENQUEUE,
+						this.entityClass,
+						this.batchSize(),
+						this.enqueueNanos
+				);
+			}
+
+			// monitor our progress
+			if ( this.documentBuiltProgressMonitor != null ) {
+				this.documentBuiltProgressMonitor.accept( this.entityClass, this.batchSize() );
+			}
+
+			this.inflightLimiter.release( this.batchSize() );
+
+			if ( this.batchIndexedConsumer != null ) {
+				this.batchIndexedConsumer.run();
+			}
+		}
+		catch (Exception e) {
+			throw new SearchException( e );
+		}
+	}
+
+	/**
+	 * builds the documents with the given executor instead of the thread that loaded the entities. The permits bound the
+	 * number of batches that are waiting to be built (each of them holds an EntityProvider)
+	 */
+	public void documentBuilding(ExecutorService documentBuildExecutor, Semaphore documentBuildPermits) {
+		this.documentBuildExecutor = documentBuildExecutor;
+		this.documentBuildPermits = documentBuildPermits;
+	}
+
+	/**
+	 * whether to create update works instead of add works. needed if the documents might already be in the index
+	 */
+	public void updateWorks(boolean updateWorks) {
+		this.updateWorks = updateWorks;
+	}
+
+	/**
+	 * whether to delete the documents of the entities in the batch that are not found in the database
+	 */
+	public void deleteMissing(boolean deleteMissing) {
+		this.deleteMissing = deleteMissing;
+	}
+
+	/**
+	 * called after the works for all entities of the batch have been enqueued
+	 */
+	public void batchIndexedConsumer(Runnable batchIndexedConsumer) {
+		this.batchIndexedConsumer = batchIndexedConsumer;
+	}
+
+	/**
+	 * records the latencies of loading and building the batch
+	 */
+	public void metrics(MassIndexerMetricsRecorder metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * called with the size of the batch and the time it took to load it and build its documents (without the time it
+	 * waited for a document building thread)
+	 */
+	public void batchLatencyConsumer(BiConsumer<Integer, Long> batchLatencyConsumer) {
+		this.batchLatencyConsumer = batchLatencyConsumer;
+	}
+
 	public void objectLoadedProgressMonitor(BiConsumer<Class<?>, Integer> objectLoadedProgressMonitor) {
 		this.objectLoadedProgressMonitor = objectLoadedProgressMonitor;
 	}
@@ -179,29 +359,65 @@ public class ObjectHandlerTask implements Runnable {
 		}
 
 		DocumentBuilderIndexedEntity docBuilder = this.entityIndexBinding.getDocumentBuilder();
+		String idInString = this.idInString( docBuilder, id, conversionContext );
+		// depending on the complexity of the object graph going to be indexed it's possible
+		// that we hit the database several times during work construction.
+		LuceneWork work;
+		if ( this.updateWorks ) {
+			work = docBuilder.createUpdateWork(
+					null,
+					this.entityClass,
+					entity,
+					id,
+					idInString,
+					sessionInitializer,
+					conversionContext
+			);
+		}
+		else {
+			work = docBuilder.createAddWork(
+					null,
+					this.entityClass,
+					entity,
+					id,
+					idInString,
+					sessionInitializer,
+					conversionContext
+			);
+		}
+		this.enqueue( work );
+	}
+
+	private void delete(Serializable id, ConversionContext conversionContext) throws InterruptedException {
+		if ( this.entityIndexBinding == null ) {
+			return;
+		}
+		DocumentBuilderIndexedEntity docBuilder = this.entityIndexBinding.getDocumentBuilder();
+		this.enqueue(
+				new DeleteLuceneWork( id, this.idInString( docBuilder, id, conversionContext ), this.entityClass )
+		);
+	}
+
+	private void enqueue(LuceneWork work) throws InterruptedException {
+		long start = System.nanoTime();
+		this.batchBackend.enqueueAsyncWork( work );
+		this.enqueueNanos += System.nanoTime() - start;
+	}
+
+	private String idInString(
+			DocumentBuilderIndexedEntity docBuilder,
+			Serializable id,
+			ConversionContext conversionContext) {
 		TwoWayFieldBridge idBridge = docBuilder.getIdBridge();
 		conversionContext.pushProperty( docBuilder.getIdKeywordName() );
-		String idInString = null;
 		try {
-			idInString = conversionContext.setClass( this.entityClass )
+			return conversionContext.setClass( this.entityClass )
 					.twoWayConversionContext( idBridge )
 					.objectToString( id );
 		}
 		finally {
 			conversionContext.popProperty();
 		}
-		// depending on the complexity of the object graph going to be indexed it's possible
-		// that we hit the database several times during work construction.
-		AddLuceneWork addWork = docBuilder.createAddWork(
-				null,
-				this.entityClass,
-				entity,
-				id,
-				idInString,
-				sessionInitializer,
-				conversionContext
-		);
-		this.batchBackend.enqueueAsyncWork( addWork );
 	}
 
 }
@@ -12,14 +12,22 @@ import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.transaction.TransactionManager;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,7 +36,10 @@ import org.hibernate.search.genericjpa.db.ColumnType;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer;
 import org.hibernate.search.genericjpa.db.events.impl.AsyncUpdateSource;
 import org.hibernate.search.genericjpa.db.events.impl.EventModelInfo;
+import org.hibernate.search.genericjpa.db.events.impl.UpdateEventCoalescer;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer.UpdateEventInfo;
+import org.hibernate.search.genericjpa.db.events.triggers.DefaultUpdateQuerySQLStringSource;
+import org.hibernate.search.genericjpa.db.events.triggers.UpdateQuerySQLStringSource;
 import org.hibernate.search.genericjpa.exception.SearchException;
 import org.hibernate.search.genericjpa.jpa.util.impl.JPATransactionWrapper;
 import org.hibernate.search.genericjpa.jpa.util.impl.MultiQueryAccess;
@@ -63,8 +74,27 @@ public class JPAUpdateSource implements AsyncUpdateSource {
 	private final ReentrantLock lock = new ReentrantLock();
 	private List<UpdateConsumer> updateConsumers;
 	private ScheduledFuture<?> job;
-	private boolean cancelled = false;
-	private boolean pause = false;
+	private volatile boolean cancelled = false;
+	private volatile boolean pause = false;
+	private boolean keysetPagination = true;
+	private long maxTimeOut;
+	private long currentTimeOut;
+	private long maxUpdatesPerPoll = Long.MAX_VALUE;
+	private boolean coalesceUpdates = false;
+	private boolean deduplicatedUpdateTables = false;
+	private boolean indexedUpdateTables = false;
+	private UpdateQuerySQLStringSource updateQuerySource;
+
+	//pipelining
+	private static final long PIPELINE_POLL_MILLIS = 100;
+	private boolean pipelined = false;
+	private int pipelineQueueSize = 10;
+	private ExecutorService pipelineExec;
+	private BlockingQueue<Batch> indexQueue;
+	private BlockingQueue<Batch> ackQueue;
+	private final AtomicInteger generation = new AtomicInteger();
+	//the update ids per update table that have been fetched but not yet acknowledged
+	private final Map<String, Set<Long>> inFlightUpdateIds = new ConcurrentHashMap<>();
 
 	/**
 	 * this doesn't do real batching for the databasequeries
@@ -134,6 +164,7 @@ public class JPAUpdateSource implements AsyncUpdateSource {
 			throw new IllegalArgumentException( "timeout must be greater than 0" );
 		}
 		this.timeOut = timeOut;
+		this.maxTimeOut = timeOut;
 		this.timeUnit = timeUnit;
 		if ( batchSizeForUpdates <= 0 ) {
 			throw new IllegalArgumentException( "batchSize must be greater than 0" );
@@ -162,46 +193,20 @@ public class JPAUpdateSource implements AsyncUpdateSource {
 		Map<String, Long> countMap = new HashMap<>();
 		Map<String, Query> queryMap = new HashMap<>();
 		for ( EventModelInfo evi : updateSource.eventModelInfos ) {
-			long count;
-			{
-				count = ((Number) em.createNativeQuery(
-						"SELECT count(*) " + updateSource.fromPart( evi )
-				).getSingleResult()).longValue();
-			}
-			countMap.put( evi.getUpdateTableName(), count );
+			// we don't count the rows beforehand as that would cost us
+			// an additional query per table for every poll. MultiQueryAccess
+			// stops querying a table as soon as it gets a batch that is not full
+			countMap.put( evi.getUpdateTableName(), Long.MAX_VALUE );
 
 			{
-				//SELECT part
-				StringBuilder queryString = new StringBuilder().append( "SELECT " )
-						.append( updateSource.escape( "t1" ) )
-						.append( "." )
-						.append( updateSource.escape( evi.getUpdateIdColumn() ) )
-						.append( ", " )
-						.append( updateSource.escape( "t1" ) )
-						.append( "." )
-						.append( updateSource.escape( evi.getEventTypeColumn() ) );
-				for ( EventModelInfo.IdInfo idInfo : evi.getIdInfos() ) {
-					for ( String column : idInfo.getColumnsInUpdateTable() ) {
-						queryString.append( ", " )
-								.append( updateSource.escape( "t1" ) )
-								.append( "." )
-								.append( updateSource.escape( column ) );
-					}
-				}
-				//FROM PART
-				queryString.append( updateSource.fromPart( evi ) );
-
-				//ORDER BY part
-				queryString.append(
-						" ORDER BY "
-				).append( updateSource.escape( "t1" ) )
-						.append( "." )
-						.append( updateSource.escape( evi.getUpdateIdColumn() ) )
-						.append( " ASC");
-
-				LOGGER.finest( "querying for updates: " + queryString.toString() );
+				String queryString = updateSource.updateQuerySource().getPollQuery(
+						evi,
+						updateSource.keysetPagination
+				);
+
+				LOGGER.finest( "querying for updates: " + queryString );
 				Query query = em.createNativeQuery(
-						queryString.toString()
+						queryString
 				);
 				queryMap.put( evi.getUpdateTableName(), query );
 			}
@@ -213,10 +218,119 @@ public class JPAUpdateSource implements AsyncUpdateSource {
 				throw new IllegalStateException( "database contained two update entries with the same id!" );
 			}
 			return res;
-		}, updateSource.batchSizeForDatabaseQueries
+		}, updateSource.batchSizeForDatabaseQueries,
+				(val) -> ((Number) ((Object[]) val)[0]).longValue(),
+				updateSource.keysetPagination
+		);
+	}
+
+	/**
+	 * whether the update tables should be paged by the last seen update id instead of an offset. this way the
+	 * database doesn't have to skip over all the rows we have already seen for every batch. defaults to true
+	 */
+	public void setKeysetPagination(boolean keysetPagination) {
+		this.keysetPagination = keysetPagination;
+	}
+
+	public boolean isKeysetPagination() {
+		return this.keysetPagination;
+	}
+
+	/**
+	 * the ceiling for the delay between two polls when the update tables are empty (in the same TimeUnit as the
+	 * timeOut). the delay is doubled for every empty poll until this is reached. defaults to the timeOut (no backoff)
+	 */
+	public void setMaxTimeOut(long maxTimeOut) {
+		if ( maxTimeOut < this.timeOut ) {
+			throw new IllegalArgumentException( "maxTimeOut must not be smaller than the timeOut" );
+		}
+		this.maxTimeOut = maxTimeOut;
+	}
+
+	/**
+	 * whether all the updates for the same entity found in a single poll should be collapsed into the one update that
+	 * has the same net effect on the index (e.g. INSERT followed by UPDATEs becomes a single INSERT). See
+	 * {@link UpdateEventCoalescer}. The poll query already returns only the latest update per entity and update table,
+	 * so this only helps if the same entity shows up in several update tables (e.g. its own and the ones of its
+	 * association tables). As the whole poll has to be read before anything is dispatched, this delays the indexing of
+	 * the first updates of every poll. defaults to false
+	 */
+	public void setCoalesceUpdates(boolean coalesceUpdates) {
+		this.coalesceUpdates = coalesceUpdates;
+	}
+
+	/**
+	 * whether the update tables hold at most one row per entity (see
+	 * {@link org.hibernate.search.genericjpa.db.events.triggers.TriggerSQLStringSource#setDeduplicating(boolean)}).
+	 * If so, the update tables are read directly instead of joining them with the latest update id per entity.
+	 * Only used if no update query source is set (see {@link #setUpdateQuerySource(UpdateQuerySQLStringSource)}).
+	 * defaults to false
+	 */
+	public void setDeduplicatedUpdateTables(boolean deduplicatedUpdateTables) {
+		this.deduplicatedUpdateTables = deduplicatedUpdateTables;
+	}
+
+	/**
+	 * whether the update tables have an index on their id columns and update id (see
+	 * {@link org.hibernate.search.genericjpa.db.events.triggers.TriggerSQLStringSource#isIndexingUpdateTables()}).
+	 * If so, the latest update per entity is looked up with a correlated NOT EXISTS that probes this index for every
+	 * row read instead of grouping the whole update table on every poll. Only used if no update query source is set
+	 * (see {@link #setUpdateQuerySource(UpdateQuerySQLStringSource)}). defaults to false
+	 */
+	public void setIndexedUpdateTables(boolean indexedUpdateTables) {
+		this.indexedUpdateTables = indexedUpdateTables;
+	}
+
+	/**
+	 * the SQL used to read the updates and to delete the handled ones. If this is not set, portable SQL is used (see
+	 * {@link DefaultUpdateQuerySQLStringSource}). Normally this comes from
+	 * {@link org.hibernate.search.genericjpa.db.events.triggers.TriggerSQLStringSource#getUpdateQuerySource()}
+	 */
+	public void setUpdateQuerySource(UpdateQuerySQLStringSource updateQuerySource) {
+		this.updateQuerySource = updateQuerySource;
+	}
+
+	private UpdateQuerySQLStringSource updateQuerySource() {
+		if ( this.updateQuerySource != null ) {
+			return this.updateQuerySource;
+		}
+		return new DefaultUpdateQuerySQLStringSource(
+				this.delimitedIdentifierToken,
+				this.deduplicatedUpdateTables,
+				this.indexedUpdateTables
 		);
 	}
 
+	/**
+	 * whether reading the updates, indexing them and deleting them from the update tables should run in separate
+	 * stages. This way the next batch of updates is read while the current one is being indexed. The updates are only
+	 * deleted after they have been indexed. Needs keyset pagination. defaults to false
+	 */
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * how many batches (of batchSizeForUpdates) may be waiting for the indexing stage if pipelined. defaults to 10
+	 */
+	public void setPipelineQueueSize(int pipelineQueueSize) {
+		if ( pipelineQueueSize <= 0 ) {
+			throw new IllegalArgumentException( "pipelineQueueSize must be greater than 0" );
+		}
+		this.pipelineQueueSize = pipelineQueueSize;
+	}
+
+	/**
+	 * the maximum amount of update rows handled in a single poll (and therefore in a single transaction). if a poll
+	 * reaches this, the next poll is started right away. defaults to no limit
+	 */
+	public void setMaxUpdatesPerPoll(long maxUpdatesPerPoll) {
+		if ( maxUpdatesPerPoll <= 0 ) {
+			throw new IllegalArgumentException( "maxUpdatesPerPoll must be greater than 0" );
+		}
+		this.maxUpdatesPerPoll = maxUpdatesPerPoll;
+	}
+
 	@Override
 	public void setUpdateConsumers(List<UpdateConsumer> updateConsumers) {
 		this.updateConsumers = updateConsumers;
@@ -227,136 +341,488 @@ public class JPAUpdateSource implements AsyncUpdateSource {
 		if ( this.updateConsumers == null ) {
 			throw new IllegalStateException( "updateConsumers was null!" );
 		}
-		this.cancelled = false;
-		this.job = this.exec.scheduleWithFixedDelay(
-				() -> {
-					this.lock.lock();
-					try {
-						if ( this.pause ) {
-							return;
+		if ( this.pipelined && !this.keysetPagination ) {
+			throw new IllegalStateException( "pipelined update processing needs keyset pagination" );
+		}
+		this.lock.lock();
+		try {
+			this.cancelled = false;
+			this.currentTimeOut = this.timeOut;
+			if ( this.pipelined ) {
+				this.inFlightUpdateIds.clear();
+				this.indexQueue = new ArrayBlockingQueue<>( this.pipelineQueueSize );
+				this.ackQueue = new LinkedBlockingQueue<>();
+				this.pipelineExec = Executors.newFixedThreadPool(
+						2,
+						new NamingThreadFactory( "JPAUpdateSource Pipeline Thread" )
+				);
+				this.pipelineExec.submit( this::indexLoop );
+				this.pipelineExec.submit( this::acknowledgeLoop );
+			}
+			this.job = this.exec.schedule( this::run, 0, this.timeUnit );
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * polls once and schedules the next poll. If the poll was capped by maxUpdatesPerPoll there is probably more work
+	 * to do, so we go again right away. If nothing was found we back off exponentially up to maxTimeOut
+	 */
+	private void run() {
+		this.lock.lock();
+		try {
+			if ( this.cancelled ) {
+				return;
+			}
+			long nextTimeOut = this.timeOut;
+			try {
+				if ( !this.pause && this.emf.isOpen() ) {
+					long processed = this.pipelined ? this.fetch() : this.poll();
+					nextTimeOut = nextTimeOut(
+							processed,
+							this.maxUpdatesPerPoll,
+							this.currentTimeOut,
+							this.timeOut,
+							this.maxTimeOut
+					);
+				}
+			}
+			catch (Exception e) {
+				LOGGER.log( Level.SEVERE, e.getMessage(), e );
+			}
+			finally {
+				if ( !this.cancelled ) {
+					this.currentTimeOut = nextTimeOut;
+					this.job = this.exec.schedule( this::run, nextTimeOut, this.timeUnit );
+				}
+			}
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * the delay until the next poll: none if the poll was capped by maxUpdatesPerPoll, double the last one (but at
+	 * least timeOut and at most maxTimeOut) if nothing was found and timeOut otherwise
+	 */
+	public static long nextTimeOut(
+			long processed,
+			long maxUpdatesPerPoll,
+			long currentTimeOut,
+			long timeOut,
+			long maxTimeOut) {
+		if ( processed >= maxUpdatesPerPoll ) {
+			return 0;
+		}
+		else if ( processed == 0 ) {
+			return Math.min( Math.max( currentTimeOut * 2, timeOut ), maxTimeOut );
+		}
+		return timeOut;
+	}
+
+	/**
+	 * reads, handles and deletes the updates in one transaction
+	 *
+	 * @return the number of update rows that were handled
+	 */
+	private long poll() {
+		EntityManager em = null;
+		try {
+			em = this.emf.createEntityManager();
+			JPATransactionWrapper tx = JPATransactionWrapper.get( em, this.transactionManager );
+			tx.begin();
+			try {
+				MultiQueryAccess query = query( this, em );
+				List<UpdateEventInfo> updateInfos = new ArrayList<>( this.batchSizeForUpdates );
+
+				Map<String, Long> lastUpdateIdPerTable = new HashMap<>();
+
+				long processed = 0;
+				while ( processed < this.maxUpdatesPerPoll && query.next() ) {
+					// we have no order problems here since
+					// the query does the ordering for us
+					long updateId = this.readUpdate( query.identifier(), (Object[]) query.get(), updateInfos );
+					lastUpdateIdPerTable.put( query.identifier(), updateId );
+					// if we coalesce we have to look at all updates of this poll first
+					if ( ++processed % this.batchSizeForUpdates == 0 && !this.coalesceUpdates ) {
+						this.dispatch( updateInfos );
+						updateInfos.clear();
+					}
+				}
+				if ( this.coalesceUpdates ) {
+					updateInfos = UpdateEventCoalescer.coalesce( updateInfos );
+				}
+				for ( int i = 0; i < updateInfos.size(); i += this.batchSizeForUpdates ) {
+					this.dispatch( updateInfos.subList( i, Math.min( i + this.batchSizeForUpdates, updateInfos.size() ) ) );
+				}
+
+				// this has to start in the same transaction as the reads
+				this.deleteHandled( em, tx, lastUpdateIdPerTable );
+
+				if ( processed > 0 ) {
+					LOGGER.info( "processed " + processed + " updates" );
+				}
+
+				em.flush();
+				// clear memory :)
+				em.clear();
+
+				tx.commit();
+				return processed;
+			}
+			catch (Throwable e) {
+				tx.rollback();
+				throw e;
+			}
+		}
+		catch (Exception e) {
+			throw new SearchException( "Error occured during Update processing!", e );
+		}
+		finally {
+			if ( em != null ) {
+				em.close();
+			}
+		}
+	}
+
+	/**
+	 * fetch stage of the pipeline: reads the updates that are not already in flight and hands them to the indexing
+	 * stage. Nothing is deleted here, this is done by the acknowledge stage once the updates are indexed. <br>
+	 * <br>
+	 * Every fetch starts at the beginning of the update tables instead of after the last update it has seen: update ids
+	 * are taken at insert time but transactions commit in any order, so an update with a lower id can show up after we
+	 * have passed it.
+	 *
+	 * @return the number of update rows that were fetched
+	 */
+	private long fetch() throws InterruptedException {
+		int generation = this.generation.get();
+		EntityManager em = null;
+		try {
+			em = this.emf.createEntityManager();
+			JPATransactionWrapper tx = JPATransactionWrapper.get( em, this.transactionManager );
+			tx.begin();
+			try {
+				MultiQueryAccess query = query( this, em );
+				List<UpdateEventInfo> updateInfos = new ArrayList<>( this.batchSizeForUpdates );
+				Map<String, List<Object[]>> rowsPerTable = new HashMap<>();
+
+				long processed = 0;
+				boolean cancelled = false;
+				while ( processed < this.maxUpdatesPerPoll && query.next() ) {
+					String updateTableName = query.identifier();
+					Object[] row = (Object[]) query.get();
+					if ( !this.inFlightUpdateIds( updateTableName ).add( ((Number) row[0]).longValue() ) ) {
+						// this one is still being indexed or acknowledged
+						continue;
+					}
+					this.readUpdate( updateTableName, row, updateInfos );
+					rowsPerTable.computeIfAbsent( updateTableName, key -> new ArrayList<>() ).add( row );
+					// if we coalesce we have to look at all updates of this poll first
+					if ( ++processed % this.batchSizeForUpdates == 0 && !this.coalesceUpdates ) {
+						if ( !this.enqueue( new Batch( generation, updateInfos, rowsPerTable ) ) ) {
+							cancelled = true;
+							break;
 						}
-						if ( this.cancelled ) {
-							return;
+						updateInfos = new ArrayList<>( this.batchSizeForUpdates );
+						rowsPerTable = new HashMap<>();
+					}
+				}
+				if ( !cancelled ) {
+					if ( this.coalesceUpdates ) {
+						updateInfos = UpdateEventCoalescer.coalesce( updateInfos );
+					}
+					// only the last batch knows which updates can be deleted as
+					// coalescing loses the connection between events and rows
+					for ( int i = 0; i < updateInfos.size(); i += this.batchSizeForUpdates ) {
+						int end = Math.min( i + this.batchSizeForUpdates, updateInfos.size() );
+						if ( !this.enqueue(
+								new Batch(
+										generation,
+										updateInfos.subList( i, end ),
+										end == updateInfos.size() ? rowsPerTable : Collections.emptyMap()
+								)
+						) ) {
+							break;
 						}
-						if ( !this.emf.isOpen() ) {
-							return;
+					}
+					if ( updateInfos.isEmpty() && !rowsPerTable.isEmpty() ) {
+						// everything was coalesced away, but the rows still have to be deleted
+						this.enqueue( new Batch( generation, updateInfos, rowsPerTable ) );
+					}
+				}
+
+				if ( processed > 0 ) {
+					LOGGER.info( "fetched " + processed + " updates" );
+				}
+
+				em.clear();
+				tx.commit();
+				return processed;
+			}
+			catch (Throwable e) {
+				tx.rollback();
+				throw e;
+			}
+		}
+		catch (InterruptedException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new SearchException( "Error occured during Update processing!", e );
+		}
+		finally {
+			if ( em != null ) {
+				em.close();
+			}
+		}
+	}
+
+	private Set<Long> inFlightUpdateIds(String updateTableName) {
+		return this.inFlightUpdateIds.computeIfAbsent( updateTableName, key -> ConcurrentHashMap.newKeySet() );
+	}
+
+	/**
+	 * makes the given update rows visible to the fetch stage again
+	 */
+	private void release(Map<String, List<Object[]>> rowsPerTable) {
+		for ( Map.Entry<String, List<Object[]>> entry : rowsPerTable.entrySet() ) {
+			Set<Long> updateIds = this.inFlightUpdateIds( entry.getKey() );
+			for ( Object[] row : entry.getValue() ) {
+				updateIds.remove( ((Number) row[0]).longValue() );
+			}
+		}
+	}
+
+	/**
+	 * @return false if we were cancelled before the batch could be handed over
+	 */
+	private boolean enqueue(Batch batch) throws InterruptedException {
+		while ( !this.cancelled ) {
+			if ( this.indexQueue.offer( batch, PIPELINE_POLL_MILLIS, TimeUnit.MILLISECONDS ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * indexing stage of the pipeline. If a batch fails, it and everything that is still queued is thrown away and
+	 * released, so that the fetch stage picks these updates up again
+	 */
+	private void indexLoop() {
+		while ( !this.cancelled ) {
+			Batch batch;
+			try {
+				if ( this.pause ) {
+					Thread.sleep( PIPELINE_POLL_MILLIS );
+					continue;
+				}
+				batch = this.indexQueue.poll( PIPELINE_POLL_MILLIS, TimeUnit.MILLISECONDS );
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if ( batch == null ) {
+				continue;
+			}
+			if ( batch.generation != this.generation.get() ) {
+				// fetched before an earlier batch failed
+				this.release( batch.rowsPerTable );
+				continue;
+			}
+			try {
+				this.dispatch( batch.updateInfos );
+				this.ackQueue.add( batch );
+			}
+			catch (Exception e) {
+				LOGGER.log( Level.SEVERE, "Error occured during Update processing! refetching the unhandled updates", e );
+				this.generation.incrementAndGet();
+				List<Batch> discarded = new ArrayList<>();
+				discarded.add( batch );
+				this.indexQueue.drainTo( discarded );
+				for ( Batch toRelease : discarded ) {
+					this.release( toRelease.rowsPerTable );
+				}
+			}
+		}
+	}
+
+	/**
+	 * acknowledge stage of the pipeline: deletes the updates that have been indexed. Everything that piled up in the
+	 * meantime is deleted in one go
+	 */
+	private void acknowledgeLoop() {
+		Map<String, List<Object[]>> toDelete = new HashMap<>();
+		List<Batch> batches = new ArrayList<>();
+		while ( true ) {
+			try {
+				Batch batch = this.ackQueue.poll( PIPELINE_POLL_MILLIS, TimeUnit.MILLISECONDS );
+				if ( batch != null ) {
+					batches.add( batch );
+					this.ackQueue.drainTo( batches );
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			for ( Batch batch : batches ) {
+				for ( Map.Entry<String, List<Object[]>> entry : batch.rowsPerTable.entrySet() ) {
+					toDelete.computeIfAbsent( entry.getKey(), key -> new ArrayList<>() ).addAll( entry.getValue() );
+				}
+			}
+			batches.clear();
+			if ( toDelete.size() > 0 && this.emf.isOpen() ) {
+				try {
+					this.acknowledge( toDelete );
+					// only now these can be fetched again without indexing them twice
+					this.release( toDelete );
+					toDelete.clear();
+				}
+				catch (Exception e) {
+					// we try again with the next batch
+					LOGGER.log( Level.SEVERE, "Error occured while deleting handled updates!", e );
+				}
+			}
+			if ( this.cancelled && this.ackQueue.isEmpty() ) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * deletes exactly the update rows that were read (and the older updates of the same entities that the poll query
+	 * skipped) instead of everything up to the highest update id, as rows with lower update ids might have been
+	 * committed after we read the update table. If the update query source deletes in chunks, we commit after every
+	 * chunk of rows
+	 */
+	private void acknowledge(Map<String, List<Object[]>> rowsPerTable) {
+		UpdateQuerySQLStringSource updateQuerySource = this.updateQuerySource();
+		int acknowledgeBatchSize = updateQuerySource.getAcknowledgeBatchSize();
+		EntityManager em = null;
+		try {
+			em = this.emf.createEntityManager();
+			JPATransactionWrapper tx = JPATransactionWrapper.get( em, this.transactionManager );
+			tx.begin();
+			try {
+				int deleted = 0;
+				int rows = 0;
+				for ( Map.Entry<String, List<Object[]>> entry : rowsPerTable.entrySet() ) {
+					EventModelInfo evi = this.updateTableToEventModelInfo.get( entry.getKey() );
+					String queryString = updateQuerySource.getAcknowledgeUpdateQuery( evi );
+					for ( Object[] row : entry.getValue() ) {
+						Query query = em.createNativeQuery( queryString );
+						// the id columns first, then the update id
+						for ( int i = 2; i < row.length; ++i ) {
+							query.setParameter( i - 1, row[i] );
 						}
-						EntityManager em = null;
-						try {
-							em = this.emf.createEntityManager();
-							JPATransactionWrapper tx = JPATransactionWrapper.get( em, this.transactionManager );
+						query.setParameter( row.length - 1, row[0] );
+						deleted += query.executeUpdate();
+						if ( acknowledgeBatchSize > 0 && ++rows % acknowledgeBatchSize == 0 ) {
+							// deleting handled updates again is harmless, so we don't need to hold the locks any longer
+							em.flush();
+							tx.commit();
 							tx.begin();
-							try {
-								MultiQueryAccess query = query( this, em );
-								List<UpdateEventInfo> updateInfos = new ArrayList<>( this.batchSizeForUpdates );
-
-								Map<String, Long> lastUpdateIdPerTable = new HashMap<>();
-
-								long processed = 0;
-								while ( query.next() ) {
-									// we have no order problems here since
-									// the query does the ordering for us
-									Object[] valuesFromQuery = (Object[]) query.get();
-
-									Long updateId = ((Number) valuesFromQuery[0]).longValue();
-									Integer eventType = ((Number) valuesFromQuery[1]).intValue();
-
-									EventModelInfo evi = this.updateTableToEventModelInfo.get( query.identifier() );
-
-									lastUpdateIdPerTable.put( query.identifier(), updateId );
-
-									//we skip the id and eventtype
-									int currentIndex = 2;
-									for ( EventModelInfo.IdInfo info : evi.getIdInfos() ) {
-										ColumnType[] columnTypes = info.getColumnTypes();
-										String[] columnNames = info.getColumnsInUpdateTable();
-										Object val[] = new Object[columnTypes.length];
-										for ( int i = 0; i < columnTypes.length; ++i ) {
-											val[i] = valuesFromQuery[currentIndex++];
-										}
-										Object entityId = info.getIdConverter().convert(
-												val,
-												columnNames,
-												columnTypes
-										);
-										//hack, info at annotation level
-										//is string only, but on the programmatic
-										//level Map<String, Object> is needed
-										//so we abuse Java collections here.
-										Map hints = info.getHints();
-										updateInfos.add(
-												new UpdateEventInfo(
-														info.getEntityClass(),
-														entityId,
-														eventType,
-														(Map<String, Object>) hints
-												)
-										);
-									}
-									// TODO: maybe move this to a method as
-									// it is getting reused
-									if ( ++processed % this.batchSizeForUpdates == 0 ) {
-										for ( UpdateConsumer consumer : this.updateConsumers ) {
-											consumer.updateEvent( updateInfos );
-											LOGGER.fine( "handled update-event: " + updateInfos );
-										}
-										updateInfos.clear();
-									}
-								}
-								if ( updateInfos.size() > 0 ) {
-									for ( UpdateConsumer consumer : this.updateConsumers ) {
-										consumer.updateEvent( updateInfos );
-										LOGGER.fine( "handled update-event: " + updateInfos );
-									}
-									updateInfos.clear();
-								}
-
-
-								for ( Map.Entry<String, Long> toDelete : lastUpdateIdPerTable.entrySet() ) {
-									String tableName = toDelete.getKey();
-									Long updateId = toDelete.getValue();
-									EventModelInfo evi = this.updateTableToEventModelInfo.get( tableName );
-									String queryString = "DELETE FROM " + this.escape( tableName ) + " WHERE " + this.escape(
-											evi.getUpdateIdColumn()
-									) + " < " + (updateId + 1);
-									LOGGER.info( "deleting handled updates: " + queryString );
-									em.createNativeQuery(
-											queryString
-									).executeUpdate();
-								}
-
-								if ( processed > 0 ) {
-									LOGGER.info( "processed " + processed + " updates" );
-								}
-
-								em.flush();
-								// clear memory :)
-								em.clear();
-
-								tx.commit();
-							}
-							catch (Throwable e) {
-								tx.rollback();
-								throw e;
-							}
-						}
-						catch (Exception e) {
-							throw new SearchException( "Error occured during Update processing!", e );
 						}
-						finally {
-							if ( em != null ) {
-								em.close();
-							}
-						}
-					}
-					catch (Exception e) {
-						LOGGER.log( Level.SEVERE, e.getMessage(), e );
 					}
-					finally {
-						this.lock.unlock();
-					}
-				}, 0, this.timeOut, this.timeUnit
-		);
+				}
+				LOGGER.fine( "deleted " + deleted + " handled updates" );
+				em.flush();
+				tx.commit();
+			}
+			catch (Throwable e) {
+				tx.rollback();
+				throw e;
+			}
+		}
+		finally {
+			if ( em != null ) {
+				em.close();
+			}
+		}
+	}
+
+	/**
+	 * converts a row from the update table into UpdateEventInfos
+	 *
+	 * @return the updateId of the row
+	 */
+	@SuppressWarnings("unchecked")
+	private long readUpdate(String updateTableName, Object[] valuesFromQuery, List<UpdateEventInfo> updateInfos) {
+		Long updateId = ((Number) valuesFromQuery[0]).longValue();
+		Integer eventType = ((Number) valuesFromQuery[1]).intValue();
+
+		EventModelInfo evi = this.updateTableToEventModelInfo.get( updateTableName );
+
+		//we skip the id and eventtype
+		int currentIndex = 2;
+		for ( EventModelInfo.IdInfo info : evi.getIdInfos() ) {
+			ColumnType[] columnTypes = info.getColumnTypes();
+			String[] columnNames = info.getColumnsInUpdateTable();
+			Object val[] = new Object[columnTypes.length];
+			for ( int i = 0; i < columnTypes.length; ++i ) {
+				val[i] = valuesFromQuery[currentIndex++];
+			}
+			Object entityId = info.getIdConverter().convert(
+					val,
+					columnNames,
+					columnTypes
+			);
+			//hack, info at annotation level
+			//is string only, but on the programmatic
+			//level Map<String, Object> is needed
+			//so we abuse Java collections here.
+			Map hints = info.getHints();
+			updateInfos.add(
+					new UpdateEventInfo(
+							info.getEntityClass(),
+							entityId,
+							eventType,
+							(Map<String, Object>) hints
+					)
+			);
+		}
+		return updateId;
+	}
+
+	private void dispatch(List<UpdateEventInfo> updateInfos) {
+		for ( UpdateConsumer consumer : this.updateConsumers ) {
+			consumer.updateEvent( updateInfos );
+			LOGGER.fine( "handled update-event: " + updateInfos );
+		}
+	}
+
+	/**
+	 * deletes the handled updates. If the update query source deletes in chunks, we commit after every chunk so that
+	 * the update table (and with that the triggers writing into it) isn't locked until everything is deleted
+	 */
+	private void deleteHandled(EntityManager em, JPATransactionWrapper tx, Map<String, Long> lastUpdateIdPerTable) {
+		UpdateQuerySQLStringSource updateQuerySource = this.updateQuerySource();
+		int acknowledgeBatchSize = updateQuerySource.getAcknowledgeBatchSize();
+		for ( Map.Entry<String, Long> toDelete : lastUpdateIdPerTable.entrySet() ) {
+			String tableName = toDelete.getKey();
+			Long updateId = toDelete.getValue();
+			EventModelInfo evi = this.updateTableToEventModelInfo.get( tableName );
+			String queryString = updateQuerySource.getAcknowledgeQuery( evi, updateId );
+			LOGGER.info( "deleting handled updates: " + queryString );
+			int deleted;
+			do {
+				deleted = em.createNativeQuery(
+						queryString
+				).executeUpdate();
+				if ( acknowledgeBatchSize > 0 && deleted >= acknowledgeBatchSize ) {
+					// the updates of this chunk are handled, so we don't need to hold the locks any longer
+					em.flush();
+					tx.commit();
+					tx.begin();
+				}
+			} while ( acknowledgeBatchSize > 0 && deleted >= acknowledgeBatchSize );
+		}
 	}
 
 	private Long id(ObjectIdentifierWrapper val) {
@@ -365,11 +831,13 @@ public class JPAUpdateSource implements AsyncUpdateSource {
 
 	@Override
 	public void stop() {
+		// this is set before we lock so that a fetch that
+		// waits for the indexing stage notices it
+		this.cancelled = true;
 		// first cancel the update job and wait for it to be done.
 		if ( this.job != null ) {
 			this.lock.lock();
 			try {
-				this.cancelled = true;
 				this.job.cancel( false );
 			}
 			finally {
@@ -380,6 +848,9 @@ public class JPAUpdateSource implements AsyncUpdateSource {
 		if ( this.exec != null ) {
 			this.exec.shutdown();
 		}
+		if ( this.pipelineExec != null ) {
+			this.pipelineExec.shutdown();
+		}
 	}
 
 	@Override
@@ -393,70 +864,18 @@ public class JPAUpdateSource implements AsyncUpdateSource {
 		}
 	}
 
-	private String fromPart(EventModelInfo evi) {
-		StringBuilder queryString = new StringBuilder();
-		JPAUpdateSource updateSource = this;
-		//FROM part
-		queryString.append( " FROM " )
-				.append( updateSource.escape( evi.getUpdateTableName() ) )
-				.append( " " )
-				.append( updateSource.escape( "t1" ) )
-				.append( " " );
-		//INNER JOIN part
-		{
-			queryString.append( " INNER JOIN ( " )
-					.append( " SELECT max(" )
-					.append( updateSource.escape( "t2" ) )
-					.append( "." )
-					.append( updateSource.escape( evi.getUpdateIdColumn() ) )
-					.append( ") " )
-					.append( updateSource.escape( "updateid" ) );
-			for ( EventModelInfo.IdInfo idInfo : evi.getIdInfos() ) {
-				for ( String column : idInfo.getColumnsInUpdateTable() ) {
-					queryString.append( ", " )
-							.append( updateSource.escape( "t2" ) )
-							.append( "." )
-							.append( updateSource.escape( column ) );
-				}
-			}
-			queryString.append( " FROM " )
-					.append( updateSource.escape( evi.getUpdateTableName() ) )
-					.append( " " )
-					.append( updateSource.escape( "t2" ) );
-			queryString.append( " GROUP BY " );
-			{
-				int i = 0;
-				for ( EventModelInfo.IdInfo idInfo : evi.getIdInfos() ) {
-					for ( String column : idInfo.getColumnsInUpdateTable() ) {
-						if ( i++ > 0 ) {
-							queryString.append( ", " );
-						}
-						queryString.append( updateSource.escape( "t2" ) )
-								.append( "." )
-								.append( updateSource.escape( column ) );
-					}
-				}
-			}
-			queryString.append( " ) " ).append( updateSource.escape( "t3" ) )
-					.append( " ON " ).append( updateSource.escape( "t1" ) )
-					.append( "." )
-					.append( updateSource.escape( evi.getUpdateIdColumn() ) )
-					.append( " = " )
-					.append( updateSource.escape( "t3" ) )
-					.append( "." ).append(
-					updateSource.escape(
-							"updateid"
-					)
-			);
+	private static final class Batch {
+
+		private final int generation;
+		private final List<UpdateEventInfo> updateInfos;
+		private final Map<String, List<Object[]>> rowsPerTable;
+
+		private Batch(int generation, List<UpdateEventInfo> updateInfos, Map<String, List<Object[]>> rowsPerTable) {
+			this.generation = generation;
+			this.updateInfos = updateInfos;
+			this.rowsPerTable = rowsPerTable;
 		}
-		return queryString.toString();
-	}
 
-	private String escape(String str) {
-		return new StringBuilder().append( this.delimitedIdentifierToken )
-				.append( str )
-				.append( this.delimitedIdentifierToken )
-				.toString();
 	}
 
 }
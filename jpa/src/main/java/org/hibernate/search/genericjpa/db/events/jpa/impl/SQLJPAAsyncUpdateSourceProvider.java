@@ -29,6 +29,19 @@ import org.hibernate.search.genericjpa.jpa.util.impl.JPATransactionWrapper;
 
 import static org.hibernate.search.genericjpa.Constants.BATCH_SIZE_FOR_UPDATE_QUERIES_DEFAULT_VALUE;
 import static org.hibernate.search.genericjpa.Constants.BATCH_SIZE_FOR_UPDATE_QUERIES_KEY;
+import static org.hibernate.search.genericjpa.Constants.COALESCE_UPDATES_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.COALESCE_UPDATES_KEY;
+import static org.hibernate.search.genericjpa.Constants.DEDUPLICATE_UPDATES_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.DEDUPLICATE_UPDATES_KEY;
+import static org.hibernate.search.genericjpa.Constants.KEYSET_PAGINATION_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.KEYSET_PAGINATION_KEY;
+import static org.hibernate.search.genericjpa.Constants.MAX_UPDATES_PER_POLL_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.MAX_UPDATES_PER_POLL_KEY;
+import static org.hibernate.search.genericjpa.Constants.MAX_UPDATE_DELAY_KEY;
+import static org.hibernate.search.genericjpa.Constants.PIPELINED_UPDATES_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.PIPELINED_UPDATES_KEY;
+import static org.hibernate.search.genericjpa.Constants.PIPELINE_QUEUE_SIZE_DEFAULT_VALUE;
+import static org.hibernate.search.genericjpa.Constants.PIPELINE_QUEUE_SIZE_KEY;
 import static org.hibernate.search.genericjpa.Constants.TRIGGER_CREATION_STRATEGY_CREATE;
 import static org.hibernate.search.genericjpa.Constants.TRIGGER_CREATION_STRATEGY_DONT_CREATE;
 import static org.hibernate.search.genericjpa.Constants.TRIGGER_CREATION_STRATEGY_DROP_CREATE;
@@ -63,6 +76,14 @@ public class SQLJPAAsyncUpdateSourceProvider implements AsyncUpdateSourceProvide
 			EntityManagerFactory emf, TransactionManager transactionManager) {
 		EventModelParser eventModelParser = new AnnotationEventModelParser();
 		List<EventModelInfo> eventModelInfos = eventModelParser.parse( new ArrayList<>( this.updateClasses ) );
+		this.triggerSource.setDeduplicating(
+				Boolean.parseBoolean(
+						properties.getProperty(
+								DEDUPLICATE_UPDATES_KEY,
+								DEDUPLICATE_UPDATES_DEFAULT_VALUE
+						)
+				)
+		);
 		this.setupTriggers( emf, transactionManager, eventModelInfos, properties );
 		JPAUpdateSource updateSource = new JPAUpdateSource(
 				eventModelInfos,
@@ -78,6 +99,70 @@ public class SQLJPAAsyncUpdateSourceProvider implements AsyncUpdateSourceProvide
 						)
 				), this.triggerSource.getDelimitedIdentifierToken()
 		);
+		updateSource.setKeysetPagination(
+				Boolean.parseBoolean(
+						properties.getProperty(
+								KEYSET_PAGINATION_KEY,
+								KEYSET_PAGINATION_DEFAULT_VALUE
+						)
+				)
+		);
+		// the max delay is given in the same unit as the normal delay
+		// and is never smaller than it. backing off is opt-in, so by
+		// default it is the normal delay
+		updateSource.setMaxTimeOut(
+				Math.max(
+						delay, Long.parseLong(
+								properties.getProperty(
+										MAX_UPDATE_DELAY_KEY,
+										String.valueOf( delay )
+								)
+						)
+				)
+		);
+		updateSource.setMaxUpdatesPerPoll(
+				Long.parseLong(
+						properties.getProperty(
+								MAX_UPDATES_PER_POLL_KEY,
+								MAX_UPDATES_PER_POLL_DEFAULT_VALUE
+						)
+				)
+		);
+		updateSource.setCoalesceUpdates(
+				Boolean.parseBoolean(
+						properties.getProperty(
+								COALESCE_UPDATES_KEY,
+								COALESCE_UPDATES_DEFAULT_VALUE
+						)
+				)
+		);
+		// the index on the update tables is only used if it actually exists
+		// as its creation can fail and the triggers don't have to be created by us
+		updateSource.setUpdateQuerySource(
+				this.triggerSource.getUpdateQuerySource(
+						this.triggerSource.isIndexingUpdateTables() && this.areUpdateTablesIndexed(
+								emf,
+								transactionManager,
+								eventModelInfos
+						)
+				)
+		);
+		updateSource.setPipelined(
+				Boolean.parseBoolean(
+						properties.getProperty(
+								PIPELINED_UPDATES_KEY,
+								PIPELINED_UPDATES_DEFAULT_VALUE
+						)
+				)
+		);
+		updateSource.setPipelineQueueSize(
+				Integer.parseInt(
+						properties.getProperty(
+								PIPELINE_QUEUE_SIZE_KEY,
+								PIPELINE_QUEUE_SIZE_DEFAULT_VALUE
+						)
+				)
+		);
 		return updateSource;
 	}
 
@@ -144,6 +229,14 @@ public class SQLJPAAsyncUpdateSourceProvider implements AsyncUpdateSourceProvide
 							this.doQueryOrLogException( emf, transactionManager, connection, str, false );
 						}
 
+						//not every database has CREATE INDEX IF NOT EXISTS
+						if ( !this.isUpdateTableIndexed( emf, transactionManager, info ) ) {
+							for ( String str : triggerSource.getUpdateTableIndexCreationCode( info ) ) {
+								LOGGER.info( str );
+								this.doQueryOrLogException( emf, transactionManager, connection, str, false );
+							}
+						}
+
 						for ( String setupCode : this.triggerSource.getSpecificSetupCode( info ) ) {
 							LOGGER.info( setupCode );
 							this.doQueryOrLogException( emf, transactionManager, connection, setupCode, false );
@@ -183,6 +276,55 @@ public class SQLJPAAsyncUpdateSourceProvider implements AsyncUpdateSourceProvide
 		}
 	}
 
+	private boolean areUpdateTablesIndexed(
+			EntityManagerFactory emf,
+			TransactionManager transactionManager,
+			List<EventModelInfo> eventModelInfos) {
+		for ( EventModelInfo info : eventModelInfos ) {
+			if ( !this.isUpdateTableIndexed( emf, transactionManager, info ) ) {
+				LOGGER.warning(
+						"update table " + info.getUpdateTableName() + " is not indexed, " +
+								"the latest update per entity will be found by grouping the update tables"
+				);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isUpdateTableIndexed(
+			EntityManagerFactory emf,
+			TransactionManager transactionManager,
+			EventModelInfo info) {
+		String query = this.triggerSource.getUpdateTableIndexQuery( info );
+		if ( query == null ) {
+			return false;
+		}
+		try {
+			EntityManager em = emf.createEntityManager();
+			try {
+				JPATransactionWrapper tx = JPATransactionWrapper.get( em, transactionManager );
+				tx.setIgnoreExceptionsForJTATransaction( true );
+				tx.begin();
+
+				Number count = (Number) em.createNativeQuery( query ).getSingleResult();
+
+				tx.commitIgnoreExceptions();
+				return count.longValue() > 0;
+			}
+			finally {
+				em.close();
+			}
+		}
+		catch (Exception e) {
+			LOGGER.warning(
+					"couldn't check whether update table " + info.getUpdateTableName() + " is indexed: " +
+							e.getMessage()
+			);
+			return false;
+		}
+	}
+
 	private void doQueryOrLogException(
 			EntityManagerFactory emf,
 			TransactionManager transactionManager,
@@ -223,6 +365,12 @@ public class SQLJPAAsyncUpdateSourceProvider implements AsyncUpdateSourceProvide
 								e.getMessage()
 				);
 			}
+			else {
+				LOGGER.warning(
+						"Exception occured during setup of triggers while executing " + query + ": " +
+								e.getMessage()
+				);
+			}
 		}
 	}
 
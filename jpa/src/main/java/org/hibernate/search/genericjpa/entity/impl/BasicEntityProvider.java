@@ -6,24 +6,55 @@
  */
 package org.hibernate.search.genericjpa.entity.impl;
 
+import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import javax.persistence.Subgraph;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hibernate.search.genericjpa.entity.EntityProvider;
 
+/**
+ * Loads entities by their ids. If the paths of the IndexedEmbedded properties are known for an entity type, batches are
+ * loaded with an EntityGraph (as a loadgraph) containing all the associations the document is built from instead of
+ * lazily loading them one by one. As not all providers honour loadgraphs on queries (e.g. EclipseLink without
+ * weaving), the same associations are passed as EclipseLink join fetch hints as well. Providers ignore hints they
+ * don't know. Only the first collection on these paths is fetched this way, as every further one would multiply the
+ * rows returned per entity.
+ */
 public class BasicEntityProvider implements EntityProvider {
 
 	private static final String QUERY_FORMAT = "SELECT obj FROM %s obj " + "WHERE obj.%s IN :ids";
+	private static final String LOAD_GRAPH_HINT = "javax.persistence.loadgraph";
+	private static final String ECLIPSELINK_JOIN_FETCH_HINT = "eclipselink.left-join-fetch";
 	private final EntityManager em;
 	private final Map<Class<?>, String> idProperties;
+	private final Map<Class<?>, List<String>> embeddedPropertyPaths;
+	private final Map<Class<?>, FetchPlan> fetchPlans = new HashMap<>();
 
 	public BasicEntityProvider(EntityManager em, Map<Class<?>, String> idProperties) {
+		this( em, idProperties, Collections.emptyMap() );
+	}
+
+	public BasicEntityProvider(
+			EntityManager em,
+			Map<Class<?>, String> idProperties,
+			Map<Class<?>, List<String>> embeddedPropertyPaths) {
 		this.em = em;
 		this.idProperties = idProperties;
+		this.embeddedPropertyPaths = embeddedPropertyPaths;
 	}
 
 	@Override
@@ -49,11 +80,98 @@ public class BasicEntityProvider implements EntityProvider {
 			);
 			Query query = this.em.createQuery( queryString );
 			query.setParameter( "ids", ids );
-			ret.addAll( query.getResultList() );
+			FetchPlan fetchPlan = this.getFetchPlan( entityClass );
+			if ( fetchPlan != null ) {
+				query.setHint( LOAD_GRAPH_HINT, fetchPlan.entityGraph );
+				for ( String path : fetchPlan.paths ) {
+					query.setHint( ECLIPSELINK_JOIN_FETCH_HINT, "obj." + path );
+				}
+				// fetch joins of collections might return the same entity several times
+				Set<Object> seen = Collections.newSetFromMap( new IdentityHashMap<>() );
+				for ( Object entity : (List<Object>) query.getResultList() ) {
+					if ( seen.add( entity ) ) {
+						ret.add( entity );
+					}
+				}
+			}
+			else {
+				ret.addAll( query.getResultList() );
+			}
 		}
 		return ret;
 	}
 
+	private FetchPlan getFetchPlan(Class<?> entityClass) {
+		if ( !this.fetchPlans.containsKey( entityClass ) ) {
+			this.fetchPlans.put( entityClass, this.createFetchPlan( entityClass ) );
+		}
+		return this.fetchPlans.get( entityClass );
+	}
+
+	/**
+	 * @return the associations on the IndexedEmbedded paths of the given type or null if there are none
+	 */
+	private FetchPlan createFetchPlan(Class<?> entityClass) {
+		List<String> paths = null;
+		// subclasses are built with the metadata of their index-root
+		for ( Class<?> clazz = entityClass; clazz != null && paths == null; clazz = clazz.getSuperclass() ) {
+			paths = this.embeddedPropertyPaths.get( clazz );
+		}
+		if ( paths == null || paths.size() == 0 ) {
+			return null;
+		}
+		Metamodel metamodel = this.em.getMetamodel();
+		EntityGraph<?> entityGraph = this.em.createEntityGraph( entityClass );
+		// parents come before their children
+		Map<String, Subgraph<?>> subgraphs = new LinkedHashMap<>();
+		Map<String, ManagedType<?>> types = new HashMap<>();
+		types.put( "", metamodel.entity( entityClass ) );
+		boolean collectionFetched = false;
+		for ( String path : paths ) {
+			int lastDot = path.lastIndexOf( '.' );
+			String parentPath = lastDot == -1 ? "" : path.substring( 0, lastDot );
+			String attributeName = path.substring( lastDot + 1 );
+			ManagedType<?> parentType = types.get( parentPath );
+			Attribute<?, ?> attribute = parentType == null ? null : findAttribute( parentType, attributeName );
+			if ( attribute == null || !attribute.isAssociation() ) {
+				// no association we can fetch (or the parent isn't fetched either)
+				continue;
+			}
+			Class<?> targetClass = attribute.getJavaType();
+			if ( attribute.isCollection() ) {
+				// joining two collections returns the cartesian product of them for every entity
+				// (and some providers can't fetch several bags at once). the others are loaded lazily
+				if ( collectionFetched ) {
+					continue;
+				}
+				collectionFetched = true;
+				targetClass = ((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType();
+			}
+			ManagedType<?> targetType;
+			try {
+				targetType = metamodel.entity( targetClass );
+			}
+			catch (IllegalArgumentException e) {
+				continue;
+			}
+			Subgraph<?> subgraph = parentPath.length() == 0 ?
+					entityGraph.addSubgraph( attributeName ) :
+					subgraphs.get( parentPath ).addSubgraph( attributeName );
+			subgraphs.put( path, subgraph );
+			types.put( path, targetType );
+		}
+		return subgraphs.size() == 0 ? null : new FetchPlan( entityGraph, new ArrayList<>( subgraphs.keySet() ) );
+	}
+
+	private static Attribute<?, ?> findAttribute(ManagedType<?> type, String name) {
+		try {
+			return type.getAttribute( name );
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
 	public void clearEm() {
 		this.em.clear();
 	}
@@ -62,4 +180,16 @@ public class BasicEntityProvider implements EntityProvider {
 		return this.em;
 	}
 
+	private static final class FetchPlan {
+
+		private final EntityGraph<?> entityGraph;
+		private final List<String> paths;
+
+		private FetchPlan(EntityGraph<?> entityGraph, List<String> paths) {
+			this.entityGraph = entityGraph;
+			this.paths = paths;
+		}
+
+	}
+
 }
@@ -8,6 +8,7 @@ package org.hibernate.search.genericjpa.entity.impl;
 
 import javax.persistence.EntityManagerFactory;
 import javax.transaction.TransactionManager;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,7 @@ public class JPAReusableEntityProvider extends TransactionWrappedReusableEntityP
 
 	private final Map<Class<?>, String> idProperties;
 	private final Map<Class<?>, EntityManagerEntityProvider> customEntityProviders;
+	private final Map<Class<?>, List<String>> embeddedPropertyPaths;
 	private BasicEntityProvider provider;
 
 	public JPAReusableEntityProvider(
@@ -36,9 +38,19 @@ public class JPAReusableEntityProvider extends TransactionWrappedReusableEntityP
 			Map<Class<?>, String> idProperties,
 			TransactionManager transactionManager,
 			Map<Class<?>, EntityManagerEntityProvider> customEntityProviders) {
+		this( emf, idProperties, transactionManager, customEntityProviders, Collections.emptyMap() );
+	}
+
+	public JPAReusableEntityProvider(
+			EntityManagerFactory emf,
+			Map<Class<?>, String> idProperties,
+			TransactionManager transactionManager,
+			Map<Class<?>, EntityManagerEntityProvider> customEntityProviders,
+			Map<Class<?>, List<String>> embeddedPropertyPaths) {
 		super( emf, transactionManager );
 		this.idProperties = idProperties;
 		this.customEntityProviders = customEntityProviders;
+		this.embeddedPropertyPaths = embeddedPropertyPaths;
 	}
 
 	@Override
@@ -78,7 +90,11 @@ public class JPAReusableEntityProvider extends TransactionWrappedReusableEntityP
 	@Override
 	public void open() {
 		super.open();
-		this.provider = new BasicEntityProvider( this.getEntityManager(), this.idProperties );
+		this.provider = new BasicEntityProvider(
+				this.getEntityManager(),
+				this.idProperties,
+				this.embeddedPropertyPaths
+		);
 	}
 
 }
@@ -8,6 +8,7 @@ package org.hibernate.search.genericjpa.entity.impl;
 
 import javax.persistence.EntityManager;
 import javax.transaction.TransactionManager;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -21,7 +22,15 @@ public class TransactionWrappedEntityManagerEntityProvider extends BasicEntityPr
 			EntityManager em,
 			Map<Class<?>, String> idProperties,
 			TransactionManager transactionManager) {
-		super( em, idProperties );
+		this( em, idProperties, transactionManager, Collections.emptyMap() );
+	}
+
+	public TransactionWrappedEntityManagerEntityProvider(
+			EntityManager em,
+			Map<Class<?>, String> idProperties,
+			TransactionManager transactionManager,
+			Map<Class<?>, List<String>> embeddedPropertyPaths) {
+		super( em, idProperties, embeddedPropertyPaths );
 		this.transactionManager = transactionManager;
 	}
 
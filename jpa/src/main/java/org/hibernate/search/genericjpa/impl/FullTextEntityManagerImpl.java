@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.hibernate.search.SearchFactory;
+import org.hibernate.search.genericjpa.batchindexing.IndexVerifier;
 import org.hibernate.search.genericjpa.batchindexing.MassIndexer;
 import org.hibernate.search.genericjpa.factory.Transaction;
 import org.hibernate.search.jpa.FullTextEntityManager;
@@ -193,6 +194,26 @@ public final class FullTextEntityManagerImpl implements FullTextEntityManager, S
 		}
 	}
 
+	@Override
+	public MassIndexer createShadowIndexer(Class<?>... types) {
+		if ( types == null || types.length == 0 ) {
+			return this.searchFactory.createShadowMassIndexer();
+		}
+		else {
+			return this.searchFactory.createShadowMassIndexer( Arrays.asList( types ) );
+		}
+	}
+
+	@Override
+	public IndexVerifier createIndexVerifier(Class<?>... types) {
+		if ( types == null || types.length == 0 ) {
+			return this.searchFactory.createIndexVerifier();
+		}
+		else {
+			return this.searchFactory.createIndexVerifier( Arrays.asList( types ) );
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	public <T> T unwrap(Class<T> clazz) {
 		if ( FullTextEntityManagerImpl.class.equals( clazz ) || FullTextEntityManager.class.equals( clazz ) ) {
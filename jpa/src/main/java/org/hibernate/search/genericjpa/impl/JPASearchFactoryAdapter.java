@@ -8,7 +8,9 @@ package org.hibernate.search.genericjpa.impl;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.Metamodel;
 import javax.transaction.TransactionManager;
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,6 +22,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -28,13 +31,19 @@ import java.util.logging.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.search.Query;
 
+import org.hibernate.search.backend.PurgeAllLuceneWork;
 import org.hibernate.search.engine.integration.impl.ExtendedSearchIntegrator;
 import org.hibernate.search.engine.metadata.impl.MetadataProvider;
+import org.hibernate.search.genericjpa.Constants;
 import org.hibernate.search.genericjpa.JPASearchFactoryController;
+import org.hibernate.search.genericjpa.batchindexing.IndexVerifier;
 import org.hibernate.search.genericjpa.batchindexing.MassIndexer;
+import org.hibernate.search.genericjpa.batchindexing.impl.IndexSwapper;
+import org.hibernate.search.genericjpa.batchindexing.impl.IndexVerifierImpl;
 import org.hibernate.search.genericjpa.batchindexing.impl.MassIndexerImpl;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer;
 import org.hibernate.search.genericjpa.db.events.impl.AsyncUpdateSource;
+import org.hibernate.search.genericjpa.db.events.index.impl.ContainedInIndex;
 import org.hibernate.search.genericjpa.db.events.index.impl.IndexUpdater;
 import org.hibernate.search.genericjpa.entity.EntityManagerEntityProvider;
 import org.hibernate.search.genericjpa.entity.EntityProvider;
@@ -52,6 +61,7 @@ import org.hibernate.search.genericjpa.metadata.impl.RehashedTypeMetadata;
 import org.hibernate.search.genericjpa.query.HSearchQuery;
 import org.hibernate.search.genericjpa.transaction.TransactionContext;
 import org.hibernate.search.indexes.IndexReaderAccessor;
+import org.hibernate.search.indexes.spi.IndexManager;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.metadata.IndexedTypeDescriptor;
 import org.hibernate.search.query.dsl.QueryContextBuilder;
@@ -74,6 +84,10 @@ public final class JPASearchFactoryAdapter
 
 	private int updateDelay = 500;
 	private int batchSizeForUpdates = 5;
+	private int indexUpdaterThreads = 1;
+	private boolean useContainedInIndex = false;
+	private long containedInIndexMaxEntries = 10_000_000L;
+	private boolean useEntityGraphs = true;
 	private AsyncUpdateSourceProvider asyncUpdateSourceProvider;
 	private AsyncUpdateSource asyncUpdateSource;
 
@@ -81,6 +95,7 @@ public final class JPASearchFactoryAdapter
 	private SynchronizedUpdateSource synchronizedUpdateSource;
 
 	private IndexUpdater indexUpdater;
+	private ContainedInIndex containedInIndex;
 	private Map<Class<?>, EntityManagerEntityProvider> customUpdateEntityProviders;
 
 	private String name;
@@ -92,9 +107,15 @@ public final class JPASearchFactoryAdapter
 	private StandaloneSearchFactory searchFactory;
 	private Set<Class<?>> indexRelevantEntities;
 	private Map<Class<?>, String> idProperties;
+	private Set<Class<?>> batchLoadable;
 	private Map<Class<?>, RehashedTypeMetadata> rehashedTypeMetadataForIndexRoot;
 	private Map<Class<?>, List<Class<?>>> containedInIndexOf;
+	private Map<Class<?>, List<String>> embeddedPropertyPaths;
 	private ExtendedSearchIntegrator searchIntegrator;
+	/**
+	 * the integrator of the shadow indexes while a shadow MassIndexer is running
+	 */
+	private final AtomicReference<ExtendedSearchIntegrator> shadowIntegrator = new AtomicReference<>();
 
 	private TransactionManager transactionManager;
 
@@ -151,18 +172,13 @@ public final class JPASearchFactoryAdapter
 				)
 		);
 		this.idProperties = MetadataUtil.calculateIdProperties( rehashedTypeMetadatas );
+		this.batchLoadable = this.emf != null ? this.calculateBatchLoadable() : null;
 		this.containedInIndexOf = MetadataUtil.calculateInIndexOf( rehashedTypeMetadatas );
+		this.embeddedPropertyPaths = this.useEntityGraphs ?
+				MetadataUtil.calculateEmbeddedPropertyPaths( rehashedTypeMetadatas ) :
+				Collections.emptyMap();
 
-		SearchIntegratorBuilder builder = new SearchIntegratorBuilder();
-		this.indexRelevantEntities.forEach(
-				config::addClass
-		);
-		// we have to build an integrator here (but we don't need it afterwards)
-		builder.configuration( config ).buildSearchIntegrator();
-		this.indexRelevantEntities.forEach(
-				builder::addClass
-		);
-		SearchIntegrator impl = builder.buildSearchIntegrator();
+		SearchIntegrator impl = this.buildSearchIntegrator( config );
 		this.searchIntegrator = impl.unwrap( ExtendedSearchIntegrator.class );
 		this.searchFactory = new StandaloneSearchFactoryImpl( this.searchIntegrator );
 
@@ -170,7 +186,8 @@ public final class JPASearchFactoryAdapter
 				this.emf,
 				this.idProperties,
 				this.transactionManager,
-				this.customUpdateEntityProviders
+				this.customUpdateEntityProviders,
+				this.embeddedPropertyPaths
 		);
 
 		this.asyncUpdateSource = this.asyncUpdateSourceProvider.getUpdateSource(
@@ -182,10 +199,36 @@ public final class JPASearchFactoryAdapter
 				this.transactionManager
 		);
 		if ( this.asyncUpdateSource != null ) {
-			this.indexUpdater = new IndexUpdater(
-					this.rehashedTypeMetadataForIndexRoot, this.containedInIndexOf, entityProvider,
-					impl.unwrap( ExtendedSearchIntegrator.class )
-			);
+			if ( this.indexUpdaterThreads == 1 ) {
+				this.indexUpdater = new IndexUpdater(
+						this.rehashedTypeMetadataForIndexRoot, this.containedInIndexOf, entityProvider,
+						impl.unwrap( ExtendedSearchIntegrator.class )
+				);
+			}
+			else {
+				//every thread needs its own EntityProvider
+				this.indexUpdater = new IndexUpdater(
+						this.rehashedTypeMetadataForIndexRoot, this.containedInIndexOf, () -> new JPAReusableEntityProvider(
+						this.emf,
+						this.idProperties,
+						this.transactionManager,
+						this.customUpdateEntityProviders,
+						this.embeddedPropertyPaths
+				), this.indexUpdaterThreads,
+						impl.unwrap( ExtendedSearchIntegrator.class )
+				);
+			}
+			this.indexUpdater.setBatchLoadable( this.batchLoadable );
+			if ( this.useContainedInIndex ) {
+				this.containedInIndex = new ContainedInIndex(
+						this.searchIntegrator,
+						this.rehashedTypeMetadataForIndexRoot,
+						this.containedInIndexOf,
+						this.containedInIndexMaxEntries
+				);
+				this.containedInIndex.rebuild();
+				this.indexUpdater.setContainedInIndex( this.containedInIndex );
+			}
 			//TODO: we could allow this, but then we would need to change
 			//the way we get the entityProvider. it's safest to keep it like this
 			if ( this.emf == null ) {
@@ -216,6 +259,67 @@ public final class JPASearchFactoryAdapter
 		}
 	}
 
+	/**
+	 * batches are loaded by querying the document id property, so this only works for entities where it is a
+	 * persistent attribute (or that have a custom EntityProvider)
+	 */
+	private Set<Class<?>> calculateBatchLoadable() {
+		Metamodel metamodel = this.emf.getMetamodel();
+		Set<Class<?>> ret = new HashSet<>();
+		for ( Map.Entry<Class<?>, String> entry : this.idProperties.entrySet() ) {
+			Class<?> entityClass = entry.getKey();
+			if ( this.customUpdateEntityProviders != null
+					&& this.customUpdateEntityProviders.containsKey( entityClass ) ) {
+				ret.add( entityClass );
+				continue;
+			}
+			try {
+				metamodel.entity( entityClass ).getAttribute( entry.getValue() );
+				ret.add( entityClass );
+			}
+			catch (IllegalArgumentException e) {
+				LOGGER.fine( entityClass + " can't be queried by its document id, loading it one by one" );
+			}
+		}
+		return Collections.unmodifiableSet( ret );
+	}
+
+	private SearchIntegrator buildSearchIntegrator(StandaloneSearchConfiguration config) {
+		SearchIntegratorBuilder builder = new SearchIntegratorBuilder();
+		this.indexRelevantEntities.forEach(
+				config::addClass
+		);
+		// we have to build an integrator here (but we don't need it afterwards)
+		builder.configuration( config ).buildSearchIntegrator();
+		this.indexRelevantEntities.forEach(
+				builder::addClass
+		);
+		return builder.buildSearchIntegrator();
+	}
+
+	/**
+	 * the shadow indexes have the same configuration as the live ones, but all of them live in the shadow indexBase
+	 */
+	private ExtendedSearchIntegrator buildShadowIntegrator() {
+		Properties shadowProperties = new Properties();
+		if ( this.properties != null ) {
+			shadowProperties.putAll( this.properties );
+		}
+		String shadowIndexBase = shadowProperties.getProperty( Constants.SHADOW_INDEX_BASE_KEY );
+		if ( shadowIndexBase == null ) {
+			shadowIndexBase = new File(
+					shadowProperties.getProperty( "hibernate.search.default.indexBase", "." ),
+					"shadow"
+			).getPath();
+		}
+		shadowProperties.keySet().removeIf(
+				(key) -> key.toString().startsWith( "hibernate.search." ) && key.toString().endsWith( ".indexBase" )
+		);
+		shadowProperties.setProperty( "hibernate.search.default.indexBase", shadowIndexBase );
+		return this.buildSearchIntegrator( new StandaloneSearchConfiguration( shadowProperties ) )
+				.unwrap( ExtendedSearchIntegrator.class );
+	}
+
 	public TransactionManager getTransactionManager() {
 		return this.transactionManager;
 	}
@@ -316,6 +420,42 @@ public final class JPASearchFactoryAdapter
 		return this;
 	}
 
+	public int getIndexUpdaterThreads() {
+		return this.indexUpdaterThreads;
+	}
+
+	public JPASearchFactoryAdapter setIndexUpdaterThreads(int indexUpdaterThreads) {
+		this.indexUpdaterThreads = indexUpdaterThreads;
+		return this;
+	}
+
+	public boolean isUseContainedInIndex() {
+		return this.useContainedInIndex;
+	}
+
+	public JPASearchFactoryAdapter setUseContainedInIndex(boolean useContainedInIndex) {
+		this.useContainedInIndex = useContainedInIndex;
+		return this;
+	}
+
+	public boolean isUseEntityGraphs() {
+		return this.useEntityGraphs;
+	}
+
+	public JPASearchFactoryAdapter setUseEntityGraphs(boolean useEntityGraphs) {
+		this.useEntityGraphs = useEntityGraphs;
+		return this;
+	}
+
+	public long getContainedInIndexMaxEntries() {
+		return this.containedInIndexMaxEntries;
+	}
+
+	public JPASearchFactoryAdapter setContainedInIndexMaxEntries(long containedInIndexMaxEntries) {
+		this.containedInIndexMaxEntries = containedInIndexMaxEntries;
+		return this;
+	}
+
 	public int getUpdateDelay() {
 		return this.updateDelay;
 	}
@@ -347,13 +487,171 @@ public final class JPASearchFactoryAdapter
 		if ( this.emf == null ) {
 			throw new SearchException( "can only create a MassIndexer with a JPA EntityManagerFactory present!" );
 		}
-		return new MassIndexerImpl( this.emf, this.searchIntegrator, indexRootTypes, this.transactionManager );
+		MassIndexerImpl massIndexer = new MassIndexerImpl(
+				this.emf,
+				this.searchIntegrator,
+				indexRootTypes,
+				this.transactionManager
+		).embeddedPropertyPaths( this.embeddedPropertyPaths );
+		ContainedInIndex containedInIndex = this.containedInIndex;
+		if ( containedInIndex != null ) {
+			// we don't see the documents written by the MassIndexer
+			massIndexer.startConsumer( containedInIndex::invalidate )
+					.finishConsumer( (success) -> this.rebuildContainedInIndex() );
+		}
+		return massIndexer;
 	}
 
 	public MassIndexer createMassIndexer() {
 		return this.createMassIndexer( this.jpaRootTypes );
 	}
 
+	/**
+	 * creates a MassIndexer that builds the indexes of the given root types into shadow indexes while searches keep
+	 * hitting the live ones. While it is running, the updates from the AsyncUpdateSource are applied to both. After it
+	 * finished successfully, the contents of the shadow indexes are swapped into the live indexes atomically. Only one
+	 * of these can be running at a time and it has to be started to release its resources again. It can't be
+	 * checkpointed as the shadow indexes are dropped whenever a run ends. This is not available with a
+	 * synchronized update source as its updates only reach the live indexes and would be lost by the swap
+	 */
+	public MassIndexer createShadowMassIndexer(List<Class<?>> indexRootTypes) {
+		if ( this.emf == null ) {
+			throw new SearchException( "can only create a MassIndexer with a JPA EntityManagerFactory present!" );
+		}
+		if ( this.synchronizedUpdateSource != null ) {
+			throw new SearchException(
+					"can't create a shadow MassIndexer with a synchronized update source, its updates would be lost when swapping"
+			);
+		}
+		IndexSwapper.checkSwappable( this.searchIntegrator, indexRootTypes );
+		ExtendedSearchIntegrator shadow = this.buildShadowIntegrator();
+		return new MassIndexerImpl( this.emf, shadow, indexRootTypes, this.transactionManager )
+				.embeddedPropertyPaths( this.embeddedPropertyPaths )
+				// the IndexUpdater might write documents before we do
+				.updateWorks( true )
+				// everything not rebuilt would be lost when swapping
+				.restrictable( false )
+				// the shadow indexes are purged when a run ends, a resumed run would miss everything before its checkpoint
+				.resumable( false )
+				.startConsumer( () -> this.startShadow( shadow ) )
+				.finishConsumer( (success) -> this.finishShadow( shadow, indexRootTypes, success ) );
+	}
+
+	public MassIndexer createShadowMassIndexer() {
+		return this.createShadowMassIndexer( this.jpaRootTypes );
+	}
+
+	/**
+	 * creates an IndexVerifier for the indexes of the given root types. Repairs go through the IndexUpdater of the
+	 * AsyncUpdateSource if there is one
+	 */
+	public IndexVerifier createIndexVerifier(List<Class<?>> indexRootTypes) {
+		if ( this.emf == null ) {
+			throw new SearchException( "can only create an IndexVerifier with a JPA EntityManagerFactory present!" );
+		}
+		return new IndexVerifierImpl(
+				this.emf,
+				this.searchIntegrator,
+				this.rehashedTypeMetadataForIndexRoot,
+				indexRootTypes,
+				this.transactionManager
+		).repairConsumer(
+				(updateInfos) -> {
+					if ( this.indexUpdater != null ) {
+						this.indexUpdater.updateEvent( updateInfos );
+						return;
+					}
+					IndexUpdater indexUpdater = new IndexUpdater(
+							this.rehashedTypeMetadataForIndexRoot, this.containedInIndexOf, new JPAReusableEntityProvider(
+							this.emf,
+							this.idProperties,
+							this.transactionManager,
+							this.customUpdateEntityProviders,
+							this.embeddedPropertyPaths
+					), this.searchIntegrator
+					);
+					indexUpdater.setBatchLoadable( this.batchLoadable );
+					try {
+						indexUpdater.updateEvent( updateInfos );
+					}
+					finally {
+						indexUpdater.close();
+					}
+				}
+		);
+	}
+
+	public IndexVerifier createIndexVerifier() {
+		return this.createIndexVerifier( this.jpaRootTypes );
+	}
+
+	private void startShadow(ExtendedSearchIntegrator shadow) {
+		if ( !this.shadowIntegrator.compareAndSet( null, shadow ) ) {
+			shadow.close();
+			throw new SearchException( "there already is a shadow MassIndexer running" );
+		}
+		if ( this.indexUpdater != null ) {
+			this.indexUpdater.runExclusively( () -> this.indexUpdater.setShadowIntegrator( shadow ) );
+		}
+	}
+
+	private void rebuildContainedInIndex() {
+		if ( this.indexUpdater != null ) {
+			// updates applied while reading the index could get lost
+			this.indexUpdater.runExclusively( this.containedInIndex::rebuild );
+		}
+		else {
+			this.containedInIndex.rebuild();
+		}
+	}
+
+	private void finishShadow(ExtendedSearchIntegrator shadow, List<Class<?>> indexRootTypes, boolean success) {
+		try {
+			Runnable swap = () -> {
+				if ( success ) {
+					IndexSwapper.swap( this.searchIntegrator, shadow, indexRootTypes );
+					if ( this.containedInIndex != null ) {
+						this.containedInIndex.rebuild();
+					}
+				}
+			};
+			if ( this.indexUpdater != null ) {
+				// no updates may be applied while swapping or they could
+				// get lost between the shadow and the live index
+				this.indexUpdater.runExclusively(
+						() -> {
+							try {
+								swap.run();
+							}
+							finally {
+								this.indexUpdater.setShadowIntegrator( null );
+							}
+						}
+				);
+			}
+			else {
+				swap.run();
+			}
+		}
+		finally {
+			this.shadowIntegrator.compareAndSet( shadow, null );
+			try {
+				// don't keep a second copy of everything around
+				for ( Class<?> indexRootType : indexRootTypes ) {
+					for ( IndexManager indexManager : shadow.getIndexBinding( indexRootType ).getIndexManagers() ) {
+						indexManager.performOperations(
+								Collections.singletonList( new PurgeAllLuceneWork( indexRootType ) ),
+								null
+						);
+					}
+				}
+			}
+			finally {
+				shadow.close();
+			}
+		}
+	}
+
 	public ExtendedSearchIntegrator getSearchIntegrator() {
 		return this.searchIntegrator;
 	}
@@ -361,6 +659,7 @@ public final class JPASearchFactoryAdapter
 	@Override
 	public void index(Iterable<?> entities, TransactionContext tc) {
 		this.searchFactory.index( entities, tc );
+		this.written( entities );
 	}
 
 	@Override
@@ -385,6 +684,13 @@ public final class JPASearchFactoryAdapter
 	@Override
 	public void update(Iterable<?> entities, TransactionContext tc) {
 		this.searchFactory.update( entities, tc );
+		this.written( entities );
+	}
+
+	private void written(Iterable<?> entities) {
+		if ( this.containedInIndex != null ) {
+			entities.forEach( this.containedInIndex::written );
+		}
 	}
 
 	@Override
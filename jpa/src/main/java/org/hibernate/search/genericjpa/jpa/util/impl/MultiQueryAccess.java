@@ -7,12 +7,11 @@
 package org.hibernate.search.genericjpa.jpa.util.impl;
 
 import javax.persistence.Query;
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
 
 import org.hibernate.search.exception.AssertionFailure;
 
@@ -22,21 +21,32 @@ import org.hibernate.search.exception.AssertionFailure;
  * <br>
  * This is particularly useful if you scroll all the data from the database incrementally and if you can compare in
  * Code.
+ * <br>
+ * <br>
+ * The counts passed are upper bounds. If they are not known {@link Long#MAX_VALUE} can be used, a query is then
+ * considered done as soon as it returns less than batchSize values.
+ * <br>
+ * <br>
+ * If a key function is passed, the values are merged by the primitive long key it returns (the comparator is then only
+ * consulted if two queries have the same key at their head). If keyset pagination is used, the queries are not paged
+ * with {@link Query#setFirstResult(int)} but with a parameter (position 1) that is set to the key of the last value
+ * visited for that query. The queries are then expected to look like "... WHERE key &gt; ?1 ORDER BY key" so the
+ * database doesn't have to skip all already visited rows for every batch.
  *
  * @author Martin
  */
 public class MultiQueryAccess {
 
-	private final Map<String, Long> currentCountMap;
-	private final Map<String, Query> queryMap;
 	private final Comparator<ObjectIdentifierWrapper> comparator;
 	private final int batchSize;
+	private final ToLongFunction<Object> keyFunction;
+	private final boolean keysetPagination;
 
-	private final Map<String, Long> currentPosition;
-	private final Map<String, LinkedList<Object>> values;
+	private final Cursor[] cursors;
+	private final PriorityQueue<Cursor> heap;
 
-	private Object scheduled;
-	private String identifier;
+	private boolean initialized = false;
+	private Cursor current;
 
 	/**
 	 * this doesn't do real batching as it has a batchSize of 1
@@ -56,23 +66,83 @@ public class MultiQueryAccess {
 			Map<String, Query> queryMap,
 			Comparator<ObjectIdentifierWrapper> comparator,
 			int batchSize) {
+		this( countMap, queryMap, comparator, batchSize, null, false );
+	}
+
+	/**
+	 * this does batching with keyset pagination
+	 *
+	 * @param keyFunction extracts the key of a value returned by the queries
+	 */
+	public MultiQueryAccess(
+			Map<String, Long> countMap,
+			Map<String, Query> queryMap,
+			Comparator<ObjectIdentifierWrapper> comparator,
+			int batchSize,
+			ToLongFunction<Object> keyFunction) {
+		this( countMap, queryMap, comparator, batchSize, keyFunction, true );
+	}
+
+	/**
+	 * this does batching
+	 *
+	 * @param keyFunction extracts the key of a value returned by the queries. may be null if the values should only be
+	 * ordered by the comparator
+	 * @param keysetPagination whether to page by the last visited key instead of an offset. requires a keyFunction
+	 */
+	public MultiQueryAccess(
+			Map<String, Long> countMap,
+			Map<String, Query> queryMap,
+			Comparator<ObjectIdentifierWrapper> comparator,
+			int batchSize,
+			ToLongFunction<Object> keyFunction,
+			boolean keysetPagination) {
 		if ( countMap.size() != queryMap.size() ) {
 			throw new IllegalArgumentException( "countMap.size() must be equal to queryMap.size()" );
 		}
-		this.currentCountMap = countMap;
-		this.queryMap = queryMap;
+		if ( batchSize <= 0 ) {
+			throw new IllegalArgumentException( "batchSize must be greater than 0" );
+		}
+		if ( keysetPagination && keyFunction == null ) {
+			throw new IllegalArgumentException( "keysetPagination needs a keyFunction" );
+		}
+		if ( comparator == null && keyFunction == null ) {
+			throw new IllegalArgumentException( "either a comparator or a keyFunction has to be passed" );
+		}
 		this.comparator = comparator;
 		this.batchSize = batchSize;
-		this.currentPosition = new HashMap<>();
-		this.values = new HashMap<>();
-		for ( String ident : queryMap.keySet() ) {
-			this.values.put( ident, new LinkedList<>() );
-			this.currentPosition.put( ident, 0L );
+		this.keyFunction = keyFunction;
+		this.keysetPagination = keysetPagination;
+		this.cursors = new Cursor[queryMap.size()];
+		int i = 0;
+		for ( Map.Entry<String, Query> entry : queryMap.entrySet() ) {
+			Long count = countMap.get( entry.getKey() );
+			if ( count == null ) {
+				throw new IllegalArgumentException( "no count was found for query: " + entry.getKey() );
+			}
+			this.cursors[i++] = new Cursor( entry.getKey(), entry.getValue(), count );
 		}
+		this.heap = new PriorityQueue<>( Math.max( 1, this.cursors.length ), this::compare );
 	}
 
-	private static int toInt(Long l) {
-		return (int) (long) l;
+	/**
+	 * makes the query with the given identifier only visit values with a key greater than lastKey. Only available for
+	 * keyset pagination and has to be called before the first call to {@link #next()}
+	 */
+	public void skipTo(String identifier, long lastKey) {
+		if ( !this.keysetPagination ) {
+			throw new IllegalStateException( "skipTo is only available with keyset pagination" );
+		}
+		if ( this.initialized ) {
+			throw new IllegalStateException( "skipTo has to be called before next()" );
+		}
+		for ( Cursor cursor : this.cursors ) {
+			if ( cursor.identifier.equals( identifier ) ) {
+				cursor.lastKey = lastKey;
+				return;
+			}
+		}
+		throw new IllegalArgumentException( "unknown identifier: " + identifier );
 	}
 
 	/**
@@ -81,67 +151,163 @@ public class MultiQueryAccess {
 	 * @return true if there is a value left to be visited in the database
 	 */
 	public boolean next() {
-		this.scheduled = null;
-		this.identifier = null;
-		List<ObjectIdentifierWrapper> tmp = new ArrayList<>( this.queryMap.size() );
-		for ( Map.Entry<String, Query> entry : this.queryMap.entrySet() ) {
-			String identifier = entry.getKey();
-			Query query = entry.getValue();
-			if ( !this.currentCountMap.get( identifier ).equals( 0L ) ) {
-				if ( this.values.get( identifier ).size() == 0 ) {
-					// the last batch is empty. get a new one
-					Long processed = this.currentPosition.get( identifier );
-					// yay JPA...
-					query.setFirstResult( toInt( processed ) );
-					query.setMaxResults( this.batchSize );
-					@SuppressWarnings("unchecked")
-					List<Object> list = query.getResultList();
-					this.values.get( identifier ).addAll( list );
+		if ( !this.initialized ) {
+			for ( Cursor cursor : this.cursors ) {
+				if ( cursor.hasNext() ) {
+					this.heap.add( cursor );
 				}
-				Object val = this.values.get( identifier ).getFirst();
-				tmp.add( new ObjectIdentifierWrapper( val, identifier ) );
-			}
-		}
-		tmp.sort( this.comparator );
-		if ( tmp.size() > 0 ) {
-			ObjectIdentifierWrapper arr = tmp.get( 0 );
-			this.scheduled = arr.object;
-			this.identifier = arr.identifier;
-			this.values.get( this.identifier ).pop();
-			Long currentPosition = this.currentPosition.get( arr.identifier );
-			Long newCurrentPosition = this.currentPosition.computeIfPresent( arr.identifier, (clazz, old) -> old + 1 );
-			if ( Math.abs( newCurrentPosition - currentPosition ) != 1L ) {
-				throw new AssertionFailure( "the new currentPosition count should be exactly 1 " + "greater than the old one" );
-			}
-			Long count = this.currentCountMap.get( arr.identifier );
-			Long newCount = this.currentCountMap.computeIfPresent(
-					arr.identifier, (clazz, old) -> old - 1
-			);
-			if ( Math.abs( count - newCount ) != 1L ) {
-				throw new AssertionFailure( "the new old remaining count should be exactly 1 " + "greater than the new one" );
-			}
-		}
-		return this.scheduled != null;
+			}
+			this.initialized = true;
+		}
+		else if ( this.current != null ) {
+			// the current cursor has been visited, put it back
+			// if there is anything left in it
+			Cursor cursor = this.current;
+			cursor.advance();
+			if ( cursor.hasNext() ) {
+				this.heap.add( cursor );
+			}
+		}
+		this.current = this.heap.poll();
+		return this.current != null;
 	}
 
 	/**
 	 * @return the current value
 	 */
 	public Object get() {
-		if ( this.scheduled == null ) {
+		if ( this.current == null ) {
 			throw new IllegalStateException( "either empty or next() has not been called" );
 		}
-		return this.scheduled;
+		return this.current.head();
 	}
 
 	/**
 	 * @return the identifier of the current value
 	 */
 	public String identifier() {
-		if ( this.identifier == null ) {
+		if ( this.current == null ) {
 			throw new IllegalStateException( "either empty or next() has not been called" );
 		}
-		return this.identifier;
+		return this.current.identifier;
+	}
+
+	private int compare(Cursor first, Cursor second) {
+		if ( this.keyFunction != null ) {
+			int res = Long.compare( first.headKey(), second.headKey() );
+			if ( res != 0 || this.comparator == null ) {
+				return res;
+			}
+		}
+		return this.comparator.compare( first.headWrapper(), second.headWrapper() );
+	}
+
+	/**
+	 * the batch of values we currently hold for one query. the keys are computed once per batch so the heap only has
+	 * to compare primitives
+	 */
+	private final class Cursor {
+
+		private final String identifier;
+		private final Query query;
+
+		private long remaining;
+		private long position = 0;
+		private long lastKey = Long.MIN_VALUE;
+
+		private Object[] values = new Object[0];
+		private long[] keys = new long[0];
+		private int index = 0;
+		private int size = 0;
+
+		// only used if we have to go through the comparator
+		private ObjectIdentifierWrapper wrapper;
+
+		private Cursor(String identifier, Query query, long remaining) {
+			this.identifier = identifier;
+			this.query = query;
+			this.remaining = remaining;
+		}
+
+		private boolean hasNext() {
+			if ( this.remaining <= 0 ) {
+				return false;
+			}
+			if ( this.index < this.size ) {
+				return true;
+			}
+			this.fill();
+			return this.index < this.size;
+		}
+
+		private void fill() {
+			// the last batch is empty. get a new one
+			if ( MultiQueryAccess.this.keysetPagination ) {
+				this.query.setParameter( 1, this.lastKey );
+			}
+			else {
+				// yay JPA...
+				this.query.setFirstResult( toInt( this.position ) );
+			}
+			this.query.setMaxResults( MultiQueryAccess.this.batchSize );
+			@SuppressWarnings("unchecked")
+			List<Object> list = this.query.getResultList();
+			this.index = 0;
+			this.size = list.size();
+			this.wrapper = null;
+			if ( this.size < MultiQueryAccess.this.batchSize ) {
+				// either the rows we counted are gone (or were never there)
+				// or this is the last batch, so there is nothing left for this query
+				// after this
+				this.remaining = Math.min( this.remaining, this.size );
+			}
+			if ( this.size == 0 ) {
+				return;
+			}
+			if ( this.values.length < this.size ) {
+				this.values = new Object[this.size];
+				this.keys = new long[this.size];
+			}
+			list.toArray( this.values );
+			if ( MultiQueryAccess.this.keyFunction != null ) {
+				for ( int i = 0; i < this.size; ++i ) {
+					this.keys[i] = MultiQueryAccess.this.keyFunction.applyAsLong( this.values[i] );
+				}
+			}
+		}
+
+		private void advance() {
+			if ( this.index >= this.size ) {
+				throw new AssertionFailure( "advance() was called on an empty batch" );
+			}
+			if ( MultiQueryAccess.this.keyFunction != null ) {
+				this.lastKey = this.keys[this.index];
+			}
+			this.values[this.index++] = null;
+			this.wrapper = null;
+			++this.position;
+			--this.remaining;
+		}
+
+		private Object head() {
+			return this.values[this.index];
+		}
+
+		private long headKey() {
+			return this.keys[this.index];
+		}
+
+		private ObjectIdentifierWrapper headWrapper() {
+			if ( this.wrapper == null ) {
+				this.wrapper = new ObjectIdentifierWrapper( this.head(), this.identifier );
+			}
+			return this.wrapper;
+		}
+
+	}
+
+	private static int toInt(long l) {
+		return (int) l;
 	}
 
 	public static class ObjectIdentifierWrapper {
@@ -10,6 +10,7 @@ import javax.persistence.EntityManager;
 import java.io.Serializable;
 
 import org.hibernate.search.SearchFactory;
+import org.hibernate.search.genericjpa.batchindexing.IndexVerifier;
 import org.hibernate.search.genericjpa.batchindexing.MassIndexer;
 
 /**
@@ -142,4 +143,27 @@ public interface FullTextEntityManager extends EntityManager {
 	 */
 	MassIndexer createIndexer(Class<?>... types);
 
+	/**
+	 * Creates a MassIndexer that rebuilds the indexes of some or all indexed entity types into shadow indexes while
+	 * searches keep hitting the live ones. Updates coming from the AsyncUpdateSource are applied to both while it is
+	 * running. After it finished successfully the contents of the shadow indexes are swapped into the live indexes
+	 * atomically. Instances cannot be reused and cannot be checkpointed or resumed. Not available with a synchronized
+	 * update source.
+	 *
+	 * @param types optionally restrict the operation to selected types
+	 *
+	 * @return a new MassIndexer
+	 */
+	MassIndexer createShadowIndexer(Class<?>... types);
+
+	/**
+	 * Creates an IndexVerifier that compares the ids in the indexes of some or all indexed entity types with the ids in
+	 * the database and optionally repairs the differences. Instances can be reused.
+	 *
+	 * @param types optionally restrict the operation to selected types
+	 *
+	 * @return a new IndexVerifier
+	 */
+	IndexVerifier createIndexVerifier(Class<?>... types);
+
 }
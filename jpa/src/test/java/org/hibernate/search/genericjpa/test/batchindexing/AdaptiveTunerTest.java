@@ -0,0 +1,63 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.test.batchindexing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.search.genericjpa.batchindexing.impl.AdaptiveTuner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Martin Braun
+ */
+public class AdaptiveTunerTest {
+
+	@Test
+	public void testHeavyBatchesShrink() {
+		AdaptiveTuner tuner = new AdaptiveTuner( Object.class, 10, 1000, 100, 16, 1, 100, TimeUnit.MILLISECONDS );
+		// 20ms per entity, so even the smallest batch is above the target
+		for ( int i = 0; i < 10; ++i ) {
+			int batchSize = tuner.getBatchSize();
+			tuner.batchDone( batchSize, TimeUnit.MILLISECONDS.toNanos( 20 * batchSize ) );
+		}
+		assertEquals( 10, tuner.getBatchSize() );
+		// the in-flight limit is not touched while the batches are too slow
+		assertEquals( 1, tuner.getInflightLimiter().getLimit() );
+	}
+
+	@Test
+	public void testFlatBatchesGrow() {
+		AdaptiveTuner tuner = new AdaptiveTuner( Object.class, 10, 1000, 10, 4, 1, 100, TimeUnit.MILLISECONDS );
+		// 10 microseconds per entity
+		for ( int i = 0; i < 1000; ++i ) {
+			int batchSize = tuner.getBatchSize();
+			tuner.batchDone( batchSize, TimeUnit.MICROSECONDS.toNanos( 10 * batchSize ) );
+		}
+		assertEquals( 1000, tuner.getBatchSize() );
+		assertEquals( 4, tuner.getInflightLimiter().getLimit() );
+	}
+
+	@Test
+	public void testSaturation() {
+		AdaptiveTuner tuner = new AdaptiveTuner( Object.class, 100, 100, 100, 16, 8, 1000, TimeUnit.MILLISECONDS );
+		// fast enough: one window of 8 batches, the limit goes up
+		for ( int i = 0; i < 8; ++i ) {
+			tuner.batchDone( 100, TimeUnit.MILLISECONDS.toNanos( 100 ) );
+		}
+		assertEquals( 9, tuner.getInflightLimiter().getLimit() );
+		// twice as slow per entity with more batches in flight, the limit is halved
+		for ( int i = 0; i < 9; ++i ) {
+			tuner.batchDone( 100, TimeUnit.MILLISECONDS.toNanos( 200 ) );
+		}
+		assertEquals( 4, tuner.getInflightLimiter().getLimit() );
+		assertEquals( 100, tuner.getBatchSize() );
+	}
+
+}
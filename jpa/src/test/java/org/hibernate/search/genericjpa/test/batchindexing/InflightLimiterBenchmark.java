@@ -0,0 +1,152 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.test.batchindexing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hibernate.search.genericjpa.batchindexing.impl.InflightLimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * compares the {@link InflightLimiter} with the lock based NumberCondition it replaced. Every operation is the
+ * bookkeeping the MassIndexer does for one ObjectHandlerTask: a permit for the task is taken when it is submitted, the
+ * ids of its batch are counted up by the IdProducer and down again once the documents are built and finally the permit
+ * is given back. 32 threads do this concurrently like 32 object loading threads would.
+ * <br>
+ * <br>
+ * run the main method with the test classpath (JMH needs --add-opens java.base/java.io=ALL-UNNAMED on Java 9+)
+ *
+ * @author Martin Braun
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(InflightLimiterBenchmark.THREADS_TO_LOAD_OBJECTS)
+@Fork(1)
+public class InflightLimiterBenchmark {
+
+	static final int THREADS_TO_LOAD_OBJECTS = 32;
+
+	@Param({"10", "100"})
+	public int batchSize;
+
+	private LegacyNumberCondition legacyTaskCondition;
+	private LegacyNumberCondition legacyFinishCondition;
+
+	private InflightLimiter taskLimiter;
+	private InflightLimiter inflightIds;
+
+	@Setup
+	public void setup() {
+		// the same limit the MassIndexer uses
+		this.legacyTaskCondition = new LegacyNumberCondition( THREADS_TO_LOAD_OBJECTS * 4, 0, true );
+		this.legacyFinishCondition = new LegacyNumberCondition( 0, 0, false );
+		this.taskLimiter = InflightLimiter.bounded( THREADS_TO_LOAD_OBJECTS * 4 );
+		this.inflightIds = InflightLimiter.unbounded();
+	}
+
+	@Benchmark
+	public void numberCondition() throws InterruptedException {
+		this.legacyFinishCondition.up( this.batchSize );
+		this.legacyTaskCondition.check();
+		this.legacyTaskCondition.up( 1 );
+		this.legacyFinishCondition.down( this.batchSize );
+		this.legacyTaskCondition.down( 1 );
+	}
+
+	@Benchmark
+	public void inflightLimiter() throws InterruptedException {
+		this.inflightIds.acquire( this.batchSize );
+		this.taskLimiter.acquire( 1 );
+		this.inflightIds.release( this.batchSize );
+		this.taskLimiter.release( 1 );
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner( new OptionsBuilder().include( InflightLimiterBenchmark.class.getSimpleName() ).build() ).run();
+	}
+
+	/**
+	 * copy of the NumberCondition the MassIndexer used before the InflightLimiter (used as a baseline)
+	 */
+	private static final class LegacyNumberCondition {
+
+		private final Lock lock = new ReentrantLock();
+		private final Condition condition = this.lock.newCondition();
+
+		private final int lockCount;
+		private int count;
+
+		private boolean disable;
+		private boolean initialSetupDone;
+
+		private LegacyNumberCondition(int lockCount, int count, boolean initialSetupDone) {
+			this.lockCount = lockCount;
+			this.count = count;
+			this.initialSetupDone = initialSetupDone;
+		}
+
+		private void up(int count) {
+			this.lock.lock();
+			try {
+				this.count += count;
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+
+		private void down(int down) {
+			this.lock.lock();
+			try {
+				while ( --down >= 0 ) {
+					if ( --this.count <= this.lockCount ) {
+						this.condition.signalAll();
+					}
+				}
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+
+		private void check() throws InterruptedException {
+			this.lock.lock();
+			try {
+				while ( (!this.initialSetupDone || this.count > this.lockCount) && !this.disable && !Thread.currentThread()
+						.isInterrupted() ) {
+					this.condition.await();
+				}
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+
+	}
+
+}
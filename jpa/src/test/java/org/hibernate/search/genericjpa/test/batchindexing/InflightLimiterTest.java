@@ -0,0 +1,167 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.test.batchindexing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.hibernate.search.genericjpa.batchindexing.impl.InflightLimiter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Martin Braun
+ */
+public class InflightLimiterTest {
+
+	@Test
+	public void testFinish() throws InterruptedException {
+		InflightLimiter limiter = InflightLimiter.unbounded();
+		limiter.acquire( 10 );
+		limiter.release( 10 );
+		// still producing
+		assertFalse( limiter.isFinished() );
+
+		limiter.acquire( 5 );
+		limiter.finishProducing();
+		assertFalse( limiter.isFinished() );
+		assertEquals( 5, limiter.inflight() );
+
+		limiter.release( 3 );
+		assertFalse( limiter.awaitFinish( 1, TimeUnit.MILLISECONDS ) );
+		limiter.release( 2 );
+		assertTrue( limiter.awaitFinish( 1, TimeUnit.MILLISECONDS ) );
+	}
+
+	@Test
+	public void testFinishWithoutWork() {
+		InflightLimiter limiter = InflightLimiter.unbounded();
+		limiter.finishProducing();
+		assertTrue( limiter.isFinished() );
+	}
+
+	@Test
+	public void testBounded() throws Exception {
+		InflightLimiter limiter = InflightLimiter.bounded( 2 );
+		limiter.acquire( 2 );
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try {
+			CountDownLatch started = new CountDownLatch( 1 );
+			Future<?> future = exec.submit(
+					() -> {
+						started.countDown();
+						limiter.acquire( 1 );
+						return null;
+					}
+			);
+			started.await();
+			try {
+				future.get( 100, TimeUnit.MILLISECONDS );
+				fail( "acquire should have blocked" );
+			}
+			catch (TimeoutException e) {
+				// expected
+			}
+			limiter.release( 1 );
+			future.get( 10, TimeUnit.SECONDS );
+			assertEquals( 2, limiter.inflight() );
+		}
+		finally {
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testResize() throws Exception {
+		InflightLimiter limiter = InflightLimiter.bounded( 2 );
+		limiter.acquire( 2 );
+		limiter.resize( 1 );
+		assertEquals( 1, limiter.getLimit() );
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> future = exec.submit(
+					() -> {
+						limiter.acquire( 1 );
+						return null;
+					}
+			);
+			// 2 in flight with a limit of 1, one release is not enough
+			limiter.release( 1 );
+			try {
+				future.get( 100, TimeUnit.MILLISECONDS );
+				fail( "acquire should have blocked" );
+			}
+			catch (TimeoutException e) {
+				// expected
+			}
+			limiter.resize( 3 );
+			future.get( 10, TimeUnit.SECONDS );
+			assertEquals( 2, limiter.inflight() );
+		}
+		finally {
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testDisable() throws Exception {
+		InflightLimiter limiter = InflightLimiter.bounded( 1 );
+		limiter.acquire( 1 );
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> future = exec.submit(
+					() -> {
+						limiter.acquire( 1 );
+						return null;
+					}
+			);
+			limiter.disable();
+			future.get( 10, TimeUnit.SECONDS );
+			assertTrue( limiter.isFinished() );
+			// everybody may pass now
+			limiter.acquire( 1 );
+		}
+		finally {
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testConcurrentFinish() throws Exception {
+		InflightLimiter tasks = InflightLimiter.bounded( 8 );
+		InflightLimiter ids = InflightLimiter.unbounded();
+		ExecutorService exec = Executors.newFixedThreadPool( 8 );
+		try {
+			for ( int i = 0; i < 10_000; ++i ) {
+				ids.acquire( 10 );
+				tasks.acquire( 1 );
+				exec.submit(
+						() -> {
+							ids.release( 10 );
+							tasks.release( 1 );
+						}
+				);
+			}
+			ids.finishProducing();
+			assertTrue( ids.awaitFinish( 10, TimeUnit.SECONDS ) );
+			assertEquals( 0, ids.inflight() );
+		}
+		finally {
+			exec.shutdown();
+		}
+	}
+
+}
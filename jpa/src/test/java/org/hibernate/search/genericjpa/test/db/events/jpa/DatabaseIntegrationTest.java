@@ -243,6 +243,10 @@ public abstract class DatabaseIntegrationTest {
 						System.out.println( str );
 						em.createNativeQuery( str ).executeUpdate();
 					}
+					for ( String str : triggerSource.getUpdateTableIndexCreationCode( info ) ) {
+						System.out.println( str );
+						em.createNativeQuery( str ).executeUpdate();
+					}
 
 					for ( String setupCode : triggerSource.getSpecificSetupCode( info ) ) {
 						System.out.println( setupCode );
@@ -426,6 +430,7 @@ public abstract class DatabaseIntegrationTest {
 					1,
 					this.triggerSource.getDelimitedIdentifierToken()
 			);
+			updateSource.setUpdateQuerySource( this.triggerSource.getUpdateQuerySource() );
 			updateSource.setUpdateConsumers(
 					Arrays.asList(
 							new UpdateConsumer() {
@@ -472,6 +477,105 @@ public abstract class DatabaseIntegrationTest {
 		}
 	}
 
+	public void testDeduplicatingUpdateIntegration() throws InterruptedException {
+		EntityManager em = this.emf.createEntityManager();
+		try {
+			EntityTransaction tx = em.getTransaction();
+
+			// every change to the same entity only bumps its row
+			for ( int i = 0; i < 5; ++i ) {
+				tx.begin();
+				em.find( Place.class, this.valinorId ).setName( "Valinor" + i );
+				tx.commit();
+			}
+			tx.begin();
+			assertEquals( 1, this.countUpdates( em, "PlaceUpdatesHsearch", EventType.UPDATE ) );
+			tx.commit();
+
+			tx.begin();
+			Place valinorDb = em.find( Place.class, this.valinorId );
+			Sorcerer randomNewGuy = new Sorcerer();
+			randomNewGuy.setName( "randomNewGuy" );
+			randomNewGuy.setPlace( valinorDb );
+			em.persist( randomNewGuy );
+			valinorDb.getSorcerers().add( randomNewGuy );
+			em.flush();
+			tx.commit();
+
+			tx.begin();
+			randomNewGuy.setPlace( null );
+			valinorDb.getSorcerers().remove( randomNewGuy );
+			tx.commit();
+
+			// the INSERT into the mapping table was replaced by the DELETE
+			tx.begin();
+			assertEquals( 1, this.countUpdates( em, "PlaceSorcererUpdatesHsearch", null ) );
+			assertEquals( 1, this.countUpdates( em, "PlaceSorcererUpdatesHsearch", EventType.DELETE ) );
+			tx.commit();
+
+			List<UpdateConsumer.UpdateEventInfo> updates = new ArrayList<>();
+			JPAUpdateSource updateSource = new JPAUpdateSource(
+					parser.parse( new HashSet<>( Arrays.asList( Place.class, Sorcerer.class ) ) ),
+					emf,
+					null,
+					1,
+					TimeUnit.SECONDS,
+					1,
+					1,
+					this.triggerSource.getDelimitedIdentifierToken()
+			);
+			updateSource.setDeduplicatedUpdateTables( true );
+			updateSource.setUpdateConsumers(
+					Arrays.asList(
+							(List<UpdateConsumer.UpdateEventInfo> updateInfos) -> {
+								synchronized (updates) {
+									updates.addAll( updateInfos );
+								}
+							}
+					)
+			);
+
+			updateSource.start();
+			try {
+				Sleep.sleep(
+						100_000, () -> {
+							tx.begin();
+							try {
+								return this.countUpdates( em, "PlaceUpdatesHsearch", null ) == 0 &&
+										this.countUpdates( em, "PlaceSorcererUpdatesHsearch", null ) == 0;
+							}
+							finally {
+								tx.commit();
+							}
+						},
+						100, ""
+				);
+			}
+			finally {
+				updateSource.stop();
+			}
+			synchronized (updates) {
+				assertEquals(
+						1, updates.stream().filter(
+								info -> info.getEntityClass().equals( Place.class ) && info.getEventType() == EventType.UPDATE
+						).count()
+				);
+			}
+		}
+		finally {
+			em.close();
+		}
+	}
+
+	private int countUpdates(EntityManager em, String updateTableName, Integer eventType) {
+		String token = this.triggerSource.getDelimitedIdentifierToken();
+		String queryString = "SELECT * FROM " + token + updateTableName + token;
+		if ( eventType != null ) {
+			queryString += " WHERE " + token + "eventCase" + token + " = " + eventType;
+		}
+		return em.createNativeQuery( queryString ).getResultList().size();
+	}
+
 	@After
 	public void shutdown() {
 		try {
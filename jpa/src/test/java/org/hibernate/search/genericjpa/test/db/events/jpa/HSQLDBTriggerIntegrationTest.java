@@ -23,4 +23,12 @@ public class HSQLDBTriggerIntegrationTest extends DatabaseIntegrationTest {
 		this.testUpdateIntegration();
 	}
 
+	@Test
+	public void testDeduplicating() throws SQLException, InterruptedException {
+		HSQLDBTriggerSQLStringSource triggerSource = new HSQLDBTriggerSQLStringSource();
+		triggerSource.setDeduplicating( true );
+		this.setupTriggers( triggerSource );
+		this.testDeduplicatingUpdateIntegration();
+	}
+
 }
@@ -11,9 +11,13 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Persistence;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer;
 import org.hibernate.search.genericjpa.db.events.impl.AnnotationEventModelParser;
@@ -30,6 +34,7 @@ import org.hibernate.search.genericjpa.util.Sleep;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Martin Braun
@@ -48,6 +53,125 @@ public class JPAUpdateSourceTest {
 		return JPAUpdateSource.query( updateSource, em );
 	}
 
+	@Test
+	public void testNextTimeOut() {
+		// a full poll: there is probably more, so go again right away
+		assertEquals( 0, JPAUpdateSource.nextTimeOut( 100, 100, 500, 500, 5000 ) );
+		// something but not everything: the normal delay
+		assertEquals( 500, JPAUpdateSource.nextTimeOut( 10, 100, 2000, 500, 5000 ) );
+		// nothing found: double the delay up to the maximum
+		assertEquals( 1000, JPAUpdateSource.nextTimeOut( 0, 100, 500, 500, 5000 ) );
+		assertEquals( 4000, JPAUpdateSource.nextTimeOut( 0, 100, 2000, 500, 5000 ) );
+		assertEquals( 5000, JPAUpdateSource.nextTimeOut( 0, 100, 4000, 500, 5000 ) );
+		// an empty poll after a full one starts at the normal delay again
+		assertEquals( 500, JPAUpdateSource.nextTimeOut( 0, 100, 0, 500, 5000 ) );
+		// no backoff configured
+		assertEquals( 500, JPAUpdateSource.nextTimeOut( 0, 100, 500, 500, 500 ) );
+	}
+
+	@Test
+	public void testPipelinedRedelivery() throws InterruptedException {
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory( "EclipseLink_MySQL" );
+		try {
+			EventModelParser parser = new AnnotationEventModelParser();
+			MySQLTriggerSQLStringSource triggerSource = new MySQLTriggerSQLStringSource();
+			List<EventModelInfo> infos = parser.parse( new HashSet<>( Arrays.asList( Place.class, Sorcerer.class ) ) );
+			EntityManager em = null;
+			try {
+				em = emf.createEntityManager();
+				EntityTransaction tx = em.getTransaction();
+				tx.begin();
+				for ( EventModelInfo info : infos ) {
+					for ( String str : triggerSource.getUpdateTableDropCode( info ) ) {
+						em.createNativeQuery( str ).executeUpdate();
+					}
+					for ( String str : triggerSource.getUpdateTableCreationCode( info ) ) {
+						em.createNativeQuery( str ).executeUpdate();
+					}
+				}
+				tx.commit();
+
+				tx.begin();
+				for ( int i = 1; i <= 10; ++i ) {
+					em.createNativeQuery(
+							String.format(
+									"INSERT INTO PlaceSorcererUpdatesHsearch(updateid, eventCase, placefk, sorcererfk) VALUES (%s, %s, %s, %s)",
+									i,
+									String.valueOf( EventType.INSERT ),
+									i,
+									100 + i
+							)
+					).executeUpdate();
+				}
+				tx.commit();
+			}
+			finally {
+				if ( em != null ) {
+					em.close();
+				}
+			}
+
+			JPAUpdateSource updateSource = new JPAUpdateSource(
+					infos,
+					emf,
+					null,
+					100,
+					TimeUnit.MILLISECONDS,
+					2,
+					2,
+					triggerSource.getDelimitedIdentifierToken()
+			);
+			updateSource.setPipelined( true );
+			updateSource.setPipelineQueueSize( 2 );
+			AtomicBoolean failed = new AtomicBoolean( false );
+			Set<Object> placeIds = Collections.newSetFromMap( new ConcurrentHashMap<>() );
+			updateSource.setUpdateConsumers(
+					Collections.singletonList(
+							(updateInfos) -> {
+								// the first batch fails, it and everything after it has to be delivered again
+								if ( failed.compareAndSet( false, true ) ) {
+									throw new RuntimeException( "failing on purpose" );
+								}
+								for ( UpdateConsumer.UpdateEventInfo updateInfo : updateInfos ) {
+									if ( Place.class.equals( updateInfo.getEntityClass() ) ) {
+										placeIds.add( updateInfo.getId() );
+									}
+								}
+							}
+					)
+			);
+			updateSource.start();
+			try {
+				Sleep.sleep(
+						1000 * 100, () -> placeIds.size() == 10 && count( emf ) == 0, 100, ""
+				);
+			}
+			finally {
+				updateSource.stop();
+			}
+			assertTrue( failed.get() );
+			assertEquals( 10, placeIds.size() );
+			assertEquals(
+					"the pipeline should delete everything after it has been indexed",
+					0,
+					count( emf )
+			);
+		}
+		finally {
+			emf.close();
+		}
+	}
+
+	private static int count(EntityManagerFactory emf) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			return em.createNativeQuery( "SELECT * FROM PlaceSorcererUpdatesHsearch" ).getResultList().size();
+		}
+		finally {
+			em.close();
+		}
+	}
+
 	@Test
 	public void test() throws InterruptedException {
 		EntityManagerFactory emf = Persistence.createEntityManagerFactory( "EclipseLink_MySQL" );
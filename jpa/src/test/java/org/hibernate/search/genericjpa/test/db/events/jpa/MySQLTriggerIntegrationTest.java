@@ -9,6 +9,7 @@ package org.hibernate.search.genericjpa.test.db.events.jpa;
 import java.sql.SQLException;
 
 import org.hibernate.search.genericjpa.db.events.triggers.MySQLTriggerSQLStringSource;
+import org.hibernate.search.genericjpa.db.events.triggers.MySQLUUIDShortTriggerSQLStringSource;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -29,4 +30,18 @@ public class MySQLTriggerIntegrationTest extends DatabaseIntegrationTest {
 		this.testUpdateIntegration();
 	}
 
+	@Test
+	public void testDeduplicating() throws SQLException, InterruptedException {
+		MySQLTriggerSQLStringSource triggerSource = new MySQLTriggerSQLStringSource();
+		triggerSource.setDeduplicating( true );
+		this.setupTriggers( triggerSource );
+		this.testDeduplicatingUpdateIntegration();
+	}
+
+	@Test
+	public void testUUIDShort() throws SQLException, InterruptedException {
+		this.setupTriggers( new MySQLUUIDShortTriggerSQLStringSource() );
+		this.testUpdateIntegration();
+	}
+
 }
@@ -0,0 +1,220 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.test.db.events.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.hibernate.search.genericjpa.db.EventType;
+import org.hibernate.search.genericjpa.db.events.impl.AnnotationEventModelParser;
+import org.hibernate.search.genericjpa.db.events.impl.EventModelInfo;
+import org.hibernate.search.genericjpa.db.events.triggers.MySQLTriggerSQLStringSource;
+import org.hibernate.search.genericjpa.db.events.triggers.MySQLUUIDShortTriggerSQLStringSource;
+import org.hibernate.search.genericjpa.db.events.triggers.TriggerSQLStringSource;
+import org.hibernate.search.genericjpa.test.jpa.entities.Place;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * measures the trigger overhead per committed row on MySQL for the different ways of generating the update ids.
+ * "none" runs without any triggers and is the baseline. Every thread updates its own rows, so the threads only
+ * contend on whatever the triggers share.
+ * <br>
+ * <br>
+ * needs the MySQL database from the EclipseLink_MySQL persistence unit. run the main method with the test classpath
+ * (JMH needs --add-opens java.base/java.io=ALL-UNNAMED on Java 9+)
+ *
+ * @author Martin Braun
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class MySQLTriggerOverheadBenchmark {
+
+	private static final Logger LOGGER = Logger.getLogger( MySQLTriggerOverheadBenchmark.class.getName() );
+
+	private static final int ROWS_PER_TRANSACTION = 100;
+	private static final int MAX_THREADS = 64;
+	// out of the way of the ids the tests use
+	private static final int FIRST_ID = 1_000_000;
+
+	@Param({"none", "procedure", "uuidShort"})
+	public String idScheme;
+
+	private EntityManagerFactory emf;
+	private EventModelInfo placeInfo;
+	private TriggerSQLStringSource triggerSource;
+	private final AtomicInteger threadCount = new AtomicInteger();
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		private EntityManager em;
+		private int firstId;
+		private int run;
+
+		@Setup
+		public void setup(MySQLTriggerOverheadBenchmark benchmark) {
+			this.em = benchmark.emf.createEntityManager();
+			this.firstId = FIRST_ID + benchmark.threadCount.getAndIncrement() * ROWS_PER_TRANSACTION;
+		}
+
+		@TearDown
+		public void tearDown() {
+			this.em.close();
+		}
+
+	}
+
+	@Setup
+	public void setup() {
+		this.emf = Persistence.createEntityManagerFactory( "EclipseLink_MySQL" );
+		this.placeInfo = new AnnotationEventModelParser().parse( new HashSet<>( Arrays.asList( Place.class ) ) )
+				.get( 0 );
+		switch ( this.idScheme ) {
+			case "none":
+				this.triggerSource = null;
+				break;
+			case "procedure":
+				this.triggerSource = new MySQLTriggerSQLStringSource();
+				break;
+			case "uuidShort":
+				this.triggerSource = new MySQLUUIDShortTriggerSQLStringSource();
+				break;
+			default:
+				throw new IllegalArgumentException( "unknown idScheme: " + this.idScheme );
+		}
+		EntityManager em = this.emf.createEntityManager();
+		try {
+			EntityTransaction tx = em.getTransaction();
+			tx.begin();
+			MySQLTriggerSQLStringSource cleanup = new MySQLTriggerSQLStringSource();
+			for ( int eventType : EventType.values() ) {
+				this.execute( em, cleanup.getTriggerDropCode( this.placeInfo, eventType ) );
+			}
+			this.execute( em, cleanup.getSpecificUnSetupCode( this.placeInfo ) );
+			this.execute( em, cleanup.getUpdateTableDropCode( this.placeInfo ) );
+			this.execute( em, cleanup.getUnSetupCode() );
+			if ( this.triggerSource != null ) {
+				this.execute( em, this.triggerSource.getSetupCode() );
+				this.execute( em, this.triggerSource.getUpdateTableCreationCode( this.placeInfo ) );
+				this.execute( em, this.triggerSource.getUpdateTableIndexCreationCode( this.placeInfo ) );
+				this.execute( em, this.triggerSource.getSpecificSetupCode( this.placeInfo ) );
+				this.execute( em, this.triggerSource.getTriggerCreationCode( this.placeInfo, EventType.UPDATE ) );
+			}
+			em.createNativeQuery( "DELETE FROM PLACE WHERE ID >= " + FIRST_ID ).executeUpdate();
+			for ( int id = FIRST_ID; id < FIRST_ID + MAX_THREADS * ROWS_PER_TRANSACTION; ++id ) {
+				em.createNativeQuery( "INSERT INTO PLACE (ID, COOL, NAME) VALUES (" + id + ", 1, 'benchmark')" )
+						.executeUpdate();
+			}
+			tx.commit();
+		}
+		finally {
+			em.close();
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void clearUpdateTable() {
+		if ( this.triggerSource == null ) {
+			return;
+		}
+		// keep the update table from growing over the iterations
+		EntityManager em = this.emf.createEntityManager();
+		try {
+			EntityTransaction tx = em.getTransaction();
+			tx.begin();
+			em.createNativeQuery( "DELETE FROM `" + this.placeInfo.getUpdateTableName() + "`" ).executeUpdate();
+			tx.commit();
+		}
+		finally {
+			em.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		EntityManager em = this.emf.createEntityManager();
+		try {
+			EntityTransaction tx = em.getTransaction();
+			tx.begin();
+			if ( this.triggerSource != null ) {
+				for ( int eventType : EventType.values() ) {
+					this.execute( em, this.triggerSource.getTriggerDropCode( this.placeInfo, eventType ) );
+				}
+				this.execute( em, this.triggerSource.getSpecificUnSetupCode( this.placeInfo ) );
+				this.execute( em, this.triggerSource.getUpdateTableDropCode( this.placeInfo ) );
+				this.execute( em, this.triggerSource.getUnSetupCode() );
+			}
+			em.createNativeQuery( "DELETE FROM PLACE WHERE ID >= " + FIRST_ID ).executeUpdate();
+			tx.commit();
+		}
+		finally {
+			em.close();
+			this.emf.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS_PER_TRANSACTION)
+	public int updateCommittedRows(ThreadState state) {
+		EntityTransaction tx = state.em.getTransaction();
+		tx.begin();
+		int updated = state.em.createNativeQuery(
+				"UPDATE PLACE SET NAME = 'benchmark" + (state.run++) + "' WHERE ID >= " + state.firstId +
+						" AND ID < " + (state.firstId + ROWS_PER_TRANSACTION)
+		).executeUpdate();
+		tx.commit();
+		return updated;
+	}
+
+	private void execute(EntityManager em, String[] statements) {
+		for ( String statement : statements ) {
+			try {
+				em.createNativeQuery( statement ).executeUpdate();
+			}
+			catch (Exception e) {
+				LOGGER.warning( "couldn't execute " + statement + ": " + e.getMessage() );
+			}
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(
+				new OptionsBuilder().include( MySQLTriggerOverheadBenchmark.class.getSimpleName() ).build()
+		).run();
+	}
+
+}
@@ -8,6 +8,7 @@ package org.hibernate.search.genericjpa.test.db.events.jpa;
 
 import java.sql.SQLException;
 
+import org.hibernate.search.genericjpa.db.events.triggers.PostgreSQLStatementTriggerSQLStringSource;
 import org.hibernate.search.genericjpa.db.events.triggers.PostgreSQLTriggerSQLStringSource;
 
 import org.junit.Before;
@@ -29,4 +30,26 @@ public class PostgreSQLTriggerIntegrationTest extends DatabaseIntegrationTest {
 		this.testUpdateIntegration();
 	}
 
+	@Test
+	public void testDeduplicating() throws SQLException, InterruptedException {
+		PostgreSQLTriggerSQLStringSource triggerSource = new PostgreSQLTriggerSQLStringSource();
+		triggerSource.setDeduplicating( true );
+		this.setupTriggers( triggerSource );
+		this.testDeduplicatingUpdateIntegration();
+	}
+
+	@Test
+	public void testStatementLevelTriggers() throws SQLException, InterruptedException {
+		this.setupTriggers( new PostgreSQLStatementTriggerSQLStringSource() );
+		this.testUpdateIntegration();
+	}
+
+	@Test
+	public void testStatementLevelTriggersDeduplicating() throws SQLException, InterruptedException {
+		PostgreSQLTriggerSQLStringSource triggerSource = new PostgreSQLStatementTriggerSQLStringSource();
+		triggerSource.setDeduplicating( true );
+		this.setupTriggers( triggerSource );
+		this.testDeduplicatingUpdateIntegration();
+	}
+
 }
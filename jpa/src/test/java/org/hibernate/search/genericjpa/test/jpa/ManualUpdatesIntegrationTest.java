@@ -11,6 +11,9 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Persistence;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -20,6 +23,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
@@ -31,7 +37,14 @@ import org.hibernate.search.backend.impl.batch.DefaultBatchBackend;
 import org.hibernate.search.backend.spi.BatchBackend;
 import org.hibernate.search.genericjpa.Constants;
 import org.hibernate.search.genericjpa.Setup;
+import org.hibernate.search.genericjpa.batchindexing.IndexVerificationResult;
+import org.hibernate.search.genericjpa.batchindexing.IndexVerifier;
+import org.hibernate.search.genericjpa.batchindexing.MassIndexer;
+import org.hibernate.search.genericjpa.batchindexing.MassIndexerMetrics;
+import org.hibernate.search.genericjpa.batchindexing.MassIndexerProgressMonitor;
 import org.hibernate.search.genericjpa.batchindexing.impl.IdProducerTask;
+import org.hibernate.search.genericjpa.batchindexing.impl.MassIndexerCheckpoint;
+import org.hibernate.search.genericjpa.batchindexing.impl.LongIdBatch;
 import org.hibernate.search.genericjpa.batchindexing.impl.ObjectHandlerTask;
 import org.hibernate.search.genericjpa.db.EventType;
 import org.hibernate.search.genericjpa.db.events.UpdateConsumer;
@@ -39,8 +52,11 @@ import org.hibernate.search.genericjpa.db.events.triggers.TriggerSQLStringSource
 import org.hibernate.search.genericjpa.entity.EntityProvider;
 import org.hibernate.search.genericjpa.entity.impl.BasicEntityProvider;
 import org.hibernate.search.genericjpa.exception.SearchException;
+import org.hibernate.search.genericjpa.factory.StandaloneSearchConfiguration;
 import org.hibernate.search.genericjpa.factory.StandaloneSearchFactory;
 import org.hibernate.search.genericjpa.impl.JPASearchFactoryAdapter;
+import org.hibernate.search.genericjpa.metadata.impl.MetadataRehasher;
+import org.hibernate.search.genericjpa.metadata.impl.MetadataUtil;
 import org.hibernate.search.genericjpa.test.db.events.jpa.MetaModelParser;
 import org.hibernate.search.genericjpa.test.jpa.entities.NonJPAEntity;
 import org.hibernate.search.genericjpa.test.jpa.entities.Place;
@@ -58,8 +74,10 @@ import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public abstract class ManualUpdatesIntegrationTest {
@@ -128,6 +146,27 @@ public abstract class ManualUpdatesIntegrationTest {
 		idProducer.run();
 	}
 
+	@Test
+	public void testIdProducerTaskRange() {
+		assertEquals( Collections.singletonList( "Helm's Deep" ), this.namesInRange( null, this.valinorId ) );
+		assertEquals( Collections.singletonList( "Valinor" ), this.namesInRange( this.valinorId, null ) );
+		assertEquals( Arrays.asList( "Helm's Deep", "Valinor" ), this.namesInRange( null, null ) );
+	}
+
+	private List<String> namesInRange(Integer lowerBound, Integer upperBound) {
+		List<String> names = new ArrayList<>();
+		IdProducerTask idProducer = new IdProducerTask(
+				Place.class, "id", this.emf, null, 1, 1, (batch) -> {
+			for ( UpdateConsumer.UpdateEventInfo updateInfo : batch ) {
+				names.add( this.em.find( Place.class, updateInfo.getId() ).getName() );
+			}
+		}, null, null
+		);
+		idProducer.range( lowerBound, upperBound );
+		idProducer.run();
+		return names;
+	}
+
 	@Test
 	public void testQueryDto() {
 		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
@@ -227,6 +266,72 @@ public abstract class ManualUpdatesIntegrationTest {
 		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultList().size() );
 	}
 
+	@Test
+	public void testObjectHandlerTaskLongIdBatch() {
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		fem.beginSearchTransaction();
+		fem.purgeAll( Place.class );
+		fem.commitSearchTransaction();
+
+		Map<Class<?>, String> idProperties = new HashMap<>();
+		idProperties.put( Place.class, "id" );
+		BatchBackend batchBackend = new DefaultBatchBackend( this.searchFactory.getSearchIntegrator(), null );
+		ObjectHandlerTask handler = new ObjectHandlerTask(
+				batchBackend, Place.class, this.searchFactory.getSearchIntegrator().getIndexBinding( Place.class ),
+				() -> new BasicEntityProvider( this.em, idProperties ), (x, y) -> {
+
+		}, this.emf.getPersistenceUnitUtil()
+		);
+
+		// only the first two ids are part of the batch
+		LongIdBatch batch = new LongIdBatch(
+				Place.class,
+				true,
+				new long[] {this.valinorId, this.helmsDeepId, 1_000_000},
+				2
+		);
+		assertEquals( Arrays.asList( this.valinorId, this.helmsDeepId ), batch.boxed() );
+
+		handler.batch( batch );
+		handler.run();
+
+		batchBackend.flush( new HashSet<>( Arrays.asList( Place.class ) ) );
+
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultList().size() );
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testEntityGraphForEmbeddedPaths() {
+		Map<Class<?>, List<String>> embeddedPropertyPaths = MetadataUtil.calculateEmbeddedPropertyPaths(
+				Collections.singletonList(
+						new MetadataRehasher().rehash(
+								MetadataUtil.getDummyMetadataProvider( new StandaloneSearchConfiguration() )
+										.getTypeMetadataFor( Place.class )
+						)
+				)
+		);
+		assertTrue( embeddedPropertyPaths.get( Place.class ).contains( "sorcerers" ) );
+
+		Map<Class<?>, String> idProperties = new HashMap<>();
+		idProperties.put( Place.class, "id" );
+		EntityManager em = this.emf.createEntityManager();
+		try {
+			List<Place> places = new BasicEntityProvider( em, idProperties, embeddedPropertyPaths ).getBatch(
+					Place.class,
+					Arrays.asList( this.valinorId, this.helmsDeepId )
+			);
+			assertEquals( 2, places.size() );
+			for ( Place place : places ) {
+				// the sorcerers were fetched with the places
+				assertTrue( this.emf.getPersistenceUnitUtil().isLoaded( place, "sorcerers" ) );
+			}
+		}
+		finally {
+			em.close();
+		}
+	}
+
 	@Test
 	public void testJPAQueryInterfaces() throws InterruptedException {
 		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
@@ -383,6 +488,284 @@ public abstract class ManualUpdatesIntegrationTest {
 		//this should be sufficient even though we are not checking for index sizes
 	}
 
+	@Test
+	public void testMassIndexerWithSeveralIdThreads() throws InterruptedException {
+		this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+				.threadsToLoadIds( 3 )
+				.batchSizeToLoadIds( 1 )
+				.startAndWait();
+
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+	}
+
+	@Test
+	public void testMassIndexerResume() throws InterruptedException, IOException, ExecutionException {
+		Path checkpointFile = Paths.get( "target", "massindexer-checkpoint.properties" );
+		Files.createDirectories( checkpointFile.getParent() );
+
+		// Helm's Deep has the lower id, so it was indexed before the MassIndexer died
+		MassIndexerCheckpoint checkpoint = new MassIndexerCheckpoint( checkpointFile );
+		MassIndexerCheckpoint.Range range = checkpoint.register( Place.class, null, null );
+		range.indexed( range.produced( this.helmsDeepId ) );
+		checkpoint.write( checkpoint.snapshot() );
+
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		fem.beginSearchTransaction();
+		fem.purgeAll( Place.class );
+		// Valinor was indexed as well but the checkpoint wasn't written anymore
+		fem.index( this.em.find( Place.class, this.valinorId ) );
+		fem.commitSearchTransaction();
+
+		this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+				.checkpointFile( checkpointFile )
+				.resume()
+				.get();
+
+		// the index was not purged and Helm's Deep was not indexed again
+		// while Valinor was updated instead of added a second time
+		FullTextQuery ftQuery = fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class );
+		ftQuery.setProjection( "name" );
+		assertEquals( 1, ftQuery.getResultSize() );
+		assertEquals( "Valinor", ((Object[]) ftQuery.getResultList().get( 0 ))[0] );
+		assertFalse( Files.exists( checkpointFile ) );
+	}
+
+	@Test
+	public void testMassIndexerRestricted() throws InterruptedException {
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		fem.beginSearchTransaction();
+		fem.purgeAll( Place.class );
+		fem.index( this.em.find( Place.class, this.helmsDeepId ) );
+		fem.commitSearchTransaction();
+
+		Map<String, Object> parameters = new HashMap<>();
+		// the name of a parameter we bound internally before
+		parameters.put( "last", "Valinor" );
+		this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+				.restrictTo( Place.class, "obj.name = :last", parameters )
+				.startAndWait();
+		// Helm's Deep was not purged
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+
+		try {
+			this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+					.restrictTo( Place.class, "obj.id > :hsearchLastId", Collections.singletonMap( "hsearchLastId", 0 ) );
+			fail( "reserved parameter names should be rejected" );
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// this one is not in the database
+		Place gondolin = new Place();
+		gondolin.setId( 1_000_000 );
+		gondolin.setName( "Gondolin" );
+		fem.beginSearchTransaction();
+		fem.index( gondolin );
+		fem.commitSearchTransaction();
+		assertEquals( 3, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+
+		this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+				.ids( Place.class, Stream.of( this.valinorId, 1_000_000 ) )
+				.startAndWait();
+		FullTextQuery ftQuery = fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class );
+		ftQuery.setProjection( "name" );
+		Set<Object> names = new HashSet<>();
+		for ( Object row : ftQuery.getResultList() ) {
+			names.add( ((Object[]) row)[0] );
+		}
+		assertEquals( new HashSet<>( Arrays.asList( "Valinor", "Helm's Deep" ) ), names );
+		assertEquals( 2, ftQuery.getResultSize() );
+
+		// Long ids for the Integer id of Place must not delete the document they just indexed
+		this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+				.ids( Place.class, Stream.of( (long) this.valinorId ) )
+				.startAndWait();
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+	}
+
+	@Test
+	public void testAdaptiveMassIndexer() throws InterruptedException {
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		fem.beginSearchTransaction();
+		fem.purgeAll( Place.class );
+		fem.commitSearchTransaction();
+
+		this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+				.batchSizeToLoadObjects( 1 )
+				.adaptive( 1, 10, 1000 )
+				.startAndWait();
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+	}
+
+	@Test
+	public void testMassIndexerMetrics() throws InterruptedException {
+		MassIndexer massIndexer = this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+				.batchSizeToLoadObjects( 1 );
+		massIndexer.startAndWait();
+
+		MassIndexerMetrics metrics = massIndexer.metrics();
+		assertEquals( 2, metrics.getTotalCount( Place.class ) );
+		assertEquals( 2, metrics.getStage( MassIndexerMetrics.Stage.ID_FETCH, Place.class ).getCount() );
+		assertEquals( 2, metrics.getStage( MassIndexerMetrics.Stage.ENTITY_LOAD, Place.class ).getCount() );
+		assertEquals( 2, metrics.getStage( MassIndexerMetrics.Stage.ENTITY_LOAD, Place.class ).getBatches() );
+		assertEquals( 2, metrics.getStage( MassIndexerMetrics.Stage.DOCUMENT_BUILD, Place.class ).getCount() );
+		assertEquals( 2, metrics.getStage( MassIndexerMetrics.Stage.BACKEND_ENQUEUE ).getCount() );
+		assertTrue( metrics.getStage( MassIndexerMetrics.Stage.BACKEND_FLUSH ).getBatches() > 0 );
+		assertTrue( metrics.getStage( MassIndexerMetrics.Stage.ENTITY_LOAD ).getMaxLatency( TimeUnit.NANOSECONDS ) > 0 );
+		assertTrue( metrics.getStage( MassIndexerMetrics.Stage.ENTITY_LOAD ).getRatePerSecond() > 0 );
+		assertEquals( 0, metrics.getIdsInFlight( Place.class ) );
+		assertEquals( 0, metrics.getEtaMillis() );
+	}
+
+	@Test
+	public void testShadowMassIndexer() throws InterruptedException {
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		fem.beginSearchTransaction();
+		fem.purgeAll( Place.class );
+		fem.index( this.em.find( Place.class, this.valinorId ) );
+		fem.commitSearchTransaction();
+
+		List<Integer> liveCounts = new ArrayList<>();
+		fem.createShadowIndexer( Place.class ).batchSizeToLoadObjects( 1 ).progressMonitor(
+				new MassIndexerProgressMonitor() {
+
+					@Override
+					public void idsLoaded(Class<?> entityType, int count) {
+
+					}
+
+					@Override
+					public void objectsLoaded(Class<?> entityType, int count) {
+
+					}
+
+					@Override
+					public void documentsBuilt(Class<?> entityType, int count) {
+						synchronized (liveCounts) {
+							liveCounts.add(
+									fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class )
+											.getResultSize()
+							);
+						}
+					}
+
+					@Override
+					public void documentsAdded(int count) {
+
+					}
+
+				}
+		).startAndWait();
+
+		// the live index was not touched until the shadow index was complete
+		assertEquals( Arrays.asList( 1, 1 ), liveCounts );
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+
+		// and we can do that again
+		fem.createShadowIndexer( Place.class ).startAndWait();
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+	}
+
+	@Test
+	public void testShadowMassIndexerNotResumable() throws InterruptedException {
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		// the shadow index is dropped after every run, a resumed run would swap in an incomplete index
+		try {
+			fem.createShadowIndexer( Place.class ).checkpointFile( Paths.get( "target", "shadow-checkpoint.properties" ) );
+			fail( "a shadow MassIndexer must not be checkpointed" );
+		}
+		catch (SearchException e) {
+			// expected
+		}
+		try {
+			fem.createShadowIndexer( Place.class ).resume();
+			fail( "a shadow MassIndexer must not be resumed" );
+		}
+		catch (SearchException e) {
+			// expected
+		}
+		// the rejected ones didn't block the next one
+		fem.createShadowIndexer( Place.class ).startAndWait();
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+	}
+
+	@Test
+	public void testIndexVerifier() {
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		fem.beginSearchTransaction();
+		fem.purgeAll( Place.class );
+		fem.index( this.em.find( Place.class, this.valinorId ) );
+		// this one is not in the database
+		Place gondolin = new Place();
+		gondolin.setId( 1_000_000 );
+		gondolin.setName( "Gondolin" );
+		fem.index( gondolin );
+		fem.commitSearchTransaction();
+
+		List<Object> missing = new ArrayList<>();
+		List<Object> stale = new ArrayList<>();
+		IndexVerificationResult result = fem.createIndexVerifier( Place.class ).batchSize( 1 ).listener(
+				new IndexVerifier.Listener() {
+
+					@Override
+					public void missing(Class<?> entityType, Object id) {
+						missing.add( id );
+					}
+
+					@Override
+					public void stale(Class<?> entityType, Object id) {
+						stale.add( id );
+					}
+
+				}
+		).verify();
+		assertFalse( result.isConsistent() );
+		assertEquals( 1, result.getMissing( Place.class ) );
+		assertEquals( 1, result.getStale( Place.class ) );
+		assertEquals( Collections.singletonList( this.helmsDeepId ), missing );
+		assertEquals( Collections.singletonList( 1_000_000 ), stale );
+		// nothing was changed
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+
+		result = fem.createIndexVerifier( Place.class ).repair( true ).verify();
+		assertEquals( 1, result.getMissing( Place.class ) );
+		assertEquals( 1, result.getStale( Place.class ) );
+
+		assertTrue( fem.createIndexVerifier( Place.class ).verify().isConsistent() );
+		FullTextQuery ftQuery = fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class );
+		ftQuery.setProjection( "name" );
+		Set<Object> names = new HashSet<>();
+		for ( Object row : ftQuery.getResultList() ) {
+			names.add( ((Object[]) row)[0] );
+		}
+		assertEquals( new HashSet<>( Arrays.asList( "Valinor", "Helm's Deep" ) ), names );
+	}
+
+	@Test
+	public void testMassIndexerWithDocumentBuilderThreads() throws InterruptedException {
+		this.searchFactory.createMassIndexer( Collections.singletonList( Place.class ) )
+				.threadsToBuildDocuments( 2 )
+				.batchSizeToLoadObjects( 1 )
+				.startAndWait();
+
+		FullTextEntityManager fem = this.searchFactory.getFullTextEntityManager( this.em );
+		assertEquals( 2, fem.createFullTextQuery( new MatchAllDocsQuery(), Place.class ).getResultSize() );
+		// the sorcerers are lazy and have to be loaded while building the documents
+		assertEquals(
+				1, fem.createFullTextQuery(
+						this.searchFactory.buildQueryBuilder()
+								.forEntity( Place.class )
+								.get()
+								.keyword()
+								.onField( "sorcerers.name" )
+								.matching( "saruman" )
+								.createQuery(), Place.class
+				).getResultSize()
+		);
+	}
+
 	@Test
 	public void testAdditionalIndexedTypeProperty() {
 		searchFactory.getIndexRootTypes().contains( NonJPAEntity.class );
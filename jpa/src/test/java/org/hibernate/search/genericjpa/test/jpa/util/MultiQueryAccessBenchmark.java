@@ -0,0 +1,272 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.test.jpa.util;
+
+import javax.persistence.Query;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.search.genericjpa.jpa.util.impl.MultiQueryAccess;
+import org.hibernate.search.genericjpa.jpa.util.impl.MultiQueryAccess.ObjectIdentifierWrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * compares the heap based merge in {@link MultiQueryAccess} with the old sort-per-event implementation. The queries
+ * are stubbed so only the merge itself is measured.
+ * <br>
+ * <br>
+ * run the main method with the test classpath (JMH needs --add-opens java.base/java.io=ALL-UNNAMED on Java 9+)
+ *
+ * @author Martin Braun
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MultiQueryAccessBenchmark {
+
+	private static final Comparator<ObjectIdentifierWrapper> COMPARATOR = (first, second) -> {
+		int res = Long.compare( id( first.object ), id( second.object ) );
+		if ( res == 0 ) {
+			throw new IllegalStateException( "database contained two update entries with the same id!" );
+		}
+		return res;
+	};
+
+	@Param({"4", "40"})
+	public int tables;
+
+	@Param({"20"})
+	public int batchSize;
+
+	@Param({"100000"})
+	public int events;
+
+	private Map<String, Object[][]> rows;
+
+	@Setup
+	public void setup() {
+		Random random = new Random( 42 );
+		Map<String, List<Object[]>> tmp = new HashMap<>();
+		for ( int i = 0; i < this.tables; ++i ) {
+			tmp.put( "Table" + i, new ArrayList<>() );
+		}
+		// the update ids are unique over all tables (like the ones generated by the triggers)
+		for ( long updateId = 1; updateId <= this.events; ++updateId ) {
+			tmp.get( "Table" + random.nextInt( this.tables ) ).add( new Object[] {updateId, 0, updateId % 1000} );
+		}
+		this.rows = new HashMap<>();
+		for ( Map.Entry<String, List<Object[]>> entry : tmp.entrySet() ) {
+			this.rows.put( entry.getKey(), entry.getValue().toArray( new Object[0][] ) );
+		}
+	}
+
+	@Benchmark
+	public void legacy(Blackhole blackhole) {
+		LegacyMultiQueryAccess access = new LegacyMultiQueryAccess(
+				this.counts(),
+				this.queries( false ),
+				COMPARATOR,
+				this.batchSize
+		);
+		while ( access.next() ) {
+			blackhole.consume( access.get() );
+		}
+	}
+
+	@Benchmark
+	public void heap(Blackhole blackhole) {
+		MultiQueryAccess access = new MultiQueryAccess(
+				this.counts(),
+				this.queries( false ),
+				COMPARATOR,
+				this.batchSize,
+				MultiQueryAccessBenchmark::id,
+				false
+		);
+		while ( access.next() ) {
+			blackhole.consume( access.get() );
+		}
+	}
+
+	@Benchmark
+	public void heapKeyset(Blackhole blackhole) {
+		MultiQueryAccess access = new MultiQueryAccess(
+				this.counts(),
+				this.queries( true ),
+				COMPARATOR,
+				this.batchSize,
+				MultiQueryAccessBenchmark::id
+		);
+		while ( access.next() ) {
+			blackhole.consume( access.get() );
+		}
+	}
+
+	private Map<String, Long> counts() {
+		Map<String, Long> countMap = new HashMap<>();
+		for ( Map.Entry<String, Object[][]> entry : this.rows.entrySet() ) {
+			countMap.put( entry.getKey(), (long) entry.getValue().length );
+		}
+		return countMap;
+	}
+
+	private Map<String, Query> queries(boolean keyset) {
+		Map<String, Query> queryMap = new HashMap<>();
+		for ( Map.Entry<String, Object[][]> entry : this.rows.entrySet() ) {
+			queryMap.put( entry.getKey(), stubQuery( entry.getValue(), keyset ) );
+		}
+		return queryMap;
+	}
+
+	private static long id(Object val) {
+		return ((Number) ((Object[]) val)[0]).longValue();
+	}
+
+	/**
+	 * a Query that pages over the given rows (which have to be sorted by their id)
+	 */
+	private static Query stubQuery(Object[][] rows, boolean keyset) {
+		int[] offsetAndMax = new int[] {0, Integer.MAX_VALUE};
+		return (Query) Proxy.newProxyInstance(
+				MultiQueryAccessBenchmark.class.getClassLoader(), new Class<?>[] {Query.class}, (proxy, method, args) -> {
+					switch ( method.getName() ) {
+						case "setFirstResult":
+							offsetAndMax[0] = (Integer) args[0];
+							return proxy;
+						case "setMaxResults":
+							offsetAndMax[1] = (Integer) args[0];
+							return proxy;
+						case "setParameter": {
+							long lastKey = ((Number) args[1]).longValue();
+							int start = 0;
+							int end = rows.length;
+							while ( start < end ) {
+								int mid = (start + end) >>> 1;
+								if ( id( rows[mid] ) <= lastKey ) {
+									start = mid + 1;
+								}
+								else {
+									end = mid;
+								}
+							}
+							offsetAndMax[0] = start;
+							return proxy;
+						}
+						case "getResultList": {
+							int from = Math.min( offsetAndMax[0], rows.length );
+							int to = (int) Math.min( (long) from + offsetAndMax[1], rows.length );
+							return new ArrayList<Object>( Arrays.asList( rows ).subList( from, to ) );
+						}
+						default:
+							throw new UnsupportedOperationException( method.getName() + " is not stubbed" );
+					}
+				}
+		);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner( new OptionsBuilder().include( MultiQueryAccessBenchmark.class.getSimpleName() ).build() ).run();
+	}
+
+	/**
+	 * copy of the MultiQueryAccess merge as it was before the heap based version (used as a baseline)
+	 */
+	private static final class LegacyMultiQueryAccess {
+
+		private final Map<String, Long> currentCountMap;
+		private final Map<String, Query> queryMap;
+		private final Comparator<ObjectIdentifierWrapper> comparator;
+		private final int batchSize;
+
+		private final Map<String, Long> currentPosition;
+		private final Map<String, LinkedList<Object>> values;
+
+		private Object scheduled;
+		private String identifier;
+
+		private LegacyMultiQueryAccess(
+				Map<String, Long> countMap,
+				Map<String, Query> queryMap,
+				Comparator<ObjectIdentifierWrapper> comparator,
+				int batchSize) {
+			this.currentCountMap = countMap;
+			this.queryMap = queryMap;
+			this.comparator = comparator;
+			this.batchSize = batchSize;
+			this.currentPosition = new HashMap<>();
+			this.values = new HashMap<>();
+			for ( String ident : queryMap.keySet() ) {
+				this.values.put( ident, new LinkedList<>() );
+				this.currentPosition.put( ident, 0L );
+			}
+		}
+
+		private boolean next() {
+			this.scheduled = null;
+			this.identifier = null;
+			List<ObjectIdentifierWrapper> tmp = new ArrayList<>( this.queryMap.size() );
+			for ( Map.Entry<String, Query> entry : this.queryMap.entrySet() ) {
+				String identifier = entry.getKey();
+				Query query = entry.getValue();
+				if ( !this.currentCountMap.get( identifier ).equals( 0L ) ) {
+					if ( this.values.get( identifier ).size() == 0 ) {
+						Long processed = this.currentPosition.get( identifier );
+						query.setFirstResult( (int) (long) processed );
+						query.setMaxResults( this.batchSize );
+						@SuppressWarnings("unchecked")
+						List<Object> list = query.getResultList();
+						this.values.get( identifier ).addAll( list );
+					}
+					Object val = this.values.get( identifier ).getFirst();
+					tmp.add( new ObjectIdentifierWrapper( val, identifier ) );
+				}
+			}
+			tmp.sort( this.comparator );
+			if ( tmp.size() > 0 ) {
+				ObjectIdentifierWrapper arr = tmp.get( 0 );
+				this.scheduled = arr.object;
+				this.identifier = arr.identifier;
+				this.values.get( this.identifier ).pop();
+				this.currentPosition.computeIfPresent( arr.identifier, (clazz, old) -> old + 1 );
+				this.currentCountMap.computeIfPresent( arr.identifier, (clazz, old) -> old - 1 );
+			}
+			return this.scheduled != null;
+		}
+
+		private Object get() {
+			return this.scheduled;
+		}
+
+	}
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Hibernate Search, full-text search for your domain model
+ *
+ * License: GNU Lesser General Public License (LGPL), version 2.1 or later
+ * See the lgpl.txt file in the root directory or <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ */
+package org.hibernate.search.genericjpa.test.jpa.util;
+
+import javax.persistence.Query;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.search.genericjpa.jpa.util.impl.MultiQueryAccess;
+import org.hibernate.search.genericjpa.jpa.util.impl.MultiQueryAccess.ObjectIdentifierWrapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * tests the merge of {@link MultiQueryAccess} with stubbed queries, so no database is needed
+ *
+ * @author Martin Braun
+ */
+public class MultiQueryAccessMergeTest {
+
+	private static final Comparator<ObjectIdentifierWrapper> BY_IDENTIFIER = (first, second) ->
+			first.identifier.compareTo( second.identifier );
+
+	@Test
+	public void testOffsetPaging() {
+		Map<String, Object[][]> rows = new HashMap<>();
+		rows.put( "A", rows( 1, 4, 5, 9 ) );
+		rows.put( "B", rows( 2, 3, 6, 7, 8 ) );
+		MultiQueryAccess access = new MultiQueryAccess(
+				counts( rows, Long.MAX_VALUE ),
+				queries( rows, false ),
+				BY_IDENTIFIER,
+				2,
+				MultiQueryAccessMergeTest::id,
+				false
+		);
+		assertEquals( Arrays.asList( 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L ), this.visit( access ) );
+	}
+
+	@Test
+	public void testKeysetPaging() {
+		Map<String, Object[][]> rows = new HashMap<>();
+		rows.put( "A", rows( 1, 4, 5, 9 ) );
+		rows.put( "B", rows( 2, 3, 6, 7, 8 ) );
+		rows.put( "C", rows() );
+		// the stubs fail if they are paged by offset
+		MultiQueryAccess access = new MultiQueryAccess(
+				counts( rows, Long.MAX_VALUE ),
+				queries( rows, true ),
+				BY_IDENTIFIER,
+				2,
+				MultiQueryAccessMergeTest::id
+		);
+		assertEquals( Arrays.asList( 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L ), this.visit( access ) );
+	}
+
+	@Test
+	public void testTiesAreBrokenByTheComparator() {
+		Map<String, Object[][]> rows = new HashMap<>();
+		rows.put( "B", rows( 1, 2 ) );
+		rows.put( "A", rows( 1, 3 ) );
+		MultiQueryAccess access = new MultiQueryAccess(
+				counts( rows, Long.MAX_VALUE ),
+				queries( rows, true ),
+				BY_IDENTIFIER,
+				1,
+				MultiQueryAccessMergeTest::id
+		);
+		List<String> identifiers = new ArrayList<>();
+		List<Long> ids = new ArrayList<>();
+		while ( access.next() ) {
+			identifiers.add( access.identifier() );
+			ids.add( id( access.get() ) );
+		}
+		assertEquals( Arrays.asList( 1L, 1L, 2L, 3L ), ids );
+		assertEquals( Arrays.asList( "A", "B", "B", "A" ), identifiers );
+	}
+
+	@Test
+	public void testCountIsAnUpperBound() {
+		Map<String, Object[][]> rows = new HashMap<>();
+		rows.put( "A", rows( 1, 2, 3, 4, 5 ) );
+		Map<String, Long> counts = new HashMap<>();
+		// less than there is in the database
+		counts.put( "A", 3L );
+		MultiQueryAccess access = new MultiQueryAccess(
+				counts,
+				queries( rows, true ),
+				BY_IDENTIFIER,
+				2,
+				MultiQueryAccessMergeTest::id
+		);
+		assertEquals( Arrays.asList( 1L, 2L, 3L ), this.visit( access ) );
+
+		// more than there is in the database
+		counts.put( "A", 100L );
+		access = new MultiQueryAccess(
+				counts,
+				queries( rows, true ),
+				BY_IDENTIFIER,
+				2,
+				MultiQueryAccessMergeTest::id
+		);
+		assertEquals( Arrays.asList( 1L, 2L, 3L, 4L, 5L ), this.visit( access ) );
+		assertFalse( access.next() );
+	}
+
+	@Test
+	public void testSkipTo() {
+		Map<String, Object[][]> rows = new HashMap<>();
+		rows.put( "A", rows( 1, 4, 5, 9 ) );
+		rows.put( "B", rows( 2, 3, 6, 7, 8 ) );
+		MultiQueryAccess access = new MultiQueryAccess(
+				counts( rows, Long.MAX_VALUE ),
+				queries( rows, true ),
+				BY_IDENTIFIER,
+				2,
+				MultiQueryAccessMergeTest::id
+		);
+		access.skipTo( "A", 4 );
+		access.skipTo( "B", 6 );
+		assertEquals( Arrays.asList( 5L, 7L, 8L, 9L ), this.visit( access ) );
+		try {
+			access.skipTo( "A", 1 );
+			fail( "skipTo after next() should fail" );
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+
+		access = new MultiQueryAccess(
+				counts( rows, Long.MAX_VALUE ),
+				queries( rows, true ),
+				BY_IDENTIFIER,
+				2,
+				MultiQueryAccessMergeTest::id
+		);
+		try {
+			access.skipTo( "C", 1 );
+			fail( "skipTo for an unknown query should fail" );
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		access = new MultiQueryAccess(
+				counts( rows, Long.MAX_VALUE ),
+				queries( rows, false ),
+				BY_IDENTIFIER,
+				2,
+				MultiQueryAccessMergeTest::id,
+				false
+		);
+		try {
+			access.skipTo( "A", 1 );
+			fail( "skipTo without keyset pagination should fail" );
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private List<Long> visit(MultiQueryAccess access) {
+		List<Long> ret = new ArrayList<>();
+		while ( access.next() ) {
+			ret.add( id( access.get() ) );
+		}
+		return ret;
+	}
+
+	private static Object[][] rows(long... ids) {
+		Object[][] ret = new Object[ids.length][];
+		for ( int i = 0; i < ids.length; ++i ) {
+			ret[i] = new Object[] {ids[i], 0, ids[i] % 10};
+		}
+		return ret;
+	}
+
+	private static Map<String, Long> counts(Map<String, Object[][]> rows, long count) {
+		Map<String, Long> countMap = new HashMap<>();
+		for ( String identifier : rows.keySet() ) {
+			countMap.put( identifier, count );
+		}
+		return countMap;
+	}
+
+	private static Map<String, Query> queries(Map<String, Object[][]> rows, boolean keyset) {
+		Map<String, Query> queryMap = new HashMap<>();
+		for ( Map.Entry<String, Object[][]> entry : rows.entrySet() ) {
+			queryMap.put( entry.getKey(), stubQuery( entry.getValue(), keyset ) );
+		}
+		return queryMap;
+	}
+
+	private static long id(Object val) {
+		return ((Number) ((Object[]) val)[0]).longValue();
+	}
+
+	/**
+	 * a Query that pages over the given rows (which have to be sorted by their id) either by offset or by the last key
+	 * passed as parameter 1
+	 */
+	private static Query stubQuery(Object[][] rows, boolean keyset) {
+		int[] offsetAndMax = new int[] {0, Integer.MAX_VALUE};
+		return (Query) Proxy.newProxyInstance(
+				MultiQueryAccessMergeTest.class.getClassLoader(), new Class<?>[] {Query.class}, (proxy, method, args) -> {
+					switch ( method.getName() ) {
+						case "setFirstResult":
+							if ( keyset ) {
+								throw new AssertionError( "keyset paginated queries must not be paged by offset" );
+							}
+							offsetAndMax[0] = (Integer) args[0];
+							return proxy;
+						case "setMaxResults":
+							offsetAndMax[1] = (Integer) args[0];
+							return proxy;
+						case "setParameter": {
+							if ( !keyset ) {
+								throw new AssertionError( "offset paginated queries have no parameters" );
+							}
+							assertEquals( 1, args[0] );
+							long lastKey = ((Number) args[1]).longValue();
+							int start = 0;
+							while ( start < rows.length && id( rows[start] ) <= lastKey ) {
+								++start;
+							}
+							offsetAndMax[0] = start;
+							return proxy;
+						}
+						case "getResultList": {
+							int from = Math.min( offsetAndMax[0], rows.length );
+							int to = (int) Math.min( (long) from + offsetAndMax[1], rows.length );
+							return new ArrayList<Object>( Arrays.asList( rows ).subList( from, to ) );
+						}
+						default:
+							throw new UnsupportedOperationException( method.getName() + " is not stubbed" );
+					}
+				}
+		);
+	}
+
+}
@@ -40,17 +40,23 @@ public final class MetadataRehasher {
 		}
 
 		for ( EmbeddedTypeMetadata embedded : original.getEmbeddedTypeMetadata() ) {
-			this.rehashRec( embedded, rehashed );
+			this.rehashRec( embedded, rehashed, "" );
 		}
 		return rehashed;
 	}
 
-	private void rehashRec(EmbeddedTypeMetadata original, RehashedTypeMetadata rehashed) {
+	private void rehashRec(EmbeddedTypeMetadata original, RehashedTypeMetadata rehashed, String parentPath) {
 		// handle the current TypeMetadata
 		this.handleTypeMetadata( original, rehashed );
+		String path = parentPath;
+		if ( original.getEmbeddedGetter() != null ) {
+			path = parentPath + original.getEmbeddedGetter().getName();
+			rehashed.embeddedPropertyPaths.add( path );
+			path += ".";
+		}
 		// recursion
 		for ( EmbeddedTypeMetadata embedded : original.getEmbeddedTypeMetadata() ) {
-			this.rehashRec( embedded, rehashed );
+			this.rehashRec( embedded, rehashed, path );
 		}
 	}
 
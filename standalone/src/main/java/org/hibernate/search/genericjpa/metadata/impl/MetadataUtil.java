@@ -85,6 +85,22 @@ public class MetadataUtil {
 		return idProperties;
 	}
 
+	/**
+	 * calculates the paths of the IndexedEmbedded properties for every index-root
+	 *
+	 * @return index-root -&gt; paths relative to the index-root
+	 */
+	public static Map<Class<?>, List<String>> calculateEmbeddedPropertyPaths(List<RehashedTypeMetadata> rehashedTypeMetadatas) {
+		Map<Class<?>, List<String>> embeddedPropertyPaths = new HashMap<>();
+		for ( RehashedTypeMetadata rehashed : rehashedTypeMetadatas ) {
+			embeddedPropertyPaths.put(
+					rehashed.getOriginalTypeMetadata().getType(),
+					rehashed.getEmbeddedPropertyPaths()
+			);
+		}
+		return embeddedPropertyPaths;
+	}
+
 	/**
 	 * calculates the Entity-Classes that are relevant for the indexes represented by the rehashedTypeMetadatas
 	 *
@@ -6,6 +6,7 @@
  */
 package org.hibernate.search.genericjpa.metadata.impl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +49,13 @@ public final class RehashedTypeMetadata {
 
 	Map<String, SingularTermDeletionQuery.Type> singularTermDeletionQueryTypeForIdFieldName = new HashMap<>();
 
+	/**
+	 * this contains the Java Bean property paths (relative to the index-root, separated by dots) of all the
+	 * IndexedEmbedded properties. parents come before their children. This is needed to load everything the document
+	 * is built from in one go
+	 */
+	List<String> embeddedPropertyPaths = new ArrayList<>();
+
 	/**
 	 * @return the originalTypeMetadata
 	 */
@@ -125,4 +133,12 @@ public final class RehashedTypeMetadata {
 	public void setIdPropertyAccessorForType(Map<Class<?>, XProperty> idPropertyAccessorForType) {
 		this.idPropertyAccessorForType = idPropertyAccessorForType;
 	}
+
+	public List<String> getEmbeddedPropertyPaths() {
+		return embeddedPropertyPaths;
+	}
+
+	public void setEmbeddedPropertyPaths(List<String> embeddedPropertyPaths) {
+		this.embeddedPropertyPaths = embeddedPropertyPaths;
+	}
 }